@@ -23,14 +23,11 @@
 package com.dmdirc.parser.common;
 
 import java.io.IOException;
-import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Proxy;
 import java.net.Socket;
 import java.net.URI;
-import java.net.URISyntaxException;
 
 import javax.net.SocketFactory;
 
@@ -49,6 +46,12 @@ public abstract class BaseSocketAwareParser extends BaseParser {
     /** The connection timeout, in milliseconds. */
     private int connectTimeout = 5000;
 
+    /** The resolver used to look up hosts. */
+    private HostResolver hostResolver = HostResolver.getDefault();
+
+    /** The connection race in progress, if any. */
+    private volatile ConnectionRacer connectionRacer;
+
     /**
      * Creates a new base parser for the specified URI.
      *
@@ -69,8 +72,15 @@ public abstract class BaseSocketAwareParser extends BaseParser {
         return localPort;
     }
 
+    @Override
+    public void disconnect(final String message) {
+        cancelConnectionRace();
+        super.disconnect(message);
+    }
+
     @Override
     public void shutdown() {
+        cancelConnectionRace();
         try {
             if (socket != null) {
                 socket.close();
@@ -98,6 +108,25 @@ public abstract class BaseSocketAwareParser extends BaseParser {
         this.connectTimeout = connectTimeout;
     }
 
+    /**
+     * Gets the resolver used to look up hosts.
+     *
+     * @return The host resolver
+     */
+    public HostResolver getHostResolver() {
+        return hostResolver;
+    }
+
+    /**
+     * Sets the resolver used to look up hosts. Parsers share a resolver, and
+     * therefore its cache, by default.
+     *
+     * @param hostResolver The host resolver to use
+     */
+    public void setHostResolver(final HostResolver hostResolver) {
+        this.hostResolver = hostResolver;
+    }
+
     /**
      * Creates a socket factory that can be used by this parser.
      *
@@ -117,6 +146,16 @@ public abstract class BaseSocketAwareParser extends BaseParser {
         this.localPort = socket.getLocalPort();
     }
 
+    /**
+     * Abandons any connection race in progress, closing all of its sockets.
+     */
+    private void cancelConnectionRace() {
+        final ConnectionRacer racer = connectionRacer;
+        if (racer != null) {
+            racer.cancel();
+        }
+    }
+
     /**
      * Allows subclasses to handle socket-related debug messages.
      *
@@ -137,6 +176,21 @@ public abstract class BaseSocketAwareParser extends BaseParser {
      */
     @SuppressWarnings({"resource", "SocketOpenedButNotSafelyClosed"})
     private Socket boundSocket(final InetAddress host, final int port) throws IOException {
+        final Socket socket = createBoundSocket(host);
+        setSocket(socket);
+        socket.connect(new InetSocketAddress(host, port), connectTimeout);
+        return socket;
+    }
+
+    /**
+     * Creates a new unconnected socket bound to the IP address specified by the parser for the
+     * family of the given address.
+     *
+     * @param host The host that will be connected to.
+     * @return A new socket bound appropriately.
+     */
+    @SuppressWarnings({"resource", "SocketOpenedButNotSafelyClosed"})
+    private Socket createBoundSocket(final InetAddress host) {
         final Socket socket = new Socket();
         final String bindIp = host instanceof Inet6Address ? getBindIPv6() : getBindIP();
 
@@ -148,44 +202,25 @@ public abstract class BaseSocketAwareParser extends BaseParser {
                 handleSocketDebug("Binding failed: " + ex.getMessage());
             }
         }
-        setSocket(socket);
-        socket.connect(new InetSocketAddress(host, port), connectTimeout);
         return socket;
     }
 
     /**
-     * Creates a new socket via a proxy.
+     * Creates a new socket via a proxy. Any credentials in the proxy URI are
+     * supplied on this socket only, so proxied connections may be made in
+     * parallel.
      *
-     * @param host The host to connect to.
+     * @param host The host to connect to, which the proxy will resolve if required.
      * @param port The port to connect on.
      * @return A new proxy-using socket.
      */
     @SuppressWarnings({"resource", "SocketOpenedButNotSafelyClosed"})
-    private Socket proxiedSocket(final InetAddress host, final int port) throws IOException {
+    private Socket proxiedSocket(final String host, final int port) throws IOException {
         final URI proxy = getProxy();
-        final Proxy.Type proxyType = Proxy.Type.valueOf(proxy.getScheme().toUpperCase());
-        final String proxyHost = proxy.getHost();
-        final int proxyPort = checkPort(proxy.getPort(), "Proxy");
-
-        final Socket socket = new Socket(
-                new Proxy(proxyType, new InetSocketAddress(proxyHost, proxyPort)));
-
-        try {
-            final ProxyAuthenticator ia = ProxyAuthenticator.getProxyAuthenticator();
-            final URI serverUri = new URI(null, null, host.getHostName(), port,
-                    null, null, null);
-            try {
-                ia.getSemaphore().acquireUninterruptibly();
-                ia.addAuthentication(serverUri, proxy);
-                socket.connect(new InetSocketAddress(host, port), connectTimeout);
-            } finally {
-                ia.removeAuthentication(serverUri, proxy);
-                ia.getSemaphore().release();
-            }
-        } catch (URISyntaxException ex) {
-            // Won't happen.
-        }
+        checkPort(proxy.getPort(), "Proxy");
 
+        final Socket socket = new Socket();
+        new ProxyConnector(proxy, connectTimeout).connect(socket, host, port);
         return socket;
     }
 
@@ -205,63 +240,41 @@ public abstract class BaseSocketAwareParser extends BaseParser {
         return port;
     }
 
-    /**
-     * Finds an address to connect to of the specified type.
-     *
-     * @param host The host to resolve.
-     * @param type The type of address to look for
-     * @return An address of the specified type, or {@code null} if none exists.
-     * @throws IOException if there is an error.
-     */
-    private InetAddress getAddressForHost(final String host,
-            final Class<? extends InetAddress> type) throws IOException {
-        if (getProxy() != null) {
-            // If we have a proxy, let it worry about all this instead.
-            //
-            // 1) We have no idea what sort of connectivity the proxy has
-            // 2) If we do this here, then any DNS-based geo-balancing is
-            //    going to be based on our location, not the proxy.
-            return InetAddress.getByName(host);
-        }
-
-        for (InetAddress i : InetAddress.getAllByName(host)) {
-            if (type.isAssignableFrom(i.getClass())) {
-                return i;
-            }
-        }
-
-        return null;
-    }
-
     private class BindingSocketFactory extends SocketFactory {
 
         @Override
         public Socket createSocket(final String host, final int port) throws IOException {
-            // Attempt to connect to IPv6 addresses first.
-            IOException sixException = null;
-            try {
-                final InetAddress sixAddress = getAddressForHost(host, Inet6Address.class);
-                if (sixAddress != null) {
-                    return createSocket(sixAddress, port);
-                }
-            } catch (IOException ex) {
-                handleSocketDebug("Unable to use IPv6: " + ex.getMessage());
-                sixException = ex;
+            checkPort(port, "server");
+            if (getProxy() != null) {
+                // If we have a proxy, let it worry about all this instead.
+                //
+                // 1) We have no idea what sort of connectivity the proxy has
+                // 2) If we do this here, then any DNS-based geo-balancing is
+                //    going to be based on our location, not the proxy.
+                return proxiedSocket(host, port);
             }
 
-            // If there isn't an IPv6 address, or it has failed, fall back to IPv4.
-            final InetAddress fourAddress = getAddressForHost(host, Inet4Address.class);
-            if (fourAddress == null) {
-                throw new IOException("No IPv4 address and IPv6 failed", sixException);
+            // Publish the race, so that disconnecting can abandon it.
+            final ConnectionRacer racer = new ConnectionRacer(hostResolver.getAddresses(host),
+                    port, connectTimeout, ConnectionRacer.ATTEMPT_DELAY,
+                    BaseSocketAwareParser.this::createBoundSocket,
+                    BaseSocketAwareParser.this::handleSocketDebug);
+            connectionRacer = racer;
+            try {
+                final Socket socket = racer.connect();
+                setSocket(socket);
+                return socket;
+            } finally {
+                connectionRacer = null;
             }
-            return createSocket(fourAddress, port);
         }
 
         @Override
         @SuppressWarnings("resource")
         public Socket createSocket(final InetAddress host, final int port) throws IOException {
             checkPort(port, "server");
-            return getProxy() == null ? boundSocket(host, port) : proxiedSocket(host, port);
+            return getProxy() == null ? boundSocket(host, port)
+                    : proxiedSocket(host.getHostAddress(), port);
         }
 
         @Override
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of threads shared by {@link CallbackManager}s.
+ *
+ * <p>Callback managers do not use the pool directly. Each is given its own
+ * {@link #newSerialExecutor() serial executor}, which runs tasks one at a
+ * time and in the order they were submitted, borrowing a pool thread only
+ * while it has work to do. Events for a single parser are therefore still
+ * delivered in order, but the number of threads no longer grows with the
+ * number of parsers.
+ *
+ * <p>Each serial executor queues at most one task on the pool at a time, so
+ * the pool's own queue never holds more entries than there are busy
+ * parsers.
+ */
+public class CallbackExecutor {
+
+    /** Maximum number of tasks a serial executor runs before yielding its thread. */
+    private static final int BATCH_SIZE = 64;
+
+    /** The executor shared by callback managers by default. */
+    private static final CallbackExecutor DEFAULT = new CallbackExecutor(
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    /** The shared pool of threads. */
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * Creates a new executor.
+     *
+     * @param threads The maximum number of threads to run callbacks on
+     */
+    public CallbackExecutor(final int threads) {
+        final AtomicInteger count = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    final Thread thread = new Thread(runnable,
+                            "Parser callbacks " + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Gets the executor shared by callback managers by default.
+     *
+     * @return The default executor
+     */
+    public static CallbackExecutor getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a new executor that runs tasks on this executor's threads, one
+     * at a time and in submission order. Shutting down the returned executor
+     * does not affect the shared pool.
+     *
+     * @return A new serial executor
+     */
+    public ExecutorService newSerialExecutor() {
+        return new SerialExecutor();
+    }
+
+    /**
+     * Gets the maximum number of threads callbacks will be run on.
+     *
+     * @return The maximum number of threads
+     */
+    public int getMaximumPoolSize() {
+        return pool.getMaximumPoolSize();
+    }
+
+    /**
+     * Gets the largest number of threads that have ever simultaneously been
+     * running callbacks.
+     *
+     * @return The largest number of threads used
+     */
+    public int getLargestPoolSize() {
+        return pool.getLargestPoolSize();
+    }
+
+    /**
+     * Stops the shared pool. Tasks already submitted are still run, but all
+     * serial executors created by this executor will reject new tasks.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * An executor that runs its tasks in order on the shared pool.
+     */
+    private class SerialExecutor extends AbstractExecutorService {
+
+        /** Tasks waiting to be run. */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        /** Whether a drain of the task queue is queued or running on the pool. */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        /** Lock notified when the executor terminates. */
+        private final Object terminationLock = new Object();
+        /** Whether this executor has been shut down. */
+        private volatile boolean shutdown;
+
+        @Override
+        public void execute(final Runnable command) {
+            if (shutdown) {
+                throw new RejectedExecutionException("Callback executor has been shut down");
+            }
+            tasks.add(command);
+            schedule();
+        }
+
+        /**
+         * Queues a drain of the task queue on the pool, if there are tasks
+         * waiting and no drain is already queued or running.
+         */
+        private void schedule() {
+            if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                try {
+                    pool.execute(this::drain);
+                } catch (RejectedExecutionException ex) {
+                    scheduled.set(false);
+                    tasks.clear();
+                    throw ex;
+                }
+            }
+        }
+
+        /**
+         * Runs waiting tasks. After {@link #BATCH_SIZE} tasks the thread is
+         * given back to the pool, so that one busy parser cannot starve the
+         * others.
+         */
+        private void drain() {
+            try {
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    final Runnable task = tasks.poll();
+                    if (task == null) {
+                        break;
+                    }
+                    task.run();
+                }
+            } finally {
+                scheduled.set(false);
+                try {
+                    schedule();
+                } catch (RejectedExecutionException ex) {
+                    // The shared pool has been shut down; nothing more will run.
+                }
+                if (isTerminated()) {
+                    synchronized (terminationLock) {
+                        terminationLock.notifyAll();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+            if (isTerminated()) {
+                synchronized (terminationLock) {
+                    terminationLock.notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown();
+            final List<Runnable> pending = new ArrayList<>();
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                pending.add(task);
+            }
+            return pending;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown && !scheduled.get() && tasks.isEmpty();
+        }
+
+        @Override
+        public boolean awaitTermination(final long timeout, final TimeUnit unit)
+                throws InterruptedException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (terminationLock) {
+                while (!isTerminated()) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(terminationLock, remaining);
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
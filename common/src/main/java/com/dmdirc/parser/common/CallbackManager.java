@@ -24,27 +24,151 @@ package com.dmdirc.parser.common;
 
 import com.dmdirc.parser.events.ParserEvent;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import net.engio.mbassy.bus.IMessagePublication;
 import net.engio.mbassy.bus.MBassador;
+import net.engio.mbassy.bus.MessagePublication;
 import net.engio.mbassy.bus.config.BusConfiguration;
 import net.engio.mbassy.bus.config.Feature;
 import net.engio.mbassy.bus.error.IPublicationErrorHandler;
+import net.engio.mbassy.bus.error.InternalPublicationError;
 
 /**
  * Parser Callback Manager.
  * Manages adding/removing/calling callbacks.
+ *
+ * Callback managers created with a {@link CallbackExecutor} do not own any threads. Asynchronous
+ * publications and asynchronous handlers are instead run, in order, on the executor's shared pool.
  */
 public class CallbackManager extends MBassador<ParserEvent> {
 
+    /** Executor used to dispatch asynchronous publications, or null to use dispatcher threads. */
+    @Nullable
+    private final ExecutorService dispatchExecutor;
+    /**
+     * Whether each event type has any handlers. This is replaced, rather than cleared,
+     * whenever handlers change, so a lookup racing with a change can't leave a stale answer.
+     */
+    private volatile Map<Class<?>, Boolean> handledTypes = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new callback manager backed by the default shared {@link CallbackExecutor}.
+     *
+     * @param errorHandler The handler to notify of publication errors
+     */
     public CallbackManager(final IPublicationErrorHandler errorHandler) {
-        this(new BusConfiguration().addFeature(Feature.SyncPubSub.Default())
-                .addFeature(Feature.AsynchronousHandlerInvocation.Default(1, 1))
-                .addFeature(Feature.AsynchronousMessageDispatch.Default()
-                        .setNumberOfMessageDispatchers(1))
-                .addPublicationErrorHandler(errorHandler));
+        this(errorHandler, CallbackExecutor.getDefault());
+    }
+
+    /**
+     * Creates a new callback manager backed by the given shared executor.
+     *
+     * @param errorHandler The handler to notify of publication errors
+     * @param executor The executor to run asynchronous publications and handlers on
+     */
+    public CallbackManager(final IPublicationErrorHandler errorHandler,
+            final CallbackExecutor executor) {
+        this(errorHandler, executor.newSerialExecutor());
+    }
+
+    private CallbackManager(final IPublicationErrorHandler errorHandler,
+            final ExecutorService serialExecutor) {
+        this(createConfiguration(errorHandler, serialExecutor), serialExecutor);
     }
 
     protected CallbackManager(final BusConfiguration busConfiguration) {
+        this(busConfiguration, null);
+    }
+
+    /**
+     * Creates a new callback manager.
+     *
+     * @param busConfiguration The configuration of the underlying bus
+     * @param dispatchExecutor The executor to dispatch asynchronous publications on, or null to
+     * queue them for the bus's dispatcher threads
+     */
+    protected CallbackManager(final BusConfiguration busConfiguration,
+            @Nullable final ExecutorService dispatchExecutor) {
         super(busConfiguration);
+        this.dispatchExecutor = dispatchExecutor;
+    }
+
+    /**
+     * Creates a bus configuration that runs asynchronous handlers on the given executor and
+     * creates no dispatcher threads.
+     *
+     * @param errorHandler The handler to notify of publication errors
+     * @param executor The executor to run asynchronous handlers on
+     * @return A new bus configuration
+     */
+    protected static BusConfiguration createConfiguration(
+            final IPublicationErrorHandler errorHandler, final ExecutorService executor) {
+        return new BusConfiguration().addFeature(Feature.SyncPubSub.Default())
+                .addFeature(new Feature.AsynchronousHandlerInvocation().setExecutor(executor))
+                .addFeature(Feature.AsynchronousMessageDispatch.Default()
+                        .setNumberOfMessageDispatchers(0))
+                .addPublicationErrorHandler(errorHandler);
+    }
+
+    @Override
+    public void subscribe(final Object listener) {
+        super.subscribe(listener);
+        handledTypes = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public boolean unsubscribe(final Object listener) {
+        final boolean result = super.unsubscribe(listener);
+        handledTypes = new ConcurrentHashMap<>();
+        return result;
+    }
+
+    /**
+     * Checks whether any handlers are subscribed to events of the given type, including
+     * handlers for its supertypes. Publishers can use this to avoid building events that
+     * nothing will receive. The answer is cached until handlers are next subscribed or
+     * unsubscribed.
+     *
+     * @param eventType The type of event
+     * @return True if an event of that type may be handled, false if it definitely won't be
+     */
+    public boolean hasHandlers(final Class<? extends ParserEvent> eventType) {
+        return handledTypes.computeIfAbsent(eventType,
+                type -> getSubscriptionsByMessageType(type).stream()
+                        .anyMatch(subscription -> subscription.size() > 0));
+    }
+
+    @Override
+    protected IMessagePublication addAsynchronousPublication(
+            final MessagePublication publication) {
+        if (dispatchExecutor == null) {
+            return super.addAsynchronousPublication(publication);
+        }
+        try {
+            publication.markScheduled();
+            dispatchExecutor.execute(publication::execute);
+        } catch (RejectedExecutionException ex) {
+            handlePublicationError(new InternalPublicationError(ex,
+                    "Error while adding an asynchronous message publication", publication));
+        }
+        return publication;
+    }
+
+    @Override
+    protected IMessagePublication addAsynchronousPublication(
+            final MessagePublication publication, final long timeout, final TimeUnit unit) {
+        if (dispatchExecutor == null) {
+            return super.addAsynchronousPublication(publication, timeout, unit);
+        }
+        // The shared executor never blocks on submission, so the timeout is irrelevant.
+        return addAsynchronousPublication(publication);
     }
 
 }
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.common;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Connects to one of several addresses for a host by racing connection
+ * attempts, as described in RFC 8305 ("Happy Eyeballs").
+ *
+ * <p>Addresses are interleaved by family, preferring IPv6. An attempt is
+ * started for the first address, and a further attempt is started each time
+ * the attempt delay passes without a connection, or as soon as an attempt
+ * fails. The first attempt to succeed wins, and all others are abandoned.
+ * The whole race can be abandoned from another thread with {@link #cancel()}.
+ */
+class ConnectionRacer {
+
+    /** Delay before starting the next attempt, in milliseconds, as recommended by RFC 8305. */
+    static final long ATTEMPT_DELAY = 250;
+
+    /** Result used to wake {@link #connect()} when the race is cancelled. */
+    private static final Attempt CANCELLED = new Attempt(null);
+    /** Number of attempt threads created. */
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    /** Executor used to run connection attempts. */
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable,
+                "Connection attempt " + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The addresses to try, in order. */
+    private final List<InetAddress> addresses;
+    /** The port to connect to. */
+    private final int port;
+    /** The timeout for each attempt, in milliseconds. */
+    private final int timeout;
+    /** The delay before starting the next attempt, in milliseconds. */
+    private final long attemptDelay;
+    /** Creates unconnected sockets for each address. */
+    private final SocketCreator creator;
+    /** Receives debug messages. */
+    private final Consumer<String> debug;
+    /** Results of finished attempts. */
+    private final BlockingQueue<Attempt> results = new LinkedBlockingQueue<>();
+    /** Attempts that have been started. */
+    private final List<Attempt> attempts = new ArrayList<>();
+    /** Whether the race has finished. */
+    private boolean finished;
+
+    /**
+     * Creates a new racer.
+     *
+     * @param addresses The addresses to try, in any order
+     * @param port The port to connect to
+     * @param timeout The timeout for each attempt, in milliseconds
+     * @param attemptDelay The delay before starting the next attempt, in milliseconds
+     * @param creator Creates unconnected sockets for each address
+     * @param debug Receives debug messages
+     */
+    ConnectionRacer(final List<InetAddress> addresses, final int port, final int timeout,
+            final long attemptDelay, final SocketCreator creator, final Consumer<String> debug) {
+        this.addresses = interleave(addresses);
+        this.port = port;
+        this.timeout = timeout;
+        this.attemptDelay = attemptDelay;
+        this.creator = creator;
+        this.debug = debug;
+    }
+
+    /**
+     * Races connection attempts until one succeeds or all have failed.
+     *
+     * @return A connected socket
+     * @throws IOException If no attempt succeeded
+     */
+    Socket connect() throws IOException {
+        if (addresses.isEmpty()) {
+            throw new IOException("No addresses to connect to");
+        }
+
+        IOException failure = null;
+        int started = 0;
+        int completed = 0;
+        try {
+            start(addresses.get(started++));
+            while (completed < addresses.size()) {
+                final Attempt result;
+                if (started < addresses.size()) {
+                    result = results.poll(attemptDelay, TimeUnit.MILLISECONDS);
+                    if (result == null) {
+                        start(addresses.get(started++));
+                        continue;
+                    }
+                } else {
+                    result = results.take();
+                }
+
+                if (result == CANCELLED) {
+                    throw new IOException("Connection cancelled");
+                }
+                completed++;
+                if (result.error == null) {
+                    if (!finish(result)) {
+                        throw new IOException("Connection cancelled");
+                    }
+                    return result.socket;
+                }
+
+                debug.accept("Unable to connect to " + result.address.getHostAddress()
+                        + ": " + result.error.getMessage());
+                if (failure == null) {
+                    failure = new IOException("Unable to connect to any address", result.error);
+                } else {
+                    failure.addSuppressed(result.error);
+                }
+                if (started < addresses.size()) {
+                    start(addresses.get(started++));
+                }
+            }
+        } catch (InterruptedException ex) {
+            finish(null);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting");
+        }
+        throw failure;
+    }
+
+    /**
+     * Starts an attempt to connect to an address.
+     *
+     * @param address The address to connect to
+     */
+    private void start(final InetAddress address) {
+        final Attempt attempt = new Attempt(address);
+        synchronized (attempts) {
+            attempts.add(attempt);
+        }
+        EXECUTOR.execute(() -> run(attempt));
+    }
+
+    /**
+     * Performs a connection attempt. This is called on the executor.
+     *
+     * @param attempt The attempt to perform
+     */
+    @SuppressWarnings("resource")
+    private void run(final Attempt attempt) {
+        try {
+            final Socket socket = creator.create(attempt.address);
+            synchronized (attempts) {
+                attempt.socket = socket;
+                if (finished) {
+                    socket.close();
+                    return;
+                }
+            }
+            socket.connect(new InetSocketAddress(attempt.address, port), timeout);
+        } catch (IOException ex) {
+            attempt.error = ex;
+        }
+        results.add(attempt);
+    }
+
+    /**
+     * Abandons the race, closing the sockets of every attempt. A call to
+     * {@link #connect()} in progress on another thread fails with an
+     * {@link IOException}.
+     */
+    void cancel() {
+        finish(null);
+        results.add(CANCELLED);
+    }
+
+    /**
+     * Ends the race, closing the sockets of every attempt except the winner.
+     *
+     * @param winner The winning attempt, or null if there is none
+     * @return True if the race was ended, false if it had already been
+     * cancelled (in which case every socket, including the winner's, is closed)
+     */
+    private boolean finish(final Attempt winner) {
+        synchronized (attempts) {
+            if (finished) {
+                return false;
+            }
+            finished = true;
+            for (Attempt attempt : attempts) {
+                if (attempt != winner && attempt.socket != null) {
+                    try {
+                        attempt.socket.close();
+                    } catch (IOException ex) {
+                        // Already closed
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Orders addresses so that families alternate, starting with IPv6.
+     *
+     * @param addresses The addresses to order
+     * @return The interleaved addresses
+     */
+    static List<InetAddress> interleave(final List<InetAddress> addresses) {
+        final List<InetAddress> six = new ArrayList<>();
+        final List<InetAddress> four = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            (address instanceof Inet6Address ? six : four).add(address);
+        }
+
+        final List<InetAddress> result = new ArrayList<>(addresses.size());
+        for (int i = 0; i < Math.max(six.size(), four.size()); i++) {
+            if (i < six.size()) {
+                result.add(six.get(i));
+            }
+            if (i < four.size()) {
+                result.add(four.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates unconnected sockets for connection attempts.
+     */
+    @FunctionalInterface
+    interface SocketCreator {
+
+        /**
+         * Creates a socket that will be used to connect to an address.
+         *
+         * @param address The address that will be connected to
+         * @return A new, unconnected socket
+         * @throws IOException If the socket could not be created
+         */
+        Socket create(InetAddress address) throws IOException;
+
+    }
+
+    /**
+     * A single connection attempt.
+     */
+    private static class Attempt {
+
+        /** The address being connected to. */
+        private final InetAddress address;
+        /** The socket being connected, once created. */
+        private volatile Socket socket;
+        /** The reason the attempt failed, if it did. */
+        private volatile IOException error;
+
+        Attempt(final InetAddress address) {
+            this.address = address;
+        }
+
+    }
+
+}
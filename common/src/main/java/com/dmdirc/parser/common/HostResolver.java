@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.common;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves SRV records and host addresses on behalf of parsers.
+ *
+ * <p>Lookups are performed asynchronously, and their results are cached so
+ * that many parsers connecting to the same network at once only resolve each
+ * name once. Concurrent requests for a name that is still being resolved
+ * share the pending lookup.
+ *
+ * <p>Neither JNDI nor {@link InetAddress} expose the TTLs of the records they
+ * return, so answers are cached for a fixed time. Failed or empty lookups are
+ * cached for a shorter time, so that outages are noticed quickly once they
+ * are resolved.
+ */
+public class HostResolver {
+
+    /** The resolver shared by parsers by default. */
+    private static final HostResolver DEFAULT = new HostResolver(
+            TimeUnit.MINUTES.toNanos(5), TimeUnit.SECONDS.toNanos(30), createExecutor());
+
+    /** Time, in nanoseconds, to cache successful answers. */
+    private final long ttlNanos;
+    /** Time, in nanoseconds, to cache failed or empty answers. */
+    private final long negativeTtlNanos;
+    /** Executor used to perform lookups. */
+    private final Executor executor;
+    /** Cached and pending SRV lookups, keyed on lower-cased name. */
+    private final Map<String, Entry<List<SRVRecord>>> srvCache = new ConcurrentHashMap<>();
+    /** Cached and pending address lookups, keyed on lower-cased host. */
+    private final Map<String, Entry<List<InetAddress>>> addressCache = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new resolver.
+     *
+     * @param ttl The time to cache successful answers for
+     * @param negativeTtl The time to cache failed or empty answers for
+     * @param unit The unit of the TTLs
+     * @param executor The executor to perform lookups on
+     */
+    public HostResolver(final long ttl, final long negativeTtl, final TimeUnit unit,
+            final Executor executor) {
+        this(unit.toNanos(ttl), unit.toNanos(negativeTtl), executor);
+    }
+
+    private HostResolver(final long ttlNanos, final long negativeTtlNanos,
+            final Executor executor) {
+        this.ttlNanos = ttlNanos;
+        this.negativeTtlNanos = negativeTtlNanos;
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the resolver shared by parsers by default.
+     *
+     * @return The default resolver
+     */
+    public static HostResolver getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Resolves the SRV records for a name. The records are returned in the
+     * order they should be tried, as described by RFC 2782. A name with no
+     * records, or whose only record says the service is unavailable, results
+     * in an empty list.
+     *
+     * @param name The name to resolve, e.g. {@code _irc._tcp.example.com}
+     * @return A future that completes with the ordered records
+     */
+    public CompletableFuture<List<SRVRecord>> resolveSrv(final String name) {
+        return lookup(srvCache, name, () -> lookupSrv(name))
+                .thenApply(records -> orderSrvRecords(records, new Random()));
+    }
+
+    /**
+     * Resolves all addresses for a host.
+     *
+     * @param host The host to resolve
+     * @return A future that completes with the host's addresses, or
+     * exceptionally with an {@link UnknownHostException}
+     */
+    public CompletableFuture<List<InetAddress>> resolveAddresses(final String host) {
+        return lookup(addressCache, host, () -> lookupAddresses(host));
+    }
+
+    /**
+     * Resolves all addresses for a host, waiting for the answer.
+     *
+     * @param host The host to resolve
+     * @return The host's addresses
+     * @throws IOException If the host could not be resolved
+     */
+    public List<InetAddress> getAddresses(final String host) throws IOException {
+        try {
+            return resolveAddresses(host).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted resolving " + host);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Unable to resolve " + host, ex.getCause());
+        }
+    }
+
+    /**
+     * Removes all cached answers.
+     */
+    public void clear() {
+        srvCache.clear();
+        addressCache.clear();
+    }
+
+    /**
+     * Performs an SRV lookup. This is called on the resolver's executor.
+     *
+     * @param name The name to look up
+     * @return The records found, in any order
+     */
+    protected List<SRVRecord> lookupSrv(final String name) {
+        return SRVRecord.getRecords(name);
+    }
+
+    /**
+     * Performs an address lookup. This is called on the resolver's executor.
+     *
+     * @param host The host to look up
+     * @return The addresses found
+     * @throws UnknownHostException If the host could not be resolved
+     */
+    protected List<InetAddress> lookupAddresses(final String host) throws UnknownHostException {
+        return Arrays.asList(InetAddress.getAllByName(host));
+    }
+
+    /**
+     * Looks up a name in a cache, starting a new lookup if there is no
+     * pending or unexpired answer.
+     *
+     * @param cache The cache to use
+     * @param name The name to look up
+     * @param lookup The lookup to perform on a miss
+     * @param <T> The type of answer
+     * @return A future for the answer
+     */
+    private <T extends List<?>> CompletableFuture<T> lookup(final Map<String, Entry<T>> cache,
+            final String name, final Lookup<T> lookup) {
+        final String key = name.toLowerCase(Locale.ENGLISH);
+        final Entry<T> existing = cache.get(key);
+        if (existing != null && !existing.isExpired()) {
+            return existing.future;
+        }
+
+        final Entry<T> entry = new Entry<>();
+        final Entry<T> current = cache.merge(key, entry,
+                (old, fresh) -> old.isExpired() ? fresh : old);
+        if (current != entry) {
+            return current.future;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    final T result = lookup.run();
+                    entry.expires = System.nanoTime()
+                            + (result.isEmpty() ? negativeTtlNanos : ttlNanos);
+                    entry.future.complete(result);
+                } catch (IOException | RuntimeException ex) {
+                    entry.expires = System.nanoTime() + negativeTtlNanos;
+                    entry.future.completeExceptionally(ex);
+                }
+            });
+        } catch (RuntimeException ex) {
+            cache.remove(key, entry);
+            entry.future.completeExceptionally(ex);
+        }
+        return entry.future;
+    }
+
+    /**
+     * Orders SRV records according to RFC 2782: records are grouped by
+     * ascending priority, and within each priority are picked at random,
+     * weighted by their weight.
+     *
+     * @param records The records to order
+     * @param random The source of randomness to use
+     * @return A new list containing the ordered records, or an empty list if
+     * the records indicate the service is unavailable
+     */
+    public static List<SRVRecord> orderSrvRecords(final List<SRVRecord> records,
+            final Random random) {
+        if (records.size() == 1 && records.get(0).getHost().isEmpty()) {
+            // A single record with a target of "." means there is no service.
+            return Collections.emptyList();
+        }
+
+        final List<SRVRecord> sorted = new ArrayList<>(records);
+        Collections.sort(sorted);
+
+        final List<SRVRecord> result = new ArrayList<>(sorted.size());
+        int start = 0;
+        while (start < sorted.size()) {
+            int end = start;
+            while (end < sorted.size()
+                    && sorted.get(end).getPriority() == sorted.get(start).getPriority()) {
+                end++;
+            }
+
+            final List<SRVRecord> group = new ArrayList<>(end - start);
+            // Records with no weight go first, so they have a small chance of
+            // being selected when other records have weight.
+            for (SRVRecord record : sorted.subList(start, end)) {
+                if (record.getWeight() == 0) {
+                    group.add(record);
+                }
+            }
+            for (SRVRecord record : sorted.subList(start, end)) {
+                if (record.getWeight() != 0) {
+                    group.add(record);
+                }
+            }
+
+            while (!group.isEmpty()) {
+                int total = 0;
+                for (SRVRecord record : group) {
+                    total += record.getWeight();
+                }
+                final int target = random.nextInt(total + 1);
+                int sum = 0;
+                for (int i = 0; i < group.size(); i++) {
+                    sum += group.get(i).getWeight();
+                    if (sum >= target) {
+                        result.add(group.remove(i));
+                        break;
+                    }
+                }
+            }
+            start = end;
+        }
+        return result;
+    }
+
+    /**
+     * Creates the executor used by the default resolver.
+     *
+     * @return A new executor using daemon threads
+     */
+    private static Executor createExecutor() {
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "Host resolver " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * A lookup that may fail with an {@link IOException}.
+     *
+     * @param <T> The type of answer
+     */
+    private interface Lookup<T> {
+
+        T run() throws IOException;
+
+    }
+
+    /**
+     * A cached or pending answer.
+     *
+     * @param <T> The type of answer
+     */
+    private static class Entry<T> {
+
+        /** The future for the answer. */
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        /** The time the answer expires, or {@link Long#MAX_VALUE} while pending. */
+        private volatile long expires = Long.MAX_VALUE;
+
+        boolean isExpired() {
+            return expires != Long.MAX_VALUE && System.nanoTime() - expires >= 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.common;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Describes a single change made to a channel's modes.
+ */
+public class ModeChange {
+
+    /** The kinds of mode that can be changed. */
+    public enum Type {
+        /** A mode that is either set or unset, without a parameter. */
+        BOOLEAN,
+        /** A list mode, such as a ban. */
+        LIST,
+        /** A mode that takes a parameter when set, such as a key or limit. */
+        PARAM,
+        /** A mode given to a user on the channel, such as op or voice. */
+        PREFIX
+    }
+
+    /** Whether the mode was added or removed. */
+    private final boolean adding;
+    /** The mode character. */
+    private final char mode;
+    /** The kind of mode that was changed. */
+    private final Type type;
+    /** The parameter of the change, or an empty string. */
+    private final String parameter;
+
+    /**
+     * Creates a new mode change.
+     *
+     * @param adding True if the mode was added, false if it was removed
+     * @param mode The mode character
+     * @param type The kind of mode that was changed
+     * @param parameter The parameter of the change, or an empty string
+     */
+    public ModeChange(final boolean adding, final char mode, final Type type,
+            final String parameter) {
+        this.adding = adding;
+        this.mode = mode;
+        this.type = checkNotNull(type);
+        this.parameter = checkNotNull(parameter);
+    }
+
+    /**
+     * Determines whether the mode was added or removed.
+     *
+     * @return True if the mode was added, false if it was removed
+     */
+    public boolean isAdding() {
+        return adding;
+    }
+
+    /**
+     * Gets the mode character.
+     *
+     * @return The mode that was changed
+     */
+    public char getMode() {
+        return mode;
+    }
+
+    /**
+     * Gets the kind of mode that was changed.
+     *
+     * @return The type of the mode
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the parameter of the change. For prefix modes this is the nickname
+     * of the affected user.
+     *
+     * @return The parameter, or an empty string if there was none
+     */
+    public String getParameter() {
+        return parameter;
+    }
+
+    /**
+     * Returns a String representation of this object, in the form used on the
+     * wire (ie: "+b foo!*@*").
+     *
+     * @return String representation of this object
+     */
+    @Override
+    public String toString() {
+        return (adding ? "+" : "-") + mode + (parameter.isEmpty() ? "" : " " + parameter);
+    }
+
+}
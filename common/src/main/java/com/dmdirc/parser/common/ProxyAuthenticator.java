@@ -32,7 +32,11 @@ import java.util.concurrent.Semaphore;
 
 /**
  * Handles proxy authentication for a {@link BaseSocketAwareParser} to a proxy.
+ *
+ * @deprecated Parsers now supply proxy credentials on each socket, and no
+ * longer register them with the JVM-wide authenticator.
  */
+@Deprecated
 public final class ProxyAuthenticator extends Authenticator {
 
     /**
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * Connects sockets to a host via a SOCKS5 or HTTP proxy, performing the
+ * proxy handshake directly. A proxy URI with the "direct" scheme connects
+ * straight to the host, as {@link java.net.Proxy#NO_PROXY} did.
+ *
+ * <p>Credentials are taken from the user info of the proxy URI and sent only
+ * on the socket being connected. A user info without a colon is a username
+ * with an empty password. Unlike {@link java.net.Proxy}-based sockets, this
+ * does not rely on the JVM-wide {@link java.net.Authenticator}, so any
+ * number of proxied connections can be made concurrently with different
+ * credentials.
+ *
+ * <p>Unlike the JDK's SOCKS implementation, this does not fall back to SOCKS4
+ * when a proxy does not speak SOCKS5; such proxies are reported as
+ * unsupported.
+ */
+class ProxyConnector {
+
+    /** SOCKS protocol version. */
+    private static final int SOCKS_VERSION = 5;
+    /** SOCKS method: no authentication required. */
+    private static final int SOCKS_NO_AUTH = 0;
+    /** SOCKS method: username/password authentication. */
+    private static final int SOCKS_PASSWORD_AUTH = 2;
+    /** SOCKS method reply meaning no offered method was acceptable. */
+    private static final int SOCKS_NO_ACCEPTABLE_METHOD = 0xFF;
+    /** SOCKS command: establish a TCP connection. */
+    private static final int SOCKS_CONNECT = 1;
+    /** SOCKS address type: IPv4 address. */
+    private static final int SOCKS_IPV4 = 1;
+    /** SOCKS address type: domain name. */
+    private static final int SOCKS_DOMAIN = 3;
+    /** SOCKS address type: IPv6 address. */
+    private static final int SOCKS_IPV6 = 4;
+    /** Descriptions of SOCKS reply codes. */
+    private static final String[] SOCKS_ERRORS = {
+        "succeeded", "general SOCKS server failure", "connection not allowed by ruleset",
+        "network unreachable", "host unreachable", "connection refused", "TTL expired",
+        "command not supported", "address type not supported",
+    };
+    /** Maximum length of a line in an HTTP response. */
+    private static final int MAX_HTTP_LINE = 8192;
+
+    /** The URI of the proxy. */
+    private final URI proxy;
+    /** The timeout for connecting and for the handshake, in milliseconds. */
+    private final int timeout;
+    /** The proxy username, or null if none. */
+    private final String username;
+    /** The proxy password, or null if none. */
+    private final String password;
+
+    /**
+     * Creates a new connector.
+     *
+     * @param proxy The URI of the proxy, with a scheme of "socks", "http" or "direct"
+     * @param timeout The timeout for connecting and for the handshake, in milliseconds
+     */
+    ProxyConnector(final URI proxy, final int timeout) {
+        this.proxy = proxy;
+        this.timeout = timeout;
+
+        final String userInfo = proxy.getUserInfo();
+        if (userInfo == null) {
+            username = null;
+            password = null;
+        } else {
+            final int offset = userInfo.indexOf(':');
+            username = offset == -1 ? userInfo : userInfo.substring(0, offset);
+            password = offset == -1 ? "" : userInfo.substring(offset + 1);
+        }
+    }
+
+    /**
+     * Connects a socket to the proxy, and asks the proxy to connect to a host.
+     *
+     * @param socket The unconnected socket to use
+     * @param host The host to connect to, as a name or address literal
+     * @param port The port to connect to
+     * @throws IOException If the proxy could not be reached, or refused the connection
+     */
+    void connect(final Socket socket, final String host, final int port) throws IOException {
+        final String type = proxy.getScheme() == null ? ""
+                : proxy.getScheme().toLowerCase(Locale.ENGLISH);
+        if ("direct".equals(type)) {
+            socket.connect(new InetSocketAddress(host, port), timeout);
+            return;
+        }
+        if (!"socks".equals(type) && !"http".equals(type)) {
+            throw new IOException("Unsupported proxy type: " + proxy.getScheme());
+        }
+
+        socket.connect(new InetSocketAddress(proxy.getHost(), proxy.getPort()), timeout);
+        final int originalTimeout = socket.getSoTimeout();
+        socket.setSoTimeout(timeout);
+        try {
+            if ("socks".equals(type)) {
+                socksConnect(socket.getInputStream(), socket.getOutputStream(), host, port);
+            } else {
+                httpConnect(socket.getInputStream(), socket.getOutputStream(), host, port);
+            }
+            socket.setSoTimeout(originalTimeout);
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Performs a SOCKS5 handshake, as described in RFC 1928 and RFC 1929.
+     *
+     * @param in The stream from the proxy
+     * @param out The stream to the proxy
+     * @param host The host to connect to
+     * @param port The port to connect to
+     * @throws IOException If the handshake failed
+     */
+    private void socksConnect(final InputStream in, final OutputStream out, final String host,
+            final int port) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        if (username == null) {
+            out.write(new byte[]{SOCKS_VERSION, 1, SOCKS_NO_AUTH});
+        } else {
+            out.write(new byte[]{SOCKS_VERSION, 2, SOCKS_NO_AUTH, SOCKS_PASSWORD_AUTH});
+        }
+        out.flush();
+
+        if (data.readUnsignedByte() != SOCKS_VERSION) {
+            throw new IOException("Proxy is not a SOCKS5 server (SOCKS4 is not supported)");
+        }
+        final int method = data.readUnsignedByte();
+        if (method == SOCKS_PASSWORD_AUTH && username != null) {
+            final ByteArrayOutputStream request = new ByteArrayOutputStream();
+            request.write(1);
+            writeShortString(request, username, "Proxy username");
+            writeShortString(request, password, "Proxy password");
+            request.writeTo(out);
+            out.flush();
+
+            data.readUnsignedByte();
+            if (data.readUnsignedByte() != 0) {
+                throw new IOException("Proxy authentication failed");
+            }
+        } else if (method == SOCKS_NO_ACCEPTABLE_METHOD) {
+            throw new IOException("Proxy requires unsupported authentication");
+        } else if (method != SOCKS_NO_AUTH) {
+            throw new IOException("Proxy selected unexpected method " + method);
+        }
+
+        final ByteArrayOutputStream request = new ByteArrayOutputStream();
+        request.write(SOCKS_VERSION);
+        request.write(SOCKS_CONNECT);
+        request.write(0);
+        final InetAddress literal = getLiteralAddress(host);
+        if (literal == null) {
+            request.write(SOCKS_DOMAIN);
+            writeShortString(request, host, "Host name");
+        } else {
+            request.write(literal instanceof Inet6Address ? SOCKS_IPV6 : SOCKS_IPV4);
+            request.write(literal.getAddress());
+        }
+        request.write(port >> 8);
+        request.write(port & 0xFF);
+        request.writeTo(out);
+        out.flush();
+
+        data.readUnsignedByte();
+        final int reply = data.readUnsignedByte();
+        if (reply != 0) {
+            throw new IOException("Proxy connection failed: " + (reply < SOCKS_ERRORS.length
+                    ? SOCKS_ERRORS[reply] : "error " + reply));
+        }
+        data.readUnsignedByte();
+        final int addressType = data.readUnsignedByte();
+        final int addressLength;
+        switch (addressType) {
+            case SOCKS_IPV4:
+                addressLength = 4;
+                break;
+            case SOCKS_IPV6:
+                addressLength = 16;
+                break;
+            case SOCKS_DOMAIN:
+                addressLength = data.readUnsignedByte();
+                break;
+            default:
+                throw new IOException("Proxy returned unknown address type " + addressType);
+        }
+        data.readFully(new byte[addressLength + 2]);
+    }
+
+    /**
+     * Performs an HTTP CONNECT handshake.
+     *
+     * @param in The stream from the proxy
+     * @param out The stream to the proxy
+     * @param host The host to connect to
+     * @param port The port to connect to
+     * @throws IOException If the handshake failed
+     */
+    private void httpConnect(final InputStream in, final OutputStream out, final String host,
+            final int port) throws IOException {
+        final String authority = (host.indexOf(':') == -1 ? host : '[' + host + ']') + ':' + port;
+        final StringBuilder request = new StringBuilder();
+        request.append("CONNECT ").append(authority).append(" HTTP/1.1\r\n");
+        request.append("Host: ").append(authority).append("\r\n");
+        if (username != null) {
+            request.append("Proxy-Authorization: Basic ").append(Base64.getEncoder().encodeToString(
+                    (username + ':' + password).getBytes(StandardCharsets.UTF_8))).append("\r\n");
+        }
+        request.append("\r\n");
+        out.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+
+        final String status = readHttpLine(in);
+        final String[] parts = status.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/") || parts[1].length() != 3
+                || parts[1].charAt(0) != '2') {
+            throw new IOException("Proxy connection failed: " + status);
+        }
+
+        // Discard the response headers; the connection is ours after the blank line.
+        while (!readHttpLine(in).isEmpty()) {
+            continue;
+        }
+    }
+
+    /**
+     * Reads a single line of an HTTP response, one byte at a time so that no
+     * data following the response is consumed.
+     *
+     * @param in The stream to read from
+     * @return The line, without its terminator
+     * @throws IOException If the stream ended or the line was too long
+     */
+    private static String readHttpLine(final InputStream in) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int read;
+        while ((read = in.read()) != '\n') {
+            if (read == -1) {
+                throw new EOFException("Proxy closed the connection");
+            }
+            if (read != '\r') {
+                line.write(read);
+            }
+            if (line.size() > MAX_HTTP_LINE) {
+                throw new IOException("Proxy response too long");
+            }
+        }
+        return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Writes a string prefixed with its length as a single byte.
+     *
+     * @param out The stream to write to
+     * @param value The value to write
+     * @param description Description of the value for error messages
+     * @throws IOException If the value is too long
+     */
+    private static void writeShortString(final ByteArrayOutputStream out, final String value,
+            final String description) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 255) {
+            throw new IOException(description + " is too long for SOCKS");
+        }
+        out.write(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Parses a host as an IP address literal, without performing any lookups.
+     *
+     * @param host The host to parse
+     * @return The address, or null if the host is not a literal
+     */
+    private static InetAddress getLiteralAddress(final String host) {
+        if (host.indexOf(':') == -1 && !host.matches("[0-9.]+")) {
+            return null;
+        }
+        try {
+            final InetAddress address = InetAddress.getByName(host);
+            return address instanceof Inet4Address || address instanceof Inet6Address
+                    ? address : null;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.events;
+
+import com.dmdirc.parser.common.ModeChange;
+import com.dmdirc.parser.interfaces.ChannelClientInfo;
+import com.dmdirc.parser.interfaces.ChannelInfo;
+import com.dmdirc.parser.interfaces.Parser;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Called once for each channel mode line, with every change it contains.
+ */
+public class ChannelModeChangeSetEvent extends ChannelEvent {
+
+    private final ChannelClientInfo client;
+    private final String host;
+    private final List<ModeChange> changes;
+    private final boolean discovery;
+
+    public ChannelModeChangeSetEvent(final Parser parser, final LocalDateTime date,
+            final ChannelInfo channel, @Nullable final ChannelClientInfo client,
+            final String host, final List<ModeChange> changes, final boolean discovery) {
+        super(parser, date, channel);
+        this.client = client;
+        this.host = checkNotNull(host);
+        this.changes = Collections.unmodifiableList(checkNotNull(changes));
+        this.discovery = discovery;
+    }
+
+    @Nullable
+    public ChannelClientInfo getClient() {
+        return client;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public List<ModeChange> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Determines whether these modes were discovered (in reply to a MODE
+     * request) rather than changed by someone.
+     *
+     * @return True if the modes were discovered, false if they were changed
+     */
+    public boolean isDiscovery() {
+        return discovery;
+    }
+}
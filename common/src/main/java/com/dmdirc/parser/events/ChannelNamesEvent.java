@@ -22,18 +22,33 @@
 
 package com.dmdirc.parser.events;
 
+import com.dmdirc.parser.interfaces.ChannelClientInfo;
 import com.dmdirc.parser.interfaces.ChannelInfo;
 import com.dmdirc.parser.interfaces.Parser;
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
 
 /**
  * Called when a names reply is parsed.
  */
 public class ChannelNamesEvent extends ChannelEvent {
 
+    private final Collection<ChannelClientInfo> names;
+
     public ChannelNamesEvent(final Parser parser, final LocalDateTime date,
             final ChannelInfo channel) {
+        this(parser, date, channel, channel.getChannelClients());
+    }
+
+    public ChannelNamesEvent(final Parser parser, final LocalDateTime date,
+            final ChannelInfo channel, final Collection<? extends ChannelClientInfo> names) {
         super(parser, date, channel);
+        this.names = Collections.unmodifiableCollection(names);
+    }
+
+    public Collection<ChannelClientInfo> getNames() {
+        return names;
     }
 
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.common;
+
+import com.dmdirc.parser.events.ParserEvent;
+import com.dmdirc.parser.interfaces.Parser;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.engio.mbassy.listener.Handler;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public class CallbackExecutorTest {
+
+    private final CallbackExecutor executor = new CallbackExecutor(2);
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRunsEachSerialExecutorsTasksInOrder() throws InterruptedException {
+        final int executors = 50;
+        final int tasks = 200;
+        final List<List<Integer>> results = new ArrayList<>();
+        final List<ExecutorService> serials = new ArrayList<>();
+        for (int i = 0; i < executors; i++) {
+            results.add(Collections.synchronizedList(new ArrayList<>()));
+            serials.add(executor.newSerialExecutor());
+        }
+
+        for (int task = 0; task < tasks; task++) {
+            for (int i = 0; i < executors; i++) {
+                final List<Integer> result = results.get(i);
+                final int value = task;
+                serials.get(i).execute(() -> result.add(value));
+            }
+        }
+        for (ExecutorService serial : serials) {
+            serial.shutdown();
+            assertTrue(serial.awaitTermination(5, TimeUnit.SECONDS));
+        }
+
+        for (List<Integer> result : results) {
+            assertEquals(tasks, result.size());
+            for (int task = 0; task < tasks; task++) {
+                assertEquals(task, (int) result.get(task));
+            }
+        }
+        assertTrue(executor.getLargestPoolSize() <= 2);
+    }
+
+    @Test
+    public void testRunsOneTaskAtATimePerSerialExecutor() throws InterruptedException {
+        final ExecutorService serial = executor.newSerialExecutor();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        for (int i = 0; i < 100; i++) {
+            serial.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.yield();
+                running.decrementAndGet();
+            });
+        }
+        serial.shutdown();
+        assertTrue(serial.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    public void testShuttingDownSerialExecutorLeavesPoolRunning() throws InterruptedException {
+        final ExecutorService first = executor.newSerialExecutor();
+        first.shutdown();
+        assertTrue(first.isShutdown());
+        try {
+            first.execute(() -> { });
+            fail("Expected task to be rejected");
+        } catch (RejectedExecutionException ex) {
+            // Expected
+        }
+
+        final ExecutorService second = executor.newSerialExecutor();
+        final CountDownLatch latch = new CountDownLatch(1);
+        second.execute(latch::countDown);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertFalse(second.isShutdown());
+    }
+
+    @Test
+    public void testCallbackManagerPublishesAsynchronouslyInOrder() throws InterruptedException {
+        final Parser parser = mock(Parser.class);
+        final CallbackManager manager = new CallbackManager(error -> { }, executor);
+        final Listener listener = new Listener(100);
+        manager.subscribe(listener);
+
+        for (int i = 0; i < 100; i++) {
+            manager.publishAsync(new TestEvent(parser, i));
+        }
+
+        assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) listener.received.get(i));
+        }
+        assertTrue(listener.threads.stream().allMatch(
+                name -> name.startsWith("Parser callbacks")));
+        manager.shutdown();
+    }
+
+    private static class TestEvent extends ParserEvent {
+
+        private final int value;
+
+        TestEvent(final Parser parser, final int value) {
+            super(parser, LocalDateTime.now());
+            this.value = value;
+        }
+
+    }
+
+    public static class Listener {
+
+        private final List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch latch;
+
+        Listener(final int expected) {
+            latch = new CountDownLatch(expected);
+        }
+
+        @Handler
+        public void handle(final TestEvent event) {
+            received.add(event.value);
+            threads.add(Thread.currentThread().getName());
+            latch.countDown();
+        }
+
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.common;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConnectionRacerTest {
+
+    private final Map<InetAddress, FakeSocket> sockets = new ConcurrentHashMap<>();
+
+    private static InetAddress v4(final int last) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[]{10, 0, 0, (byte) last});
+    }
+
+    private static InetAddress v6(final int last) throws UnknownHostException {
+        final byte[] address = new byte[16];
+        address[0] = 0x20;
+        address[1] = 0x01;
+        address[15] = (byte) last;
+        return InetAddress.getByAddress(address);
+    }
+
+    private ConnectionRacer racer(final Behaviour behaviour, final InetAddress... addresses) {
+        return new ConnectionRacer(Arrays.asList(addresses), 6667, 5000, 50,
+                address -> {
+                    final FakeSocket socket = new FakeSocket(behaviour.get(address));
+                    sockets.put(address, socket);
+                    return socket;
+                }, message -> { });
+    }
+
+    @Test
+    public void testInterleavesFamiliesStartingWithIPv6() throws UnknownHostException {
+        final List<InetAddress> ordered = ConnectionRacer.interleave(
+                Arrays.asList(v4(1), v4(2), v6(1), v6(2), v6(3)));
+        assertEquals(Arrays.asList(v6(1), v4(1), v6(2), v4(2), v6(3)), ordered);
+    }
+
+    @Test
+    public void testFallsBackWhenFirstAddressHangs() throws IOException {
+        final InetAddress six = v6(1);
+        final InetAddress four = v4(1);
+        final long start = System.nanoTime();
+        final Socket socket = racer(address -> address.equals(six) ? Outcome.HANG
+                : Outcome.SUCCEED, four, six).connect();
+
+        assertSame(sockets.get(four), socket);
+        assertTrue(System.nanoTime() - start < 2_000_000_000L);
+        assertTrue(sockets.get(six).awaitClose());
+    }
+
+    @Test
+    public void testStartsNextAttemptImmediatelyOnFailure() throws IOException {
+        final InetAddress six = v6(1);
+        final InetAddress four = v4(1);
+        final Socket socket = racer(address -> address.equals(six) ? Outcome.FAIL
+                : Outcome.SUCCEED, six, four).connect();
+        assertSame(sockets.get(four), socket);
+    }
+
+    @Test
+    public void testReportsFailureWhenAllAttemptsFail() throws UnknownHostException {
+        try {
+            racer(address -> Outcome.FAIL, v6(1), v4(1), v4(2)).connect();
+            fail("Expected connection to fail");
+        } catch (IOException ex) {
+            assertEquals(2, ex.getSuppressed().length);
+        }
+    }
+
+    @Test
+    public void testCancelAbandonsRace() throws Exception {
+        final InetAddress six = v6(1);
+        final InetAddress four = v4(1);
+        final ConnectionRacer racer = racer(address -> Outcome.HANG, six, four);
+        final CompletableFuture<Socket> result = CompletableFuture.supplyAsync(() -> {
+            try {
+                return racer.connect();
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        });
+
+        while (sockets.size() < 2) {
+            Thread.sleep(10);
+        }
+        racer.cancel();
+
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            fail("Expected connection to be cancelled");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IOException);
+        }
+        assertTrue(sockets.get(six).awaitClose());
+        assertTrue(sockets.get(four).awaitClose());
+    }
+
+    private enum Outcome {
+        SUCCEED, FAIL, HANG
+    }
+
+    @FunctionalInterface
+    private interface Behaviour {
+        Outcome get(InetAddress address);
+    }
+
+    private static class FakeSocket extends Socket {
+
+        private final Outcome outcome;
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        FakeSocket(final Outcome outcome) {
+            this.outcome = outcome;
+        }
+
+        @Override
+        public void connect(final SocketAddress endpoint, final int timeout) throws IOException {
+            switch (outcome) {
+                case FAIL:
+                    throw new SocketException("Connection refused");
+                case HANG:
+                    try {
+                        closed.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new SocketException("Socket closed");
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            closed.countDown();
+        }
+
+        boolean awaitClose() {
+            try {
+                return closed.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                return false;
+            }
+        }
+
+    }
+
+}
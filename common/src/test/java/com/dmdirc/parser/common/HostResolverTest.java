@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.common;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NamingException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HostResolverTest {
+
+    private final List<Runnable> pending = new ArrayList<>();
+    private final AtomicInteger srvLookups = new AtomicInteger();
+    private final AtomicInteger addressLookups = new AtomicInteger();
+    private List<SRVRecord> srvAnswer;
+
+    @Before
+    public void setup() throws NamingException {
+        srvAnswer = Arrays.asList(new SRVRecord("10 0 6667 irc.example.com."));
+    }
+
+    private HostResolver createResolver(final long ttl) {
+        return new HostResolver(ttl, ttl, TimeUnit.MILLISECONDS, pending::add) {
+            @Override
+            protected List<SRVRecord> lookupSrv(final String name) {
+                srvLookups.incrementAndGet();
+                return srvAnswer;
+            }
+
+            @Override
+            protected List<InetAddress> lookupAddresses(final String host)
+                    throws UnknownHostException {
+                addressLookups.incrementAndGet();
+                if ("missing.example.com".equals(host)) {
+                    throw new UnknownHostException(host);
+                }
+                return Collections.singletonList(InetAddress.getByAddress(host,
+                        new byte[]{127, 0, 0, 1}));
+            }
+        };
+    }
+
+    private void runPending() {
+        final List<Runnable> tasks = new ArrayList<>(pending);
+        pending.clear();
+        tasks.forEach(Runnable::run);
+    }
+
+    @Test
+    public void testConcurrentLookupsAreShared() {
+        final HostResolver resolver = createResolver(60000);
+        final CompletableFuture<List<InetAddress>> first = resolver.resolveAddresses("example.com");
+        final CompletableFuture<List<InetAddress>> second = resolver.resolveAddresses("EXAMPLE.com");
+        assertSame(first, second);
+        assertEquals(1, pending.size());
+
+        runPending();
+        assertTrue(first.isDone());
+        assertEquals(1, addressLookups.get());
+    }
+
+    @Test
+    public void testAnswersAreCached() throws Exception {
+        final HostResolver resolver = createResolver(60000);
+        resolver.resolveSrv("_irc._tcp.example.com");
+        runPending();
+
+        final List<SRVRecord> records = resolver.resolveSrv("_irc._tcp.example.com").get();
+        assertTrue(pending.isEmpty());
+        assertEquals(1, srvLookups.get());
+        assertEquals("irc.example.com", records.get(0).getHost());
+    }
+
+    @Test
+    public void testExpiredAnswersAreRefreshed() throws InterruptedException {
+        final HostResolver resolver = createResolver(0);
+        resolver.resolveAddresses("example.com");
+        runPending();
+        Thread.sleep(1);
+
+        resolver.resolveAddresses("example.com");
+        runPending();
+        assertEquals(2, addressLookups.get());
+    }
+
+    @Test
+    public void testFailuresAreReported() throws InterruptedException {
+        final HostResolver resolver = createResolver(60000);
+        final CompletableFuture<List<InetAddress>> future =
+                resolver.resolveAddresses("missing.example.com");
+        runPending();
+        try {
+            future.get();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof UnknownHostException);
+            return;
+        }
+        throw new AssertionError("Expected lookup to fail");
+    }
+
+    @Test
+    public void testUnavailableServiceIsEmpty() throws NamingException {
+        assertTrue(HostResolver.orderSrvRecords(
+                Collections.singletonList(new SRVRecord("0 0 0 .")), new Random()).isEmpty());
+    }
+
+    @Test
+    public void testOrderingRespectsPriority() throws NamingException {
+        final SRVRecord low = new SRVRecord("20 100 6667 low.example.com.");
+        final SRVRecord high = new SRVRecord("10 1 6667 high.example.com.");
+        final SRVRecord middle = new SRVRecord("15 0 6667 middle.example.com.");
+        final List<SRVRecord> ordered = HostResolver.orderSrvRecords(
+                Arrays.asList(low, middle, high), new Random(1));
+        assertEquals(Arrays.asList(high, middle, low), ordered);
+    }
+
+    @Test
+    public void testOrderingIsWeighted() throws NamingException {
+        final SRVRecord heavy = new SRVRecord("10 90 6667 heavy.example.com.");
+        final SRVRecord light = new SRVRecord("10 10 6667 light.example.com.");
+        final Random random = new Random(42);
+        int heavyFirst = 0;
+        for (int i = 0; i < 1000; i++) {
+            final List<SRVRecord> ordered = HostResolver.orderSrvRecords(
+                    Arrays.asList(light, heavy), random);
+            assertEquals(2, ordered.size());
+            if (ordered.get(0) == heavy) {
+                heavyFirst++;
+            }
+        }
+        assertTrue(heavyFirst > 800);
+        assertFalse(heavyFirst > 980);
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.common;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProxyConnectorTest {
+
+    private ServerSocket server;
+    private CompletableFuture<List<String>> proxy;
+
+    @Before
+    public void setup() throws IOException {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    private URI proxyUri(final String scheme, final String userInfo) {
+        return URI.create(scheme + "://" + (userInfo == null ? "" : userInfo + '@')
+                + "127.0.0.1:" + server.getLocalPort());
+    }
+
+    private void runSocksProxy(final int reply) {
+        proxy = CompletableFuture.supplyAsync(() -> {
+            final List<String> seen = new ArrayList<>();
+            try (Socket client = server.accept()) {
+                final DataInputStream in = new DataInputStream(client.getInputStream());
+                final OutputStream out = client.getOutputStream();
+
+                in.readUnsignedByte();
+                final byte[] methods = new byte[in.readUnsignedByte()];
+                in.readFully(methods);
+                out.write(new byte[]{5, 2});
+
+                in.readUnsignedByte();
+                final byte[] user = new byte[in.readUnsignedByte()];
+                in.readFully(user);
+                final byte[] pass = new byte[in.readUnsignedByte()];
+                in.readFully(pass);
+                seen.add(new String(user, StandardCharsets.UTF_8) + ':'
+                        + new String(pass, StandardCharsets.UTF_8));
+                out.write(new byte[]{1, 0});
+
+                in.readFully(new byte[3]);
+                assertEquals(3, in.readUnsignedByte());
+                final byte[] host = new byte[in.readUnsignedByte()];
+                in.readFully(host);
+                seen.add(new String(host, StandardCharsets.UTF_8) + ':' + in.readUnsignedShort());
+                out.write(new byte[]{5, (byte) reply, 0, 1, 10, 0, 0, 1, 0x1A, 0x0B});
+                out.write("hello\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } catch (IOException ex) {
+                seen.add(ex.toString());
+            }
+            return seen;
+        });
+    }
+
+    private void runHttpProxy(final String status) {
+        proxy = CompletableFuture.supplyAsync(() -> {
+            final List<String> seen = new ArrayList<>();
+            try (Socket client = server.accept()) {
+                final BufferedReader in = new BufferedReader(new InputStreamReader(
+                        client.getInputStream(), StandardCharsets.ISO_8859_1));
+                String line;
+                while ((line = in.readLine()) != null && !line.isEmpty()) {
+                    seen.add(line);
+                }
+                client.getOutputStream().write((status + "\r\nVia: test\r\n\r\nhello\n")
+                        .getBytes(StandardCharsets.ISO_8859_1));
+            } catch (IOException ex) {
+                seen.add(ex.toString());
+            }
+            return seen;
+        });
+    }
+
+    private static String readLine(final Socket socket) throws IOException {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                StandardCharsets.UTF_8)).readLine();
+    }
+
+    @Test
+    public void testSocksWithCredentials() throws IOException {
+        runSocksProxy(0);
+        try (Socket socket = new Socket()) {
+            new ProxyConnector(proxyUri("socks", "user:secret"), 5000)
+                    .connect(socket, "irc.example.com", 6667);
+            assertEquals("hello", readLine(socket));
+        }
+        final List<String> seen = proxy.join();
+        assertEquals("user:secret", seen.get(0));
+        assertEquals("irc.example.com:6667", seen.get(1));
+    }
+
+    @Test
+    public void testSocksFailureIsReported() {
+        runSocksProxy(5);
+        try (Socket socket = new Socket()) {
+            new ProxyConnector(proxyUri("socks", "user:secret"), 5000)
+                    .connect(socket, "irc.example.com", 6667);
+            fail("Expected connection to fail");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("connection refused"));
+        }
+    }
+
+    @Test
+    public void testSocksUsernameWithoutPassword() throws IOException {
+        runSocksProxy(0);
+        try (Socket socket = new Socket()) {
+            new ProxyConnector(proxyUri("socks", "user"), 5000)
+                    .connect(socket, "irc.example.com", 6667);
+            assertEquals("hello", readLine(socket));
+        }
+        assertEquals("user:", proxy.join().get(0));
+    }
+
+    @Test
+    public void testSocks4ProxyIsReported() {
+        proxy = CompletableFuture.supplyAsync(() -> {
+            try (Socket client = server.accept()) {
+                client.getInputStream().read(new byte[4]);
+                // A SOCKS4 "request rejected" reply.
+                client.getOutputStream().write(new byte[]{0, 0x5B, 0, 0, 0, 0, 0, 0});
+                client.getOutputStream().flush();
+                client.getInputStream().read();
+            } catch (IOException ex) {
+                // Expected when the client gives up
+            }
+            return new ArrayList<>();
+        });
+        try (Socket socket = new Socket()) {
+            new ProxyConnector(proxyUri("socks", null), 5000)
+                    .connect(socket, "irc.example.com", 6667);
+            fail("Expected connection to fail");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("SOCKS4 is not supported"));
+        }
+    }
+
+    @Test
+    public void testDirectConnectsToHost() throws IOException {
+        proxy = CompletableFuture.supplyAsync(() -> {
+            try (Socket client = server.accept()) {
+                client.getOutputStream().write("hello\n".getBytes(StandardCharsets.UTF_8));
+            } catch (IOException ex) {
+                fail(ex.toString());
+            }
+            return new ArrayList<>();
+        });
+        try (Socket socket = new Socket()) {
+            new ProxyConnector(URI.create("direct://proxy.invalid:1080"), 5000)
+                    .connect(socket, "127.0.0.1", server.getLocalPort());
+            assertEquals("hello", readLine(socket));
+        }
+        proxy.join();
+    }
+
+    @Test
+    public void testHttpWithCredentials() throws IOException {
+        runHttpProxy("HTTP/1.1 200 Connection established");
+        try (Socket socket = new Socket()) {
+            new ProxyConnector(proxyUri("http", "user:secret"), 5000)
+                    .connect(socket, "irc.example.com", 6697);
+            assertEquals("hello", readLine(socket));
+        }
+        final List<String> seen = proxy.join();
+        assertEquals("CONNECT irc.example.com:6697 HTTP/1.1", seen.get(0));
+        assertTrue(seen.contains("Proxy-Authorization: Basic " + Base64.getEncoder()
+                .encodeToString("user:secret".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void testHttpFailureIsReported() {
+        runHttpProxy("HTTP/1.1 407 Proxy Authentication Required");
+        try (Socket socket = new Socket()) {
+            new ProxyConnector(proxyUri("http", null), 5000)
+                    .connect(socket, "irc.example.com", 6697);
+            fail("Expected connection to fail");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("407"));
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.parser.irc.integration;
+
+import com.dmdirc.parser.common.ChannelJoinRequest;
+import com.dmdirc.parser.common.MyInfo;
+import com.dmdirc.parser.events.ChannelJoinEvent;
+import com.dmdirc.parser.events.QuitEvent;
+import com.dmdirc.parser.interfaces.ChannelInfo;
+import com.dmdirc.parser.irc.IRCChannelInfo;
+import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.events.NetjoinEvent;
+import com.dmdirc.parser.irc.events.NetsplitEvent;
+import com.dmdirc.parser.irc.integration.util.FakeChannel;
+import com.dmdirc.parser.irc.integration.util.FakeIrcConnection;
+import com.dmdirc.parser.irc.integration.util.FakeIrcServer;
+import com.dmdirc.parser.irc.integration.util.JoinWaiter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import net.engio.mbassy.listener.Handler;
+import net.engio.mbassy.listener.Listener;
+import net.engio.mbassy.listener.References;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchTest {
+
+    private static final int USERS = 50;
+
+    @Rule
+    public final FakeIrcServer server = new FakeIrcServer();
+
+    private final BatchListener listener = new BatchListener();
+    private IRCParser parser;
+    private FakeIrcConnection connection;
+
+    @Before
+    public void setUp() throws InterruptedException, TimeoutException {
+        server.setCapabilities("batch");
+        final FakeChannel channel = server.getChannel("#batch");
+        channel.addMember("stays!user@host", "");
+        for (int i = 0; i < USERS; i++) {
+            channel.addMember("split" + i + "!user@far.host", "");
+        }
+
+        final MyInfo myInfo = new MyInfo();
+        myInfo.setNickname("batcher");
+        parser = new IRCParser(myInfo, server.getURI());
+        parser.setAutoJoinChannels(new ChannelJoinRequest("#batch"));
+        parser.getCallbackManager().subscribe(listener);
+        final JoinWaiter joins = new JoinWaiter(parser);
+        parser.connect();
+        joins.await(5, TimeUnit.SECONDS);
+        connection = server.getConnection("batcher");
+    }
+
+    @After
+    public void tearDown() {
+        parser.disconnect("");
+    }
+
+    @Test
+    public void testNetsplitRemovesUsersInBulk() throws InterruptedException, TimeoutException {
+        final List<String> lines = new ArrayList<>();
+        lines.add(":irc.example.com BATCH +split netsplit far.example.com near.example.com");
+        for (int i = 0; i < USERS; i++) {
+            lines.add("@batch=split :split" + i + "!user@far.host QUIT"
+                    + " :far.example.com near.example.com");
+        }
+        lines.add(":irc.example.com BATCH -split");
+        connection.send(lines);
+
+        final NetsplitEvent event = listener.splits.poll(5, TimeUnit.SECONDS);
+        connection.sync(5, TimeUnit.SECONDS);
+
+        assertNotNull(event);
+        assertEquals("far.example.com", event.getServer());
+        assertEquals("near.example.com", event.getOtherServer());
+        assertEquals(USERS, event.getClients().size());
+        final IRCChannelInfo channel = parser.getChannel("#batch");
+        assertEquals(USERS, event.getMembers().get(channel).size());
+        assertEquals(2, channel.getChannelClients().size());
+        assertNull(parser.getState().getClient("split0"));
+        assertEquals(0, listener.quits.get());
+    }
+
+    @Test
+    public void testNetjoinAddsUsersInBulk() throws InterruptedException, TimeoutException {
+        final List<String> lines = new ArrayList<>();
+        lines.add(":irc.example.com BATCH +join netjoin far.example.com near.example.com");
+        for (int i = 0; i < USERS; i++) {
+            lines.add("@batch=join :joiner" + i + "!user@far.host JOIN #batch");
+        }
+        lines.add("@batch=join :far.example.com MODE #batch +o joiner0");
+        lines.add(":irc.example.com BATCH -join");
+        connection.send(lines);
+
+        final NetjoinEvent event = listener.joins.poll(5, TimeUnit.SECONDS);
+        connection.sync(5, TimeUnit.SECONDS);
+
+        assertNotNull(event);
+        assertEquals(USERS, event.getClients().size());
+        final ChannelInfo channel = parser.getChannel("#batch");
+        assertEquals(USERS, event.getMembers().get(channel).size());
+        assertEquals(2 * USERS + 2, channel.getChannelClients().size());
+        assertEquals("far.host", parser.getState().getClient("joiner1").getHostname());
+        assertEquals("o", parser.getChannel("#batch").getChannelClient("joiner0")
+                .getAllModes());
+        assertEquals(0, listener.channelJoins.get());
+    }
+
+    @Test
+    public void testOtherBatchesAreProcessedLineByLine()
+            throws InterruptedException, TimeoutException {
+        connection.send(":irc.example.com BATCH +other example.com/unknown");
+        connection.send("@batch=other :split0!user@far.host QUIT :Bye");
+        connection.send(":irc.example.com BATCH -other");
+        connection.sync(5, TimeUnit.SECONDS);
+
+        assertEquals(1, listener.quits.get());
+        assertNull(parser.getChannel("#batch").getChannelClient("split0"));
+    }
+
+    @Listener(references = References.Strong)
+    private static final class BatchListener {
+
+        final BlockingQueue<NetsplitEvent> splits = new LinkedBlockingQueue<>();
+        final BlockingQueue<NetjoinEvent> joins = new LinkedBlockingQueue<>();
+        final AtomicInteger quits = new AtomicInteger();
+        final AtomicInteger channelJoins = new AtomicInteger();
+
+        @Handler
+        public void onNetsplit(final NetsplitEvent event) {
+            splits.add(event);
+        }
+
+        @Handler
+        public void onNetjoin(final NetjoinEvent event) {
+            joins.add(event);
+        }
+
+        @Handler
+        public void onQuit(final QuitEvent event) {
+            quits.incrementAndGet();
+        }
+
+        @Handler
+        public void onChannelJoin(final ChannelJoinEvent event) {
+            channelJoins.incrementAndGet();
+        }
+
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.integration;
+
+import com.dmdirc.parser.common.ChannelJoinRequest;
+import com.dmdirc.parser.common.MyInfo;
+import com.dmdirc.parser.events.ChannelMessageEvent;
+import com.dmdirc.parser.events.ChannelQuitEvent;
+import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.integration.util.FakeIrcConnection;
+import com.dmdirc.parser.irc.integration.util.FakeIrcServer;
+import com.dmdirc.parser.irc.integration.util.JoinWaiter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import net.engio.mbassy.listener.Handler;
+import net.engio.mbassy.listener.Listener;
+import net.engio.mbassy.listener.References;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelDispatcherTest {
+
+    private static final int MESSAGES = 200;
+    /** Channel modes the server hasn't told the parser about. */
+    private static final String UNKNOWN_MODES = "ABCDEFGHJKLMNOPQRSTUVWXYZ";
+
+    @Rule
+    public final FakeIrcServer server = new FakeIrcServer();
+
+    private final OrderListener listener = new OrderListener();
+    private IRCParser parser;
+    private FakeIrcConnection connection;
+
+    @Before
+    public void setUp() throws InterruptedException, TimeoutException {
+        server.getChannel("#one").addMember("talker!user@host", "");
+        server.getChannel("#two").addMember("talker!user@host", "");
+
+        final MyInfo myInfo = new MyInfo();
+        myInfo.setNickname("watcher");
+        parser = new IRCParser(myInfo, server.getURI());
+        parser.getChannelDispatcher().setEnabled(true);
+        parser.setAutoJoinChannels(new ChannelJoinRequest("#one"), new ChannelJoinRequest("#two"));
+        parser.getCallbackManager().subscribe(listener);
+        final JoinWaiter joins = new JoinWaiter(parser);
+        parser.connect();
+        joins.await(5, TimeUnit.SECONDS);
+        connection = server.getConnection("watcher");
+    }
+
+    @After
+    public void tearDown() {
+        parser.disconnect("");
+    }
+
+    @Test
+    public void testKeepsPerChannelOrder() throws InterruptedException, TimeoutException {
+        final List<String> lines = new ArrayList<>();
+        for (int i = 0; i < MESSAGES; i++) {
+            lines.add(":talker!user@host PRIVMSG #" + (i % 2 == 0 ? "one" : "two") + " :" + i);
+        }
+        connection.send(lines);
+        connection.sync(5, TimeUnit.SECONDS);
+        // PINGs are answered straight away, so the PONG doesn't mean the channels are done.
+        parser.getChannelDispatcher().awaitIdle();
+
+        assertEquals(MESSAGES, listener.events.size());
+        assertInOrder("#one", 0);
+        assertInOrder("#two", 1);
+    }
+
+    @Test
+    public void testQuitWaitsForChannelLines() throws InterruptedException, TimeoutException {
+        final List<String> lines = new ArrayList<>();
+        for (int i = 0; i < MESSAGES; i++) {
+            lines.add(":talker!user@host PRIVMSG #" + (i % 2 == 0 ? "one" : "two") + " :" + i);
+        }
+        lines.add(":talker!user@host QUIT :Bye");
+        connection.send(lines);
+        connection.sync(5, TimeUnit.SECONDS);
+
+        // Both channels' quits follow every message, and the client was still known to each.
+        final List<String> events = listener.events;
+        assertEquals(MESSAGES + 2, events.size());
+        assertTrue(events.subList(MESSAGES, MESSAGES + 2).stream()
+                .allMatch(event -> event.endsWith(" quit")));
+        assertEquals(MESSAGES, events.stream().filter(event -> event.contains(" talker ")).count());
+    }
+
+    @Test
+    public void testDisconnectWaitsForChannelLines()
+            throws InterruptedException, TimeoutException {
+        final List<String> lines = new ArrayList<>();
+        for (int i = 0; i < MESSAGES; i++) {
+            lines.add(":talker!user@host PRIVMSG #" + (i % 2 == 0 ? "one" : "two") + " :" + i);
+        }
+        listener.delay = true;
+        connection.send(lines);
+        connection.sync(5, TimeUnit.SECONDS);
+        parser.disconnect("");
+
+        // Every message was processed before the channels were forgotten.
+        assertEquals(MESSAGES, listener.events.size());
+        assertEquals(0, listener.stale.get());
+    }
+
+    @Test
+    public void testSharedStateUpdatedBeforeDispatch()
+            throws InterruptedException, TimeoutException {
+        final List<String> lines = new ArrayList<>();
+        lines.add(":shared JOIN #one");
+        lines.add(":shared JOIN #two");
+        for (char mode : UNKNOWN_MODES.toCharArray()) {
+            lines.add(":shared!user@host PRIVMSG #one :" + mode);
+            lines.add(":shared!user@host PRIVMSG #two :" + mode);
+            lines.add(":shared!user@host MODE #one +" + mode);
+            lines.add(":shared!user@host MODE #two +" + mode);
+        }
+        connection.send(lines);
+        connection.sync(5, TimeUnit.SECONDS);
+        parser.getChannelDispatcher().awaitIdle();
+
+        assertEquals("host", parser.getClient("shared").getHostname());
+        assertEquals("user", parser.getClient("shared").getUsername());
+        // Each unknown mode was learnt once, and applied to both channels.
+        final String modes = parser.getBooleanChannelModes();
+        for (char mode : UNKNOWN_MODES.toCharArray()) {
+            assertEquals(modes.indexOf(mode), modes.lastIndexOf(mode));
+            assertTrue(modes.indexOf(mode) != -1);
+            assertTrue(parser.getChannel("#one").getModes().indexOf(mode) != -1);
+            assertTrue(parser.getChannel("#two").getModes().indexOf(mode) != -1);
+        }
+    }
+
+    private void assertInOrder(final String channel, final int first) {
+        int expected = first;
+        for (String event : listener.events) {
+            if (event.startsWith(channel + ' ')) {
+                assertEquals(channel + " talker " + expected, event);
+                expected += 2;
+            }
+        }
+        assertEquals(MESSAGES + first, expected);
+    }
+
+    @Listener(references = References.Strong)
+    private static final class OrderListener {
+
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger stale = new AtomicInteger();
+        volatile boolean delay;
+
+        @Handler
+        public void onMessage(final ChannelMessageEvent event) throws InterruptedException {
+            if (delay) {
+                Thread.sleep(1);
+            }
+            if (event.getParser().getChannel(event.getChannel().getName()) == null) {
+                stale.incrementAndGet();
+            }
+            events.add(event.getChannel().getName() + ' ' + event.getClient().getClient()
+                    .getNickname() + ' ' + event.getMessage());
+        }
+
+        @Handler
+        public void onQuit(final ChannelQuitEvent event) {
+            events.add(event.getChannel().getName() + " quit");
+        }
+
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.integration;
+
+import com.dmdirc.parser.common.ChannelJoinRequest;
+import com.dmdirc.parser.common.MyInfo;
+import com.dmdirc.parser.events.ChannelPartEvent;
+import com.dmdirc.parser.events.ChannelSelfJoinEvent;
+import com.dmdirc.parser.events.ServerReadyEvent;
+import com.dmdirc.parser.irc.IRCChannelInfo;
+import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.IRCParserCheckpoint;
+import com.dmdirc.parser.irc.integration.util.FakeIrcServer;
+import com.dmdirc.parser.irc.integration.util.JoinWaiter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.engio.mbassy.listener.Handler;
+import net.engio.mbassy.listener.Listener;
+import net.engio.mbassy.listener.References;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CheckpointReconnectTest {
+
+    @Rule
+    public final FakeIrcServer server = new FakeIrcServer();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final EventListener listener = new EventListener();
+    private Path file;
+    private IRCParser parser;
+
+    @Before
+    public void setUp() throws IOException, InterruptedException, TimeoutException {
+        server.getChannel("#seed").addMember("stayer!s@stay.host", "");
+        server.getChannel("#gone").addMember("ghost!g@ghost.host", "");
+        file = folder.newFile("checkpoint").toPath();
+
+        // Build up some state on a first connection, and checkpoint it.
+        final MyInfo myInfo = new MyInfo();
+        myInfo.setNickname("me");
+        final IRCParser first = new IRCParser(myInfo, server.getURI());
+        first.setAutoJoinChannels(new ChannelJoinRequest("#seed"), new ChannelJoinRequest("#gone"));
+        final EventListener firstListener = new EventListener();
+        first.getCallbackManager().subscribe(firstListener);
+        final JoinWaiter joins = new JoinWaiter(first);
+        first.connect();
+        joins.await(5, TimeUnit.SECONDS);
+        try (IRCParserCheckpoint checkpoint = new IRCParserCheckpoint(first, file)) {
+            checkpoint.write();
+        }
+        first.disconnect("");
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.getConnection("me") != null && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull(server.getConnection("me"));
+
+        parser = new IRCParser(new MyInfo(), server.getURI());
+        IRCParserCheckpoint.restore(parser, file);
+        parser.getCallbackManager().subscribe(listener);
+        assertNotNull(parser.getChannel("#gone"));
+        assertNotNull(parser.getState().getClient("ghost"));
+    }
+
+    @After
+    public void tearDown() {
+        parser.disconnect("");
+    }
+
+    @Test
+    public void testRejoinAdoptsSeededChannel() throws InterruptedException, TimeoutException {
+        final IRCChannelInfo seeded = parser.getChannel("#seed");
+        parser.setAutoJoinChannels(new ChannelJoinRequest("#seed"));
+        final JoinWaiter joins = new JoinWaiter(parser);
+        parser.connect();
+        joins.await(5, TimeUnit.SECONDS);
+
+        assertEquals(Collections.singletonList("SELFJOIN #seed"), listener.events);
+        assertSame(seeded, parser.getChannel("#seed"));
+        assertFalse(seeded.isSeeded());
+        assertEquals(2, seeded.getChannelClientCount());
+        assertNotNull(parser.getState().getClient("stayer"));
+
+        // The channel we didn't rejoin, and the client only it knew about, are gone.
+        assertEquals(1, parser.getChannels().size());
+        assertNull(parser.getChannel("#gone"));
+        assertNull(parser.getState().getClient("ghost"));
+    }
+
+    @Test
+    public void testFailedRejoinRemovesSeededChannel()
+            throws InterruptedException, TimeoutException {
+        final Semaphore refused = new Semaphore(0);
+        server.setHandler("JOIN", (connection, args) -> {
+            connection.sendNumeric("474", args[1] + " :Cannot join channel (+b)");
+            refused.release();
+            return true;
+        });
+        parser.setAutoJoinChannels(new ChannelJoinRequest("#gone"));
+        parser.connect();
+        assertTrue(listener.ready.tryAcquire(5, TimeUnit.SECONDS));
+        // Only sync once the refusal has been sent, so the PONG follows it.
+        assertTrue(refused.tryAcquire(5, TimeUnit.SECONDS));
+        server.getConnection("me").sync(5, TimeUnit.SECONDS);
+
+        assertTrue(listener.events.isEmpty());
+        assertTrue(parser.getChannels().isEmpty());
+        assertNull(parser.getState().getClient("ghost"));
+        assertNull(parser.getState().getClient("stayer"));
+    }
+
+    @Listener(references = References.Strong)
+    private static final class EventListener {
+
+        final Semaphore ready = new Semaphore(0);
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        @Handler
+        public void onReady(final ServerReadyEvent event) {
+            ready.release();
+        }
+
+        @Handler
+        public void onSelfJoin(final ChannelSelfJoinEvent event) {
+            events.add("SELFJOIN " + event.getChannel().getName());
+        }
+
+        @Handler
+        public void onPart(final ChannelPartEvent event) {
+            events.add("PART " + event.getChannel().getName());
+        }
+
+    }
+
+}
@@ -25,9 +25,8 @@ package com.dmdirc.parser.irc.integration;
 import com.dmdirc.parser.events.ServerReadyEvent;
 import com.dmdirc.parser.interfaces.Parser;
 import com.dmdirc.parser.irc.IRCParser;
-import com.dmdirc.parser.irc.integration.util.DockerContainerRule;
+import com.dmdirc.parser.irc.integration.util.FakeIrcServer;
 
-import java.net.URI;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
@@ -38,20 +37,21 @@ import net.engio.mbassy.listener.Handler;
 import net.engio.mbassy.listener.Listener;
 import net.engio.mbassy.listener.References;
 
+import static org.junit.Assert.assertTrue;
+
 public class ExampleTest {
 
     @Rule
-    public final DockerContainerRule containerRule =
-            new DockerContainerRule("cloudposse/unrealircd");
+    public final FakeIrcServer server = new FakeIrcServer();
 
     @Test
     public void testBasicConnect() throws InterruptedException {
-        final Parser ircParser = new IRCParser(URI.create(
-                "irc://" + containerRule.getContainerIpAddress()));
+        final Parser ircParser = new IRCParser(server.getURI());
         final ConnectListener listener = new ConnectListener();
         ircParser.getCallbackManager().subscribe(listener);
         ircParser.connect();
-        listener.connected.tryAcquire(2500, TimeUnit.MILLISECONDS);
+        assertTrue(listener.connected.tryAcquire(2500, TimeUnit.MILLISECONDS));
+        ircParser.disconnect("");
     }
 
     @Listener(references = References.Strong)
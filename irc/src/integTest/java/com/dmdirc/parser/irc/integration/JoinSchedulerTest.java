@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.integration;
+
+import com.dmdirc.parser.common.ChannelJoinRequest;
+import com.dmdirc.parser.common.MyInfo;
+import com.dmdirc.parser.events.ServerReadyEvent;
+import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.JoinScheduler;
+import com.dmdirc.parser.irc.events.JoinProgressEvent;
+import com.dmdirc.parser.irc.integration.util.FakeIrcServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import net.engio.mbassy.listener.Handler;
+import net.engio.mbassy.listener.Listener;
+import net.engio.mbassy.listener.References;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JoinSchedulerTest {
+
+    private static final int CHANNELS = 500;
+
+    @Rule
+    public final FakeIrcServer server = new FakeIrcServer();
+
+    private IRCParser parser;
+
+    @After
+    public void tearDown() {
+        if (parser != null) {
+            parser.disconnect("");
+        }
+    }
+
+    @Test
+    public void testJoinsManyChannelsWithoutFlooding() throws InterruptedException {
+        final AtomicInteger unsynced = new AtomicInteger();
+        final AtomicInteger maxUnsynced = new AtomicInteger();
+        final AtomicInteger joinLines = new AtomicInteger();
+        for (String command : new String[]{"MODE", "WHO"}) {
+            server.setHandler(command, (connection, args) -> {
+                maxUnsynced.accumulateAndGet(unsynced.incrementAndGet(), Math::max);
+                return false;
+            });
+        }
+        server.setHandler("PING", (connection, args) -> {
+            unsynced.set(0);
+            return false;
+        });
+        server.setHandler("JOIN", (connection, args) -> {
+            joinLines.incrementAndGet();
+            return false;
+        });
+
+        final MyInfo myInfo = new MyInfo();
+        myInfo.setNickname("joiner");
+        parser = new IRCParser(myInfo, server.getURI());
+        final List<ChannelJoinRequest> channels = new ArrayList<>();
+        for (int i = 0; i < CHANNELS; i++) {
+            channels.add(new ChannelJoinRequest("#channel" + i));
+        }
+        parser.setAutoJoinChannels(channels.toArray(new ChannelJoinRequest[CHANNELS]));
+        final ProgressListener listener = new ProgressListener();
+        parser.getCallbackManager().subscribe(listener);
+        parser.connect();
+
+        assertTrue(listener.ready.tryAcquire(5, TimeUnit.SECONDS));
+        assertTrue(listener.complete.await(30, TimeUnit.SECONDS));
+
+        assertEquals(CHANNELS, parser.getChannels().size());
+        assertEquals(CHANNELS, listener.last.getJoined());
+        assertTrue(joinLines.get() < CHANNELS / 10);
+        assertTrue(maxUnsynced.get() <= JoinScheduler.DEFAULT_WINDOW);
+        assertTrue(parser.getChannel("#channel0").hasGotListModes());
+    }
+
+    @Listener(references = References.Strong)
+    private static final class ProgressListener {
+
+        final Semaphore ready = new Semaphore(0);
+        final CountDownLatch complete = new CountDownLatch(1);
+        volatile JoinProgressEvent last;
+
+        @Handler
+        public void onReady(final ServerReadyEvent event) {
+            ready.release();
+        }
+
+        @Handler
+        public void onProgress(final JoinProgressEvent event) {
+            last = event;
+            if (event.isJoinComplete() && event.getPendingQueries() == 0) {
+                complete.countDown();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.integration;
+
+import com.dmdirc.parser.common.ChannelJoinRequest;
+import com.dmdirc.parser.common.MyInfo;
+import com.dmdirc.parser.events.ChannelListModeEvent;
+import com.dmdirc.parser.events.ChannelNamesEvent;
+import com.dmdirc.parser.irc.IRCChannelInfo;
+import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.ListModePolicy;
+import com.dmdirc.parser.irc.integration.util.FakeChannel;
+import com.dmdirc.parser.irc.integration.util.FakeIrcServer;
+import com.dmdirc.parser.irc.integration.util.JoinWaiter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import net.engio.mbassy.listener.Handler;
+import net.engio.mbassy.listener.Listener;
+import net.engio.mbassy.listener.References;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ListModePolicyTest {
+
+    private static final String NICKNAME = "lister";
+
+    @Rule
+    public final FakeIrcServer server = new FakeIrcServer();
+
+    private final List<String> listQueries = Collections.synchronizedList(new ArrayList<>());
+    private final Set<String> unsyncedChannels = new HashSet<>();
+    private final AtomicInteger maxUnsyncedChannels = new AtomicInteger();
+    private final ListModeListener listener = new ListModeListener();
+    private IRCParser parser;
+
+    @Before
+    public void setUp() {
+        server.setHandler("MODE", (connection, args) -> {
+            if (args.length == 3 && args[2].matches("[beI]+")) {
+                listQueries.add(args[1]);
+                synchronized (unsyncedChannels) {
+                    unsyncedChannels.add(args[1]);
+                    maxUnsyncedChannels.accumulateAndGet(unsyncedChannels.size(), Math::max);
+                }
+            }
+            return false;
+        });
+        server.setHandler("PING", (connection, args) -> {
+            synchronized (unsyncedChannels) {
+                unsyncedChannels.clear();
+            }
+            return false;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        if (parser != null) {
+            parser.disconnect("");
+        }
+    }
+
+    @Test
+    public void testEagerFetchesOnJoin() throws InterruptedException, TimeoutException {
+        connectAndJoin(ListModePolicy.EAGER, "#one", "#two");
+
+        assertTrue(listener.listModes.tryAcquire(2, 5, TimeUnit.SECONDS));
+        assertTrue(parser.getChannel("#one").hasGotListModes());
+        assertTrue(parser.getChannel("#two").hasGotListModes());
+    }
+
+    @Test
+    public void testLazyFetchesOnFirstUse() throws InterruptedException, TimeoutException {
+        server.getChannel("#lazy").addListItem('b', "*!*@banned");
+        connectAndJoin(ListModePolicy.LAZY, "#lazy");
+        server.getConnection(NICKNAME).sync(5, TimeUnit.SECONDS);
+        assertTrue(listQueries.isEmpty());
+
+        final IRCChannelInfo channel = parser.getChannel("#lazy");
+        assertTrue(channel.getListMode('b').isEmpty());
+        assertTrue(listener.listModes.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals("*!*@banned", channel.getListMode('b').iterator().next().getItem());
+        assertEquals(1, listQueries.size());
+    }
+
+    @Test
+    public void testOppedFetchesOnlyWhereOpped() throws InterruptedException, TimeoutException {
+        final FakeChannel busy = server.getChannel("#busy");
+        busy.addMember("owner!owner@elsewhere", "o");
+        connectAndJoin(ListModePolicy.OPPED, "#mine", "#busy");
+
+        assertTrue(listener.listModes.tryAcquire(5, TimeUnit.SECONDS));
+        server.getConnection(NICKNAME).sync(5, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("#mine"), listQueries);
+        assertFalse(parser.getChannel("#busy").hasAskedForListModes());
+
+        busy.getMember(NICKNAME).setMode('o', true);
+        server.broadcast(busy, ":owner!owner@elsewhere MODE #busy +o " + NICKNAME, null);
+
+        assertTrue(listener.listModes.tryAcquire(5, TimeUnit.SECONDS));
+        assertTrue(parser.getChannel("#busy").hasGotListModes());
+        assertEquals(2, listQueries.size());
+    }
+
+    @Test
+    public void testBackgroundFetchesOneChannelAtATime()
+            throws InterruptedException, TimeoutException {
+        final String[] channels = new String[20];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = "#background" + i;
+        }
+        connectAndJoin(ListModePolicy.BACKGROUND, channels);
+
+        assertTrue(listener.listModes.tryAcquire(channels.length, 10, TimeUnit.SECONDS));
+        assertEquals(channels.length, listQueries.size());
+        assertEquals(1, maxUnsyncedChannels.get());
+        for (String channel : channels) {
+            assertTrue(parser.getChannel(channel).hasGotListModes());
+        }
+    }
+
+    @Test
+    public void testManualNeverFetches() throws InterruptedException, TimeoutException {
+        connectAndJoin(ListModePolicy.MANUAL, "#manual");
+        parser.getChannel("#manual").getListMode('b');
+        server.getConnection(NICKNAME).sync(5, TimeUnit.SECONDS);
+
+        assertTrue(listQueries.isEmpty());
+        assertFalse(parser.getAutoListMode());
+    }
+
+    private void connectAndJoin(final ListModePolicy policy, final String... channels)
+            throws InterruptedException, TimeoutException {
+        final MyInfo myInfo = new MyInfo();
+        myInfo.setNickname(NICKNAME);
+        parser = new IRCParser(myInfo, server.getURI());
+        parser.setListModePolicy(policy);
+        final List<ChannelJoinRequest> requests = new ArrayList<>();
+        for (String channel : channels) {
+            requests.add(new ChannelJoinRequest(channel));
+        }
+        parser.setAutoJoinChannels(requests.toArray(new ChannelJoinRequest[requests.size()]));
+        parser.getCallbackManager().subscribe(listener);
+        final JoinWaiter joins = new JoinWaiter(parser);
+        parser.connect();
+
+        joins.await(10, TimeUnit.SECONDS);
+        assertTrue(listener.names.tryAcquire(channels.length, 5, TimeUnit.SECONDS));
+    }
+
+    @Listener(references = References.Strong)
+    private static final class ListModeListener {
+
+        final Semaphore names = new Semaphore(0);
+        final Semaphore listModes = new Semaphore(0);
+
+        @Handler
+        public void onNames(final ChannelNamesEvent event) {
+            names.release();
+        }
+
+        @Handler
+        public void onListModes(final ChannelListModeEvent event) {
+            listModes.release();
+        }
+
+    }
+
+}
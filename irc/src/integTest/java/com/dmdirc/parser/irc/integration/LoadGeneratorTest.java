@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.integration;
+
+import com.dmdirc.parser.common.MyInfo;
+import com.dmdirc.parser.interfaces.ChannelInfo;
+import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.integration.util.FakeChannel;
+import com.dmdirc.parser.irc.integration.util.FakeIrcServer;
+import com.dmdirc.parser.irc.integration.util.JoinWaiter;
+import com.dmdirc.parser.irc.integration.util.LoadGenerator;
+import com.dmdirc.parser.irc.integration.util.LoadResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class LoadGeneratorTest {
+
+    private static final int CHANNELS = 200;
+    private static final int USERS_PER_CHANNEL = 50;
+    private static final int USER_POOL = 2000;
+
+    @Rule
+    public final FakeIrcServer server = new FakeIrcServer();
+
+    private final List<IRCParser> parsers = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        parsers.forEach(parser -> parser.disconnect(""));
+    }
+
+    @Test
+    public void testJoinNamesWhoAndMode() throws InterruptedException, TimeoutException {
+        final IRCParser parser = connect("tester");
+        server.awaitRegistrations(1, 5, TimeUnit.SECONDS);
+        final FakeChannel fake = server.getChannel("#test");
+        fake.addMember("alice!a@example.com", "o");
+        fake.addMember("bob!b@example.com", "v");
+        fake.addListItem('b', "*!*@evil.example.com");
+
+        // The parser requests modes, list modes and WHO in response to the join.
+        final JoinWaiter waiter = new JoinWaiter(parser);
+        parser.joinChannel("#test");
+        waiter.await(5, TimeUnit.SECONDS);
+
+        final ChannelInfo channel = parser.getChannel("#test");
+        assertNotNull(channel);
+        assertEquals(3, channel.getChannelClientCount());
+        assertEquals("o", channel.getChannelClient("alice").getAllModes());
+        assertEquals("v", channel.getChannelClient("bob").getAllModes());
+        assertEquals("example.com", channel.getChannelClient("alice").getClient().getHostname());
+    }
+
+    @Test
+    public void testLoad() throws InterruptedException, TimeoutException {
+        final LoadGenerator generator = new LoadGenerator(server, 60, TimeUnit.SECONDS);
+        for (int i = 0; i < 3; i++) {
+            generator.addParser(connect("load" + i));
+        }
+        server.awaitRegistrations(3, 5, TimeUnit.SECONDS);
+
+        final LoadResult populate = generator.populate(CHANNELS, USERS_PER_CHANNEL, USER_POOL);
+        assertEquals(CHANNELS * 3, populate.getEvents());
+        for (IRCParser parser : parsers) {
+            assertEquals(CHANNELS, parser.getChannels().size());
+            assertEquals(USERS_PER_CHANNEL + 3,
+                    parser.getChannel("#load0").getChannelClientCount());
+        }
+
+        final LoadResult flood = generator.flood(10000);
+        assertEquals(30000, flood.getEvents());
+
+        generator.netsplit(10);
+        for (IRCParser parser : parsers) {
+            assertEquals(USERS_PER_CHANNEL + 3 - 5,
+                    parser.getChannel("#load0").getChannelClientCount());
+        }
+
+        generator.netjoin();
+        for (IRCParser parser : parsers) {
+            assertEquals(USERS_PER_CHANNEL + 3,
+                    parser.getChannel("#load0").getChannelClientCount());
+            assertEquals("o", parser.getChannel("#load0").getChannelClient("user0").getAllModes());
+        }
+    }
+
+    private IRCParser connect(final String nickname) {
+        final MyInfo myInfo = new MyInfo();
+        myInfo.setNickname(nickname);
+        final IRCParser parser = new IRCParser(myInfo, server.getURI());
+        parsers.add(parser);
+        parser.connect();
+        return parser;
+    }
+
+}
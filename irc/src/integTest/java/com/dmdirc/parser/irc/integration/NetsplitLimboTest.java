@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.parser.irc.integration;
+
+import com.dmdirc.parser.common.ChannelJoinRequest;
+import com.dmdirc.parser.common.MyInfo;
+import com.dmdirc.parser.irc.IRCChannelClientInfo;
+import com.dmdirc.parser.irc.IRCClientInfo;
+import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.NetsplitLimbo;
+import com.dmdirc.parser.irc.integration.util.FakeChannel;
+import com.dmdirc.parser.irc.integration.util.FakeIrcConnection;
+import com.dmdirc.parser.irc.integration.util.FakeIrcServer;
+import com.dmdirc.parser.irc.integration.util.JoinWaiter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NetsplitLimboTest {
+
+    @Rule
+    public final FakeIrcServer server = new FakeIrcServer();
+
+    private IRCParser parser;
+    private FakeIrcConnection connection;
+
+    @Before
+    public void setUp() throws InterruptedException, TimeoutException {
+        final FakeChannel channel = server.getChannel("#limbo");
+        channel.addMember("split!user@far.host", "o");
+
+        final MyInfo myInfo = new MyInfo();
+        myInfo.setNickname("watcher");
+        parser = new IRCParser(myInfo, server.getURI());
+        parser.setAutoJoinChannels(new ChannelJoinRequest("#limbo"));
+        final JoinWaiter joins = new JoinWaiter(parser);
+        parser.connect();
+        joins.await(5, TimeUnit.SECONDS);
+        connection = server.getConnection("watcher");
+    }
+
+    @After
+    public void tearDown() {
+        parser.disconnect("");
+    }
+
+    @Test
+    public void testRestoresClientAfterNetsplit() throws InterruptedException, TimeoutException {
+        final IRCChannelClientInfo member = getMember();
+        member.getClient().setRealName("Split User");
+        member.getMap().put("key", "value");
+
+        connection.send(":split!user@far.host QUIT :far.example.com near.example.com");
+        connection.sync(5, TimeUnit.SECONDS);
+        assertEquals(1, parser.getNetsplitLimbo().size());
+
+        connection.send(":split!user@far.host JOIN #limbo");
+        connection.sync(5, TimeUnit.SECONDS);
+
+        final IRCChannelClientInfo restored = getMember();
+        assertSame(member, restored);
+        assertSame(member.getClient(), parser.getState().getClient("split"));
+        assertEquals("Split User", restored.getClient().getRealname());
+        assertEquals("value", restored.getMap().get("key"));
+        assertEquals("", restored.getAllModes());
+        assertEquals(0, parser.getNetsplitLimbo().size());
+    }
+
+    @Test
+    public void testDoesNotParkOrdinaryQuits() throws InterruptedException, TimeoutException {
+        final IRCChannelClientInfo member = getMember();
+
+        connection.send(":split!user@far.host QUIT :Gone to lunch");
+        connection.send(":split!user@far.host JOIN #limbo");
+        connection.sync(5, TimeUnit.SECONDS);
+
+        assertNotSame(member, getMember());
+        assertEquals(0, parser.getNetsplitLimbo().size());
+    }
+
+    @Test
+    public void testDoesNotRestoreDifferentUser() throws InterruptedException, TimeoutException {
+        final IRCClientInfo client = getMember().getClient();
+
+        connection.send(":split!user@far.host QUIT :*.net *.split");
+        connection.send(":split!other@elsewhere.host JOIN #limbo");
+        connection.sync(5, TimeUnit.SECONDS);
+
+        assertNotSame(client, getMember().getClient());
+        assertEquals("elsewhere.host", getMember().getClient().getHostname());
+        assertEquals(0, parser.getNetsplitLimbo().size());
+    }
+
+    @Test
+    public void testRecognisesNetsplitReasons() {
+        assertTrue(NetsplitLimbo.isNetsplitReason("hub.example.com leaf.example.com"));
+        assertTrue(NetsplitLimbo.isNetsplitReason("*.net *.split"));
+        assertFalse(NetsplitLimbo.isNetsplitReason("Quit: see you.later tomorrow"));
+        assertFalse(NetsplitLimbo.isNetsplitReason("Ping timeout"));
+    }
+
+    private IRCChannelClientInfo getMember() {
+        return parser.getChannel("#limbo").getChannelClient("split");
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.integration;
+
+import com.dmdirc.parser.common.ChannelJoinRequest;
+import com.dmdirc.parser.common.MyInfo;
+import com.dmdirc.parser.events.ChannelSelfJoinEvent;
+import com.dmdirc.parser.events.ServerReadyEvent;
+import com.dmdirc.parser.irc.CapabilityState;
+import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.NetworkProfile;
+import com.dmdirc.parser.irc.NetworkProfileCache;
+import com.dmdirc.parser.irc.integration.util.FakeIrcServer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.engio.mbassy.listener.Handler;
+import net.engio.mbassy.listener.Listener;
+import net.engio.mbassy.listener.References;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class PipelinedRegistrationTest {
+
+    @Rule
+    public final FakeIrcServer server = new FakeIrcServer();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+    private final List<IRCParser> parsers = new ArrayList<>();
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("profiles").toPath();
+        server.setCapabilities("multi-prefix", "userhost-in-names", "away-notify");
+        for (String command : new String[]{"CAP", "NICK", "USER", "JOIN"}) {
+            server.setHandler(command, (connection, args) -> {
+                received.add(String.join(" ", args));
+                return false;
+            });
+        }
+    }
+
+    @After
+    public void tearDown() {
+        parsers.forEach(parser -> parser.disconnect(""));
+    }
+
+    @Test
+    public void testFirstConnectionWaitsForServerAndStoresProfile()
+            throws InterruptedException, TimeoutException {
+        connectAndAwaitJoins("first");
+
+        assertEquals("CAP LS", received.get(0));
+        assertTrue(received.indexOf("CAP END") > received.indexOf("CAP LS"));
+        assertTrue(received.contains("CAP REQ away-notify"));
+
+        final NetworkProfile profile = new NetworkProfileCache(directory).get(getKey());
+        assertNotNull(profile);
+        assertTrue(profile.getCapabilities().contains("away-notify"));
+        assertEquals("FakeNet", profile.getISupport().get("NETWORK"));
+    }
+
+    @Test
+    public void testReconnectionPipelinesRegistration()
+            throws InterruptedException, TimeoutException {
+        connectAndAwaitJoins("first").disconnect("");
+        received.clear();
+
+        final IRCParser parser = connectAndAwaitJoins("second");
+
+        // Everything was sent before the server's CAP LS reply was seen, in the order the
+        // server processed it.
+        assertEquals("CAP LS", received.get(0));
+        final String request = received.get(1);
+        assertTrue(request.startsWith("CAP REQ "));
+        assertTrue(request.contains("multi-prefix"));
+        assertTrue(request.contains("away-notify"));
+        assertEquals("NICK second", received.get(2));
+        assertTrue(received.get(3).startsWith("USER "));
+        assertEquals("CAP END", received.get(4));
+        assertTrue(received.get(5).startsWith("JOIN "));
+        assertEquals(CapabilityState.ENABLED, parser.getCapabilityState("away-notify"));
+        assertEquals(1, received.stream().filter(line -> line.startsWith("JOIN")).count());
+    }
+
+    @Test
+    public void testReconnectionRetriesWhenCapabilitiesChange()
+            throws InterruptedException, TimeoutException {
+        connectAndAwaitJoins("first").disconnect("");
+        server.setCapabilities("multi-prefix", "userhost-in-names");
+
+        final IRCParser parser = connectAndAwaitJoins("second");
+
+        // The individual retries are sent after the NAK, and their replies can trail our
+        // syncs (whose PONGs jump the output queue), so wait for them explicitly.
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (parser.getCapabilityState("multi-prefix") != CapabilityState.ENABLED
+                && System.nanoTime() < deadline) {
+            server.getConnection("second").sync(5, TimeUnit.SECONDS);
+        }
+        assertEquals(CapabilityState.ENABLED, parser.getCapabilityState("multi-prefix"));
+        assertEquals(CapabilityState.INVALID, parser.getCapabilityState("away-notify"));
+        assertFalse(new NetworkProfileCache(directory).get(getKey()).getCapabilities()
+                .contains("away-notify"));
+    }
+
+    @Test
+    public void testReconnectionRejoinsWhenRegistrationIsDelayed()
+            throws InterruptedException, TimeoutException {
+        connectAndAwaitJoins("first").disconnect("");
+        received.clear();
+
+        // Hold back the first CAP END, so the pipelined JOINs arrive while we're unregistered.
+        final AtomicBoolean delayed = new AtomicBoolean();
+        server.setHandler("CAP", (connection, args) -> {
+            received.add(String.join(" ", args));
+            if (args.length > 1 && "END".equals(args[1]) && delayed.compareAndSet(false, true)) {
+                final Thread thread = new Thread(() -> {
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    server.handle(connection, "CAP END");
+                });
+                thread.setDaemon(true);
+                thread.start();
+                return true;
+            }
+            return false;
+        });
+
+        connectAndAwaitJoins("second");
+        assertEquals(2, received.stream().filter(line -> line.startsWith("JOIN")).count());
+    }
+
+    private IRCParser connectAndAwaitJoins(final String nickname)
+            throws InterruptedException, TimeoutException {
+        final MyInfo myInfo = new MyInfo();
+        myInfo.setNickname(nickname);
+        final IRCParser parser = new IRCParser(myInfo, server.getURI());
+        parser.setNetworkProfileCache(new NetworkProfileCache(directory));
+        parser.setAutoJoinChannels(new ChannelJoinRequest("#one"), new ChannelJoinRequest("#two"));
+        final ReadyListener listener = new ReadyListener();
+        parser.getCallbackManager().subscribe(listener);
+        parsers.add(parser);
+        parser.connect();
+
+        assertTrue(listener.ready.tryAcquire(5, TimeUnit.SECONDS));
+        assertTrue(listener.joined.tryAcquire(2, 5, TimeUnit.SECONDS));
+        assertNotNull(parser.getChannel("#one"));
+        assertNotNull(parser.getChannel("#two"));
+        return parser;
+    }
+
+    private String getKey() {
+        return NetworkProfileCache.getKey(server.getURI().getHost(), server.getURI().getPort());
+    }
+
+    @Listener(references = References.Strong)
+    private static final class ReadyListener {
+
+        final Semaphore ready = new Semaphore(0);
+        final Semaphore joined = new Semaphore(0);
+
+        @Handler
+        public void onReady(final ServerReadyEvent event) {
+            ready.release();
+        }
+
+        @Handler
+        public void onJoin(final ChannelSelfJoinEvent event) {
+            joined.release();
+        }
+
+    }
+
+}
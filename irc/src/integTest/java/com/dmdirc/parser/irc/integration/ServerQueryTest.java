@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.integration;
+
+import com.dmdirc.parser.common.ChannelJoinRequest;
+import com.dmdirc.parser.common.MyInfo;
+import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.QueryFailedException;
+import com.dmdirc.parser.irc.QueryResponse;
+import com.dmdirc.parser.irc.ServerQuery;
+import com.dmdirc.parser.irc.integration.util.FakeIrcServer;
+import com.dmdirc.parser.irc.integration.util.JoinWaiter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ServerQueryTest {
+
+    private static final int QUERIES = 40;
+
+    @Rule
+    public final FakeIrcServer server = new FakeIrcServer();
+
+    private IRCParser parser;
+
+    @After
+    public void tearDown() {
+        if (parser != null) {
+            parser.disconnect("");
+        }
+    }
+
+    @Test
+    public void testMatchesUnlabeledRepliesByTargetAndOrder() throws Exception {
+        connect();
+        checkConcurrentWhois(false);
+    }
+
+    @Test
+    public void testMatchesLabeledReplies() throws Exception {
+        server.setCapabilities("multi-prefix", "batch", "labeled-response");
+        connect();
+        checkConcurrentWhois(true);
+
+        final QueryResponse modes = parser.sendQuery(ServerQuery.channelModes("#queries"))
+                .get(5, TimeUnit.SECONDS);
+        assertTrue(modes.isLabeled());
+        assertEquals(1, modes.getLines("324").size());
+        assertEquals(1, modes.getLines("329").size());
+
+        final QueryResponse who = parser.sendQuery(ServerQuery.who("#queries"))
+                .get(5, TimeUnit.SECONDS);
+        assertEquals(1, who.getLines("352").size());
+        assertEquals(1, who.getLines("315").size());
+    }
+
+    @Test
+    public void testIgnoresRepliesToParserWho() throws Exception {
+        checkOverlappingSync(false);
+    }
+
+    @Test
+    public void testIgnoresRepliesToParserWhox() throws Exception {
+        server.setISupport("WHOX", null);
+        checkOverlappingSync(true);
+    }
+
+    @Test
+    public void testTimesOut() throws Exception {
+        connect();
+        server.setHandler("WHOIS", (connection, args) -> true);
+
+        final CompletableFuture<QueryResponse> future = parser.sendQuery(
+                ServerQuery.whois("querier").withTimeout(100, TimeUnit.MILLISECONDS));
+        // Timeouts are checked as lines arrive, at most once a second.
+        Thread.sleep(1100);
+        server.getConnection("querier").sync(5, TimeUnit.SECONDS);
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Query should have timed out");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+        assertEquals(0, parser.getQueryTracker().getPendingQueries());
+    }
+
+    private void checkConcurrentWhois(final boolean labeled) throws Exception {
+        final List<CompletableFuture<QueryResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < QUERIES; i++) {
+            futures.add(parser.sendQuery(ServerQuery.whois(i % 2 == 0 ? "querier" : "ghost" + i)));
+        }
+
+        for (int i = 0; i < QUERIES; i++) {
+            if (i % 2 == 0) {
+                final QueryResponse response = futures.get(i).get(5, TimeUnit.SECONDS);
+                assertEquals(labeled, response.isLabeled());
+                assertEquals("querier", response.getLines("311").get(0)[3]);
+                assertEquals(1, response.getLines("318").size());
+            } else {
+                try {
+                    futures.get(i).get(5, TimeUnit.SECONDS);
+                    fail("WHOIS for an unknown nickname should fail");
+                } catch (ExecutionException ex) {
+                    final QueryFailedException cause = (QueryFailedException) ex.getCause();
+                    assertEquals("401", cause.getError());
+                    assertEquals("ghost" + i, cause.getResponse().getLines().get(0)[3]);
+                }
+            }
+        }
+
+        server.getConnection("querier").sync(5, TimeUnit.SECONDS);
+        assertEquals(0, parser.getQueryTracker().getPendingQueries());
+        assertFalse(futures.stream().anyMatch(CompletableFuture::isCancelled));
+    }
+
+    private void checkOverlappingSync(final boolean whox) throws Exception {
+        connect();
+        final CountDownLatch synced = new CountDownLatch(1);
+        final String[][] sync = new String[1][];
+        server.setHandler("WHO", (connection, args) -> {
+            if ("#other".equals(args[1])) {
+                // Hold the parser's WHO until the user's query is outstanding.
+                sync[0] = args;
+                synced.countDown();
+                return true;
+            }
+            final String token = sync[0].length > 2
+                    ? sync[0][2].substring(sync[0][2].indexOf(',') + 1) : null;
+            for (String nickname : new String[]{"alice", "bob"}) {
+                if (token == null) {
+                    connection.sendNumeric("352", "#other " + nickname + ' ' + nickname
+                            + ".host irc.example.com " + nickname + " H :0 Real " + nickname);
+                } else {
+                    connection.sendNumeric("354", token + ' ' + nickname + ' ' + nickname
+                            + ".host " + nickname + " H 0 :Real " + nickname);
+                }
+            }
+            connection.sendNumeric("315", "#other :End of /WHO list.");
+            return false;
+        });
+
+        parser.getWhoSync().syncChannel("#other");
+        assertTrue(synced.await(5, TimeUnit.SECONDS));
+        assertEquals(whox, sync[0].length > 2);
+        final QueryResponse who = parser.sendQuery(ServerQuery.who("#queries"))
+                .get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, who.getLines("352").size());
+        assertEquals("#queries", who.getLines("352").get(0)[3]);
+        assertEquals(0, who.getLines("354").size());
+        assertEquals(1, who.getLines("315").size());
+        server.getConnection("querier").sync(5, TimeUnit.SECONDS);
+        assertEquals(0, parser.getQueryTracker().getPendingQueries());
+        assertEquals(0, parser.getWhoSync().getPendingSyncs());
+    }
+
+    private void connect() throws InterruptedException, TimeoutException {
+        final MyInfo myInfo = new MyInfo();
+        myInfo.setNickname("querier");
+        parser = new IRCParser(myInfo, server.getURI());
+        parser.setAutoJoinChannels(new ChannelJoinRequest("#queries"));
+        final JoinWaiter joins = new JoinWaiter(parser);
+        parser.connect();
+        joins.await(5, TimeUnit.SECONDS);
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.integration;
+
+import com.dmdirc.parser.common.AwayState;
+import com.dmdirc.parser.common.ChannelJoinRequest;
+import com.dmdirc.parser.common.MyInfo;
+import com.dmdirc.parser.irc.IRCClientInfo;
+import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.events.UserSyncEvent;
+import com.dmdirc.parser.irc.integration.util.FakeChannel;
+import com.dmdirc.parser.irc.integration.util.FakeIrcConnection;
+import com.dmdirc.parser.irc.integration.util.FakeIrcServer;
+import com.dmdirc.parser.irc.integration.util.JoinWaiter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import net.engio.mbassy.listener.Handler;
+import net.engio.mbassy.listener.Listener;
+import net.engio.mbassy.listener.References;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WhoSyncTest {
+
+    @Rule
+    public final FakeIrcServer server = new FakeIrcServer();
+
+    private final List<String> queries = Collections.synchronizedList(new ArrayList<>());
+    private final SyncListener listener = new SyncListener();
+    private IRCParser parser;
+
+    @Before
+    public void setUp() {
+        final FakeChannel channel = server.getChannel("#sync");
+        channel.addMember("alice!old@old.host", "");
+        channel.addMember("bob!old@old.host", "");
+        channel.addMember("carol!old@old.host", "");
+
+        server.setHandler("WHO", (connection, args) -> {
+            queries.add(String.join(" ", args));
+            if (args.length < 3 || !args[2].startsWith("%")) {
+                return false;
+            }
+            final String token = args[2].substring(args[2].indexOf(',') + 1);
+            final List<String> nicknames = args[1].startsWith("#")
+                    ? Arrays.asList("alice", "bob", "carol") : Arrays.asList(args[1].split(","));
+            for (String nickname : nicknames) {
+                sendWhox(connection, token, nickname);
+            }
+            connection.sendNumeric("315", args[1] + " :End of /WHO list.");
+            return true;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        if (parser != null) {
+            parser.disconnect("");
+        }
+    }
+
+    @Test
+    public void testSyncsChannelWithWhox() throws InterruptedException, TimeoutException {
+        server.setISupport("WHOX", null);
+        connect();
+
+        parser.getWhoSync().syncChannel("#sync");
+        final UserSyncEvent event = listener.syncs.poll(5, TimeUnit.SECONDS);
+
+        assertNotNull(event);
+        assertEquals(Collections.singletonList("#sync"), event.getMasks());
+        assertEquals(3, event.getClients().size());
+        assertTrue(queries.contains("WHO #sync %tuhnfar,1"));
+
+        final IRCClientInfo alice = getClient("alice");
+        assertEquals("alice", alice.getUsername());
+        assertEquals("alice.host", alice.getHostname());
+        assertEquals("alice", alice.getAccountName());
+        assertEquals("Real alice", alice.getRealname());
+        assertEquals(AwayState.AWAY, alice.getAwayState());
+
+        final IRCClientInfo bob = getClient("bob");
+        assertNull(bob.getAccountName());
+        assertEquals(AwayState.HERE, bob.getAwayState());
+        assertEquals(0, parser.getWhoSync().getPendingSyncs());
+    }
+
+    @Test
+    public void testUserWhoDoesNotEndSync() throws InterruptedException, TimeoutException {
+        server.setISupport("WHOX", null);
+        connect();
+
+        // The user's plain WHO is answered first, while the sync is still outstanding.
+        parser.sendRawMessage("WHO #sync");
+        parser.getWhoSync().syncChannel("#sync");
+        final UserSyncEvent event = listener.syncs.poll(5, TimeUnit.SECONDS);
+
+        assertNotNull(event);
+        assertEquals(3, event.getClients().size());
+        assertEquals("alice.host", getClient("alice").getHostname());
+        assertEquals(0, parser.getWhoSync().getPendingSyncs());
+    }
+
+    @Test
+    public void testCombinesNicknamesUpToTargetLimit()
+            throws InterruptedException, TimeoutException {
+        server.setISupport("WHOX", null);
+        server.setISupport("TARGMAX", "JOIN:,WHO:2");
+        connect();
+        queries.clear();
+
+        parser.getWhoSync().syncNicknames(Arrays.asList("alice", "bob", "carol"));
+        final UserSyncEvent event = listener.syncs.poll(5, TimeUnit.SECONDS);
+
+        assertNotNull(event);
+        assertEquals(2, queries.size());
+        assertEquals(2, event.getMasks().size());
+        assertEquals(3, event.getClients().size());
+        assertEquals("carol.host", getClient("carol").getHostname());
+    }
+
+    @Test
+    public void testFallsBackToPlainWho() throws InterruptedException, TimeoutException {
+        connect();
+        queries.clear();
+
+        parser.getWhoSync().syncChannel("#sync");
+        final UserSyncEvent event = listener.syncs.poll(5, TimeUnit.SECONDS);
+
+        assertNotNull(event);
+        assertEquals(Collections.singletonList("WHO #sync"), queries);
+        assertEquals(4, event.getClients().size());
+        assertEquals("old.host", getClient("alice").getHostname());
+    }
+
+    private void connect() throws InterruptedException, TimeoutException {
+        final MyInfo myInfo = new MyInfo();
+        myInfo.setNickname("syncer");
+        parser = new IRCParser(myInfo, server.getURI());
+        parser.setAutoJoinChannels(new ChannelJoinRequest("#sync"));
+        parser.getCallbackManager().subscribe(listener);
+        final JoinWaiter joins = new JoinWaiter(parser);
+        parser.connect();
+        joins.await(5, TimeUnit.SECONDS);
+    }
+
+    private IRCClientInfo getClient(final String nickname) {
+        return parser.getChannel("#sync").getChannelClient(nickname).getClient();
+    }
+
+    private static void sendWhox(final FakeIrcConnection connection, final String token,
+            final String nickname) {
+        final boolean away = "alice".equals(nickname);
+        connection.sendNumeric("354", token + ' ' + nickname + ' ' + nickname + ".host "
+                + nickname + ' ' + (away ? 'G' : 'H') + ' ' + (away ? nickname : "0")
+                + " :Real " + nickname);
+    }
+
+    @Listener(references = References.Strong)
+    private static final class SyncListener {
+
+        final BlockingQueue<UserSyncEvent> syncs = new LinkedBlockingQueue<>();
+
+        @Handler
+        public void onSync(final UserSyncEvent event) {
+            syncs.add(event);
+        }
+
+    }
+
+}
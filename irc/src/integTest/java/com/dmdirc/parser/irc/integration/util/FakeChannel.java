@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.integration.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A channel on a {@link FakeIrcServer}.
+ */
+public class FakeChannel {
+
+    /** The name of the channel. */
+    private final String name;
+    /** The time the channel was created, in seconds since the epoch. */
+    private final long created = System.currentTimeMillis() / 1000;
+    /** Members of the channel, keyed on lower-cased nickname. */
+    private final Map<String, Member> members = new LinkedHashMap<>();
+    /** List mode entries, keyed on mode. */
+    private final Map<Character, List<String>> listModes = new LinkedHashMap<>();
+    /** The channel's boolean and parameter modes, without a leading '+'. */
+    private String modes = "nt";
+    /** The channel's topic, or null if none is set. */
+    private String topic;
+
+    FakeChannel(final String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public synchronized String getModes() {
+        return modes;
+    }
+
+    public synchronized void setModes(final String modes) {
+        this.modes = modes;
+    }
+
+    public synchronized String getTopic() {
+        return topic;
+    }
+
+    public synchronized void setTopic(final String topic) {
+        this.topic = topic;
+    }
+
+    /**
+     * Adds a member to the channel, replacing any existing member with the
+     * same nickname. This does not notify anyone.
+     *
+     * @param hostmask The full hostmask of the member
+     * @param memberModes The prefix modes the member holds, e.g. "o"
+     * @return The new member
+     */
+    public synchronized Member addMember(final String hostmask, final String memberModes) {
+        final Member member = new Member(hostmask, memberModes);
+        members.put(key(member.getNickname()), member);
+        return member;
+    }
+
+    /**
+     * Removes a member from the channel. This does not notify anyone.
+     *
+     * @param nickname The nickname of the member to remove
+     * @return The member that was removed, or null if they were not present
+     */
+    public synchronized Member removeMember(final String nickname) {
+        return members.remove(key(nickname));
+    }
+
+    /**
+     * Gets a member of the channel.
+     *
+     * @param nickname The nickname of the member
+     * @return The member, or null if they are not present
+     */
+    public synchronized Member getMember(final String nickname) {
+        return members.get(key(nickname));
+    }
+
+    /**
+     * Gets a snapshot of the channel's members.
+     *
+     * @return A copy of the current members
+     */
+    public synchronized List<Member> getMembers() {
+        return new ArrayList<>(members.values());
+    }
+
+    /**
+     * Adds an entry to one of the channel's list modes.
+     *
+     * @param mode The list mode
+     * @param item The item to add
+     */
+    public synchronized void addListItem(final char mode, final String item) {
+        listModes.computeIfAbsent(mode, k -> new ArrayList<>()).add(item);
+    }
+
+    /**
+     * Gets the entries of one of the channel's list modes.
+     *
+     * @param mode The list mode
+     * @return A copy of the entries
+     */
+    public synchronized List<String> getListItems(final char mode) {
+        return new ArrayList<>(listModes.getOrDefault(mode, Collections.emptyList()));
+    }
+
+    /**
+     * Gets the key used to index a nickname.
+     *
+     * @param nickname The nickname
+     * @return The lower-cased nickname
+     */
+    private static String key(final String nickname) {
+        return nickname.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * A member of a {@link FakeChannel}.
+     */
+    public static class Member {
+
+        /** The member's full hostmask. */
+        private final String hostmask;
+        /** The member's nickname. */
+        private final String nickname;
+        /** The prefix modes the member holds. */
+        private volatile String modes;
+
+        Member(final String hostmask, final String modes) {
+            this.hostmask = hostmask;
+            final int bang = hostmask.indexOf('!');
+            this.nickname = bang == -1 ? hostmask : hostmask.substring(0, bang);
+            this.modes = modes;
+        }
+
+        public String getHostmask() {
+            return hostmask;
+        }
+
+        public String getNickname() {
+            return nickname;
+        }
+
+        public String getModes() {
+            return modes;
+        }
+
+        /**
+         * Adds or removes a prefix mode.
+         *
+         * @param mode The mode to change
+         * @param adding True to add the mode, false to remove it
+         */
+        public void setMode(final char mode, final boolean adding) {
+            final String current = modes;
+            if (adding && current.indexOf(mode) == -1) {
+                modes = current + mode;
+            } else if (!adding) {
+                modes = current.replace(String.valueOf(mode), "");
+            }
+        }
+
+        /**
+         * Gets the prefixes the member should be shown with.
+         *
+         * @param all True to include all prefixes, false for only the highest
+         * @return The member's prefixes, highest first
+         */
+        public String getPrefixes(final boolean all) {
+            final StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < FakeIrcServer.PREFIX_MODES.length(); i++) {
+                if (modes.indexOf(FakeIrcServer.PREFIX_MODES.charAt(i)) != -1) {
+                    builder.append(FakeIrcServer.PREFIX_CHARS.charAt(i));
+                    if (!all) {
+                        break;
+                    }
+                }
+            }
+            return builder.toString();
+        }
+
+    }
+
+}
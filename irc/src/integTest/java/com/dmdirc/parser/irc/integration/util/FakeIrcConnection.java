@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.integration.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single client connected to a {@link FakeIrcServer}.
+ */
+public class FakeIrcConnection {
+
+    /** Counter used to generate unique sync tokens. */
+    private static final AtomicInteger SYNC_COUNTER = new AtomicInteger();
+
+    /** The server this client is connected to. */
+    private final FakeIrcServer server;
+    /** The underlying socket. */
+    private final Socket socket;
+    /** Reader for lines sent by the client. */
+    private final BufferedReader reader;
+    /** Writer for lines sent to the client. */
+    private final Writer writer;
+    /** Capabilities the client has enabled. */
+    private final Set<String> capabilities = new HashSet<>();
+    /** Outstanding sync requests, keyed on token. */
+    private final Map<String, PendingSync> syncs = new ConcurrentHashMap<>();
+    /** Latch released when the client has registered. */
+    private final CountDownLatch registration = new CountDownLatch(1);
+    /** The client's nickname, or null if not yet given. */
+    private volatile String nickname;
+    /** The client's username, or null if not yet given. */
+    private String username;
+    /** The client's real name. */
+    private String realname;
+    /** Whether the client has started capability negotiation. */
+    private boolean negotiating;
+    /** Lines captured from {@link #capturingThread}. */
+    private final List<String> captured = new ArrayList<>();
+    /** The thread whose lines are being captured, or null. */
+    private volatile Thread capturingThread;
+
+    FakeIrcConnection(final FakeIrcServer server, final Socket socket) throws IOException {
+        this.server = server;
+        this.socket = socket;
+        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                StandardCharsets.UTF_8));
+        this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+                StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads and handles lines from the client until it disconnects.
+     */
+    void run() {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                server.handle(this, line);
+            }
+        } catch (IOException ex) {
+            // Client went away
+        } finally {
+            server.disconnected(this);
+            close();
+        }
+    }
+
+    /**
+     * Sends a single line to the client.
+     *
+     * @param line The line to send, without a line terminator
+     */
+    public void send(final String line) {
+        if (capture(Collections.singletonList(line))) {
+            return;
+        }
+        synchronized (writer) {
+            try {
+                writer.write(line);
+                writer.write("\r\n");
+                writer.flush();
+            } catch (IOException ex) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Sends a number of lines to the client, flushing once at the end.
+     *
+     * @param lines The lines to send, without line terminators
+     */
+    public void send(final Collection<String> lines) {
+        if (capture(lines)) {
+            return;
+        }
+        synchronized (writer) {
+            try {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.write("\r\n");
+                }
+                writer.flush();
+            } catch (IOException ex) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Starts capturing the lines sent to the client by the current thread,
+     * instead of sending them.
+     */
+    void startCapture() {
+        captured.clear();
+        capturingThread = Thread.currentThread();
+    }
+
+    /**
+     * Stops capturing lines.
+     *
+     * @return The lines captured since {@link #startCapture()}
+     */
+    List<String> stopCapture() {
+        capturingThread = null;
+        final List<String> result = new ArrayList<>(captured);
+        captured.clear();
+        return result;
+    }
+
+    private boolean capture(final Collection<String> lines) {
+        if (capturingThread != Thread.currentThread()) {
+            return false;
+        }
+        captured.addAll(lines);
+        return true;
+    }
+
+    /**
+     * Sends a numeric reply from the server to the client.
+     *
+     * @param numeric The numeric to send
+     * @param arguments The arguments to follow the client's nickname
+     */
+    public void sendNumeric(final String numeric, final String arguments) {
+        send(':' + FakeIrcServer.SERVER_NAME + ' ' + numeric + ' '
+                + (nickname == null ? "*" : nickname) + ' ' + arguments);
+    }
+
+    /**
+     * Waits until the client has processed everything sent to it so far. This
+     * sends a PING with a unique token, and waits for the matching PONG.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return The value of {@link System#nanoTime()} when the PONG arrived
+     * @throws InterruptedException If interrupted while waiting
+     * @throws TimeoutException If the client did not reply in time
+     */
+    public long sync(final long timeout, final TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        return requestSync().await(timeout, unit);
+    }
+
+    /**
+     * Sends a PING with a unique token, without waiting for the reply. This
+     * allows several clients to be synchronised at once.
+     *
+     * @return A handle that can be used to wait for the matching PONG
+     */
+    public PendingSync requestSync() {
+        final PendingSync sync = new PendingSync("sync-" + SYNC_COUNTER.incrementAndGet());
+        syncs.put(sync.token, sync);
+        send("PING :" + sync.token);
+        return sync;
+    }
+
+    /**
+     * Waits until the client has completed registration.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return True if the client registered, false if the timeout elapsed
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean awaitRegistration(final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        return registration.await(timeout, unit);
+    }
+
+    /**
+     * Handles a PONG from the client.
+     *
+     * @param token The token that was returned
+     */
+    void pong(final String token) {
+        final PendingSync sync = syncs.remove(token);
+        if (sync != null) {
+            sync.completed = System.nanoTime();
+            sync.latch.countDown();
+        }
+    }
+
+    /**
+     * Closes the connection.
+     */
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            // Already closed
+        }
+    }
+
+    public String getNickname() {
+        return nickname;
+    }
+
+    void setNickname(final String nickname) {
+        this.nickname = nickname;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getRealname() {
+        return realname;
+    }
+
+    void setUser(final String username, final String realname) {
+        this.username = username;
+        this.realname = realname;
+    }
+
+    public String getHostmask() {
+        return nickname + '!' + username + '@' + FakeIrcServer.CLIENT_HOST;
+    }
+
+    public boolean isRegistered() {
+        return registration.getCount() == 0;
+    }
+
+    void setRegistered() {
+        registration.countDown();
+    }
+
+    boolean isNegotiating() {
+        return negotiating;
+    }
+
+    void setNegotiating(final boolean negotiating) {
+        this.negotiating = negotiating;
+    }
+
+    public boolean hasCapability(final String capability) {
+        return capabilities.contains(capability);
+    }
+
+    void addCapability(final String capability) {
+        capabilities.add(capability);
+    }
+
+    /**
+     * A PING sent to a client, whose PONG has not necessarily arrived yet.
+     */
+    public static class PendingSync {
+
+        /** The token sent in the PING. */
+        private final String token;
+        /** Latch released when the PONG arrives. */
+        private final CountDownLatch latch = new CountDownLatch(1);
+        /** The time the PONG arrived. */
+        private volatile long completed;
+
+        PendingSync(final String token) {
+            this.token = token;
+        }
+
+        /**
+         * Waits for the client to reply.
+         *
+         * @param timeout The maximum time to wait
+         * @param unit The unit of the timeout
+         * @return The value of {@link System#nanoTime()} when the PONG arrived
+         * @throws InterruptedException If interrupted while waiting
+         * @throws TimeoutException If the client did not reply in time
+         */
+        public long await(final long timeout, final TimeUnit unit)
+                throws InterruptedException, TimeoutException {
+            if (!latch.await(timeout, unit)) {
+                throw new TimeoutException("No reply to " + token);
+            }
+            return completed;
+        }
+
+    }
+
+}
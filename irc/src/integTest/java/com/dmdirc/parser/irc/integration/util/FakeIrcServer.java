@@ -0,0 +1,913 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.integration.util;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * An in-process stand-in for an IRC server, for use in integration tests.
+ *
+ * <p>The server listens on an ephemeral loopback port, and understands enough
+ * of the protocol for a parser to register (including CAP negotiation), join
+ * channels, and receive NAMES, WHO, WHOIS, MODE and PING traffic. Clients that
+ * enable the labeled-response capability get labeled replies to labeled
+ * commands. Handlers can be registered to replace the behaviour of any
+ * command, and tests can send arbitrary lines to connected clients.
+ *
+ * <p>The server can be used as a JUnit rule, in which case it is started
+ * before each test and stopped afterwards.
+ */
+public class FakeIrcServer extends ExternalResource {
+
+    /** The name the server uses for itself. */
+    public static final String SERVER_NAME = "irc.fake";
+    /** The host given to all connected clients. */
+    public static final String CLIENT_HOST = "127.0.0.1";
+    /** Prefix modes supported by the server, highest first. */
+    static final String PREFIX_MODES = "ov";
+    /** Prefix characters matching {@link #PREFIX_MODES}. */
+    static final String PREFIX_CHARS = "@+";
+    /** Maximum length of a line sent by the server. */
+    private static final int MAX_LINE_LENGTH = 510;
+
+    /** Tokens sent in the 005 (ISUPPORT) reply. */
+    private final Map<String, String> isupport = new LinkedHashMap<>();
+    /** Capabilities offered to clients. */
+    private final List<String> capabilities = new ArrayList<>(
+            Arrays.asList("multi-prefix", "userhost-in-names"));
+    /** Handlers overriding the default behaviour of commands. */
+    private final Map<String, CommandHandler> handlers = new ConcurrentHashMap<>();
+    /** Channels on the server, keyed on lower-cased name. */
+    private final Map<String, FakeChannel> channels = new ConcurrentHashMap<>();
+    /** Registered clients, keyed on lower-cased nickname. */
+    private final Map<String, FakeIrcConnection> nicknames = new ConcurrentHashMap<>();
+    /** All connected clients. */
+    private final List<FakeIrcConnection> connections = new CopyOnWriteArrayList<>();
+    /** The socket accepting new connections. */
+    private ServerSocket serverSocket;
+    /** Counter used to generate batch references. */
+    private int batchCount;
+
+    /**
+     * Creates a new server with a default set of ISUPPORT tokens.
+     */
+    public FakeIrcServer() {
+        isupport.put("NETWORK", "FakeNet");
+        isupport.put("CASEMAPPING", "rfc1459");
+        isupport.put("CHANTYPES", "#");
+        isupport.put("PREFIX", '(' + PREFIX_MODES + ')' + PREFIX_CHARS);
+        isupport.put("CHANMODES", "beI,k,l,imnpst");
+        isupport.put("MODES", "4");
+        isupport.put("NICKLEN", "30");
+        isupport.put("CHANNELLEN", "50");
+        isupport.put("TOPICLEN", "390");
+        isupport.put("EXCEPTS", null);
+        isupport.put("INVEX", null);
+    }
+
+    @Override
+    protected void before() throws Throwable {
+        super.before();
+        start();
+    }
+
+    @Override
+    protected void after() {
+        stop();
+        super.after();
+    }
+
+    /**
+     * Starts listening for connections.
+     *
+     * @throws IOException If the server socket could not be opened
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        final Thread thread = new Thread(this::acceptConnections,
+                "FakeIrcServer accept " + serverSocket.getLocalPort());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the server, disconnecting all clients.
+     */
+    public void stop() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ex) {
+            // Already closed
+        }
+        connections.forEach(FakeIrcConnection::close);
+    }
+
+    /**
+     * Gets a URI that a parser can use to connect to this server.
+     *
+     * @return The server's URI
+     */
+    public URI getURI() {
+        return URI.create("irc://" + CLIENT_HOST + ':' + serverSocket.getLocalPort());
+    }
+
+    /**
+     * Sets a token to be sent in the 005 (ISUPPORT) reply.
+     *
+     * @param key The name of the token
+     * @param value The value of the token, or null for a token without a value
+     */
+    public void setISupport(final String key, final String value) {
+        isupport.put(key, value);
+    }
+
+    /**
+     * Sets the capabilities offered to clients during CAP negotiation.
+     *
+     * @param offered The capabilities to offer
+     */
+    public void setCapabilities(final String... offered) {
+        capabilities.clear();
+        capabilities.addAll(Arrays.asList(offered));
+    }
+
+    /**
+     * Registers a handler for a command, replacing the server's default
+     * behaviour whenever the handler reports it has handled the line.
+     *
+     * @param command The command to handle
+     * @param handler The handler to use
+     */
+    public void setHandler(final String command, final CommandHandler handler) {
+        handlers.put(command.toUpperCase(Locale.ENGLISH), handler);
+    }
+
+    /**
+     * Gets all currently connected clients.
+     *
+     * @return The connected clients, in order of connection
+     */
+    public List<FakeIrcConnection> getConnections() {
+        return new ArrayList<>(connections);
+    }
+
+    /**
+     * Gets the registered client with the given nickname.
+     *
+     * @param nickname The nickname to look up
+     * @return The client, or null if there is no such client
+     */
+    public FakeIrcConnection getConnection(final String nickname) {
+        return nicknames.get(key(nickname));
+    }
+
+    /**
+     * Waits until at least the given number of clients have registered.
+     *
+     * @param count The number of clients to wait for
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return The registered clients
+     * @throws InterruptedException If interrupted while waiting
+     * @throws TimeoutException If not enough clients registered in time
+     */
+    public synchronized List<FakeIrcConnection> awaitRegistrations(final int count,
+            final long timeout, final TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (nicknames.size() < count) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException(nicknames.size() + " of " + count + " registered");
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        final List<FakeIrcConnection> registered = new ArrayList<>();
+        connections.stream().filter(FakeIrcConnection::isRegistered).forEach(registered::add);
+        return registered;
+    }
+
+    /**
+     * Gets a channel, creating it if it does not exist.
+     *
+     * @param name The name of the channel
+     * @return The channel
+     */
+    public FakeChannel getChannel(final String name) {
+        return channels.computeIfAbsent(key(name), k -> new FakeChannel(name));
+    }
+
+    /**
+     * Gets all channels on the server.
+     *
+     * @return The server's channels
+     */
+    public Collection<FakeChannel> getChannels() {
+        return new ArrayList<>(channels.values());
+    }
+
+    /**
+     * Sends a line to every client that is a member of a channel.
+     *
+     * @param channel The channel to send to
+     * @param line The line to send
+     * @param except A client not to send the line to, or null
+     */
+    public void broadcast(final FakeChannel channel, final String line,
+            final FakeIrcConnection except) {
+        for (FakeChannel.Member member : channel.getMembers()) {
+            final FakeIrcConnection connection = nicknames.get(key(member.getNickname()));
+            if (connection != null && connection != except) {
+                connection.send(line);
+            }
+        }
+    }
+
+    /**
+     * Gets the clients that are members of a channel.
+     *
+     * @param channel The channel to check
+     * @return The connected members of the channel
+     */
+    public List<FakeIrcConnection> getLocalMembers(final FakeChannel channel) {
+        final List<FakeIrcConnection> result = new ArrayList<>();
+        for (FakeChannel.Member member : channel.getMembers()) {
+            final FakeIrcConnection connection = nicknames.get(key(member.getNickname()));
+            if (connection != null) {
+                result.add(connection);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Accepts connections until the server socket is closed.
+     */
+    private void acceptConnections() {
+        try {
+            while (!serverSocket.isClosed()) {
+                final Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                final FakeIrcConnection connection = new FakeIrcConnection(this, socket);
+                connections.add(connection);
+                final Thread thread = new Thread(connection::run,
+                        "FakeIrcServer client " + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException ex) {
+            // Server socket closed
+        }
+    }
+
+    /**
+     * Handles a line received from a client. Tests may also call this to act
+     * on a line that a {@link CommandHandler} previously held back.
+     *
+     * @param connection The client that sent the line
+     * @param line The line that was sent
+     */
+    public synchronized void handle(final FakeIrcConnection connection, final String line) {
+        final String[] args = tokenise(line);
+        if (args.length == 0) {
+            return;
+        }
+
+        final String label = getLabel(line);
+        if (label == null || !connection.hasCapability("labeled-response")) {
+            dispatch(connection, args);
+            return;
+        }
+
+        connection.startCapture();
+        try {
+            dispatch(connection, args);
+        } finally {
+            sendLabeled(connection, label, connection.stopCapture());
+        }
+    }
+
+    /**
+     * Sends the reply to a labeled command, as a single labeled line, a
+     * labeled ACK if there was no reply, or a labeled-response batch.
+     *
+     * @param connection The client to send to
+     * @param label The label the client sent
+     * @param lines The lines of the reply
+     */
+    private void sendLabeled(final FakeIrcConnection connection, final String label,
+            final List<String> lines) {
+        final String tag = "@label=" + label + ' ';
+        if (lines.isEmpty()) {
+            connection.send(tag + ':' + SERVER_NAME + " ACK");
+        } else if (lines.size() == 1) {
+            connection.send(tag + lines.get(0));
+        } else {
+            final String reference = "lr" + ++batchCount;
+            final List<String> batch = new ArrayList<>();
+            batch.add(tag + ':' + SERVER_NAME + " BATCH +" + reference + " labeled-response");
+            for (String line : lines) {
+                batch.add("@batch=" + reference + ' ' + line);
+            }
+            batch.add(':' + SERVER_NAME + " BATCH -" + reference);
+            connection.send(batch);
+        }
+    }
+
+    /**
+     * Gets the value of the label tag of a line.
+     *
+     * @param line The line to check
+     * @return The label, or null if the line doesn't have one
+     */
+    private static String getLabel(final String line) {
+        if (!line.startsWith("@")) {
+            return null;
+        }
+        final int space = line.indexOf(' ');
+        for (String tag : line.substring(1, space == -1 ? line.length() : space).split(";")) {
+            if (tag.startsWith("label=")) {
+                return tag.substring("label=".length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Handles a command from a client.
+     *
+     * @param connection The client that sent the command
+     * @param args The upper-cased command, followed by its arguments
+     */
+    private void dispatch(final FakeIrcConnection connection, final String... args) {
+        final CommandHandler handler = handlers.get(args[0]);
+        if (handler != null && handler.handle(connection, args)) {
+            return;
+        }
+
+        switch (args[0]) {
+            case "CAP":
+                handleCap(connection, args);
+                return;
+            case "PASS":
+                return;
+            case "NICK":
+                handleNick(connection, args);
+                return;
+            case "USER":
+                if (args.length < 5) {
+                    connection.sendNumeric("461", "USER :Not enough parameters");
+                } else {
+                    connection.setUser(args[1], args[4]);
+                    register(connection);
+                }
+                return;
+            case "PING":
+                connection.send(':' + SERVER_NAME + " PONG " + SERVER_NAME + " :"
+                        + args[args.length - 1]);
+                return;
+            case "PONG":
+                connection.pong(args[args.length - 1]);
+                return;
+            case "QUIT":
+                connection.send("ERROR :Closing Link: " + CLIENT_HOST + " (Quit)");
+                connection.close();
+                return;
+            default:
+                break;
+        }
+
+        if (!connection.isRegistered()) {
+            connection.sendNumeric("451", ":You have not registered");
+            return;
+        }
+
+        switch (args[0]) {
+            case "JOIN":
+                for (String name : args[1].split(",")) {
+                    handleJoin(connection, name);
+                }
+                break;
+            case "PART":
+                for (String name : args[1].split(",")) {
+                    handlePart(connection, name, args.length > 2 ? args[2] : null);
+                }
+                break;
+            case "NAMES":
+                sendNames(connection, getChannel(args[1]));
+                break;
+            case "WHO":
+                handleWho(connection, args);
+                break;
+            case "WHOIS":
+                handleWhois(connection, args);
+                break;
+            case "MODE":
+                handleMode(connection, args);
+                break;
+            case "TOPIC":
+                handleTopic(connection, args);
+                break;
+            case "PRIVMSG":
+            case "NOTICE":
+                handleMessage(connection, args);
+                break;
+            default:
+                connection.sendNumeric("421", args[0] + " :Unknown command");
+                break;
+        }
+    }
+
+    /**
+     * Handles a client disconnecting.
+     *
+     * @param connection The client that disconnected
+     */
+    synchronized void disconnected(final FakeIrcConnection connection) {
+        connections.remove(connection);
+        if (connection.getNickname() == null
+                || nicknames.get(key(connection.getNickname())) != connection) {
+            return;
+        }
+        final String line = ':' + connection.getHostmask() + " QUIT :Connection closed";
+        for (FakeChannel channel : channels.values()) {
+            if (channel.removeMember(connection.getNickname()) != null) {
+                broadcast(channel, line, connection);
+            }
+        }
+        nicknames.remove(key(connection.getNickname()));
+    }
+
+    private void handleCap(final FakeIrcConnection connection, final String... args) {
+        final String subcommand = args.length > 1 ? args[1].toUpperCase(Locale.ENGLISH) : "";
+        final String target = connection.getNickname() == null ? "*" : connection.getNickname();
+        switch (subcommand) {
+            case "LS":
+                connection.setNegotiating(true);
+                connection.send(':' + SERVER_NAME + " CAP " + target + " LS :"
+                        + String.join(" ", capabilities));
+                break;
+            case "REQ":
+                final String requested = args.length > 2 ? args[2].trim() : "";
+                boolean acceptable = true;
+                for (String capability : requested.split(" ")) {
+                    acceptable &= capabilities.contains(capability);
+                }
+                if (acceptable) {
+                    for (String capability : requested.split(" ")) {
+                        connection.addCapability(capability);
+                    }
+                }
+                connection.send(':' + SERVER_NAME + " CAP " + target
+                        + (acceptable ? " ACK :" : " NAK :") + requested);
+                break;
+            case "END":
+                connection.setNegotiating(false);
+                register(connection);
+                break;
+            default:
+                connection.sendNumeric("410", subcommand + " :Invalid CAP command");
+                break;
+        }
+    }
+
+    private void handleNick(final FakeIrcConnection connection, final String... args) {
+        if (args.length < 2) {
+            connection.sendNumeric("431", ":No nickname given");
+            return;
+        }
+        final String nickname = args[1];
+        final FakeIrcConnection existing = nicknames.get(key(nickname));
+        if (existing != null && existing != connection) {
+            connection.sendNumeric("433", nickname + " :Nickname is already in use");
+            return;
+        }
+
+        if (!connection.isRegistered()) {
+            connection.setNickname(nickname);
+            register(connection);
+            return;
+        }
+
+        final String line = ':' + connection.getHostmask() + " NICK :" + nickname;
+        nicknames.remove(key(connection.getNickname()));
+        connection.send(line);
+        for (FakeChannel channel : channels.values()) {
+            final FakeChannel.Member member = channel.removeMember(connection.getNickname());
+            if (member != null) {
+                broadcast(channel, line, connection);
+                channel.addMember(nickname + '!' + connection.getUsername() + '@'
+                        + CLIENT_HOST, member.getModes());
+            }
+        }
+        connection.setNickname(nickname);
+        nicknames.put(key(nickname), connection);
+    }
+
+    /**
+     * Completes registration for a client, if it has supplied everything
+     * required and is not negotiating capabilities.
+     *
+     * @param connection The client to register
+     */
+    private void register(final FakeIrcConnection connection) {
+        if (connection.isRegistered() || connection.getNickname() == null
+                || connection.getUsername() == null || connection.isNegotiating()) {
+            return;
+        }
+
+        final String network = isupport.getOrDefault("NETWORK", "FakeNet");
+        final List<String> lines = new ArrayList<>();
+        lines.add(numeric(connection, "001", ":Welcome to the " + network
+                + " IRC Network " + connection.getHostmask()));
+        lines.add(numeric(connection, "002", ":Your host is " + SERVER_NAME
+                + ", running version fakeircd-1.0"));
+        lines.add(numeric(connection, "003", ":This server was created today"));
+        lines.add(numeric(connection, "004", SERVER_NAME + " fakeircd-1.0 iow beIklimnopstv"));
+
+        final List<String> tokens = new ArrayList<>();
+        isupport.forEach((key, value) -> tokens.add(value == null ? key : key + '=' + value));
+        for (int i = 0; i < tokens.size(); i += 13) {
+            lines.add(numeric(connection, "005", String.join(" ",
+                    tokens.subList(i, Math.min(tokens.size(), i + 13)))
+                    + " :are supported by this server"));
+        }
+
+        lines.add(numeric(connection, "375", ":- " + SERVER_NAME + " Message of the Day -"));
+        lines.add(numeric(connection, "372", ":- This server is not real."));
+        lines.add(numeric(connection, "376", ":End of /MOTD command."));
+        connection.send(lines);
+
+        nicknames.put(key(connection.getNickname()), connection);
+        connection.setRegistered();
+        notifyAll();
+    }
+
+    private void handleJoin(final FakeIrcConnection connection, final String name) {
+        final FakeChannel channel = getChannel(name);
+        if (channel.getMember(connection.getNickname()) != null) {
+            return;
+        }
+        channel.addMember(connection.getHostmask(), channel.getMembers().isEmpty() ? "o" : "");
+        broadcast(channel, ':' + connection.getHostmask() + " JOIN " + channel.getName(), null);
+
+        final String topic = channel.getTopic();
+        if (topic != null) {
+            connection.sendNumeric("332", channel.getName() + " :" + topic);
+        }
+        sendNames(connection, channel);
+    }
+
+    private void handlePart(final FakeIrcConnection connection, final String name,
+            final String reason) {
+        final FakeChannel channel = getChannel(name);
+        if (channel.getMember(connection.getNickname()) == null) {
+            connection.sendNumeric("442", name + " :You're not on that channel");
+            return;
+        }
+        broadcast(channel, ':' + connection.getHostmask() + " PART " + channel.getName()
+                + (reason == null ? "" : " :" + reason), null);
+        channel.removeMember(connection.getNickname());
+    }
+
+    /**
+     * Sends the NAMES reply for a channel to a client.
+     *
+     * @param connection The client to send to
+     * @param channel The channel to list
+     */
+    public void sendNames(final FakeIrcConnection connection, final FakeChannel channel) {
+        final boolean allPrefixes = connection.hasCapability("multi-prefix");
+        final boolean hostmasks = connection.hasCapability("userhost-in-names");
+        final String start = numeric(connection, "353", "= " + channel.getName() + " :");
+        final List<String> lines = new ArrayList<>();
+        final StringBuilder builder = new StringBuilder(start);
+        for (FakeChannel.Member member : channel.getMembers()) {
+            final String entry = member.getPrefixes(allPrefixes)
+                    + (hostmasks ? member.getHostmask() : member.getNickname());
+            if (builder.length() > start.length()
+                    && builder.length() + entry.length() + 1 > MAX_LINE_LENGTH) {
+                lines.add(builder.toString());
+                builder.setLength(start.length());
+            }
+            if (builder.length() > start.length()) {
+                builder.append(' ');
+            }
+            builder.append(entry);
+        }
+        if (builder.length() > start.length()) {
+            lines.add(builder.toString());
+        }
+        lines.add(numeric(connection, "366", channel.getName() + " :End of /NAMES list."));
+        connection.send(lines);
+    }
+
+    private void handleWho(final FakeIrcConnection connection, final String... args) {
+        final String target = args.length > 1 ? args[1] : "*";
+        final FakeChannel channel = channels.get(key(target));
+        final List<String> lines = new ArrayList<>();
+        if (channel != null) {
+            for (FakeChannel.Member member : channel.getMembers()) {
+                final String hostmask = member.getHostmask();
+                final int bang = hostmask.indexOf('!');
+                final int at = hostmask.indexOf('@');
+                final String user = bang == -1 || at == -1 ? member.getNickname()
+                        : hostmask.substring(bang + 1, at);
+                final String host = at == -1 ? CLIENT_HOST : hostmask.substring(at + 1);
+                lines.add(numeric(connection, "352", channel.getName() + ' ' + user + ' '
+                        + host + ' ' + SERVER_NAME + ' ' + member.getNickname() + " H"
+                        + member.getPrefixes(true) + " :0 Fake User"));
+            }
+        }
+        lines.add(numeric(connection, "315", target + " :End of /WHO list."));
+        connection.send(lines);
+    }
+
+    private void handleWhois(final FakeIrcConnection connection, final String... args) {
+        if (args.length < 2) {
+            connection.sendNumeric("431", ":No nickname given");
+            return;
+        }
+        final List<String> lines = new ArrayList<>();
+        final String target = args[args.length - 1];
+        for (String nickname : target.split(",")) {
+            final FakeIrcConnection user = nicknames.get(key(nickname));
+            if (user == null) {
+                lines.add(numeric(connection, "401", nickname + " :No such nick/channel"));
+            } else {
+                lines.add(numeric(connection, "311", user.getNickname() + ' '
+                        + user.getUsername() + ' ' + CLIENT_HOST + " * :" + user.getRealname()));
+                lines.add(numeric(connection, "312", user.getNickname() + ' ' + SERVER_NAME
+                        + " :Fake server"));
+            }
+        }
+        lines.add(numeric(connection, "318", target + " :End of /WHOIS list."));
+        connection.send(lines);
+    }
+
+    private void handleMode(final FakeIrcConnection connection, final String... args) {
+        if (args.length < 2) {
+            connection.sendNumeric("461", "MODE :Not enough parameters");
+            return;
+        }
+        final String target = args[1];
+        if (target.charAt(0) != '#') {
+            if (args.length == 2) {
+                connection.sendNumeric("221", "+i");
+            } else {
+                connection.send(':' + connection.getNickname() + " MODE "
+                        + connection.getNickname() + " :" + args[2]);
+            }
+            return;
+        }
+
+        final FakeChannel channel = getChannel(target);
+        if (args.length == 2) {
+            connection.sendNumeric("324", channel.getName() + " +" + channel.getModes());
+            connection.sendNumeric("329", channel.getName() + ' ' + channel.getCreated());
+            return;
+        }
+
+        boolean adding = true;
+        boolean changed = false;
+        int param = 3;
+        String modes = channel.getModes();
+        for (char mode : args[2].toCharArray()) {
+            if (mode == '+' || mode == '-') {
+                adding = mode == '+';
+                continue;
+            }
+            if (PREFIX_MODES.indexOf(mode) != -1) {
+                if (param < args.length) {
+                    final FakeChannel.Member member = channel.getMember(args[param++]);
+                    if (member != null) {
+                        member.setMode(mode, adding);
+                        changed = true;
+                    }
+                }
+            } else if ("beI".indexOf(mode) != -1) {
+                if (param < args.length) {
+                    if (adding) {
+                        channel.addListItem(mode, args[param]);
+                    }
+                    param++;
+                    changed = true;
+                } else {
+                    sendList(connection, channel, mode);
+                }
+            } else {
+                if ((mode == 'k' || mode == 'l' && adding) && param < args.length) {
+                    param++;
+                }
+                if (adding && modes.indexOf(mode) == -1) {
+                    modes += mode;
+                } else if (!adding) {
+                    modes = modes.replace(String.valueOf(mode), "");
+                }
+                changed = true;
+            }
+        }
+        channel.setModes(modes);
+
+        if (changed) {
+            broadcast(channel, ':' + connection.getHostmask() + " MODE " + channel.getName()
+                    + ' ' + String.join(" ", Arrays.asList(args).subList(2, args.length)), null);
+        }
+    }
+
+    private void sendList(final FakeIrcConnection connection, final FakeChannel channel,
+            final char mode) {
+        final String item;
+        final String end;
+        final String description;
+        switch (mode) {
+            case 'e':
+                item = "348";
+                end = "349";
+                description = "exception";
+                break;
+            case 'I':
+                item = "346";
+                end = "347";
+                description = "invite";
+                break;
+            default:
+                item = "367";
+                end = "368";
+                description = "ban";
+                break;
+        }
+        final List<String> lines = new ArrayList<>();
+        for (String entry : channel.getListItems(mode)) {
+            lines.add(numeric(connection, item, channel.getName() + ' ' + entry + ' '
+                    + SERVER_NAME + ' ' + channel.getCreated()));
+        }
+        lines.add(numeric(connection, end, channel.getName() + " :End of channel "
+                + description + " list"));
+        connection.send(lines);
+    }
+
+    private void handleTopic(final FakeIrcConnection connection, final String... args) {
+        final FakeChannel channel = getChannel(args[1]);
+        if (args.length == 2) {
+            final String topic = channel.getTopic();
+            if (topic == null) {
+                connection.sendNumeric("331", channel.getName() + " :No topic is set");
+            } else {
+                connection.sendNumeric("332", channel.getName() + " :" + topic);
+            }
+            return;
+        }
+        channel.setTopic(args[2]);
+        broadcast(channel, ':' + connection.getHostmask() + " TOPIC " + channel.getName()
+                + " :" + args[2], null);
+    }
+
+    private void handleMessage(final FakeIrcConnection connection, final String... args) {
+        if (args.length < 3) {
+            connection.sendNumeric("412", ":No text to send");
+            return;
+        }
+        final String line = ':' + connection.getHostmask() + ' ' + args[0] + ' ' + args[1]
+                + " :" + args[2];
+        if (args[1].charAt(0) == '#') {
+            final FakeChannel channel = channels.get(key(args[1]));
+            if (channel == null) {
+                connection.sendNumeric("403", args[1] + " :No such channel");
+            } else {
+                broadcast(channel, line, connection);
+            }
+        } else {
+            final FakeIrcConnection target = nicknames.get(key(args[1]));
+            if (target == null) {
+                connection.sendNumeric("401", args[1] + " :No such nick/channel");
+            } else {
+                target.send(line);
+            }
+        }
+    }
+
+    /**
+     * Builds a numeric line addressed to a client.
+     *
+     * @param connection The client the line is for
+     * @param numeric The numeric
+     * @param arguments The arguments to follow the client's nickname
+     * @return The full line
+     */
+    private static String numeric(final FakeIrcConnection connection, final String numeric,
+            final String arguments) {
+        return ':' + SERVER_NAME + ' ' + numeric + ' ' + connection.getNickname() + ' '
+                + arguments;
+    }
+
+    /**
+     * Splits a line into its command and arguments, discarding any tags or
+     * prefix. The command is upper-cased, and any trailing argument is
+     * returned without its leading colon.
+     *
+     * @param line The line to split
+     * @return The command followed by its arguments
+     */
+    static String[] tokenise(final String line) {
+        String remaining = line;
+        if (remaining.startsWith("@")) {
+            final int space = remaining.indexOf(' ');
+            remaining = space == -1 ? "" : remaining.substring(space + 1);
+        }
+        if (remaining.startsWith(":")) {
+            final int space = remaining.indexOf(' ');
+            remaining = space == -1 ? "" : remaining.substring(space + 1);
+        }
+
+        final List<String> args = new ArrayList<>();
+        while (!remaining.isEmpty()) {
+            if (remaining.charAt(0) == ':') {
+                args.add(remaining.substring(1));
+                break;
+            }
+            final int space = remaining.indexOf(' ');
+            if (space == -1) {
+                args.add(remaining);
+                break;
+            }
+            if (space > 0) {
+                args.add(remaining.substring(0, space));
+            }
+            remaining = remaining.substring(space + 1);
+        }
+
+        if (!args.isEmpty()) {
+            args.set(0, args.get(0).toUpperCase(Locale.ENGLISH));
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    /**
+     * Gets the key used to index a nickname or channel name.
+     *
+     * @param name The name
+     * @return The lower-cased name
+     */
+    private static String key(final String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Handler that can replace the server's behaviour for a command.
+     */
+    @FunctionalInterface
+    public interface CommandHandler {
+
+        /**
+         * Handles a line from a client.
+         *
+         * @param connection The client that sent the line
+         * @param args The upper-cased command, followed by its arguments
+         * @return True if the line was handled, false to fall back to the
+         * server's default behaviour
+         */
+        boolean handle(FakeIrcConnection connection, String... args);
+
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.integration.util;
+
+import com.dmdirc.parser.interfaces.Parser;
+import com.dmdirc.parser.irc.events.JoinProgressEvent;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.engio.mbassy.listener.Handler;
+import net.engio.mbassy.listener.Listener;
+import net.engio.mbassy.listener.References;
+
+/**
+ * Waits for the channels requested through a parser's join scheduler to be
+ * joined, and for the MODE, WHO and list mode queries that follow them to be
+ * answered and processed.
+ *
+ * <p>Syncing with the client isn't enough for this: the follow-up queries are
+ * held back behind the scheduler's own syncs, so their replies may arrive well
+ * after a PING sent by the test has been answered.
+ */
+@Listener(references = References.Strong)
+public class JoinWaiter {
+
+    /** Released each time every requested channel and query is finished with. */
+    private final Semaphore settled = new Semaphore(0);
+
+    /**
+     * Creates a new waiter, listening to the given parser. This must be
+     * created before the joins are requested.
+     *
+     * @param parser The parser joining channels
+     */
+    public JoinWaiter(final Parser parser) {
+        parser.getCallbackManager().subscribe(this);
+    }
+
+    /**
+     * Waits until all requested channels have been joined or have failed,
+     * and no follow-up queries are outstanding.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @throws InterruptedException If interrupted while waiting
+     * @throws TimeoutException If the joins did not settle in time
+     */
+    public void await(final long timeout, final TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        if (!settled.tryAcquire(timeout, unit)) {
+            throw new TimeoutException("Joins did not settle");
+        }
+    }
+
+    @Handler
+    public void onProgress(final JoinProgressEvent event) {
+        if (event.isJoinComplete() && event.getPendingQueries() == 0) {
+            settled.release();
+        }
+    }
+
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.integration.util;
+
+import com.dmdirc.parser.events.ChannelMessageEvent;
+import com.dmdirc.parser.interfaces.Parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.engio.mbassy.listener.Handler;
+import net.engio.mbassy.listener.Listener;
+import net.engio.mbassy.listener.References;
+
+/**
+ * Generates load against the clients connected to a {@link FakeIrcServer}.
+ *
+ * <p>Every registered client is joined to a set of generated channels, which
+ * are populated with simulated users. Those users can then flood the channels
+ * with messages, split from the network and rejoin it. Each phase returns a
+ * {@link LoadResult} describing how quickly the clients processed it.
+ *
+ * <p>Message latency is measured from the time a line is written to the time
+ * a parser raises the corresponding event, so parsers must be registered with
+ * {@link #addParser(Parser)}. Other phases are measured from the time the first
+ * line is written until each client has answered a PING sent after the last.
+ */
+public class LoadGenerator {
+
+    /** Prefix of messages sent during a flood, followed by the send time. */
+    private static final String MESSAGE_PREFIX = "load-";
+    /** Host given to simulated users. */
+    private static final String VIRTUAL_HOST = "virtual.fake";
+    /** Number of lines to send to a client before flushing. */
+    private static final int BATCH_SIZE = 64;
+    /** Maximum number of mode changes in one MODE line. */
+    private static final int MODES_PER_LINE = 4;
+
+    /** The server to generate load on. */
+    private final FakeIrcServer server;
+    /** The maximum time to wait for each phase, in nanoseconds. */
+    private final long timeoutNanos;
+    /** Names of the generated channels. */
+    private final List<String> channels = new ArrayList<>();
+    /** Hostmask of the user who sends messages in each generated channel. */
+    private final List<String> senders = new ArrayList<>();
+    /** Channel memberships of split users: hostmask to (channel, modes) pairs. */
+    private final Map<String, List<String[]>> splitUsers = new LinkedHashMap<>();
+    /** Lock guarding the latency log. */
+    private final Object latencyLock = new Object();
+    /** Message latencies observed during the current flood. */
+    private long[] latencies = new long[1024];
+    /** Number of entries in {@link #latencies}. */
+    private int latencyCount;
+    /** Number of simulated users. */
+    private int userPool;
+
+    /**
+     * Creates a new load generator.
+     *
+     * @param server The server to generate load on
+     * @param timeout The maximum time to wait for each phase to be processed
+     * @param unit The unit of the timeout
+     */
+    public LoadGenerator(final FakeIrcServer server, final long timeout, final TimeUnit unit) {
+        this.server = server;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Registers a parser whose message latency should be measured.
+     *
+     * @param parser The parser to monitor
+     */
+    public void addParser(final Parser parser) {
+        parser.getCallbackManager().subscribe(new MessageListener());
+    }
+
+    /**
+     * Creates channels, fills them with simulated users, and joins every
+     * registered client to all of them.
+     *
+     * @param channelCount The number of channels to create
+     * @param usersPerChannel The number of simulated users in each channel
+     * @param userPoolSize The number of distinct simulated users, which must
+     * be at least {@code usersPerChannel}
+     * @return The time taken for clients to process the joins
+     * @throws InterruptedException If interrupted while waiting
+     * @throws TimeoutException If a client did not process the joins in time
+     */
+    public LoadResult populate(final int channelCount, final int usersPerChannel,
+            final int userPoolSize) throws InterruptedException, TimeoutException {
+        if (userPoolSize < usersPerChannel) {
+            throw new IllegalArgumentException("User pool is smaller than a channel");
+        }
+        userPool = userPoolSize;
+        final List<FakeIrcConnection> connections = getRegisteredConnections();
+        final List<FakeChannel> created = new ArrayList<>(channelCount);
+        for (int c = 0; c < channelCount; c++) {
+            final FakeChannel channel = server.getChannel("#load" + c);
+            for (int i = 0; i < usersPerChannel; i++) {
+                channel.addMember(getVirtualHostmask((c * usersPerChannel + i) % userPoolSize),
+                        i == 0 ? "o" : i % 10 == 0 ? "v" : "");
+            }
+            for (FakeIrcConnection connection : connections) {
+                channel.addMember(connection.getHostmask(), "");
+            }
+            channels.add(channel.getName());
+            senders.add(getVirtualHostmask(c * usersPerChannel % userPoolSize));
+            created.add(channel);
+        }
+
+        final long start = System.nanoTime();
+        for (FakeIrcConnection connection : connections) {
+            for (FakeChannel channel : created) {
+                connection.send(':' + connection.getHostmask() + " JOIN " + channel.getName());
+                server.sendNames(connection, channel);
+            }
+        }
+        return sync("populate", (long) channelCount * connections.size(), start, connections);
+    }
+
+    /**
+     * Sends messages to the generated channels, spreading them evenly, and
+     * waits for every registered parser to raise an event for each one.
+     *
+     * @param messages The number of messages to send
+     * @return The throughput and latency of message events
+     * @throws InterruptedException If interrupted while waiting
+     * @throws TimeoutException If the parsers did not raise all events in time
+     */
+    public LoadResult flood(final int messages) throws InterruptedException, TimeoutException {
+        final List<FakeIrcConnection> connections = getRegisteredConnections();
+        final long expected = (long) messages * connections.size();
+        synchronized (latencyLock) {
+            latencyCount = 0;
+        }
+
+        final long start = System.nanoTime();
+        final List<String> batch = new ArrayList<>(BATCH_SIZE);
+        for (int m = 0; m < messages; m++) {
+            final int index = m % channels.size();
+            batch.add(':' + senders.get(index) + " PRIVMSG " + channels.get(index) + " :"
+                    + MESSAGE_PREFIX + System.nanoTime());
+            if (batch.size() == BATCH_SIZE || m == messages - 1) {
+                for (FakeIrcConnection connection : connections) {
+                    connection.send(batch);
+                }
+                batch.clear();
+            }
+        }
+
+        synchronized (latencyLock) {
+            final long deadline = start + timeoutNanos;
+            while (latencyCount < expected) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException(latencyCount + " of " + expected
+                            + " messages received");
+                }
+                TimeUnit.NANOSECONDS.timedWait(latencyLock, remaining);
+            }
+            return new LoadResult("flood", expected, System.nanoTime() - start,
+                    Arrays.copyOf(latencies, latencyCount));
+        }
+    }
+
+    /**
+     * Splits a proportion of the simulated users from the network, removing
+     * them from every channel.
+     *
+     * @param every Split every n-th simulated user
+     * @return The time taken for clients to process the quits
+     * @throws InterruptedException If interrupted while waiting
+     * @throws TimeoutException If a client did not process the quits in time
+     */
+    public LoadResult netsplit(final int every) throws InterruptedException, TimeoutException {
+        final Set<String> splitting = new HashSet<>();
+        for (int i = 0; i < userPool; i += every) {
+            splitting.add(getVirtualHostmask(i));
+        }
+
+        for (String name : channels) {
+            final FakeChannel channel = server.getChannel(name);
+            for (FakeChannel.Member member : channel.getMembers()) {
+                if (splitting.contains(member.getHostmask())) {
+                    channel.removeMember(member.getNickname());
+                    splitUsers.computeIfAbsent(member.getHostmask(), k -> new ArrayList<>())
+                            .add(new String[]{name, member.getModes()});
+                }
+            }
+        }
+
+        final List<String> lines = new ArrayList<>(splitUsers.size());
+        for (String hostmask : splitUsers.keySet()) {
+            lines.add(':' + hostmask + " QUIT :hub.fake leaf.fake");
+        }
+        return sendToAll("netsplit", lines);
+    }
+
+    /**
+     * Returns all users split by {@link #netsplit(int)} to the channels they
+     * were in, restoring their modes.
+     *
+     * @return The time taken for clients to process the joins and modes
+     * @throws InterruptedException If interrupted while waiting
+     * @throws TimeoutException If a client did not process the joins in time
+     */
+    public LoadResult netjoin() throws InterruptedException, TimeoutException {
+        final List<String> lines = new ArrayList<>();
+        final Map<String, List<String>> modes = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String[]>> entry : splitUsers.entrySet()) {
+            final String hostmask = entry.getKey();
+            final String nickname = hostmask.substring(0, hostmask.indexOf('!'));
+            for (String[] membership : entry.getValue()) {
+                server.getChannel(membership[0]).addMember(hostmask, membership[1]);
+                lines.add(':' + hostmask + " JOIN " + membership[0]);
+                for (char mode : membership[1].toCharArray()) {
+                    modes.computeIfAbsent(membership[0], k -> new ArrayList<>())
+                            .add(mode + nickname);
+                }
+            }
+        }
+        splitUsers.clear();
+
+        for (Map.Entry<String, List<String>> entry : modes.entrySet()) {
+            final List<String> changes = entry.getValue();
+            for (int i = 0; i < changes.size(); i += MODES_PER_LINE) {
+                final StringBuilder modeString = new StringBuilder("+");
+                final StringBuilder params = new StringBuilder();
+                for (String change : changes.subList(i, Math.min(changes.size(),
+                        i + MODES_PER_LINE))) {
+                    modeString.append(change.charAt(0));
+                    params.append(' ').append(change, 1, change.length());
+                }
+                lines.add(':' + FakeIrcServer.SERVER_NAME + " MODE " + entry.getKey() + ' '
+                        + modeString + params);
+            }
+        }
+        return sendToAll("netjoin", lines);
+    }
+
+    /**
+     * Sends lines to every registered client in batches, then waits for each
+     * to process them.
+     *
+     * @param name The name of the phase
+     * @param lines The lines to send
+     * @return The time taken for clients to process the lines
+     * @throws InterruptedException If interrupted while waiting
+     * @throws TimeoutException If a client did not process the lines in time
+     */
+    private LoadResult sendToAll(final String name, final List<String> lines)
+            throws InterruptedException, TimeoutException {
+        final List<FakeIrcConnection> connections = getRegisteredConnections();
+        final long start = System.nanoTime();
+        for (int i = 0; i < lines.size(); i += BATCH_SIZE) {
+            final List<String> batch = lines.subList(i, Math.min(lines.size(), i + BATCH_SIZE));
+            for (FakeIrcConnection connection : connections) {
+                connection.send(batch);
+            }
+        }
+        return sync(name, (long) lines.size() * connections.size(), start, connections);
+    }
+
+    /**
+     * Waits for every client to process everything sent to it.
+     *
+     * @param name The name of the phase
+     * @param events The number of events sent in the phase
+     * @param start The time the phase started
+     * @param connections The clients to wait for
+     * @return The time taken for each client to catch up
+     * @throws InterruptedException If interrupted while waiting
+     * @throws TimeoutException If a client did not catch up in time
+     */
+    private LoadResult sync(final String name, final long events, final long start,
+            final List<FakeIrcConnection> connections)
+            throws InterruptedException, TimeoutException {
+        final List<FakeIrcConnection.PendingSync> pending = new ArrayList<>(connections.size());
+        for (FakeIrcConnection connection : connections) {
+            pending.add(connection.requestSync());
+        }
+
+        final long[] times = new long[pending.size()];
+        long end = start;
+        for (int i = 0; i < times.length; i++) {
+            final long remaining = Math.max(0, start + timeoutNanos - System.nanoTime());
+            final long completed = pending.get(i).await(remaining, TimeUnit.NANOSECONDS);
+            times[i] = completed - start;
+            end = Math.max(end, completed);
+        }
+        return new LoadResult(name, events, end - start, times);
+    }
+
+    private List<FakeIrcConnection> getRegisteredConnections() {
+        final List<FakeIrcConnection> connections = new ArrayList<>();
+        for (FakeIrcConnection connection : server.getConnections()) {
+            if (connection.isRegistered()) {
+                connections.add(connection);
+            }
+        }
+        return connections;
+    }
+
+    private static String getVirtualHostmask(final int index) {
+        return "user" + index + "!fake@" + VIRTUAL_HOST;
+    }
+
+    /**
+     * Records the latency of a flood message.
+     *
+     * @param message The content of the message
+     */
+    private void recordMessage(final String message) {
+        if (!message.startsWith(MESSAGE_PREFIX)) {
+            return;
+        }
+        final long latency = System.nanoTime()
+                - Long.parseLong(message.substring(MESSAGE_PREFIX.length()));
+        synchronized (latencyLock) {
+            if (latencyCount == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[latencyCount++] = latency;
+            latencyLock.notifyAll();
+        }
+    }
+
+    /**
+     * Listener that records the latency of flood messages.
+     */
+    @Listener(references = References.Strong)
+    private class MessageListener {
+
+        @Handler
+        public void onMessage(final ChannelMessageEvent event) {
+            recordMessage(event.getMessage());
+        }
+
+    }
+
+}
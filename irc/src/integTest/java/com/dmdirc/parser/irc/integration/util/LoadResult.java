@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.integration.util;
+
+import java.util.Arrays;
+
+/**
+ * Throughput and latency measured for one phase of a {@link LoadGenerator} run.
+ */
+public class LoadResult {
+
+    /** The name of the phase. */
+    private final String name;
+    /** The number of events delivered. */
+    private final long events;
+    /** The time taken for all events to be processed, in nanoseconds. */
+    private final long elapsedNanos;
+    /** Observed latencies, in nanoseconds, sorted ascending. */
+    private final long[] latencies;
+
+    LoadResult(final String name, final long events, final long elapsedNanos,
+            final long... latencies) {
+        this.name = name;
+        this.events = events;
+        this.elapsedNanos = elapsedNanos;
+        this.latencies = latencies.clone();
+        Arrays.sort(this.latencies);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Gets the number of events processed per second.
+     *
+     * @return The throughput of this phase
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : events * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Gets the mean observed latency.
+     *
+     * @return The mean latency in nanoseconds, or 0 if none were observed
+     */
+    public long getMeanLatencyNanos() {
+        if (latencies.length == 0) {
+            return 0;
+        }
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        return total / latencies.length;
+    }
+
+    /**
+     * Gets a percentile of the observed latencies.
+     *
+     * @param percentile The percentile to get, between 0 and 100
+     * @return The latency in nanoseconds, or 0 if none were observed
+     */
+    public long getLatencyPercentileNanos(final double percentile) {
+        if (latencies.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+        return latencies[Math.max(0, Math.min(latencies.length - 1, index))];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d events in %.1fms (%.0f/s), latency mean %.2fms,"
+                        + " p50 %.2fms, p99 %.2fms, max %.2fms",
+                name, events, elapsedNanos / 1e6, getThroughput(),
+                getMeanLatencyNanos() / 1e6, getLatencyPercentileNanos(50) / 1e6,
+                getLatencyPercentileNanos(99) / 1e6, getLatencyPercentileNanos(100) / 1e6);
+    }
+
+}
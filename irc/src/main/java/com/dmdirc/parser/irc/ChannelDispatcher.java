@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.CallbackExecutor;
+import com.dmdirc.parser.common.ParserError;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Processes channel lines in parallel, when enabled.
+ *
+ * <p>Messages, notices, topic changes and mode changes for a channel we are
+ * on are handed to a serial executor for that channel, backed by the shared
+ * {@link CallbackExecutor} pool. Each channel's lines are processed, and
+ * their events published, in the order they were received, but lines for
+ * different channels may be processed at the same time, on different
+ * threads. Every other line acts as a barrier: it is only processed once all
+ * channel lines received before it have been, so changes to global state
+ * such as NICK and QUIT are always seen in order.
+ *
+ * <p>The parts of a channel line that change state shared between channels,
+ * such as filling in a client's host or learning of an unknown channel mode,
+ * are applied on the parser's thread before the line is dispatched, so that
+ * channel executors only change their own channel.
+ *
+ * <p>Event handlers must be thread-safe to use this. It is disabled by
+ * default.
+ */
+public class ChannelDispatcher {
+
+    /** The parser whose lines we are processing. */
+    private final IRCParser parser;
+    /** The manager to use to access prefix modes. */
+    private final PrefixModeManager prefixModeManager;
+    /** The manager to use to access boolean channel modes. */
+    private final ModeManager chanModeManager;
+    /** The pool that channel executors run on. */
+    private final CallbackExecutor pool;
+    /** Serial executors for each channel. */
+    private final Map<IRCChannelInfo, Executor> lanes = new WeakHashMap<>();
+    /** Lock guarding changes to the pending count. */
+    private final Object pendingLock = new Object();
+    /** The number of channel lines waiting to be processed. */
+    private volatile int pending;
+    /** The threads currently processing dispatched lines. */
+    private final Set<Thread> processing = ConcurrentHashMap.newKeySet();
+    /** Whether channel lines are processed in parallel. */
+    private volatile boolean enabled;
+
+    /**
+     * Creates a new, disabled, dispatcher.
+     *
+     * @param parser The parser whose lines we are processing
+     * @param prefixModeManager The manager to use to access prefix modes
+     * @param chanModeManager The manager to use to access boolean channel modes
+     * @param pool The pool to run channel executors on
+     */
+    public ChannelDispatcher(final IRCParser parser, final PrefixModeManager prefixModeManager,
+            final ModeManager chanModeManager, final CallbackExecutor pool) {
+        this.parser = parser;
+        this.prefixModeManager = prefixModeManager;
+        this.chanModeManager = chanModeManager;
+        this.pool = pool;
+    }
+
+    /**
+     * Checks whether channel lines are processed in parallel.
+     *
+     * @return True if parallel processing is enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables parallel processing of channel lines.
+     *
+     * @param enabled True to process channel lines in parallel
+     */
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Checks whether the current thread is processing a dispatched line.
+     * Processors use this to leave state shared between channels alone, as
+     * it has already been updated on the parser's thread.
+     *
+     * @return True if called from a channel executor
+     */
+    public boolean isProcessingLine() {
+        return processing.contains(Thread.currentThread());
+    }
+
+    /**
+     * Processes a line on its channel's executor, if it is a channel line and
+     * parallel processing is enabled. Otherwise, waits for all channel lines
+     * received so far to be processed, so that the caller can process the
+     * line itself.
+     *
+     * @param date The LocalDateTime that the line was received at
+     * @param token IRCTokenised line
+     * @return True if the line has been dispatched, false if the caller should process it
+     */
+    public boolean dispatch(final LocalDateTime date, final String... token) {
+        final IRCChannelInfo channel = enabled ? getChannel(token) : null;
+        if (channel == null) {
+            awaitIdle();
+            return false;
+        }
+
+        updateSharedState(token);
+        final Executor lane;
+        synchronized (lanes) {
+            lane = lanes.computeIfAbsent(channel, k -> pool.newSerialExecutor());
+        }
+        synchronized (pendingLock) {
+            pending++;
+        }
+        try {
+            lane.execute(() -> process(date, token));
+        } catch (RejectedExecutionException ex) {
+            finished();
+            awaitIdle();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits until every dispatched line has been processed. This returns at
+     * once if nothing is pending, as is always the case while parallel
+     * processing is disabled, or if it is called while processing a
+     * dispatched line, as that line could never finish. Interrupts, such as
+     * the one used to stop the parser's thread on disconnect, are held until
+     * the wait is over.
+     */
+    public void awaitIdle() {
+        if (pending == 0 || isProcessingLine()) {
+            return;
+        }
+        boolean interrupted = false;
+        synchronized (pendingLock) {
+            while (pending > 0) {
+                try {
+                    pendingLock.wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Forgets the executors used for each channel. Lines already dispatched
+     * are still processed. This should be called when the connection is lost.
+     */
+    public void reset() {
+        synchronized (lanes) {
+            lanes.clear();
+        }
+    }
+
+    /**
+     * Gets the channel a line should be processed for.
+     *
+     * @param token IRCTokenised line
+     * @return The known channel the line is for, or null if it is not a channel line
+     */
+    private IRCChannelInfo getChannel(final String... token) {
+        if (token.length < 4) {
+            return null;
+        }
+        final String target;
+        if ("PRIVMSG".equalsIgnoreCase(token[1]) || "NOTICE".equalsIgnoreCase(token[1])) {
+            // Messages may be addressed to only those with a prefix mode.
+            target = prefixModeManager.isPrefix(token[2].charAt(0))
+                    ? token[2].substring(1) : token[2];
+        } else if ("TOPIC".equalsIgnoreCase(token[1]) || "MODE".equalsIgnoreCase(token[1])) {
+            target = token[2];
+        } else {
+            return null;
+        }
+        return parser.isValidChannelName(target) ? parser.getChannel(target) : null;
+    }
+
+    /**
+     * Applies the changes a channel line makes to state shared with other
+     * channels. This is called on the parser's thread, before the line is
+     * dispatched.
+     *
+     * @param token IRCTokenised line
+     */
+    private void updateSharedState(final String... token) {
+        // Facilitate DMDIRC Formatter
+        if (IRCParser.ALWAYS_UPDATECLIENT && parser.isKnownClient(token[0])) {
+            final IRCClientInfo client = parser.getClient(token[0]);
+            if (client.getHostname().isEmpty()) {
+                client.setUserBits(token[0], false);
+            }
+        }
+
+        // Unknown channel modes are treated as boolean modes from now on.
+        if ("MODE".equalsIgnoreCase(token[1])) {
+            final String modes = token[3];
+            for (int i = 0; i < modes.length(); i++) {
+                final char mode = modes.charAt(i);
+                if (mode != '+' && mode != '-' && mode != ':'
+                        && !chanModeManager.isMode(mode)
+                        && !parser.chanModesOther.containsKey(mode)
+                        && !prefixModeManager.isPrefixMode(mode)) {
+                    chanModeManager.add(mode);
+                }
+            }
+        }
+    }
+
+    /**
+     * Processes a dispatched line.
+     *
+     * @param date The LocalDateTime that the line was received at
+     * @param token IRCTokenised line
+     */
+    private void process(final LocalDateTime date, final String... token) {
+        processing.add(Thread.currentThread());
+        try {
+            parser.getProcessingManager().process(date, token[1], token);
+        } catch (ProcessorNotFoundException e) {
+            // Not a line we handle.
+        } catch (RuntimeException e) {
+            final ParserError ei = new ParserError(ParserError.ERROR_FATAL,
+                    "Fatal Exception in Parser.", String.join(" ", token));
+            ei.setException(e);
+            parser.callErrorInfo(ei);
+        } finally {
+            processing.remove(Thread.currentThread());
+            finished();
+        }
+    }
+
+    /**
+     * Records that a dispatched line has been processed.
+     */
+    private void finished() {
+        synchronized (pendingLock) {
+            if (--pending == 0) {
+                pendingLock.notifyAll();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.parser.irc;
+
+import java.util.Arrays;
+
+/**
+ * A count-min sketch whose counts decay over time.
+ *
+ * <p>The sketch estimates how often each key has been seen recently, in a
+ * fixed amount of memory however many distinct keys there are. Estimates may
+ * be too high when keys collide, but are never too low. Every count halves
+ * once per half-life, so an estimate approximates the number of times a key
+ * was added in the last half-life or so.
+ *
+ * <p>Each row hashes the key's characters with its own seed, so keys that
+ * share a {@link String#hashCode()} don't collide in every row. Sketches are
+ * not thread-safe.
+ */
+final class CountMinSketch {
+
+    /** The number of rows, each using a different hash of the key. */
+    private static final int DEPTH = 4;
+    /** Seeds used for each row's hash. */
+    private static final int[] SEEDS = {0x5bd1e995, 0x1b873593, 0x27d4eb2f, 0x165667b1};
+
+    /** Mask applied to hashes to find a column. */
+    private final int mask;
+    /** The counts, one row after another. */
+    private final double[] counts;
+    /** The time, in nanoseconds, for counts to halve. */
+    private final long halfLifeNanos;
+    /** The time the counts were last decayed. */
+    private long lastDecay;
+    /** The indices of the key being looked up, one per row. */
+    private final int[] indices = new int[DEPTH];
+
+    /**
+     * Creates a new, empty, sketch.
+     *
+     * @param width The number of columns in each row; rounded up to a power of two
+     * @param halfLifeNanos The time, in nanoseconds, for counts to halve
+     * @param now The current time, from {@link System#nanoTime()}
+     */
+    CountMinSketch(final int width, final long halfLifeNanos, final long now) {
+        final int columns = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+        this.mask = columns - 1;
+        this.counts = new double[DEPTH * columns];
+        this.halfLifeNanos = halfLifeNanos;
+        this.lastDecay = now;
+    }
+
+    /**
+     * Counts one occurrence of a key.
+     *
+     * @param key The key that was seen
+     * @param now The current time, from {@link System#nanoTime()}
+     * @return The new estimate for the key
+     */
+    double add(final String key, final long now) {
+        decay(now);
+        final double estimate = estimate(key) + 1;
+        // Conservative update: only raise the counts that are below the new
+        // estimate, which reduces the error added by collisions.
+        for (int index : indices) {
+            if (counts[index] < estimate) {
+                counts[index] = estimate;
+            }
+        }
+        return estimate;
+    }
+
+    /**
+     * Estimates the recent number of occurrences of a key.
+     *
+     * @param key The key to look up
+     * @param now The current time, from {@link System#nanoTime()}
+     * @return The estimate for the key
+     */
+    double estimate(final String key, final long now) {
+        decay(now);
+        return estimate(key);
+    }
+
+    /**
+     * Discards all counts.
+     */
+    void clear() {
+        Arrays.fill(counts, 0);
+    }
+
+    /**
+     * Finds the key's column in each row, leaving them in {@link #indices},
+     * and estimates its count from them.
+     *
+     * @param key The key to look up
+     * @return The estimate for the key
+     */
+    private double estimate(final String key) {
+        double result = Double.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            indices[row] = index(row, key);
+            result = Math.min(result, counts[indices[row]]);
+        }
+        return result;
+    }
+
+    /**
+     * Decays all counts for the time since they were last decayed. This is
+     * done at most eight times per half-life, to keep it cheap.
+     *
+     * @param now The current time, from {@link System#nanoTime()}
+     */
+    private void decay(final long now) {
+        final long elapsed = now - lastDecay;
+        if (elapsed < halfLifeNanos / 8) {
+            return;
+        }
+        final double factor = Math.pow(0.5, (double) elapsed / halfLifeNanos);
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] *= factor;
+        }
+        lastDecay = now;
+    }
+
+    /**
+     * Hashes a key for a row, using FNV-1a over its characters seeded with the
+     * row's seed, finished with MurmurHash3's mixing step.
+     *
+     * @param row The row to hash the key for
+     * @param key The key to hash
+     * @return The index of the key's count in that row
+     */
+    private int index(final int row, final String key) {
+        int h = SEEDS[row];
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return row * (mask + 1) + (h & mask);
+    }
+
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.irc.events.FloodDetectedEvent;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drops messages from flooding sources before they are processed.
+ *
+ * <p>When enabled, every PRIVMSG and NOTICE from another user is counted
+ * against its source host and its target in two decaying
+ * {@link CountMinSketch}es, before any CTCP parsing, ignore list checks or
+ * client lookups are done. Echoes of our own messages are never counted.
+ * Messages are dropped when their source's recent count is over the source
+ * threshold. While a target's recent count is over the target threshold, as
+ * in a flood from many hosts at once, the lower flooded-source threshold
+ * applies to messages for it instead.
+ *
+ * <p>Dropped messages are reported together, in a {@link FloodDetectedEvent}
+ * published once the flood has died down, and periodically while it goes on.
+ * CTCP replies sent during a flood, while messages are being dropped or a
+ * target is flooded, are also limited, so that a flood of CTCP requests can't
+ * get us disconnected for flooding the server.
+ *
+ * <p>The shield is disabled by default.
+ */
+public class FloodShield {
+
+    /**
+     * The default recent message count above which a source is dropped. A
+     * steady rate of r messages a second settles at a count of about 14.4r,
+     * so this allows a little under one message a second.
+     */
+    public static final double DEFAULT_SOURCE_THRESHOLD = 10;
+    /**
+     * The default recent message count above which a target is flooded. This
+     * allows a busy channel a steady twenty or so messages a second.
+     */
+    public static final double DEFAULT_TARGET_THRESHOLD = 300;
+    /**
+     * The default source threshold used for flooded targets. This still allows
+     * a steady message every three seconds, well above the rate of an ordinary
+     * speaker.
+     */
+    public static final double DEFAULT_FLOODED_SOURCE_THRESHOLD = 6;
+
+    /** The time, in nanoseconds, for counts to halve. */
+    private static final long HALF_LIFE = TimeUnit.SECONDS.toNanos(10);
+    /** The number of columns in each sketch. */
+    private static final int SKETCH_WIDTH = 4096;
+    /** Time, in nanoseconds, without drops before a flood is considered over. */
+    private static final long QUIET_PERIOD = TimeUnit.SECONDS.toNanos(5);
+    /** Time, in nanoseconds, between summaries of an ongoing flood. */
+    private static final long SUMMARY_INTERVAL = TimeUnit.SECONDS.toNanos(60);
+    /** The most sources or targets listed in a summary. */
+    private static final int MAX_LISTED = 100;
+    /** The number of CTCP replies that may be sent in a burst. */
+    private static final double CTCP_REPLY_BURST = 3;
+    /** Time, in nanoseconds, to earn another CTCP reply. */
+    private static final long CTCP_REPLY_INTERVAL = TimeUnit.SECONDS.toNanos(2);
+
+    /** The parser we are shielding. */
+    private final IRCParser parser;
+    /** Whether messages are being counted and dropped. */
+    private volatile boolean enabled;
+    /** Recent message counts, keyed by source host. */
+    private CountMinSketch sources;
+    /** Recent message counts, keyed by lower-cased target. */
+    private CountMinSketch targets;
+    /** Recent count above which a source is dropped. */
+    private double sourceThreshold = DEFAULT_SOURCE_THRESHOLD;
+    /** Recent count above which a target is flooded. */
+    private double targetThreshold = DEFAULT_TARGET_THRESHOLD;
+    /** Recent count above which a source is dropped for flooded targets. */
+    private double floodedSourceThreshold = DEFAULT_FLOODED_SOURCE_THRESHOLD;
+    /** The number of messages dropped since the last summary. */
+    private int dropped;
+    /** The time the first message since the last summary was dropped. */
+    private LocalDateTime started;
+    /** The time, from {@link System#nanoTime()}, the last summary period began. */
+    private long periodStart;
+    /** The time, from {@link System#nanoTime()}, a message was last dropped. */
+    private long lastDrop;
+    /** Messages dropped since the last summary, by source host. */
+    private final Map<String, Integer> droppedSources = new HashMap<>();
+    /** Messages dropped since the last summary, by target. */
+    private final Map<String, Integer> droppedTargets = new HashMap<>();
+    /** Whether a message has been dropped or a target flooded since the last reset. */
+    private boolean flooded;
+    /** The time, from {@link System#nanoTime()}, a flood was last seen. */
+    private long lastFlood;
+    /** CTCP replies that may currently be sent. */
+    private double ctcpReplies = CTCP_REPLY_BURST;
+    /** The time, from {@link System#nanoTime()}, CTCP replies were last earned. */
+    private long lastCtcpReply;
+
+    /**
+     * Creates a new, disabled, flood shield.
+     *
+     * @param parser The parser to shield
+     */
+    public FloodShield(final IRCParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Checks whether the shield is enabled.
+     *
+     * @return True if messages are being counted and dropped
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables the shield. Disabling it discards all counts.
+     *
+     * @param enabled True to count and drop messages
+     */
+    public synchronized void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            sources = null;
+            targets = null;
+        }
+    }
+
+    /**
+     * Sets the thresholds used to decide which messages are dropped. Counts
+     * halve every ten seconds, so a threshold of 10 allows a source to send a
+     * burst of ten messages, or a little under one a second indefinitely.
+     *
+     * @param source The recent count above which messages from a source are dropped
+     * @param target The recent count above which a target is considered flooded
+     * @param floodedSource The source threshold to use for flooded targets
+     */
+    public synchronized void setThresholds(final double source, final double target,
+            final double floodedSource) {
+        sourceThreshold = source;
+        targetThreshold = target;
+        floodedSourceThreshold = floodedSource;
+    }
+
+    /**
+     * Counts a message, and decides whether it should be processed. Messages
+     * are always allowed while the shield is disabled, and echoes of our own
+     * messages are always allowed without being counted.
+     *
+     * @param hostmask The hostmask of the message's sender
+     * @param target The target of the message
+     * @return True if the message should be processed, false to drop it
+     */
+    public boolean allow(final String hostmask, final String target) {
+        return !enabled || allow(hostmask, target, System.nanoTime());
+    }
+
+    /**
+     * Counts a message, and decides whether it should be processed.
+     *
+     * @param hostmask The hostmask of the message's sender
+     * @param target The target of the message
+     * @param now The current time, from {@link System#nanoTime()}
+     * @return True if the message should be processed, false to drop it
+     */
+    boolean allow(final String hostmask, final String target, final long now) {
+        if (parser.getStringConverter().equalsIgnoreCase(IRCClientInfo.parseHost(hostmask),
+                parser.getMyNickname())) {
+            return true;
+        }
+
+        final FloodDetectedEvent summary;
+        final boolean allowed;
+        synchronized (this) {
+            if (sources == null) {
+                sources = new CountMinSketch(SKETCH_WIDTH, HALF_LIFE, now);
+                targets = new CountMinSketch(SKETCH_WIDTH, HALF_LIFE, now);
+            }
+
+            final String source = hostmask.substring(hostmask.indexOf('@') + 1);
+            final String targetKey = parser.getStringConverter().toLowerCase(target);
+            final double sourceCount = sources.add(source, now);
+            final double targetCount = targets.add(targetKey, now);
+            final boolean targetFlooded = targetCount > targetThreshold;
+            allowed = sourceCount <= (targetFlooded ? floodedSourceThreshold : sourceThreshold);
+            if (!allowed) {
+                recordDrop(source, targetKey, now);
+            }
+            if (targetFlooded || !allowed) {
+                flooded = true;
+                lastFlood = now;
+            }
+            summary = getSummary(now);
+        }
+        publish(summary);
+        return allowed;
+    }
+
+    /**
+     * Publishes a summary of dropped messages, if one is due. This is called
+     * periodically by the parser, so that the end of a flood is reported even
+     * if no more messages arrive.
+     */
+    public void checkFlood() {
+        if (enabled) {
+            final FloodDetectedEvent summary;
+            synchronized (this) {
+                summary = getSummary(System.nanoTime());
+            }
+            publish(summary);
+        }
+    }
+
+    /**
+     * Decides whether a CTCP reply may be sent. Replies are only limited
+     * during a flood, and are always allowed while the shield is disabled.
+     *
+     * @return True if the reply may be sent, false to drop it
+     */
+    public boolean allowCtcpReply() {
+        return !enabled || allowCtcpReply(System.nanoTime());
+    }
+
+    /**
+     * Decides whether a CTCP reply may be sent.
+     *
+     * @param now The current time, from {@link System#nanoTime()}
+     * @return True if the reply may be sent, false to drop it
+     */
+    synchronized boolean allowCtcpReply(final long now) {
+        if (!flooded || now - lastFlood >= QUIET_PERIOD) {
+            return true;
+        }
+        final long elapsed = Math.max(0, now - lastCtcpReply);
+        ctcpReplies = Math.min(CTCP_REPLY_BURST,
+                ctcpReplies + (double) elapsed / CTCP_REPLY_INTERVAL);
+        lastCtcpReply = now;
+        if (ctcpReplies < 1) {
+            return false;
+        }
+        ctcpReplies--;
+        return true;
+    }
+
+    /**
+     * Discards all counts and unreported drops. This should be called when
+     * the connection is lost.
+     */
+    public synchronized void reset() {
+        sources = null;
+        targets = null;
+        flooded = false;
+        dropped = 0;
+        droppedSources.clear();
+        droppedTargets.clear();
+    }
+
+    /**
+     * Records a dropped message.
+     *
+     * @param source The message's source host
+     * @param target The message's lower-cased target
+     * @param now The current time, from {@link System#nanoTime()}
+     */
+    private void recordDrop(final String source, final String target, final long now) {
+        if (dropped == 0) {
+            started = LocalDateTime.now();
+            periodStart = now;
+        }
+        dropped++;
+        lastDrop = now;
+        if (droppedSources.size() < MAX_LISTED || droppedSources.containsKey(source)) {
+            droppedSources.merge(source, 1, Integer::sum);
+        }
+        if (droppedTargets.size() < MAX_LISTED || droppedTargets.containsKey(target)) {
+            droppedTargets.merge(target, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Creates a summary of the messages dropped since the last one, if the
+     * flood has died down or the summary interval has passed.
+     *
+     * @param now The current time, from {@link System#nanoTime()}
+     * @return The summary to publish, or null if none is due
+     */
+    private FloodDetectedEvent getSummary(final long now) {
+        if (dropped == 0) {
+            return null;
+        }
+        final boolean ongoing = now - lastDrop < QUIET_PERIOD;
+        if (ongoing && now - periodStart < SUMMARY_INTERVAL) {
+            return null;
+        }
+
+        final FloodDetectedEvent summary = new FloodDetectedEvent(parser, LocalDateTime.now(),
+                started, dropped, new HashMap<>(droppedSources), new HashMap<>(droppedTargets),
+                ongoing);
+        dropped = 0;
+        droppedSources.clear();
+        droppedTargets.clear();
+        return summary;
+    }
+
+    /**
+     * Publishes a summary, if there is one.
+     *
+     * @param summary The summary to publish, or null
+     */
+    private void publish(final FloodDetectedEvent summary) {
+        if (summary != null) {
+            parser.getCallbackManager().publish(summary);
+        }
+    }
+
+}
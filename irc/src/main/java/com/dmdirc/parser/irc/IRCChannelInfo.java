@@ -23,7 +23,6 @@ package com.dmdirc.parser.irc;
 
 import com.dmdirc.parser.common.ChannelListModeItem;
 import com.dmdirc.parser.common.ParserError;
-import com.dmdirc.parser.common.QueuePriority;
 import com.dmdirc.parser.events.ChannelPasswordChangedEvent;
 import com.dmdirc.parser.interfaces.ChannelClientInfo;
 import com.dmdirc.parser.interfaces.ChannelInfo;
@@ -76,12 +75,18 @@ public class IRCChannelInfo implements ChannelInfo {
     private final String name;
     /** Channel Key. */
     private String password = "";
-    /** Hashtable containing references to ChannelClients. */
-    private final Map<String, IRCChannelClientInfo> clients = Collections.synchronizedMap(new HashMap<>());
+    /**
+     * Map containing references to ChannelClients. This is only replaced on
+     * the parser thread (see {@link #setClients(PersistentMap)}), and may be
+     * read from any thread.
+     */
+    private volatile PersistentMap<String, IRCChannelClientInfo> clients = PersistentMap.empty();
+    /** Names received in the current NAMES reply, waiting to be committed. */
+    private NamesBuffer pendingNames;
     /** Hashtable storing values for modes set in the channel that use parameters. */
     private final Map<Character, String> paramModes = new HashMap<>();
     /** Hashtable storing list modes. */
-    private final Map<Character, ArrayList<ChannelListModeItem>> listModes = new HashMap<>();
+    private final Map<Character, ListModeStore> listModes = new HashMap<>();
     /**
      * LinkedList storing status of mode adding.
      * if an item is in this list for a mode, we are expecting new items for the list
@@ -96,9 +101,11 @@ public class IRCChannelInfo implements ChannelInfo {
     /** Listmode Queue Time. */
     private long listModeQueueTime = System.currentTimeMillis();
     /** Have we asked the server for the list modes for this channel yet? */
-    private boolean askedForListModes;
+    private volatile boolean askedForListModes;
     /** Has OnChannelGotListModes ever been called for this channel? */
     private boolean hasGotListModes;
+    /** Was this channel restored from a checkpoint, and not yet rejoined? */
+    private volatile boolean seeded;
 
     /**
      * Create a new channel object.
@@ -143,11 +150,55 @@ public class IRCChannelInfo implements ChannelInfo {
      */
     @Override
     public void requestListModes() {
+        for (String line : prepareListModeRequest()) {
+            parser.getJoinScheduler().queueQuery(line);
+        }
+    }
+
+    /**
+     * Requests this channel's list modes if the parser's {@link ListModePolicy}
+     * says they should be fetched now. This is called once we have joined the
+     * channel, and whenever our own modes in the channel are changed.
+     */
+    public void applyListModePolicy() {
+        if (askedForListModes) {
+            return;
+        }
+
+        switch (parser.getListModePolicy()) {
+            case EAGER:
+                requestListModes();
+                break;
+            case OPPED:
+                final IRCChannelClientInfo me = getChannelClient(parser.getLocalClient());
+                if (me != null && me.isOpped()) {
+                    requestListModes();
+                }
+                break;
+            case BACKGROUND:
+                parser.getJoinScheduler().queueListModes(this);
+                break;
+            default:
+                // LAZY waits for getListMode, MANUAL for requestListModes.
+                break;
+        }
+    }
+
+    /**
+     * Builds the queries needed to ask the server for all the list modes for
+     * this channel, and marks them as having been asked for. The caller must
+     * send the queries.
+     *
+     * @return The queries to send, empty if we don't know our own state in
+     * the channel yet
+     */
+    List<String> prepareListModeRequest() {
+        final List<String> lines = new ArrayList<>();
         final IRCChannelClientInfo me = getChannelClient(parser.getLocalClient());
 
         if (me == null) {
             // In a normal situation of non bouncer-brokenness this won't happen
-            return;
+            return lines;
         }
 
         askedForListModes = true;
@@ -187,7 +238,7 @@ public class IRCChannelInfo implements ChannelInfo {
                 i++;
                 listmodes = listmodes + cTemp;
                 if (i >= modecount && !supportLISTMODE) {
-                    parser.sendString("MODE " + getName() + " " + listmodes, QueuePriority.LOW);
+                    lines.add("MODE " + getName() + " " + listmodes);
                     i = 0;
                     listmodes = "";
                 }
@@ -195,11 +246,12 @@ public class IRCChannelInfo implements ChannelInfo {
         }
         if (i > 0) {
             if (supportLISTMODE) {
-                parser.sendString("LISTMODE " + getName() + " " + listmodes, QueuePriority.LOW);
+                lines.add("LISTMODE " + getName() + " " + listmodes);
             } else {
-                parser.sendString("MODE " + getName() + " " + listmodes, QueuePriority.LOW);
+                lines.add("MODE " + getName() + " " + listmodes);
             }
         }
+        return lines;
     }
 
     /**
@@ -245,6 +297,26 @@ public class IRCChannelInfo implements ChannelInfo {
         hasGotListModes = newValue;
     }
 
+    /**
+     * Checks whether this channel was restored from a checkpoint, and has not
+     * been rejoined since.
+     *
+     * @return True if this channel is only known from a checkpoint
+     */
+    public boolean isSeeded() {
+        return seeded;
+    }
+
+    /**
+     * Sets whether this channel was restored from a checkpoint, and has not
+     * been rejoined since.
+     *
+     * @param seeded True if this channel is only known from a checkpoint
+     */
+    public void setSeeded(final boolean seeded) {
+        this.seeded = seeded;
+    }
+
     @Override
     public Map<Object, Object> getMap() {
         return map;
@@ -268,6 +340,72 @@ public class IRCChannelInfo implements ChannelInfo {
         return addingNames;
     }
 
+    /**
+     * Gets the buffer that names from the current NAMES reply should be added
+     * to, creating it if required. If no reply is currently in progress, the
+     * new buffer will replace all existing members when committed.
+     *
+     * @return The buffer for the current NAMES reply
+     */
+    public NamesBuffer getPendingNames() {
+        if (pendingNames == null) {
+            pendingNames = new NamesBuffer(prefixModeManager, !addingNames);
+            addingNames = true;
+        }
+        return pendingNames;
+    }
+
+    /**
+     * Commits all names received since the last commit to the channel. Each
+     * name is resolved with a single lookup, existing channel clients are
+     * reused where possible, and the channel's member map is rebuilt at the
+     * required size in one go.
+     *
+     * @return The channel clients that were named in the reply
+     */
+    public List<IRCChannelClientInfo> commitNames() {
+        final NamesBuffer names = pendingNames;
+        pendingNames = null;
+        addingNames = false;
+        if (names == null) {
+            return Collections.emptyList();
+        }
+
+        final PersistentMap<String, IRCChannelClientInfo> oldClients = clients;
+        PersistentMap<String, IRCChannelClientInfo> newClients =
+                names.isReplacing() ? PersistentMap.empty() : oldClients;
+
+        final List<IRCChannelClientInfo> named = new ArrayList<>(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            final String key = parser.getStringConverter().toLowerCase(names.getNickname(i));
+            final IRCClientInfo client = parser.getOrCreateClient(key, names.getHostmask(i));
+
+            IRCChannelClientInfo channelClient = oldClients.get(key);
+            if (channelClient == null || channelClient.getClient() != client) {
+                channelClient = new IRCChannelClientInfo(parser, prefixModeManager, client, this);
+            }
+            channelClient.setChanMode(names.getModes(i));
+            newClients = newClients.plus(key, channelClient);
+            named.add(channelClient);
+        }
+
+        if (names.isReplacing()) {
+            for (Map.Entry<String, IRCChannelClientInfo> entry : oldClients.asMap().entrySet()) {
+                if (newClients.get(entry.getKey()) != entry.getValue()) {
+                    final IRCClientInfo client = entry.getValue().getClient();
+                    client.delChannelClientInfo(entry.getValue());
+                    if (client != parser.getLocalClient() && !client.checkVisibility()) {
+                        parser.removeClient(client);
+                    }
+                }
+            }
+        }
+
+        setClients(newClients);
+        parser.callDebugInfo(IRCParser.DEBUG_INFO, "Committed %s names for %s", names.size(), name);
+        return named;
+    }
+
     @Override
     public String getName() {
         return name;
@@ -278,10 +416,36 @@ public class IRCChannelInfo implements ChannelInfo {
         return clients.size();
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The collection is a read-only view of the channel's members at the
+     * time of the call, and will not change if members join or leave later.
+     */
     @Override
     public Collection<ChannelClientInfo> getChannelClients() {
-        synchronized (clients) {
-            return new ArrayList<>(clients.values());
+        return Collections.unmodifiableCollection(clients.values());
+    }
+
+    /**
+     * Gets the map of channel clients, keyed by lower-cased nickname.
+     *
+     * @return The channel's current members
+     */
+    PersistentMap<String, IRCChannelClientInfo> getClientMap() {
+        return clients;
+    }
+
+    /**
+     * Replaces the channel's members, and publishes them to the parser's
+     * state.
+     *
+     * @param newClients The new members of the channel
+     */
+    private void setClients(final PersistentMap<String, IRCChannelClientInfo> newClients) {
+        if (newClients != clients) {
+            clients = newClients;
+            parser.updateChannelMembers(this, newClients);
         }
     }
 
@@ -290,16 +454,14 @@ public class IRCChannelInfo implements ChannelInfo {
      */
     public void emptyChannel() {
         IRCClientInfo cTemp;
-        synchronized (clients) {
-            for (IRCChannelClientInfo client : clients.values()) {
-                cTemp = client.getClient();
-                cTemp.delChannelClientInfo(client);
-                if (cTemp != parser.getLocalClient() && !cTemp.checkVisibility()) {
-                    parser.removeClient(cTemp);
-                }
+        for (IRCChannelClientInfo client : clients.values()) {
+            cTemp = client.getClient();
+            cTemp.delChannelClientInfo(client);
+            if (cTemp != parser.getLocalClient() && !cTemp.checkVisibility()) {
+                parser.removeClient(cTemp);
             }
         }
-        clients.clear();
+        setClients(PersistentMap.empty());
     }
 
     @Override
@@ -310,8 +472,9 @@ public class IRCChannelInfo implements ChannelInfo {
     @Override
     public IRCChannelClientInfo getChannelClient(final String client, final boolean create) {
         final String who = parser.getStringConverter().toLowerCase(IRCClientInfo.parseHost(client));
-        if (clients.containsKey(who)) {
-            return clients.get(who);
+        final IRCChannelClientInfo channelClient = clients.get(who);
+        if (channelClient != null) {
+            return channelClient;
         }
         if (create) {
             return new IRCChannelClientInfo(parser, prefixModeManager,
@@ -323,11 +486,9 @@ public class IRCChannelInfo implements ChannelInfo {
 
     @Override
     public IRCChannelClientInfo getChannelClient(final ClientInfo client) {
-        synchronized (clients) {
-            for (IRCChannelClientInfo target : clients.values()) {
-                if (target.getClient() == client) {
-                    return target;
-                }
+        for (IRCChannelClientInfo target : clients.values()) {
+            if (target.getClient() == client) {
+                return target;
             }
         }
         return null;
@@ -342,12 +503,29 @@ public class IRCChannelInfo implements ChannelInfo {
     public IRCChannelClientInfo addClient(final IRCClientInfo cClient) {
         IRCChannelClientInfo cTemp = getChannelClient(cClient);
         if (cTemp == null) {
-            cTemp = new IRCChannelClientInfo(parser, prefixModeManager, cClient, this);
-            clients.put(parser.getStringConverter().toLowerCase(cTemp.getClient().getNickname()), cTemp);
+            cTemp = createChannelClient(cClient);
+            setClients(clients.plus(parser.getStringConverter().toLowerCase(cTemp.getClient().getNickname()), cTemp));
         }
         return cTemp;
     }
 
+    /**
+     * Creates the ChannelClientInfo object for a client joining the channel,
+     * reusing the one the client had before leaving in a netsplit if possible.
+     *
+     * @param cClient Client object joining the channel
+     * @return ChannelClientInfo object for the client
+     */
+    private IRCChannelClientInfo createChannelClient(final IRCClientInfo cClient) {
+        final IRCChannelClientInfo restored =
+                parser.getNetsplitLimbo().restoreMember(cClient, this);
+        if (restored != null) {
+            cClient.addChannelClientInfo(restored);
+            return restored;
+        }
+        return new IRCChannelClientInfo(parser, prefixModeManager, cClient, this);
+    }
+
     /**
      * Remove ChannelClientInfo object associated with a ClientInfo object.
      *
@@ -361,8 +539,62 @@ public class IRCChannelInfo implements ChannelInfo {
             if (clTemp != parser.getLocalClient() && !clTemp.checkVisibility()) {
                 parser.removeClient(clTemp);
             }
-            clients.remove(parser.getStringConverter().toLowerCase(cTemp.getClient().getNickname()));
+            setClients(clients.minus(parser.getStringConverter().toLowerCase(cTemp.getClient().getNickname())));
+        }
+    }
+
+    /**
+     * Adds several clients to the channel, publishing the new members to the
+     * parser's state once.
+     *
+     * @param newClients Clients to be added to the channel
+     * @return The ChannelClientInfo objects for clients that were not already on the channel
+     */
+    public List<IRCChannelClientInfo> addClients(final Collection<IRCClientInfo> newClients) {
+        final List<IRCChannelClientInfo> added = new ArrayList<>(newClients.size());
+        PersistentMap<String, IRCChannelClientInfo> members = clients;
+        for (IRCClientInfo client : newClients) {
+            final String key = parser.getStringConverter().toLowerCase(client.getNickname());
+            if (members.containsKey(key)) {
+                continue;
+            }
+            final IRCChannelClientInfo channelClient = createChannelClient(client);
+            members = members.plus(key, channelClient);
+            added.add(channelClient);
+        }
+        setClients(members);
+        return added;
+    }
+
+    /**
+     * Removes several clients from the channel, publishing the new members to
+     * the parser's state once. Clients are looked up by nickname, rather than
+     * by searching every member, so this is suitable for removing large
+     * numbers of clients at once.
+     *
+     * @param oldClients Clients to be removed from the channel
+     * @return The ChannelClientInfo objects that were removed
+     */
+    public List<IRCChannelClientInfo> delClients(final Collection<IRCClientInfo> oldClients) {
+        final List<IRCChannelClientInfo> removed = new ArrayList<>(oldClients.size());
+        final List<IRCClientInfo> invisible = new ArrayList<>();
+        PersistentMap<String, IRCChannelClientInfo> members = clients;
+        for (IRCClientInfo client : oldClients) {
+            final String key = parser.getStringConverter().toLowerCase(client.getNickname());
+            final IRCChannelClientInfo channelClient = members.get(key);
+            if (channelClient == null || channelClient.getClient() != client) {
+                continue;
+            }
+            client.delChannelClientInfo(channelClient);
+            if (client != parser.getLocalClient() && !client.checkVisibility()) {
+                invisible.add(client);
+            }
+            members = members.minus(key);
+            removed.add(channelClient);
         }
+        parser.removeClients(invisible);
+        setClients(members);
+        return removed;
     }
 
     /**
@@ -372,15 +604,12 @@ public class IRCChannelInfo implements ChannelInfo {
      * @param cChannelClient ChannelClient object with updated client object
      */
     public void renameClient(final String oldNickname, final IRCChannelClientInfo cChannelClient) {
-        if (clients.containsKey(oldNickname)) {
-            final IRCChannelClientInfo cTemp = clients.get(oldNickname);
-            if (cTemp == cChannelClient) {
-                // Remove the old key
-                clients.remove(oldNickname);
-                // Add with the new key. (getNickname will return the new name not the
-                // old one)
-                clients.put(parser.getStringConverter().toLowerCase(cTemp.getClient().getNickname()), cTemp);
-            }
+        final IRCChannelClientInfo cTemp = clients.get(oldNickname);
+        if (cTemp == cChannelClient) {
+            // Remove the old key, and add with the new key. (getNickname will
+            // return the new name not the old one)
+            setClients(clients.minus(oldNickname).plus(
+                    parser.getStringConverter().toLowerCase(cTemp.getClient().getNickname()), cTemp));
         }
     }
 
@@ -493,6 +722,15 @@ public class IRCChannelInfo implements ChannelInfo {
         return sModes.append(sModeParams).toString();
     }
 
+    /**
+     * Gets the values of modes set in the channel that use parameters.
+     *
+     * @return A read-only map of modes to their values
+     */
+    Map<Character, String> getParamModes() {
+        return Collections.unmodifiableMap(paramModes);
+    }
+
     /**
      * Set a channel mode that requires a parameter.
      *
@@ -554,36 +792,79 @@ public class IRCChannelInfo implements ChannelInfo {
             }
         }
 
-        if (!listModes.containsKey(cMode)) {
-            listModes.put(cMode, new ArrayList<>());
-        }
-
-        final List<ChannelListModeItem> lModes = listModes.get(cMode);
-        for (int i = 0; i < lModes.size(); i++) {
-            if (parser.getStringConverter().equalsIgnoreCase(lModes.get(i).getItem(), newItem.getItem())) {
-                if (bAdd) {
-                    return;
-                } else {
-                    lModes.remove(i);
-                    break;
-                }
-            }
-        }
+        final ListModeStore lModes = getListModeStore(cMode);
         if (bAdd) {
             lModes.add(newItem);
+        } else {
+            lModes.remove(newItem.getItem());
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The returned collection is a read-only view which reflects later
+     * changes to the list.
+     */
     @Override
     public Collection<ChannelListModeItem> getListMode(final char mode) {
         if (!parser.chanModesOther.containsKey(mode) || parser.chanModesOther.get(mode) != IRCParser.MODE_LIST) {
             return null;
         }
 
-        if (!listModes.containsKey(mode)) {
-            listModes.put(mode, new ArrayList<>());
+        if (!askedForListModes && parser.getListModePolicy() == ListModePolicy.LAZY) {
+            requestListModes();
+        }
+
+        return getKnownListMode(mode);
+    }
+
+    /**
+     * Gets the items currently known for the specified list mode, without
+     * requesting them from the server.
+     *
+     * @param mode The list mode
+     * @return A read-only view of the known items
+     */
+    Collection<ChannelListModeItem> getKnownListMode(final char mode) {
+        return getListModeStore(mode).getItems();
+    }
+
+    /**
+     * Removes all known items for the specified list mode.
+     *
+     * @param mode The list mode to be cleared
+     * @return True if the mode was cleared, false if it isn't a known list mode
+     */
+    public boolean clearListMode(final char mode) {
+        if (!parser.chanModesOther.containsKey(mode) || parser.chanModesOther.get(mode) != IRCParser.MODE_LIST) {
+            return false;
         }
-        return listModes.get(mode);
+
+        getListModeStore(mode).clear();
+        return true;
+    }
+
+    /**
+     * Adds an item to a list mode exactly as given, without any of the
+     * server-specific adjustments made by
+     * {@link #setListModeParam(Character, ChannelListModeItem, boolean)}.
+     *
+     * @param mode The list mode
+     * @param item The item to add
+     */
+    void restoreListModeItem(final char mode, final ChannelListModeItem item) {
+        getListModeStore(mode).add(item);
+    }
+
+    /**
+     * Gets the store for the specified list mode, creating it if required.
+     *
+     * @param mode The list mode
+     * @return The store for the mode
+     */
+    private ListModeStore getListModeStore(final char mode) {
+        return listModes.computeIfAbsent(mode, k -> new ListModeStore(parser));
     }
 
     /**
@@ -800,7 +1081,7 @@ public class IRCChannelInfo implements ChannelInfo {
      * @param sMessage Optional Additional Parameters
      */
     public void sendCTCPReply(final String sType, final String sMessage) {
-        if (sType.isEmpty()) {
+        if (sType.isEmpty() || !parser.getFloodShield().allowCtcpReply()) {
             return;
         }
         final char char1 = (char) 1;
@@ -838,6 +1119,6 @@ public class IRCChannelInfo implements ChannelInfo {
 
     @Override
     public void sendWho() {
-        parser.sendRawMessage("WHO " + name);
+        parser.getJoinScheduler().queueQuery("WHO " + name);
     }
 }
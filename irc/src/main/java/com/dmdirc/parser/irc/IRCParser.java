@@ -22,6 +22,7 @@
 package com.dmdirc.parser.irc;
 
 import com.dmdirc.parser.common.BaseSocketAwareParser;
+import com.dmdirc.parser.common.CallbackExecutor;
 import com.dmdirc.parser.common.ChannelJoinRequest;
 import com.dmdirc.parser.common.ChildImplementations;
 import com.dmdirc.parser.common.CompositionState;
@@ -45,10 +46,13 @@ import com.dmdirc.parser.interfaces.Encoder;
 import com.dmdirc.parser.interfaces.EncodingParser;
 import com.dmdirc.parser.interfaces.SecureParser;
 import com.dmdirc.parser.irc.IRCReader.ReadLine;
-import com.dmdirc.parser.irc.events.IRCDataInEvent;
-import com.dmdirc.parser.irc.events.IRCDataOutEvent;
 import com.dmdirc.parser.irc.outputqueue.OutputQueue;
 import com.dmdirc.parser.irc.outputqueue.PriorityOutputQueue;
+import com.dmdirc.parser.irc.processors.ProcessBatch;
+import com.dmdirc.parser.irc.processors.ProcessCap;
+import com.dmdirc.parser.irc.processors.ProcessJoin;
+import com.dmdirc.parser.irc.processors.ProcessorSet;
+import com.dmdirc.parser.irc.replay.TrafficRecorder;
 
 import java.io.IOException;
 import java.net.InetAddress;
@@ -58,7 +62,6 @@ import java.net.URISyntaxException;
 import java.net.UnknownHostException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
@@ -75,17 +78,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Timer;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
 
+import javax.annotation.Nullable;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 
-import dagger.ObjectGraph;
-
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -195,10 +200,14 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
     private boolean addLastLine;
     /** Channel Prefixes (ie # + etc). */
     private String chanPrefix = DEFAULT_CHAN_PREFIX;
-    /** Hashtable storing all known clients based on nickname (in lowercase). */
-    private final Map<String, IRCClientInfo> clientList = new HashMap<>();
-    /** Hashtable storing all known channels based on chanel name (inc prefix - in lowercase). */
-    private final Map<String, IRCChannelInfo> channelList = new HashMap<>();
+    /**
+     * Snapshot of all known clients (based on nickname, in lowercase) and
+     * channels (based on channel name inc prefix, in lowercase). This is only
+     * replaced while holding {@link #stateLock}, and may be read at any time.
+     */
+    private volatile IRCParserState state = new IRCParserState(new IRCStringConverter(IRCEncoding.RFC1459));
+    /** Lock used when publishing a new state. */
+    private final Object stateLock = new Object();
     /** Reference to the ClientInfo object that references ourself. */
     private IRCClientInfo myself;
     /** Hashtable storing all information gathered from 005. */
@@ -226,22 +235,50 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
     private IRCReader in;
     /** This is the default TrustManager for SSL Sockets, it trusts all ssl certs. */
     private final TrustManager[] trustAllCerts = {new TrustingTrustManager()};
-    /** Should channels automatically request list modes? */
-    private boolean autoListMode = true;
+    /** When channels should request their list modes. */
+    private ListModePolicy listModePolicy = ListModePolicy.EAGER;
     /** Should part/quit/kick callbacks be fired before removing the user internally? */
     private boolean removeAfterCallback = true;
     /** This is the TrustManager used for SSL Sockets. */
     private TrustManager[] myTrustManager = trustAllCerts;
     /** The KeyManagers used for client certificates for SSL sockets. */
     private KeyManager[] myKeyManagers;
+    /** The cache to obtain SSL contexts from. */
+    private SSLContextCache sslContextCache = SSLContextCache.getDefault();
     /** This is list containing 001 - 005 inclusive. */
     private final List<String> serverInformationLines = new LinkedList<>();
     /** Map of capabilities and their state. */
     private final Map<String, CapabilityState> capabilities = new HashMap<>();
     /** Handler for whois responses. */
     private final WhoisResponseHandler whoisHandler;
+    /** Scheduler for JOINs and the queries that follow them. */
+    private final JoinScheduler joinScheduler;
+    /** Used to refresh the details of whole channels or lists of users. */
+    private final WhoSync whoSync;
+    /** Clients that left in a netsplit, kept so they can be restored when it ends. */
+    private final NetsplitLimbo netsplitLimbo;
+    /** Filter that drops messages from flooding sources. */
+    private final FloodShield floodShield;
+    /** Publisher of events for raw lines sent and received. */
+    private final RawDataPublisher rawDataPublisher;
+    /** Dispatcher used to process channel lines in parallel. */
+    private final ChannelDispatcher channelDispatcher;
+    /** Matches replies to queries sent with {@link #sendQuery(ServerQuery)}. */
+    private final QueryTracker queryTracker;
     /** Used to synchronize calls to resetState. */
     private final Object resetStateSync = new Object();
+    /** Should the next reset keep state that was restored from a checkpoint? */
+    private boolean keepSeededState;
+    /** Recorder to capture inbound traffic with, if any. */
+    private TrafficRecorder trafficRecorder;
+    /** Cache of network profiles used to pipeline registration, if any. */
+    private NetworkProfileCache networkProfileCache;
+    /** Channels to join once connected. */
+    private List<ChannelJoinRequest> autoJoinChannels = Collections.emptyList();
+    /** Were the auto-join channels sent along with our registration? */
+    private boolean autoJoinPipelined;
+    /** Did the server reject pipelined JOINs because registration hadn't finished? */
+    private boolean autoJoinRejected;
 
     /**
      * Default constructor, ServerInfo and MyInfo need to be added separately (using IRC.me and IRC.server).
@@ -280,10 +317,8 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         super(uri);
         setCallbackManager(new IRCParserCallbackManager(this::handleCallbackError));
 
-        // TODO: There should be a factory or builder for parsers that can construct the graph
-        final ObjectGraph graph = ObjectGraph.create(new IRCParserModule(this, prefixModes,
-                userModes, chanModesBool));
-        myProcessingManager = graph.get(ProcessingManager.class);
+        myProcessingManager = new ProcessingManager(this,
+                ProcessorSet.create(this, prefixModes, userModes, chanModesBool));
         myself = new IRCClientInfo(this, userModes, "myself").setFake(true);
 
         out = new PriorityOutputQueue();
@@ -292,6 +327,14 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         }
 
         this.whoisHandler = new WhoisResponseHandler(this, getCallbackManager());
+        this.joinScheduler = new JoinScheduler(this);
+        this.whoSync = new WhoSync(this);
+        this.netsplitLimbo = new NetsplitLimbo(this);
+        this.floodShield = new FloodShield(this);
+        this.rawDataPublisher = new RawDataPublisher(this);
+        this.channelDispatcher = new ChannelDispatcher(this, prefixModes, chanModesBool,
+                CallbackExecutor.getDefault());
+        this.queryTracker = new QueryTracker(this);
 
         setIgnoreList(new IgnoreList());
         setPingTimerInterval(10000);
@@ -364,18 +407,20 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
 
         // Look for SRV records if no port is specified.
         if (port == -1) {
-            List<SRVRecord> recordList = new ArrayList<>();
-            if (isSSL) {
-                // There are a few possibilities for ssl...
-                final String[] protocols = {"_ircs._tcp.", "_irc._tls."};
-                for (final String protocol : protocols) {
-                    recordList = SRVRecord.getRecords(protocol + host);
-                    if (!recordList.isEmpty()) {
-                        break;
-                    }
+            // There are a few possibilities for ssl, so look them all up at once...
+            final String[] protocols = isSSL ? new String[]{"_ircs._tcp.", "_irc._tls."}
+                    : new String[]{"_irc._tcp."};
+            final List<CompletableFuture<List<SRVRecord>>> lookups = new ArrayList<>();
+            for (final String protocol : protocols) {
+                lookups.add(getHostResolver().resolveSrv(protocol + host));
+            }
+
+            List<SRVRecord> recordList = Collections.emptyList();
+            for (CompletableFuture<List<SRVRecord>> lookup : lookups) {
+                recordList = lookup.join();
+                if (!recordList.isEmpty()) {
+                    break;
                 }
-            } else {
-                recordList = SRVRecord.getRecords("_irc._tcp." + host);
             }
             if (!recordList.isEmpty()) {
                 host = recordList.get(0).getHost();
@@ -445,19 +490,39 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
     /**
      * Get the current Value of autoListMode.
      *
-     * @return Value of autoListMode (true if channels automatically ask for list modes on join, else false)
+     * @return Value of autoListMode (true if channels automatically ask for list modes, else false)
      */
     public boolean getAutoListMode() {
-        return autoListMode;
+        return listModePolicy != ListModePolicy.MANUAL;
     }
 
     /**
-     * Set the current Value of autoListMode.
+     * Set the current Value of autoListMode. This is equivalent to setting the
+     * list mode policy to {@link ListModePolicy#EAGER} or {@link ListModePolicy#MANUAL}.
      *
      * @param newValue New value to set autoListMode
      */
     public void setAutoListMode(final boolean newValue) {
-        autoListMode = newValue;
+        listModePolicy = newValue ? ListModePolicy.EAGER : ListModePolicy.MANUAL;
+    }
+
+    /**
+     * Gets the policy used to decide when channels request their list modes.
+     *
+     * @return The current list mode policy
+     */
+    public ListModePolicy getListModePolicy() {
+        return listModePolicy;
+    }
+
+    /**
+     * Sets the policy used to decide when channels request their list modes.
+     * This only affects channels that have not yet requested them.
+     *
+     * @param policy The new list mode policy
+     */
+    public void setListModePolicy(final ListModePolicy policy) {
+        listModePolicy = policy;
     }
 
     /**
@@ -545,6 +610,26 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         myKeyManagers = managers == null ? null : Arrays.copyOf(managers, managers.length);
     }
 
+    /**
+     * Sets the cache used to obtain SSL contexts. Parsers sharing a cache and
+     * the same managers will share a context, and so can resume each other's
+     * TLS sessions.
+     *
+     * @param sslContextCache The cache to use
+     */
+    public void setSSLContextCache(final SSLContextCache sslContextCache) {
+        this.sslContextCache = sslContextCache;
+    }
+
+    /**
+     * Gets the cache used to obtain SSL contexts.
+     *
+     * @return The SSL context cache
+     */
+    public SSLContextCache getSSLContextCache() {
+        return sslContextCache;
+    }
+
     //---------------------------------------------------------------------------
     // Start Callbacks
     //---------------------------------------------------------------------------
@@ -564,7 +649,7 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @param line Incoming Line.
      */
     protected void callDataIn(final ReadLine line) {
-        getCallbackManager().publish(new IRCDataInEvent(this, LocalDateTime.now(), line));
+        rawDataPublisher.lineIn(line);
     }
 
     /**
@@ -574,7 +659,7 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @param fromParser True if parser sent the data, false if sent using .sendLine
      */
     protected void callDataOut(final String data, final boolean fromParser) {
-        getCallbackManager().publish(new IRCDataOutEvent(this, LocalDateTime.now(), data));
+        rawDataPublisher.lineOut(data);
     }
 
     /**
@@ -669,33 +754,68 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         }
 
         whoisHandler.start();
+        if (!autoJoinChannels.isEmpty() && (!autoJoinPipelined || autoJoinRejected)) {
+            joinChannels(autoJoinChannels.toArray(new ChannelJoinRequest[autoJoinChannels.size()]));
+        }
+        storeNetworkProfile();
         getCallbackManager().publish(new ServerReadyEvent(this, LocalDateTime.now()));
     }
 
+    /**
+     * Stores what we now know about the network in the profile cache, if there is one.
+     */
+    private void storeNetworkProfile() {
+        if (networkProfileCache == null) {
+            return;
+        }
+        try {
+            networkProfileCache.put(getNetworkProfileKey(), NetworkProfile.of(this));
+        } catch (IOException ex) {
+            callDebugInfo(DEBUG_INFO, "Unable to store network profile: %s", ex.getMessage());
+        }
+    }
+
+    /**
+     * Gets the key that identifies the network we connect to in the profile cache.
+     *
+     * @return The network profile key
+     */
+    private String getNetworkProfileKey() {
+        return NetworkProfileCache.getKey(getURI().getHost(), getURI().getPort());
+    }
+
     //---------------------------------------------------------------------------
     // End Callbacks
     //---------------------------------------------------------------------------
     /** Reset internal state (use before doConnect). */
     private void resetState() {
+        // Let lines already dispatched to channel executors finish with the
+        // state they expect before it is cleared.
+        channelDispatcher.awaitIdle();
         synchronized (resetStateSync) {
             // Reset General State info
             got001 = false;
             post005 = false;
-            // Clear the hash tables
-            channelList.clear();
-            clientList.clear();
-            h005Info.clear();
-            prefixModes.clear();
-            chanModesOther.clear();
-            chanModesBool.clear();
-            userModes.clear();
-            chanPrefix = DEFAULT_CHAN_PREFIX;
+            if (keepSeededState) {
+                // State restored from a checkpoint is kept until the server replaces it.
+                keepSeededState = false;
+            } else {
+                // Clear the hash tables
+                updateState(s -> s.withoutChannels().withoutClients());
+                h005Info.clear();
+                prefixModes.clear();
+                chanModesOther.clear();
+                chanModesBool.clear();
+                userModes.clear();
+                chanPrefix = DEFAULT_CHAN_PREFIX;
+                setServerName("");
+                networkName = "";
+                myself = new IRCClientInfo(this, userModes, "myself").setFake(true);
+                setEncoding(IRCEncoding.RFC1459);
+            }
             // Clear output queue.
             out.clearQueue();
-            setServerName("");
-            networkName = "";
             lastLine = null;
-            myself = new IRCClientInfo(this, userModes, "myself").setFake(true);
 
             synchronized (serverInformationLines) {
                 serverInformationLines.clear();
@@ -703,12 +823,35 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
             stopPingTimer();
 
             currentSocketState = SocketState.CLOSED;
-            setEncoding(IRCEncoding.RFC1459);
 
             whoisHandler.stop();
+            joinScheduler.reset();
+            whoSync.reset();
+            queryTracker.reset();
+            netsplitLimbo.clear();
+            floodShield.reset();
+            rawDataPublisher.flush();
+            channelDispatcher.reset();
+            final ProcessBatch batchProcessor = getBatchProcessor();
+            if (batchProcessor != null) {
+                batchProcessor.reset();
+            }
         }
     }
 
+    /**
+     * Called when the traffic recorder could not record a line. Recording
+     * stops, but the connection is unaffected.
+     *
+     * @param ex The exception that caused recording to fail
+     */
+    private void onRecordingFailed(final IOException ex) {
+        final ParserError ei = new ParserError(ParserError.ERROR_ERROR,
+                "Unable to record traffic; recording stopped", getLastLine());
+        ei.setException(ex);
+        callErrorInfo(ei);
+    }
+
     /**
      * Called after other error callbacks.
      * CallbackOnErrorInfo automatically calls this *AFTER* any registered callbacks
@@ -769,8 +912,7 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
                 myTrustManager = trustAllCerts;
             }
 
-            final SSLContext sc = SSLContext.getInstance("SSL");
-            sc.init(myKeyManagers, myTrustManager, new SecureRandom());
+            final SSLContext sc = sslContextCache.getContext(myKeyManagers, myTrustManager);
 
             final SSLSocketFactory socketFactory = sc.getSocketFactory();
             socket = socketFactory.createSocket(rawSocket, getURI().getHost(), getURI()
@@ -780,7 +922,13 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
             // and so that we can control the connection timeout
             final int timeout = socket.getSoTimeout();
             socket.setSoTimeout(10000);
+            final long handshakeStart = System.nanoTime();
             ((SSLSocket) socket).startHandshake();
+            final boolean resumed = sslContextCache.recordHandshake(
+                    ((SSLSocket) socket).getSession(), handshakeStart);
+            callDebugInfo(DEBUG_SOCKET, "\t-> Handshake completed in %dms (%s)",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - handshakeStart),
+                    resumed ? "resumed" : "full");
             socket.setSoTimeout(timeout);
 
             currentSocketState = SocketState.OPENING;
@@ -793,7 +941,8 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         out.setQueueEnabled(true);
         currentSocketState = SocketState.OPEN;
         callDebugInfo(DEBUG_SOCKET, "\t-> Opening socket input stream BufferedReader");
-        in = new IRCReader(socket.getInputStream(), encoder);
+        in = new IRCReader(trafficRecorder == null ? socket.getInputStream()
+                : trafficRecorder.wrap(socket.getInputStream(), this::onRecordingFailed), encoder);
         callDebugInfo(DEBUG_SOCKET, "\t-> Socket Opened");
     }
 
@@ -801,11 +950,24 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * Send server connection strings (NICK/USER/PASS).
      */
     protected void sendConnectionStrings() {
-        sendString("CAP LS");
+        final NetworkProfile profile = networkProfileCache == null ? null
+                : networkProfileCache.get(getNetworkProfileKey());
+        final List<String> lines = new ArrayList<>();
+
+        synchronized (capabilities) {
+            // The server's CAP LS reply will tell us what it supports this time.
+            capabilities.clear();
+        }
+        lines.add("CAP LS");
+        final Collection<String> requested = startCapabilityNegotiation(profile);
+        if (!requested.isEmpty()) {
+            lines.add("CAP REQ :" + String.join(" ", requested));
+        }
+
         if (getURI().getUserInfo() != null && !getURI().getUserInfo().isEmpty()) {
-            sendString("PASS " + getURI().getUserInfo());
+            lines.add("PASS " + getURI().getUserInfo());
         }
-        sendString("NICK " + me.getNickname());
+        lines.add("NICK " + me.getNickname());
         thinkNickname = me.getNickname();
         String localhost;
         try {
@@ -813,7 +975,74 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         } catch (UnknownHostException uhe) {
             localhost = "*";
         }
-        sendString("USER " + me.getUsername() + ' ' + localhost + ' ' + getURI().getHost() + " :" + me.getRealname());
+        lines.add("USER " + me.getUsername() + ' ' + localhost + ' ' + getURI().getHost() + " :" + me.getRealname());
+
+        // If we know the network, there's no need to wait for its replies: end capability
+        // negotiation and send our auto-joins straight away. JOINs that arrive before the server
+        // has finished registering us are rejected, in which case they're sent again once we're
+        // connected.
+        autoJoinPipelined = profile != null && !autoJoinChannels.isEmpty();
+        autoJoinRejected = false;
+        if (profile != null) {
+            lines.add("CAP END");
+            if (autoJoinPipelined) {
+                final String chanTypes = profile.getISupport().get(IrcConstants.ISUPPORT_CHANNEL_TYPES);
+                if (chanTypes != null) {
+                    chanPrefix = chanTypes;
+                }
+                lines.addAll(joinScheduler.prepareJoin(autoJoinChannels, profile.getISupport()));
+            }
+        }
+
+        sendStrings(lines);
+    }
+
+    /**
+     * Starts capability negotiation with the CAP processor.
+     *
+     * @param profile The profile of the network being connected to, if known
+     * @return The capabilities to request before the server's CAP LS reply
+     */
+    private Collection<String> startCapabilityNegotiation(final NetworkProfile profile) {
+        try {
+            final ProcessCap processor = (ProcessCap) myProcessingManager.getProcessor("CAP");
+            return processor.startNegotiation(profile == null ? null : profile.getCapabilities());
+        } catch (ProcessorNotFoundException | ClassCastException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Gets the processor that handles BATCH lines.
+     *
+     * @return The batch processor, or null if there isn't one
+     */
+    @Nullable
+    private ProcessBatch getBatchProcessor() {
+        try {
+            return (ProcessBatch) myProcessingManager.getProcessor("BATCH");
+        } catch (ProcessorNotFoundException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Send several lines to the server in a single write, bypassing the output queue.
+     *
+     * @param lines Lines to send
+     * @return True if the lines were sent, else false.
+     */
+    private boolean sendStrings(final List<String> lines) {
+        if (getSocketState() != SocketState.OPEN) {
+            return false;
+        }
+        for (String line : lines) {
+            callDataOut(line, true);
+            parseOutgoingLine(line);
+        }
+        out.sendLines(lines);
+
+        return true;
     }
 
     /**
@@ -974,8 +1203,9 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
     public IRCClientInfo getClient(final String details) {
         final String sWho = getStringConverter().toLowerCase(IRCClientInfo.parseHost(details));
 
-        if (clientList.containsKey(sWho)) {
-            return clientList.get(sWho);
+        final IRCClientInfo client = state.getClientMap().get(sWho);
+        if (client != null) {
+            return client;
         } else {
             return new IRCClientInfo(this, userModes, details).setFake(true);
         }
@@ -983,14 +1213,12 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
 
     public boolean isKnownClient(final String host) {
         final String sWho = getStringConverter().toLowerCase(IRCClientInfo.parseHost(host));
-        return clientList.containsKey(sWho);
+        return state.getClientMap().containsKey(sWho);
     }
 
     @Override
     public IRCChannelInfo getChannel(final String channel) {
-        synchronized (channelList) {
-            return channelList.get(getStringConverter().toLowerCase(channel));
-        }
+        return state.getChannelMap().get(getStringConverter().toLowerCase(channel));
     }
 
     @Override
@@ -1003,6 +1231,31 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         sendRawMessage("WHOIS " + nickname);
     }
 
+    /**
+     * Sends a query to the server, and returns a future for its reply. Many
+     * queries may be outstanding at once; replies are matched to them using
+     * IRCv3 labeled responses if the server supports them, or by their
+     * targets and order otherwise.
+     *
+     * <p>Futures are completed on a callback thread.
+     *
+     * @param query The query to send
+     * @return A future that completes with the server's reply
+     * @see QueryTracker#send(ServerQuery)
+     */
+    public CompletableFuture<QueryResponse> sendQuery(final ServerQuery query) {
+        return queryTracker.send(query);
+    }
+
+    /**
+     * Gets the tracker used to match replies to queries.
+     *
+     * @return The query tracker
+     */
+    public QueryTracker getQueryTracker() {
+        return queryTracker;
+    }
+
     @Override
     public void sendRawMessage(final String message) {
         sendString(message, QueuePriority.NORMAL, false);
@@ -1060,20 +1313,30 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
             return false;
         }
         callDataOut(line, fromParser);
-        out.sendLine(line, priority);
         parseOutgoingLine(line);
+        out.sendLine(line, priority);
 
         return true;
     }
 
     /**
-     * Parses a line that has been sent to the server in order to track state.
+     * Parses a line that is about to be sent to the server in order to track state.
      *
      * @param line The line to be parsed.
      */
     private void parseOutgoingLine(final String line) {
-        final String[] newLine = tokeniseLine(line);
-        if ("away".equalsIgnoreCase(newLine[0]) && newLine.length > 1) {
+        // Skip over any tags we've attached to the line.
+        final String[] newLine = tokeniseLine(line.startsWith("@") && line.indexOf(' ') > 0
+                ? line.substring(line.indexOf(' ') + 1) : line);
+        if ("join".equalsIgnoreCase(newLine[0])) {
+            try {
+                ((ProcessJoin) myProcessingManager.getProcessor("JOIN")).handleOutgoingJoin(newLine);
+            } catch (ProcessorNotFoundException | ClassCastException e) {
+                // No JOIN processor to tell.
+            }
+        } else if ("who".equalsIgnoreCase(newLine[0])) {
+            whoSync.handleOutgoingWho(newLine);
+        } else if ("away".equalsIgnoreCase(newLine[0]) && newLine.length > 1) {
             myself.setAwayReason(newLine[newLine.length - 1]);
         } else if ("mode".equalsIgnoreCase(newLine[0]) && newLine.length == 3) {
             final IRCChannelInfo channel = getChannel(newLine[1]);
@@ -1127,15 +1390,16 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         final String[] token = line.getTokens();
         LocalDateTime lineTS = LocalDateTime.now();
 
-        if (line.getTags().containsKey("tsirc date")) {
+        final MessageTags tags = line.getMessageTags();
+        if (tags.getTsircDate() != null) {
             try {
-                final long ts = Long.parseLong(line.getTags().get("tsirc date")) - tsdiff;
+                final long ts = Long.parseLong(tags.getTsircDate()) - tsdiff;
                 lineTS = LocalDateTime.ofInstant(Instant.ofEpochSecond(ts / 1000L, (int) (ts % 1000L)),
                         ZoneId.systemDefault());
             } catch (final NumberFormatException nfe) { /* Do nothing. */ }
-        } else if (line.getTags().containsKey("time")) {
+        } else if (!tags.isEmpty() && tags.getTime() != null) {
             try {
-                lineTS = OffsetDateTime.parse(line.getTags().get("time"), serverTimeFormat)
+                lineTS = OffsetDateTime.parse(tags.getTime(), serverTimeFormat)
                         .atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
             } catch (final DateTimeParseException pe) { /* Do nothing. */ }
         }
@@ -1155,6 +1419,8 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
                     lastPingValue = "";
                     serverLag = System.currentTimeMillis() - pingTime;
                     callPingSuccess();
+                } else {
+                    joinScheduler.handlePong(token[token.length - 1]);
                 }
             } else if ("ERROR".equalsIgnoreCase(token[0])) {
                 final StringBuilder errorMessage = new StringBuilder();
@@ -1201,11 +1467,22 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
                             }
                         }
                     }
+                    // Lines in netsplit and netjoin batches are applied together when
+                    // the batch ends.
+                    if (tags.getBatch() != null) {
+                        final ProcessBatch batchProcessor = getBatchProcessor();
+                        if (batchProcessor != null
+                                && batchProcessor.addLine(tags.getBatch(), lineTS, token)) {
+                            return;
+                        }
+                    }
                     // After 001 we potentially care about everything!
-                    try {
-                        myProcessingManager.process(lineTS, sParam, token);
-                    } catch (ProcessorNotFoundException e) {
-                        // ???
+                    if (!channelDispatcher.dispatch(lineTS, token)) {
+                        try {
+                            myProcessingManager.process(lineTS, sParam, token);
+                        } catch (ProcessorNotFoundException e) {
+                            // ???
+                        }
                     }
                 } else {
                     // Before 001 we don't care about much.
@@ -1214,6 +1491,10 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
                     } catch (NumberFormatException e) {
                         nParam = -1;
                     }
+                    if (nParam == IrcConstants.NUMERIC_ERROR_NOT_REGISTERED && autoJoinPipelined) {
+                        // Our pipelined JOINs arrived before registration finished.
+                        autoJoinRejected = true;
+                    }
                     switch (nParam) {
                         case 1: // 001 - Welcome to IRC
                             synchronized (serverInformationLines) {
@@ -1262,6 +1543,8 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
             ei.setException(e);
             callErrorInfo(ei);
         }
+
+        queryTracker.handleLine(tags, token);
     }
 
     /** The IRCStringConverter for this parser */
@@ -1281,7 +1564,9 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @param encoding The encoding to use
      */
     public void setEncoding(final IRCEncoding encoding) {
-        stringConverter = new IRCStringConverter(encoding);
+        final IRCStringConverter converter = new IRCStringConverter(encoding);
+        stringConverter = converter;
+        updateState(s -> s.withConverter(converter));
     }
 
     /**
@@ -1541,44 +1826,66 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
 
     @Override
     public void joinChannels(final ChannelJoinRequest... channels) {
-        // We store a map from key->channels to allow intelligent joining of
-        // channels using as few JOIN commands as needed.
-        final Map<String, StringBuffer> joinMap = new HashMap<>();
-
-        for (ChannelJoinRequest channel : channels) {
-            // Make sure we have a list to put stuff in.
-            StringBuffer list = joinMap.computeIfAbsent(channel.getPassword(), k -> new StringBuffer());
-
-            // Add the channel to the list. If the name is invalid and
-            // autoprefix is off we will just skip this channel.
-            if (!channel.getName().isEmpty()) {
-                if (list.length() > 0) {
-                    list.append(',');
-                }
-                if (!isValidChannelName(channel.getName())) {
-                    if (chanPrefix.isEmpty()) {
-                        // TODO: This is wrong - empty chan prefix means the
-                        // IRCd supports no channels.
-                        list.append('#');
-                    } else {
-                        list.append(chanPrefix.charAt(0));
-                    }
-                }
-                list.append(channel.getName());
-            }
-        }
+        joinScheduler.join(Arrays.asList(channels));
+    }
 
-        for (Map.Entry<String, StringBuffer> entrySet : joinMap.entrySet()) {
-            final String thisKey = entrySet.getKey();
-            final String channelString = entrySet.getValue().toString();
-            if (!channelString.isEmpty()) {
-                if (thisKey == null || thisKey.isEmpty()) {
-                    sendString("JOIN " + channelString);
-                } else {
-                    sendString("JOIN " + channelString + ' ' + thisKey);
-                }
-            }
-        }
+    /**
+     * Gets the scheduler used to send JOINs and the queries that follow them.
+     *
+     * @return The join scheduler
+     */
+    public JoinScheduler getJoinScheduler() {
+        return joinScheduler;
+    }
+
+    /**
+     * Gets the helper used to refresh the details of whole channels or lists
+     * of users in bulk.
+     *
+     * @return The WHO sync helper
+     */
+    public WhoSync getWhoSync() {
+        return whoSync;
+    }
+
+    /**
+     * Gets the cache of clients that left in a netsplit, which are restored
+     * if they rejoin before they expire.
+     *
+     * @return The netsplit limbo
+     */
+    public NetsplitLimbo getNetsplitLimbo() {
+        return netsplitLimbo;
+    }
+
+    /**
+     * Gets the filter that drops messages from flooding sources. It is
+     * disabled by default.
+     *
+     * @return The flood shield
+     */
+    public FloodShield getFloodShield() {
+        return floodShield;
+    }
+
+    /**
+     * Gets the publisher of events for raw lines sent and received, which
+     * controls sampling and chunking of those events.
+     *
+     * @return The raw data publisher
+     */
+    public RawDataPublisher getRawDataPublisher() {
+        return rawDataPublisher;
+    }
+
+    /**
+     * Gets the dispatcher that can process lines for different channels in
+     * parallel. It is disabled by default.
+     *
+     * @return The channel dispatcher
+     */
+    public ChannelDispatcher getChannelDispatcher() {
+        return channelDispatcher;
     }
 
     /**
@@ -1745,6 +2052,10 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         if (target.isEmpty() || type.isEmpty()) {
             return;
         }
+        if (!floodShield.allowCtcpReply()) {
+            callDebugInfo(DEBUG_INFO, "Dropping CTCP reply to %s during a flood", target);
+            return;
+        }
         final char char1 = (char) 1;
         sendString("NOTICE " + target, char1 + type.toUpperCase() + ' ' + message + char1);
     }
@@ -1882,6 +2193,46 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         }
     }
 
+    /**
+     * Sets the recorder used to capture inbound traffic. This takes effect
+     * when the parser next connects.
+     *
+     * @param trafficRecorder The recorder to use, or null to stop recording
+     */
+    public void setTrafficRecorder(final TrafficRecorder trafficRecorder) {
+        this.trafficRecorder = trafficRecorder;
+    }
+
+    /**
+     * Gets the cache used to pipeline registration.
+     *
+     * @return The network profile cache, or null if registration is not pipelined
+     */
+    public NetworkProfileCache getNetworkProfileCache() {
+        return networkProfileCache;
+    }
+
+    /**
+     * Sets the cache used to pipeline registration. When the cache holds a profile for the
+     * network being connected to, the parser sends its capability request, registration and
+     * auto-joins in its first write instead of waiting for the server's replies. The profile is
+     * updated each time the parser connects.
+     *
+     * @param networkProfileCache The cache to use, or null to never pipeline registration
+     */
+    public void setNetworkProfileCache(final NetworkProfileCache networkProfileCache) {
+        this.networkProfileCache = networkProfileCache;
+    }
+
+    /**
+     * Sets the channels to join each time the parser connects.
+     *
+     * @param channels The channels to join
+     */
+    public void setAutoJoinChannels(final ChannelJoinRequest... channels) {
+        autoJoinChannels = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(channels)));
+    }
+
     @Override
     public void setEncoder(final Encoder encoder) {
         this.encoder = encoder;
@@ -1891,7 +2242,11 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
     public void setPingTimerInterval(final long newValue) {
         super.setPingTimerInterval(newValue);
 
-        startPingTimer();
+        // The timer cancels itself while disconnected, so don't start one
+        // (and its thread) until there is a connection to ping.
+        if (getSocketState() == SocketState.OPEN) {
+            startPingTimer();
+        }
     }
 
     /**
@@ -1947,6 +2302,12 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
             return;
         }
 
+        joinScheduler.checkStalled();
+        queryTracker.checkTimeouts();
+        netsplitLimbo.expire();
+        floodShield.checkFlood();
+        rawDataPublisher.flush();
+
         if (getPingNeeded()) {
             callPingFailed();
         } else {
@@ -2061,7 +2422,29 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @param client Client to add
      */
     public void addClient(final IRCClientInfo client) {
-        clientList.put(getStringConverter().toLowerCase(client.getRealNickname()), client);
+        final String key = getStringConverter().toLowerCase(client.getRealNickname());
+        updateState(s -> s.withClient(key, client));
+    }
+
+    /**
+     * Gets the known client with the specified key, or creates and adds a new
+     * one if none is known. If the client already exists and the hostmask
+     * contains host information, the client's ident and host are updated.
+     *
+     * @param key The lower-cased nickname of the client
+     * @param hostmask The nickname or full hostmask of the client
+     * @return The existing or newly created client
+     */
+    public IRCClientInfo getOrCreateClient(final String key, final String hostmask) {
+        IRCClientInfo client = state.getClientMap().get(key);
+        if (client == null) {
+            final IRCClientInfo newClient = new IRCClientInfo(this, userModes, hostmask);
+            updateState(s -> s.withClient(key, newClient));
+            client = newClient;
+        } else if (hostmask.length() > key.length()) {
+            client.setUserBits(hostmask, false);
+        }
+        return client;
     }
 
     /**
@@ -2076,6 +2459,37 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
         }
     }
 
+    /**
+     * Add several clients to the ClientList, publishing a single change to the
+     * parser's state.
+     *
+     * @param newClients Clients to add
+     */
+    public void addClients(final Collection<IRCClientInfo> newClients) {
+        final Map<String, IRCClientInfo> added = new HashMap<>(newClients.size());
+        for (IRCClientInfo client : newClients) {
+            added.put(getStringConverter().toLowerCase(client.getRealNickname()), client);
+        }
+        updateState(s -> s.withClients(added));
+    }
+
+    /**
+     * Remove several clients from the ClientList, publishing a single change
+     * to the parser's state. This WILL NOT allow cMyself to be removed from
+     * the list.
+     *
+     * @param oldClients Clients to remove
+     */
+    public void removeClients(final Collection<IRCClientInfo> oldClients) {
+        final List<String> keys = new ArrayList<>(oldClients.size());
+        for (IRCClientInfo client : oldClients) {
+            if (client != myself) {
+                keys.add(getStringConverter().toLowerCase(client.getRealNickname()));
+            }
+        }
+        updateState(s -> s.withoutClients(keys));
+    }
+
     /**
      * Remove a client from the ClientList.
      * This WILL allow cMyself to be removed from the list
@@ -2083,7 +2497,8 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @param client Client to remove
      */
     public void forceRemoveClient(final IRCClientInfo client) {
-        clientList.remove(getStringConverter().toLowerCase(client.getRealNickname()));
+        final String key = getStringConverter().toLowerCase(client.getRealNickname());
+        updateState(s -> s.withoutClient(key));
     }
 
     /**
@@ -2092,24 +2507,27 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @return Count of known clients
      */
     public int knownClients() {
-        return clientList.size();
+        return state.getClientMap().size();
     }
 
     /**
-     * Get the known clients as a collection.
+     * Get the known clients as a collection. The collection is a read-only
+     * view of the current state, and will not change if clients are added or
+     * removed later.
      *
      * @return Known clients as a collection
      */
     public Collection<IRCClientInfo> getClients() {
-        return clientList.values();
+        return state.getClients();
     }
 
     /**
      * Clear the client list.
      */
     public void clearClients() {
-        clientList.clear();
-        addClient(getLocalClient());
+        final IRCClientInfo localClient = getLocalClient();
+        final String key = getStringConverter().toLowerCase(localClient.getRealNickname());
+        updateState(s -> s.withoutClients().withClient(key, localClient));
     }
 
     /**
@@ -2118,9 +2536,8 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @param channel Channel to add
      */
     public void addChannel(final IRCChannelInfo channel) {
-        synchronized (channelList) {
-            channelList.put(getStringConverter().toLowerCase(channel.getName()), channel);
-        }
+        final String key = getStringConverter().toLowerCase(channel.getName());
+        updateState(s -> s.withChannel(key, channel, channel.getClientMap()));
     }
 
     /**
@@ -2129,9 +2546,8 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @param channel Channel to remove
      */
     public void removeChannel(final ChannelInfo channel) {
-        synchronized (channelList) {
-            channelList.remove(getStringConverter().toLowerCase(channel.getName()));
-        }
+        final String key = getStringConverter().toLowerCase(channel.getName());
+        updateState(s -> s.withoutChannel(key));
     }
 
     /**
@@ -2140,24 +2556,98 @@ public class IRCParser extends BaseSocketAwareParser implements SecureParser, En
      * @return Count of known channel
      */
     public int knownChannels() {
-        synchronized (channelList) {
-            return channelList.size();
-        }
+        return state.getChannelMap().size();
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The collection is a read-only view of the current state, and will not
+     * change if channels are added or removed later.
+     */
     @Override
     public Collection<IRCChannelInfo> getChannels() {
-        synchronized (channelList) {
-            return channelList.values();
-        }
+        return state.getChannels();
     }
 
     /**
      * Clear the channel list.
      */
     public void clearChannels() {
-        synchronized (channelList) {
-            channelList.clear();
+        updateState(IRCParserState::withoutChannels);
+    }
+
+    /**
+     * Gets a consistent snapshot of all known clients, channels and channel
+     * members. The snapshot may be kept and read from any thread without
+     * locking; it will not reflect any later changes.
+     *
+     * @return The current state of the parser
+     */
+    public IRCParserState getState() {
+        return state;
+    }
+
+    /**
+     * Creates a new channel object that uses this parser's mode managers. The
+     * channel is not added to the channel list.
+     *
+     * @param name The name of the channel
+     * @return A new channel object
+     */
+    IRCChannelInfo createChannel(final String name) {
+        return new IRCChannelInfo(this, prefixModes, userModes, chanModesBool, name);
+    }
+
+    /**
+     * Marks the current state as having been restored from a checkpoint. The
+     * next connection attempt will keep it, rather than starting empty, so it
+     * can be used until the server's replies replace it.
+     */
+    void setSeeded() {
+        synchronized (resetStateSync) {
+            keepSeededState = true;
+        }
+    }
+
+    /**
+     * Removes channels restored from a checkpoint that have not been rejoined,
+     * along with any of their members that are not in another channel.
+     * Channels we are still waiting to join are kept. This is called at the
+     * end of the MOTD, and whenever a join fails.
+     */
+    public void pruneSeededState() {
+        for (IRCChannelInfo channel : getChannels()) {
+            if (channel.isSeeded() && !joinScheduler.isAwaiting(channel.getName())) {
+                callDebugInfo(DEBUG_INFO, "Removing seeded channel that was not rejoined: %s",
+                        channel.getName());
+                channel.emptyChannel();
+                removeChannel(channel);
+            }
+        }
+    }
+
+    /**
+     * Publishes new members for a channel. This has no effect unless the
+     * channel is currently in the channel list.
+     *
+     * @param channel The channel whose members have changed
+     * @param members The new members of the channel
+     */
+    void updateChannelMembers(final IRCChannelInfo channel,
+            final PersistentMap<String, IRCChannelClientInfo> members) {
+        final String key = getStringConverter().toLowerCase(channel.getName());
+        updateState(s -> s.withMembers(key, channel, members));
+    }
+
+    /**
+     * Replaces the current state with an updated version.
+     *
+     * @param update Function that produces the new state from the current one
+     */
+    private void updateState(final UnaryOperator<IRCParserState> update) {
+        synchronized (stateLock) {
+            state = update.apply(state);
         }
     }
 
@@ -22,13 +22,13 @@
 
 package com.dmdirc.parser.irc;
 
+import com.dmdirc.parser.common.CallbackExecutor;
 import com.dmdirc.parser.common.CallbackManager;
 import com.dmdirc.parser.events.ParserEvent;
 import net.engio.mbassy.bus.IMessagePublication;
-import net.engio.mbassy.bus.config.BusConfiguration;
-import net.engio.mbassy.bus.config.Feature;
 import net.engio.mbassy.bus.error.IPublicationErrorHandler;
 
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -39,14 +39,23 @@ import java.util.concurrent.TimeUnit;
  * in this CallbackManager for now.
  *
  * This may change in future.
+ *
+ * Handlers that ask to be invoked asynchronously are run on a {@link CallbackExecutor}, which is
+ * shared between parsers but still invokes each parser's handlers in order.
  */
 public class IRCParserCallbackManager extends CallbackManager {
     public IRCParserCallbackManager(final IPublicationErrorHandler errorHandler) {
-        super(new BusConfiguration().addFeature(Feature.SyncPubSub.Default())
-                .addFeature(Feature.AsynchronousHandlerInvocation.Default(1, 1))
-                .addFeature(Feature.AsynchronousMessageDispatch.Default()
-                        .setNumberOfMessageDispatchers(0))
-                .addPublicationErrorHandler(errorHandler));
+        this(errorHandler, CallbackExecutor.getDefault());
+    }
+
+    public IRCParserCallbackManager(final IPublicationErrorHandler errorHandler,
+            final CallbackExecutor executor) {
+        this(errorHandler, executor.newSerialExecutor());
+    }
+
+    private IRCParserCallbackManager(final IPublicationErrorHandler errorHandler,
+            final ExecutorService serialExecutor) {
+        super(createConfiguration(errorHandler, serialExecutor), serialExecutor);
     }
 
     @Override
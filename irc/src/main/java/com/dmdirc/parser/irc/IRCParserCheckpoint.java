@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.ChannelListModeItem;
+import com.dmdirc.parser.common.MyInfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Writes the state of an {@link IRCParser} to a compact binary checkpoint, and
+ * seeds new parsers from one.
+ *
+ * <p>A checkpoint holds the local user's details, ISUPPORT values,
+ * capabilities, and every known channel with its topic, modes, list modes and
+ * members (including their prefix modes). A parser restored from a checkpoint
+ * can be queried straight away, and keeps the restored state when it next
+ * connects. Restored channels are adopted when we rejoin them, and their
+ * members are replaced by the following NAMES reply; channels that are not
+ * rejoined are removed at the end of the MOTD, or when their join fails.
+ *
+ * <p>The checkpoint file is memory-mapped once and rewritten in place each
+ * time {@link #write()} is called; it is only remapped when it needs to grow.
+ * The header is written after the body and includes a checksum, so a
+ * partially written checkpoint is detected when it is restored.
+ */
+public class IRCParserCheckpoint implements Closeable {
+
+    /** Magic number at the start of every checkpoint ("DMPC"). */
+    private static final int MAGIC = 0x444D5043;
+    /** Version of the checkpoint format. */
+    private static final short FORMAT_VERSION = 1;
+    /** Size of the header, in bytes. */
+    private static final int HEADER_SIZE = 32;
+    /** Initial size of the mapped region, in bytes. */
+    private static final int INITIAL_SIZE = 64 * 1024;
+
+    /** The parser being checkpointed. */
+    private final IRCParser parser;
+    /** The channel of the checkpoint file. */
+    private final FileChannel channel;
+    /** The mapped region of the checkpoint file. */
+    private MappedByteBuffer buffer;
+    /** Buffer used to encode checkpoints, reused between writes. */
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(INITIAL_SIZE);
+    /** Version of the parser state that was last written. */
+    private long writtenVersion = -1;
+
+    /**
+     * Creates a new checkpoint writer.
+     *
+     * @param parser The parser to be checkpointed
+     * @param file The file to write checkpoints to
+     * @throws IOException If the file could not be opened
+     */
+    public IRCParserCheckpoint(final IRCParser parser, final Path file) throws IOException {
+        this.parser = parser;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Writes the parser's current state to the checkpoint file.
+     *
+     * <p>This should be called on the parser's thread (for example from an
+     * event handler), or while the parser is not processing lines.
+     *
+     * @throws IOException If the checkpoint could not be written
+     */
+    public void write() throws IOException {
+        final long version = parser.getState().getVersion();
+        bytes.reset();
+        encode(parser, new DataOutputStream(bytes));
+        final byte[] body = bytes.toByteArray();
+
+        final int required = HEADER_SIZE + body.length;
+        if (buffer == null || buffer.capacity() < required) {
+            final int size = Math.max(required, buffer == null ? INITIAL_SIZE : buffer.capacity() * 2);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+
+        // Invalidate the header, write the body, then commit the new header.
+        buffer.putInt(0, 0);
+        buffer.position(HEADER_SIZE);
+        buffer.put(body);
+        buffer.putShort(4, FORMAT_VERSION);
+        buffer.putShort(6, (short) 0);
+        buffer.putInt(8, body.length);
+        buffer.putInt(12, (int) crc.getValue());
+        buffer.putLong(16, version);
+        buffer.putLong(24, System.currentTimeMillis());
+        buffer.putInt(0, MAGIC);
+        buffer.force();
+        writtenVersion = version;
+    }
+
+    /**
+     * Gets the version of the parser state that was last written.
+     *
+     * @return The last written version, or -1 if nothing has been written
+     */
+    public long getWrittenVersion() {
+        return writtenVersion;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Seeds a parser with the state stored in a checkpoint file. The parser
+     * must not yet be connected.
+     *
+     * @param parser The parser to seed
+     * @param file The checkpoint file to read
+     * @throws IOException If the checkpoint could not be read, or is invalid
+     */
+    public static void restore(final IRCParser parser, final Path file) throws IOException {
+        final byte[] body;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (mapped.capacity() < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+                throw new IOException("Not a parser checkpoint: " + file);
+            }
+            if (mapped.getShort(4) != FORMAT_VERSION) {
+                throw new IOException("Unsupported checkpoint version: " + mapped.getShort(4));
+            }
+            final int length = mapped.getInt(8);
+            if (length < 0 || HEADER_SIZE + length > mapped.capacity()) {
+                throw new IOException("Checkpoint is truncated: " + file);
+            }
+            body = new byte[length];
+            mapped.position(HEADER_SIZE);
+            mapped.get(body);
+
+            final CRC32 crc = new CRC32();
+            crc.update(body, 0, body.length);
+            if ((int) crc.getValue() != mapped.getInt(12)) {
+                throw new IOException("Checkpoint is corrupt: " + file);
+            }
+        }
+
+        decode(parser, new DataInputStream(new ByteArrayInputStream(body)));
+    }
+
+    /**
+     * Encodes the state of a parser.
+     *
+     * @param parser The parser to encode
+     * @param out The stream to write to
+     * @throws IOException If the state could not be written
+     */
+    static void encode(final IRCParser parser, final DataOutputStream out) throws IOException {
+        final MyInfo myInfo = parser.getMyInfo();
+        out.writeUTF(myInfo.getNickname());
+        out.writeUTF(myInfo.getUsername());
+        out.writeUTF(myInfo.getRealname());
+        final IRCClientInfo localClient = parser.getLocalClient();
+        out.writeUTF(localClient.isFake() ? "" : getHostmask(localClient));
+
+        out.writeUTF(parser.getStringConverter().getEncoding().name());
+        out.writeUTF(parser.getServerName());
+        out.writeUTF(parser.getNetworkName() == null ? "" : parser.getNetworkName());
+        out.writeUTF(parser.getChannelPrefixes());
+
+        final Map<String, String> h005Info = parser.h005Info;
+        out.writeInt(h005Info.size());
+        for (Map.Entry<String, String> entry : h005Info.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+
+        final Map<String, CapabilityState> capabilities = parser.getCapabilities();
+        out.writeInt(capabilities.size());
+        for (Map.Entry<String, CapabilityState> entry : capabilities.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeByte(entry.getValue().ordinal());
+        }
+
+        final List<Character> listModes = new ArrayList<>();
+        for (Map.Entry<Character, Byte> entry : parser.chanModesOther.entrySet()) {
+            if (entry.getValue() == IRCParser.MODE_LIST) {
+                listModes.add(entry.getKey());
+            }
+        }
+
+        final Collection<IRCChannelInfo> channels = parser.getChannels();
+        out.writeInt(channels.size());
+        for (IRCChannelInfo channel : channels) {
+            encodeChannel(channel, listModes, out);
+        }
+    }
+
+    /**
+     * Encodes the state of a single channel.
+     *
+     * @param channel The channel to encode
+     * @param listModes The list modes known by the parser
+     * @param out The stream to write to
+     * @throws IOException If the state could not be written
+     */
+    private static void encodeChannel(final IRCChannelInfo channel,
+            final Collection<Character> listModes, final DataOutputStream out) throws IOException {
+        out.writeUTF(channel.getName());
+        out.writeUTF(channel.getTopic());
+        out.writeUTF(channel.getTopicSetter());
+        out.writeLong(channel.getTopicTime());
+        out.writeBoolean(channel.hadTopic());
+        out.writeLong(channel.getCreateTime());
+        out.writeUTF(channel.getPassword());
+        out.writeUTF(channel.getMode());
+
+        final Map<Character, String> paramModes = channel.getParamModes();
+        out.writeInt(paramModes.size());
+        for (Map.Entry<Character, String> entry : paramModes.entrySet()) {
+            out.writeChar(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+
+        out.writeBoolean(channel.hasGotListModes());
+        out.writeInt(listModes.size());
+        for (char mode : listModes) {
+            final Collection<ChannelListModeItem> items = channel.getKnownListMode(mode);
+            out.writeChar(mode);
+            out.writeInt(items.size());
+            for (ChannelListModeItem item : items) {
+                out.writeUTF(item.getItem());
+                out.writeUTF(item.getOwner());
+                out.writeLong(item.getTime());
+            }
+        }
+
+        final Collection<IRCChannelClientInfo> members = channel.getClientMap().values();
+        out.writeInt(members.size());
+        for (IRCChannelClientInfo member : members) {
+            out.writeUTF(member.getAllModesPrefix() + getHostmask(member.getClient()));
+        }
+    }
+
+    /**
+     * Decodes parser state, and applies it to a parser.
+     *
+     * @param parser The parser to seed
+     * @param in The stream to read from
+     * @throws IOException If the state could not be read
+     */
+    static void decode(final IRCParser parser, final DataInputStream in) throws IOException {
+        final MyInfo myInfo = parser.getMyInfo();
+        myInfo.setNickname(in.readUTF());
+        myInfo.setUsername(in.readUTF());
+        myInfo.setRealname(in.readUTF());
+        final String localHostmask = in.readUTF();
+
+        try {
+            parser.setEncoding(IRCEncoding.valueOf(in.readUTF()));
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Unknown encoding in checkpoint", ex);
+        }
+        parser.updateServerName(in.readUTF());
+        parser.networkName = in.readUTF();
+        final String chanPrefix = in.readUTF();
+
+        parser.h005Info.clear();
+        final int h005Count = in.readInt();
+        for (int i = 0; i < h005Count; i++) {
+            parser.h005Info.put(in.readUTF(), in.readUTF());
+        }
+        parser.parsePrefixModes();
+        parser.parseChanModes();
+        parser.parseUserModes();
+        parser.setChanPrefix(chanPrefix);
+
+        final CapabilityState[] states = CapabilityState.values();
+        final int capabilityCount = in.readInt();
+        for (int i = 0; i < capabilityCount; i++) {
+            final String capability = in.readUTF();
+            final int state = in.readUnsignedByte();
+            parser.addCapability(capability);
+            if (state < states.length) {
+                parser.setCapabilityState(capability, states[state]);
+            }
+        }
+
+        if (!localHostmask.isEmpty()) {
+            final IRCClientInfo localClient = parser.getLocalClient();
+            localClient.setUserBits(localHostmask, true, true);
+            localClient.setFake(false);
+            parser.addClient(localClient);
+        }
+
+        final int channelCount = in.readInt();
+        for (int i = 0; i < channelCount; i++) {
+            decodeChannel(parser, in);
+        }
+
+        parser.setSeeded();
+    }
+
+    /**
+     * Decodes the state of a single channel, and adds it to a parser.
+     *
+     * @param parser The parser to add the channel to
+     * @param in The stream to read from
+     * @throws IOException If the state could not be read
+     */
+    private static void decodeChannel(final IRCParser parser, final DataInputStream in)
+            throws IOException {
+        final IRCChannelInfo channel = parser.createChannel(in.readUTF());
+        channel.setInternalTopic(in.readUTF());
+        channel.setTopicUser(in.readUTF());
+        channel.setTopicTime(in.readLong());
+        if (in.readBoolean()) {
+            channel.setHadTopic();
+        }
+        channel.setCreateTime(in.readLong());
+        final String password = in.readUTF();
+        channel.setMode(in.readUTF());
+
+        final int paramCount = in.readInt();
+        for (int i = 0; i < paramCount; i++) {
+            channel.setModeParam(in.readChar(), in.readUTF());
+        }
+        if (!password.equals(channel.getPassword())) {
+            channel.setInternalPassword(password);
+        }
+
+        channel.setHasGotListModes(in.readBoolean());
+        final int listModeCount = in.readInt();
+        for (int i = 0; i < listModeCount; i++) {
+            final char mode = in.readChar();
+            final int itemCount = in.readInt();
+            for (int j = 0; j < itemCount; j++) {
+                channel.restoreListModeItem(mode,
+                        new ChannelListModeItem(in.readUTF(), in.readUTF(), in.readLong()));
+            }
+        }
+
+        channel.setSeeded(true);
+        parser.addChannel(channel);
+        final NamesBuffer names = channel.getPendingNames();
+        final int memberCount = in.readInt();
+        for (int i = 0; i < memberCount; i++) {
+            names.addNames(in.readUTF());
+        }
+        channel.commitNames();
+    }
+
+    /**
+     * Gets the full hostmask of a client, omitting any parts that are not
+     * known.
+     *
+     * @param client The client
+     * @return The client's hostmask
+     */
+    private static String getHostmask(final IRCClientInfo client) {
+        final StringBuilder hostmask = new StringBuilder(client.getRealNickname());
+        if (!client.getUsername().isEmpty()) {
+            hostmask.append('!').append(client.getUsername());
+        }
+        if (!client.getHostname().isEmpty()) {
+            hostmask.append('@').append(client.getHostname());
+        }
+        return hostmask.toString();
+    }
+
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * An immutable, consistent snapshot of the clients and channels known to an
+ * {@link IRCParser}.
+ *
+ * <p>The parser publishes a new snapshot each time its state changes. Changes
+ * are made with {@link PersistentMap}s, so each snapshot shares everything
+ * except the changed path with the one before it. Any thread may hold on to
+ * a snapshot and read from it without locking; all of its collections are
+ * read-only views that are never copied and never change.
+ */
+public final class IRCParserState {
+
+    /** The version of this snapshot. */
+    private final long version;
+    /** Converter used to create keys. */
+    private final IRCStringConverter converter;
+    /** Known clients, keyed by lower-cased nickname. */
+    private final PersistentMap<String, IRCClientInfo> clients;
+    /** Known channels, keyed by lower-cased name. */
+    private final PersistentMap<String, IRCChannelInfo> channels;
+    /** Members of each known channel, keyed by lower-cased channel name. */
+    private final PersistentMap<String, PersistentMap<String, IRCChannelClientInfo>> members;
+
+    /**
+     * Creates a new, empty, state.
+     *
+     * @param converter Converter used to create keys
+     */
+    IRCParserState(final IRCStringConverter converter) {
+        this(0, converter, PersistentMap.empty(), PersistentMap.empty(), PersistentMap.empty());
+    }
+
+    /**
+     * Creates a new state.
+     *
+     * @param version The version of this snapshot
+     * @param converter Converter used to create keys
+     * @param clients Known clients
+     * @param channels Known channels
+     * @param members Members of each known channel
+     */
+    private IRCParserState(final long version, final IRCStringConverter converter,
+            final PersistentMap<String, IRCClientInfo> clients,
+            final PersistentMap<String, IRCChannelInfo> channels,
+            final PersistentMap<String, PersistentMap<String, IRCChannelClientInfo>> members) {
+        this.version = version;
+        this.converter = converter;
+        this.clients = clients;
+        this.channels = channels;
+        this.members = members;
+    }
+
+    /**
+     * Gets the version of this snapshot. Versions increase by one with each
+     * change published by the parser.
+     *
+     * @return The version of this snapshot
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the known client with the specified nickname.
+     *
+     * @param nickname The nickname of the client
+     * @return The client, or null if not known
+     */
+    @Nullable
+    public IRCClientInfo getClient(final String nickname) {
+        return clients.get(converter.toLowerCase(nickname));
+    }
+
+    /**
+     * Gets all known clients.
+     *
+     * @return A read-only collection of clients
+     */
+    public Collection<IRCClientInfo> getClients() {
+        return clients.values();
+    }
+
+    /**
+     * Gets the known channel with the specified name.
+     *
+     * @param name The name of the channel
+     * @return The channel, or null if not known
+     */
+    @Nullable
+    public IRCChannelInfo getChannel(final String name) {
+        return channels.get(converter.toLowerCase(name));
+    }
+
+    /**
+     * Gets all known channels.
+     *
+     * @return A read-only collection of channels
+     */
+    public Collection<IRCChannelInfo> getChannels() {
+        return channels.values();
+    }
+
+    /**
+     * Gets the members of the specified channel, as they were when this
+     * snapshot was taken.
+     *
+     * @param name The name of the channel
+     * @return A read-only collection of members, empty if the channel is not known
+     */
+    public Collection<IRCChannelClientInfo> getChannelClients(final String name) {
+        final PersistentMap<String, IRCChannelClientInfo> channelMembers =
+                members.get(converter.toLowerCase(name));
+        return channelMembers == null ? Collections.emptyList() : channelMembers.values();
+    }
+
+    /**
+     * Gets a member of the specified channel, as it was when this snapshot was
+     * taken.
+     *
+     * @param name The name of the channel
+     * @param nickname The nickname of the member
+     * @return The member, or null if not found
+     */
+    @Nullable
+    public IRCChannelClientInfo getChannelClient(final String name, final String nickname) {
+        final PersistentMap<String, IRCChannelClientInfo> channelMembers =
+                members.get(converter.toLowerCase(name));
+        return channelMembers == null ? null : channelMembers.get(converter.toLowerCase(nickname));
+    }
+
+    /**
+     * Gets the known clients as a map.
+     *
+     * @return Known clients, keyed by lower-cased nickname
+     */
+    PersistentMap<String, IRCClientInfo> getClientMap() {
+        return clients;
+    }
+
+    /**
+     * Gets the known channels as a map.
+     *
+     * @return Known channels, keyed by lower-cased name
+     */
+    PersistentMap<String, IRCChannelInfo> getChannelMap() {
+        return channels;
+    }
+
+    /**
+     * Creates the next version of this state with the specified contents.
+     *
+     * @param newClients Known clients
+     * @param newChannels Known channels
+     * @param newMembers Members of each known channel
+     * @return The new state, or this state if nothing changed
+     */
+    private IRCParserState next(final PersistentMap<String, IRCClientInfo> newClients,
+            final PersistentMap<String, IRCChannelInfo> newChannels,
+            final PersistentMap<String, PersistentMap<String, IRCChannelClientInfo>> newMembers) {
+        if (newClients == clients && newChannels == channels && newMembers == members) {
+            return this;
+        }
+        return new IRCParserState(version + 1, converter, newClients, newChannels, newMembers);
+    }
+
+    /**
+     * Creates a version of this state using a different converter.
+     *
+     * @param newConverter The converter to use for keys
+     * @return The new state
+     */
+    IRCParserState withConverter(final IRCStringConverter newConverter) {
+        return new IRCParserState(version + 1, newConverter, clients, channels, members);
+    }
+
+    /**
+     * Creates a version of this state with the specified client added.
+     *
+     * @param key The lower-cased nickname of the client
+     * @param client The client to add
+     * @return The new state
+     */
+    IRCParserState withClient(final String key, final IRCClientInfo client) {
+        return next(clients.plus(key, client), channels, members);
+    }
+
+    /**
+     * Creates a version of this state with the specified client removed.
+     *
+     * @param key The lower-cased nickname of the client
+     * @return The new state
+     */
+    IRCParserState withoutClient(final String key) {
+        return next(clients.minus(key), channels, members);
+    }
+
+    /**
+     * Creates a version of this state with the specified clients added.
+     *
+     * @param newClients The clients to add, keyed by lower-cased nickname
+     * @return The new state
+     */
+    IRCParserState withClients(final Map<String, IRCClientInfo> newClients) {
+        PersistentMap<String, IRCClientInfo> result = clients;
+        for (Map.Entry<String, IRCClientInfo> entry : newClients.entrySet()) {
+            result = result.plus(entry.getKey(), entry.getValue());
+        }
+        return next(result, channels, members);
+    }
+
+    /**
+     * Creates a version of this state with the specified clients removed.
+     *
+     * @param keys The lower-cased nicknames of the clients
+     * @return The new state
+     */
+    IRCParserState withoutClients(final Collection<String> keys) {
+        PersistentMap<String, IRCClientInfo> result = clients;
+        for (String key : keys) {
+            result = result.minus(key);
+        }
+        return next(result, channels, members);
+    }
+
+    /**
+     * Creates a version of this state with all clients removed.
+     *
+     * @return The new state
+     */
+    IRCParserState withoutClients() {
+        return next(PersistentMap.empty(), channels, members);
+    }
+
+    /**
+     * Creates a version of this state with the specified channel added.
+     *
+     * @param key The lower-cased name of the channel
+     * @param channel The channel to add
+     * @param channelMembers The current members of the channel
+     * @return The new state
+     */
+    IRCParserState withChannel(final String key, final IRCChannelInfo channel,
+            final PersistentMap<String, IRCChannelClientInfo> channelMembers) {
+        return next(clients, channels.plus(key, channel), members.plus(key, channelMembers));
+    }
+
+    /**
+     * Creates a version of this state with the specified channel removed.
+     *
+     * @param key The lower-cased name of the channel
+     * @return The new state
+     */
+    IRCParserState withoutChannel(final String key) {
+        return next(clients, channels.minus(key), members.minus(key));
+    }
+
+    /**
+     * Creates a version of this state with all channels removed.
+     *
+     * @return The new state
+     */
+    IRCParserState withoutChannels() {
+        return next(clients, PersistentMap.empty(), PersistentMap.empty());
+    }
+
+    /**
+     * Creates a version of this state with new members for a channel. Nothing
+     * changes if the specified channel is not the one currently known by
+     * that name.
+     *
+     * @param key The lower-cased name of the channel
+     * @param channel The channel whose members changed
+     * @param channelMembers The new members of the channel
+     * @return The new state
+     */
+    IRCParserState withMembers(final String key, final IRCChannelInfo channel,
+            final PersistentMap<String, IRCChannelClientInfo> channelMembers) {
+        if (channels.get(key) != channel) {
+            return this;
+        }
+        return next(clients, channels, members.plus(key, channelMembers));
+    }
+
+}
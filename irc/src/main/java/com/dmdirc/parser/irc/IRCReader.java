@@ -32,7 +32,6 @@ import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CodingErrorAction;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -237,8 +236,12 @@ public class IRCReader implements Closeable {
         private final String line;
         /** The tokens found in the line, individually encoded as appropriate. */
         private final String[] tokens;
-        /** The tags (if any) found in the line, individually encoded as appropriate. */
-        private final Map<String,String> tags = new HashMap<>();
+        /** The tags (if any) found in the line. */
+        private final MessageTags tags;
+        /** The TSIRC timestamp found while tokenising, if any. */
+        private String tsircDate;
+        /** The raw tag section found while tokenising, if any. */
+        private String tagSection;
 
         /**
          * Creates a new instance of {@link ReadLine} with the specified line
@@ -262,6 +265,8 @@ public class IRCReader implements Closeable {
             // Then look for message tags.
             // Then look again for tsirc, as it may be after the message tags.
             this.tokens = checkTSIRC(checkMessageTags(checkTSIRC(lineTokens)));
+            this.tags = tsircDate == null && tagSection == null
+                    ? MessageTags.EMPTY : new MessageTags(tagSection, tsircDate);
         }
 
         /**
@@ -272,13 +277,13 @@ public class IRCReader implements Closeable {
          *         there was one, else we return lineTokens as-is.
          */
         private String[] checkTSIRC(final String[] lineTokens) {
-            String[] tokens = lineTokens;
+            final String[] tokens = lineTokens;
             if (tokens.length > 0 && !tokens[0].isEmpty() && tokens[0].charAt(0) == '@') {
                 final int tsEnd = tokens[0].indexOf('@', 1);
                 if (tsEnd > -1) {
                     try {
-                        final long ts = Long.parseLong(tokens[0].substring(1, tsEnd));
-                        tags.put("tsirc date", tokens[0].substring(1, tsEnd));
+                        Long.parseLong(tokens[0].substring(1, tsEnd));
+                        tsircDate = tokens[0].substring(1, tsEnd);
                         tokens[0] = tokens[0].substring(tsEnd + 1);
                     } catch (final NumberFormatException nfe) { /* Not a timestamp. */ }
                 }
@@ -288,7 +293,8 @@ public class IRCReader implements Closeable {
         }
 
         /**
-         * Look for Message-Tags
+         * Look for Message-Tags. The tags themselves are not parsed until
+         * they are requested.
          *
          * @param lineTokens Current line tokens
          * @return The line tokens after we have removed the message-tags if
@@ -297,13 +303,7 @@ public class IRCReader implements Closeable {
         private String[] checkMessageTags(final String[] lineTokens) {
             String[] tokens = lineTokens;
             if (tokens.length > 0 && !tokens[0].isEmpty() && tokens[0].charAt(0) == '@') {
-                final String[] lineTags = tokens[0].substring(1).split(";");
-                for (final String keyVal : lineTags) {
-                    if (!keyVal.isEmpty()) {
-                        final String[] keyValue = keyVal.split("=", 2);
-                        tags.put(keyValue[0], keyValue.length > 1 ? keyValue[1] : "");
-                    }
-                }
+                tagSection = tokens[0].substring(1);
 
                 tokens = new String[lineTokens.length - 1];
                 System.arraycopy(lineTokens, 1, tokens, 0, lineTokens.length - 1);
@@ -335,11 +335,23 @@ public class IRCReader implements Closeable {
         }
 
         /**
-         * Retrieves a map of tags extracted from the specified line.
+         * Retrieves a read-only map of tags extracted from the specified line.
+         * The tags are parsed and unescaped the first time this is called;
+         * callers interested in a single well-known tag should prefer
+         * {@link #getMessageTags()}.
          *
          * @return The line's tags
          */
         public Map<String,String> getTags() {
+            return tags.asMap();
+        }
+
+        /**
+         * Retrieves the compact tag representation for the specified line.
+         *
+         * @return The line's tags
+         */
+        public MessageTags getMessageTags() {
             return tags;
         }
     }
@@ -31,6 +31,7 @@ public final class IrcConstants {
     public static final int DEFAULT_SSL_PORT = 6697;
 
     public static final String ISUPPORT_CHANNEL_MODES = "CHANMODES";
+    public static final String ISUPPORT_CHANNEL_TYPES = "CHANTYPES";
     public static final String ISUPPORT_CHANNEL_USER_PREFIXES = "PREFIX";
     public static final String ISUPPORT_MAXIMUM_BANS = "MAXBANS";
     public static final String ISUPPORT_MAXIMUM_LIST_MODES = "MAXLIST";
@@ -39,6 +40,7 @@ public final class IrcConstants {
     public static final String ISUPPORT_TOPIC_LENGTH = "TOPICLEN";
 
     public static final int NUMERIC_ERROR_NICKNAME_IN_USE = 433;
+    public static final int NUMERIC_ERROR_NOT_REGISTERED = 451;
     public static final int NUMERIC_ERROR_PASSWORD_MISMATCH = 464;
 
     private IrcConstants() {
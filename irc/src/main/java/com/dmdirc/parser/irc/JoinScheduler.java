@@ -0,0 +1,557 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.ChannelJoinRequest;
+import com.dmdirc.parser.common.QueuePriority;
+import com.dmdirc.parser.irc.events.JoinProgressEvent;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends JOINs and the queries that follow them without flooding the server.
+ *
+ * <p>JOINs are packed into as few lines as possible, without exceeding the
+ * maximum line length, the server's TARGMAX limit for JOIN, or its CHANLIMIT
+ * (or MAXCHANNELS) limits; channels beyond the channel limit are not sent.
+ *
+ * <p>Each joined channel then needs MODE, list mode and often WHO queries.
+ * Rather than queueing all of these at once, which for hundreds of channels
+ * overflows the server's receive queue and gets the client killed for excess
+ * flood, queries are released in small windows. Each window is followed by a
+ * PING, and the next window is only released once the matching PONG shows
+ * that the server has processed everything before it. The pace therefore
+ * adapts to the server's latency and to any rate limiting in the
+ * {@link com.dmdirc.parser.irc.outputqueue.OutputQueue}.
+ *
+ * <p>Progress is reported with {@link JoinProgressEvent}s.
+ */
+public class JoinScheduler {
+
+    /** Default number of queries released before waiting for the server to catch up. */
+    public static final int DEFAULT_WINDOW = 10;
+    /** Prefix of the PING tokens used to tell when a window has been processed. */
+    private static final String SYNC_PREFIX = "dmdirc-join-";
+    /** Time after which an unanswered sync is given up on. */
+    private static final long SYNC_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    /** The parser we are scheduling lines for. */
+    private final IRCParser parser;
+    /** Queries waiting to be sent. */
+    private final Queue<String> queries = new ArrayDeque<>();
+    /** Channels waiting to have their list modes fetched in the background. */
+    private final Queue<IRCChannelInfo> listModeChannels = new ArrayDeque<>();
+    /** Channels we have sent JOINs for and not yet had a reply about. */
+    private final Set<String> awaiting = new HashSet<>();
+    /** Number of queries released before each sync. */
+    private int window = DEFAULT_WINDOW;
+    /** Token of the sync we are waiting for, or null if none is outstanding. */
+    private String pendingSync;
+    /** Time the outstanding sync was sent, from {@link System#nanoTime()}. */
+    private long pendingSyncTime;
+    /** Counter used to generate sync tokens. */
+    private long syncCount;
+    /** Number of channels requested since the scheduler was last idle. */
+    private int requested;
+    /** Number of those channels that have been joined. */
+    private int joined;
+    /** Number of those channels that could not be joined. */
+    private int failed;
+
+    /**
+     * Creates a new scheduler.
+     *
+     * @param parser The parser to send lines with
+     */
+    public JoinScheduler(final IRCParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Joins the given channels.
+     *
+     * @param channels The channels to join
+     */
+    public void join(final Collection<ChannelJoinRequest> channels) {
+        for (String line : prepareJoin(channels, parser.get005())) {
+            parser.sendString(line);
+        }
+    }
+
+    /**
+     * Builds the JOIN lines needed to join the given channels, and starts
+     * tracking the channels' progress. The caller must send the lines.
+     *
+     * @param channels The channels to join
+     * @param isupport The ISUPPORT values to obey
+     * @return The lines to send
+     */
+    public List<String> prepareJoin(final Collection<ChannelJoinRequest> channels,
+            final Map<String, String> isupport) {
+        final Map<Character, int[]> remaining = getChannelsRemaining(isupport);
+        final int maxTargets = getMaxTargets(isupport, "JOIN");
+        final List<ChannelJoinRequest> keyed = new ArrayList<>();
+        final List<ChannelJoinRequest> unkeyed = new ArrayList<>();
+        final Set<String> names = new HashSet<>();
+        int skipped = 0;
+
+        for (ChannelJoinRequest channel : channels) {
+            if (channel.getName().isEmpty()) {
+                continue;
+            }
+            final String name = getChannelName(channel.getName());
+            if (!names.add(parser.getStringConverter().toLowerCase(name))) {
+                continue;
+            }
+            if (!reserve(remaining, name)) {
+                parser.callDebugInfo(IRCParser.DEBUG_INFO,
+                        "Not joining %s: channel limit reached", name);
+                skipped++;
+                continue;
+            }
+            final String key = channel.getPassword();
+            if (key == null || key.isEmpty()) {
+                unkeyed.add(new ChannelJoinRequest(name));
+            } else {
+                keyed.add(new ChannelJoinRequest(name, key));
+            }
+        }
+
+        // Keyed channels must come first, so that keys line up with their channels.
+        final List<ChannelJoinRequest> ordered = new ArrayList<>(keyed);
+        ordered.addAll(unkeyed);
+        final List<String> lines = pack(ordered, maxTargets);
+
+        synchronized (this) {
+            if (awaiting.isEmpty()) {
+                requested = 0;
+                joined = 0;
+                failed = 0;
+            }
+            for (ChannelJoinRequest channel : ordered) {
+                awaiting.add(parser.getStringConverter().toLowerCase(channel.getName()));
+            }
+            requested += ordered.size() + skipped;
+            failed += skipped;
+        }
+        return lines;
+    }
+
+    /**
+     * Packs channels into JOIN lines.
+     *
+     * @param channels The channels to join, with any keyed channels first
+     * @param maxTargets The maximum number of channels per line
+     * @return The JOIN lines
+     */
+    private static List<String> pack(final List<ChannelJoinRequest> channels, final int maxTargets) {
+        final List<String> lines = new ArrayList<>();
+        final StringBuilder names = new StringBuilder();
+        final StringBuilder keys = new StringBuilder();
+        int targets = 0;
+
+        for (ChannelJoinRequest channel : channels) {
+            final String key = channel.getPassword();
+            final int namesLength = names.length() + 1 + channel.getName().length();
+            final int keysLength = key == null ? keys.length() : keys.length() + 1 + key.length();
+            final int length = "JOIN ".length() + namesLength
+                    + (keysLength == 0 ? 0 : 1 + keysLength);
+            if (targets > 0 && (targets >= maxTargets || length > IRCParser.MAX_LINELENGTH)) {
+                lines.add(getJoinLine(names, keys));
+                names.setLength(0);
+                keys.setLength(0);
+                targets = 0;
+            }
+            if (targets > 0) {
+                names.append(',');
+            }
+            names.append(channel.getName());
+            if (key != null) {
+                if (targets > 0) {
+                    keys.append(',');
+                }
+                keys.append(key);
+            }
+            targets++;
+        }
+        if (targets > 0) {
+            lines.add(getJoinLine(names, keys));
+        }
+        return lines;
+    }
+
+    /**
+     * Builds a JOIN line.
+     *
+     * @param names Comma-separated channel names
+     * @param keys Comma-separated keys for the first channels, or an empty builder
+     * @return The JOIN line
+     */
+    private static String getJoinLine(final CharSequence names, final CharSequence keys) {
+        return keys.length() == 0 ? "JOIN " + names : "JOIN " + names + ' ' + keys;
+    }
+
+    /**
+     * Gets the name to use for a channel, adding a channel prefix if needed.
+     *
+     * @param name The requested name
+     * @return The name to join
+     */
+    private String getChannelName(final String name) {
+        if (parser.isValidChannelName(name)) {
+            return name;
+        }
+        final String prefixes = parser.getChannelPrefixes();
+        // TODO: This is wrong - empty chan prefix means the IRCd supports no channels.
+        return (prefixes.isEmpty() ? '#' : prefixes.charAt(0)) + name;
+    }
+
+    /**
+     * Gets the maximum number of targets that may be given in one command,
+     * according to the TARGMAX ISUPPORT token.
+     *
+     * @param isupport The ISUPPORT values to use
+     * @param command The command to check
+     * @return The maximum number of targets, or {@link Integer#MAX_VALUE} if
+     * the server doesn't say
+     */
+    static int getMaxTargets(final Map<String, String> isupport, final String command) {
+        final String targmax = isupport.get("TARGMAX");
+        if (targmax != null) {
+            for (String limit : targmax.split(",")) {
+                final int colon = limit.indexOf(':');
+                if (colon > 0 && command.equalsIgnoreCase(limit.substring(0, colon))) {
+                    return parseLimit(limit.substring(colon + 1));
+                }
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Gets the number of channels of each type that can still be joined.
+     *
+     * @param isupport The ISUPPORT values to use
+     * @return Map of channel prefixes to the number of channels left, or an
+     * empty map if there are no limits. Prefixes that share a limit share a
+     * counter.
+     */
+    private Map<Character, int[]> getChannelsRemaining(final Map<String, String> isupport) {
+        final Map<Character, int[]> remaining = getChannelLimits(isupport);
+        if (!remaining.isEmpty()) {
+            for (IRCChannelInfo channel : parser.getChannels()) {
+                final int[] counter = remaining.get(channel.getName().charAt(0));
+                // Seeded channels aren't joined yet, and will be counted if we rejoin them.
+                if (counter != null && !channel.isSeeded()) {
+                    counter[0]--;
+                }
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Parses the CHANLIMIT (or MAXCHANNELS) ISUPPORT token.
+     *
+     * @param isupport The ISUPPORT values to use
+     * @return Map of channel prefixes to the maximum number of channels.
+     * Prefixes that share a limit (as in {@code CHANLIMIT=#&:50}) share a
+     * counter.
+     */
+    static Map<Character, int[]> getChannelLimits(final Map<String, String> isupport) {
+        final Map<Character, int[]> limits = new HashMap<>();
+        final String chanlimit = isupport.get("CHANLIMIT");
+        if (chanlimit != null) {
+            for (String limit : chanlimit.split(",")) {
+                final int colon = limit.indexOf(':');
+                if (colon > 0) {
+                    final int[] counter = {parseLimit(limit.substring(colon + 1))};
+                    for (char prefix : limit.substring(0, colon).toCharArray()) {
+                        limits.put(prefix, counter);
+                    }
+                }
+            }
+        } else if (isupport.get("MAXCHANNELS") != null) {
+            final int[] counter = {parseLimit(isupport.get("MAXCHANNELS"))};
+            for (char prefix : isupport.getOrDefault(IrcConstants.ISUPPORT_CHANNEL_TYPES, "#&")
+                    .toCharArray()) {
+                limits.put(prefix, counter);
+            }
+        }
+        return limits;
+    }
+
+    /**
+     * Parses a numeric limit, where an empty or invalid limit means unlimited.
+     *
+     * @param value The value to parse
+     * @return The limit
+     */
+    private static int parseLimit(final String value) {
+        try {
+            final int limit = Integer.parseInt(value);
+            return limit > 0 ? limit : Integer.MAX_VALUE;
+        } catch (NumberFormatException ex) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Takes one channel from the remaining limit for a channel's type.
+     *
+     * @param remaining The remaining limits
+     * @param name The name of the channel
+     * @return True if the channel can be joined, false if its limit has been reached
+     */
+    private static boolean reserve(final Map<Character, int[]> remaining, final String name) {
+        final int[] left = remaining.get(name.charAt(0));
+        if (left == null || left[0] == Integer.MAX_VALUE) {
+            return true;
+        }
+        if (left[0] <= 0) {
+            return false;
+        }
+        left[0]--;
+        return true;
+    }
+
+    /**
+     * Queues a query to be sent once the server has caught up with earlier ones.
+     *
+     * @param line The query to send
+     */
+    public void queueQuery(final String line) {
+        synchronized (this) {
+            queries.add(line);
+        }
+        releaseQueries();
+    }
+
+    /**
+     * Queues a channel to have its list modes fetched in the background. The
+     * queries for one channel are sent at a time, and only when no other
+     * queries are waiting and the server has caught up with earlier ones.
+     *
+     * @param channel The channel to fetch list modes for
+     */
+    public void queueListModes(final IRCChannelInfo channel) {
+        synchronized (this) {
+            if (listModeChannels.contains(channel)) {
+                return;
+            }
+            listModeChannels.add(channel);
+        }
+        releaseQueries();
+    }
+
+    /**
+     * Sends the next window of queries, unless we're still waiting for the
+     * server to process the previous one. If there are no queries waiting,
+     * the next background list mode request is sent instead.
+     */
+    private void releaseQueries() {
+        final List<String> lines = new ArrayList<>();
+        synchronized (this) {
+            if (pendingSync != null || parser.getSocketState() != SocketState.OPEN) {
+                return;
+            }
+            while (queries.isEmpty() && !listModeChannels.isEmpty()) {
+                final IRCChannelInfo channel = listModeChannels.poll();
+                if (!channel.hasAskedForListModes()
+                        && parser.getChannel(channel.getName()) == channel) {
+                    queries.addAll(channel.prepareListModeRequest());
+                }
+            }
+            if (queries.isEmpty()) {
+                return;
+            }
+            for (int i = 0; i < window && !queries.isEmpty(); i++) {
+                lines.add(queries.poll());
+            }
+            pendingSync = SYNC_PREFIX + ++syncCount;
+            pendingSyncTime = System.nanoTime();
+            lines.add("PING :" + pendingSync);
+        }
+
+        for (String line : lines) {
+            parser.sendString(line, QueuePriority.LOW);
+        }
+    }
+
+    /**
+     * Handles a PONG from the server.
+     *
+     * @param token The token being ponged
+     * @return True if the PONG was for one of our syncs, false otherwise
+     */
+    public boolean handlePong(final String token) {
+        synchronized (this) {
+            if (pendingSync == null || !pendingSync.equals(token)) {
+                return false;
+            }
+            pendingSync = null;
+        }
+        releaseQueries();
+        publishProgress();
+        return true;
+    }
+
+    /**
+     * Gives up waiting for a sync the server has not answered in a reasonable
+     * time, so that queries are not held back forever. This is called
+     * periodically by the parser's ping timer.
+     */
+    public void checkStalled() {
+        synchronized (this) {
+            if (pendingSync == null || System.nanoTime() - pendingSyncTime < SYNC_TIMEOUT) {
+                return;
+            }
+            parser.callDebugInfo(IRCParser.DEBUG_INFO, "No reply to %s, sending more queries",
+                    pendingSync);
+            pendingSync = null;
+        }
+        releaseQueries();
+    }
+
+    /**
+     * Records that a channel has been joined.
+     *
+     * @param channel The name of the channel
+     */
+    public void channelJoined(final String channel) {
+        synchronized (this) {
+            if (!awaiting.remove(parser.getStringConverter().toLowerCase(channel))) {
+                return;
+            }
+            joined++;
+        }
+        publishProgress();
+    }
+
+    /**
+     * Records that a channel could not be joined.
+     *
+     * @param channel The name of the channel
+     */
+    public void channelFailed(final String channel) {
+        synchronized (this) {
+            if (!awaiting.remove(parser.getStringConverter().toLowerCase(channel))) {
+                return;
+            }
+            failed++;
+        }
+        publishProgress();
+    }
+
+    /**
+     * Checks whether a channel has been requested but not yet joined or failed.
+     *
+     * @param channel The name of the channel
+     * @return True if we are waiting to join the channel
+     */
+    public synchronized boolean isAwaiting(final String channel) {
+        return awaiting.contains(parser.getStringConverter().toLowerCase(channel));
+    }
+
+    /**
+     * Publishes a progress event with the current counts.
+     */
+    private void publishProgress() {
+        final JoinProgressEvent event;
+        synchronized (this) {
+            if (requested == 0) {
+                return;
+            }
+            event = new JoinProgressEvent(parser, LocalDateTime.now(), requested, joined,
+                    failed, queries.size() + (pendingSync == null ? 0 : 1));
+        }
+        parser.getCallbackManager().publish(event);
+    }
+
+    /**
+     * Gets the number of channels that have been requested but not yet
+     * joined or failed.
+     *
+     * @return The number of pending joins
+     */
+    public synchronized int getPendingJoins() {
+        return awaiting.size();
+    }
+
+    /**
+     * Gets the number of queries waiting to be sent.
+     *
+     * @return The number of pending queries
+     */
+    public synchronized int getPendingQueries() {
+        return queries.size();
+    }
+
+    /**
+     * Gets the number of queries released before waiting for the server.
+     *
+     * @return The window size
+     */
+    public synchronized int getWindow() {
+        return window;
+    }
+
+    /**
+     * Sets the number of queries released before waiting for the server to
+     * process them. Smaller windows are gentler on the server but make
+     * joining large numbers of channels slower on high-latency links.
+     *
+     * @param window The new window size
+     */
+    public synchronized void setWindow(final int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must be at least 1");
+        }
+        this.window = window;
+    }
+
+    /**
+     * Discards all pending joins and queries. This is called when the parser
+     * disconnects.
+     */
+    public synchronized void reset() {
+        queries.clear();
+        listModeChannels.clear();
+        awaiting.clear();
+        pendingSync = null;
+        requested = 0;
+        joined = 0;
+        failed = 0;
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+/**
+ * Policies for when a channel's list modes (bans, exceptions, invites, etc)
+ * are fetched from the server.
+ *
+ * <p>Whenever list modes are fetched, a
+ * {@link com.dmdirc.parser.events.ChannelListModeEvent} is published once the
+ * server has sent them.
+ */
+public enum ListModePolicy {
+
+    /** List modes are fetched as soon as a channel has been joined. */
+    EAGER,
+
+    /**
+     * List modes are fetched the first time they are asked for with
+     * {@link IRCChannelInfo#getListMode(char)}. The first call will return
+     * whatever is known at the time, normally nothing.
+     */
+    LAZY,
+
+    /**
+     * List modes are fetched once we are opped in a channel, either when
+     * we join or when we are given ops later.
+     */
+    OPPED,
+
+    /**
+     * List modes are fetched one channel at a time, only when there are no
+     * other queries waiting to be sent and the server has processed the
+     * previous channel's queries.
+     */
+    BACKGROUND,
+
+    /**
+     * List modes are only fetched when
+     * {@link IRCChannelInfo#requestListModes()} is called.
+     */
+    MANUAL
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.ChannelListModeItem;
+import com.dmdirc.parser.interfaces.Parser;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stores the items of a single channel list mode (such as bans or invite
+ * exceptions).
+ *
+ * <p>Items are kept in the order they were added, and are indexed by their
+ * value as converted by the parser's string converter, so adding, removing
+ * and checking for an item does not depend on the size of the list.
+ */
+public class ListModeStore {
+
+    /** The parser whose string converter should be used for keys. */
+    private final Parser parser;
+    /** The items in this list, keyed by their case-mapped value. */
+    private final Map<String, ChannelListModeItem> items = new LinkedHashMap<>();
+    /** Read-only view of the items in this list. */
+    private final Collection<ChannelListModeItem> view =
+            Collections.unmodifiableCollection(items.values());
+
+    /**
+     * Creates a new, empty, list mode store.
+     *
+     * @param parser The parser whose string converter should be used for keys
+     */
+    public ListModeStore(final Parser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Adds the specified item to the list, unless an equivalent item is
+     * already present.
+     *
+     * @param item The item to be added
+     * @return True if the item was added, false if it was already present
+     */
+    public boolean add(final ChannelListModeItem item) {
+        return items.putIfAbsent(getKey(item.getItem()), item) == null;
+    }
+
+    /**
+     * Removes the item equivalent to the specified value from the list.
+     *
+     * @param item The value of the item to be removed
+     * @return True if an item was removed, false otherwise
+     */
+    public boolean remove(final String item) {
+        return items.remove(getKey(item)) != null;
+    }
+
+    /**
+     * Determines whether an item equivalent to the specified value is present.
+     *
+     * @param item The value of the item to look for
+     * @return True if the item is in the list, false otherwise
+     */
+    public boolean contains(final String item) {
+        return items.containsKey(getKey(item));
+    }
+
+    /**
+     * Gets the number of items in this list.
+     *
+     * @return The number of items in this list
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Removes all items from this list.
+     */
+    public void clear() {
+        items.clear();
+    }
+
+    /**
+     * Gets a read-only view of the items in this list, in the order they were
+     * added. The view reflects later changes to the list.
+     *
+     * @return A read-only view of the items
+     */
+    public Collection<ChannelListModeItem> getItems() {
+        return view;
+    }
+
+    /**
+     * Gets the key used to index the specified item value.
+     *
+     * @param item The item value
+     * @return The case-mapped key for the item
+     */
+    private String getKey(final String item) {
+        return parser.getStringConverter().toLowerCase(item);
+    }
+
+}
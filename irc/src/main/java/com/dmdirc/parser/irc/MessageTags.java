@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Compact representation of the tags attached to a single line.
+ *
+ * <p>The tag section of the line is kept as-is, along with the offsets of each
+ * tag's key and value. Nothing is unescaped or copied until it is asked for:
+ * the commonly used tags can be read directly via their dedicated accessors,
+ * and a full map is only built the first time {@link #asMap()} is called.
+ */
+public final class MessageTags {
+
+    /** Shared instance used for lines without any tags. */
+    public static final MessageTags EMPTY = new MessageTags(null, null);
+
+    /** Key used for a TSIRC timestamp in the map representation. */
+    public static final String TSIRC_DATE = "tsirc date";
+    /** Key of the IRCv3 server-time tag. */
+    public static final String TIME = "time";
+    /** Key of the IRCv3 account-tag tag. */
+    public static final String ACCOUNT = "account";
+    /** Key of the IRCv3 message-ids tag. */
+    public static final String MESSAGE_ID = "msgid";
+    /** Key of the IRCv3 batch tag. */
+    public static final String BATCH = "batch";
+    /** Key of the IRCv3 labeled-response tag. */
+    public static final String LABEL = "label";
+
+    /** The tag section of the line (without the leading '@'), or null. */
+    @Nullable
+    private final String raw;
+    /** The TSIRC timestamp of the line, or null. */
+    @Nullable
+    private final String tsircDate;
+    /**
+     * Offsets of each tag in {@link #raw}, three per tag: the start of the key,
+     * the end of the key (the position of '=' if a value is present) and the
+     * end of the tag.
+     */
+    private final int[] offsets;
+    /** Number of tags found in {@link #raw}. */
+    private final int count;
+    /** Lazily created map view of the tags. */
+    private Map<String, String> map;
+
+    /**
+     * Creates a new set of message tags.
+     *
+     * @param raw The tag section of the line, excluding the leading '@'
+     * @param tsircDate The TSIRC timestamp of the line, if any
+     */
+    public MessageTags(@Nullable final String raw, @Nullable final String tsircDate) {
+        this.raw = raw;
+        this.tsircDate = tsircDate;
+
+        if (raw == null || raw.isEmpty()) {
+            offsets = new int[0];
+            count = 0;
+            return;
+        }
+
+        int tags = 1;
+        for (int i = 0; i < raw.length(); i++) {
+            if (raw.charAt(i) == ';') {
+                tags++;
+            }
+        }
+
+        offsets = new int[tags * 3];
+        int found = 0;
+        int start = 0;
+        int equals = -1;
+        for (int i = 0; i <= raw.length(); i++) {
+            final char chr = i == raw.length() ? ';' : raw.charAt(i);
+            if (chr == '=' && equals == -1) {
+                equals = i;
+            } else if (chr == ';') {
+                if (i > start) {
+                    offsets[found * 3] = start;
+                    offsets[found * 3 + 1] = equals == -1 ? i : equals;
+                    offsets[found * 3 + 2] = i;
+                    found++;
+                }
+                start = i + 1;
+                equals = -1;
+            }
+        }
+        count = found;
+    }
+
+    /**
+     * Determines whether there are no tags at all.
+     *
+     * @return True if there are no tags, false otherwise
+     */
+    public boolean isEmpty() {
+        return count == 0 && tsircDate == null;
+    }
+
+    /**
+     * Gets the TSIRC timestamp of the line, if any.
+     *
+     * @return The TSIRC timestamp, or null
+     */
+    @Nullable
+    public String getTsircDate() {
+        return tsircDate;
+    }
+
+    /**
+     * Gets the value of the server-time tag.
+     *
+     * @return The time tag value, or null if not present
+     */
+    @Nullable
+    public String getTime() {
+        return get(TIME);
+    }
+
+    /**
+     * Gets the value of the account tag.
+     *
+     * @return The account tag value, or null if not present
+     */
+    @Nullable
+    public String getAccount() {
+        return get(ACCOUNT);
+    }
+
+    /**
+     * Gets the value of the msgid tag.
+     *
+     * @return The message ID, or null if not present
+     */
+    @Nullable
+    public String getMessageId() {
+        return get(MESSAGE_ID);
+    }
+
+    /**
+     * Gets the value of the batch tag.
+     *
+     * @return The batch reference, or null if not present
+     */
+    @Nullable
+    public String getBatch() {
+        return get(BATCH);
+    }
+
+    /**
+     * Gets the value of the label tag.
+     *
+     * @return The label, or null if not present
+     */
+    @Nullable
+    public String getLabel() {
+        return get(LABEL);
+    }
+
+    /**
+     * Determines whether the specified tag is present.
+     *
+     * @param key The key of the tag
+     * @return True if the tag is present, false otherwise
+     */
+    public boolean contains(final String key) {
+        return TSIRC_DATE.equals(key) ? tsircDate != null : indexOf(key) > -1;
+    }
+
+    /**
+     * Gets the unescaped value of the specified tag. Tags without a value
+     * have an empty value.
+     *
+     * @param key The key of the tag
+     * @return The value of the tag, or null if not present
+     */
+    @Nullable
+    public String get(final String key) {
+        if (TSIRC_DATE.equals(key)) {
+            return tsircDate;
+        }
+
+        final int index = indexOf(key);
+        return index == -1 ? null : getValue(index);
+    }
+
+    /**
+     * Gets a read-only map of all tags, with values unescaped. The map is built
+     * the first time this is called.
+     *
+     * @return A map of tag keys to values
+     */
+    public Map<String, String> asMap() {
+        if (map == null) {
+            if (isEmpty()) {
+                map = Collections.emptyMap();
+            } else {
+                final Map<String, String> tags = new HashMap<>(count * 2 + 1);
+                if (tsircDate != null) {
+                    tags.put(TSIRC_DATE, tsircDate);
+                }
+                for (int i = 0; i < count; i++) {
+                    tags.put(raw.substring(offsets[i * 3], offsets[i * 3 + 1]), getValue(i));
+                }
+                map = Collections.unmodifiableMap(tags);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Finds the index of the last tag with the specified key.
+     *
+     * @param key The key to look for
+     * @return The index of the tag, or -1 if not found
+     */
+    private int indexOf(final String key) {
+        for (int i = count - 1; i >= 0; i--) {
+            final int start = offsets[i * 3];
+            if (offsets[i * 3 + 1] - start == key.length()
+                    && raw.regionMatches(start, key, 0, key.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the unescaped value of the tag at the specified index.
+     *
+     * @param index The index of the tag
+     * @return The tag's value, or an empty string if it has none
+     */
+    private String getValue(final int index) {
+        final int start = offsets[index * 3 + 1] + 1;
+        final int end = offsets[index * 3 + 2];
+        if (start >= end) {
+            return "";
+        }
+
+        final int escape = raw.indexOf('\\', start);
+        if (escape == -1 || escape >= end) {
+            return raw.substring(start, end);
+        }
+
+        final StringBuilder value = new StringBuilder(end - start);
+        value.append(raw, start, escape);
+        for (int i = escape; i < end; i++) {
+            final char chr = raw.charAt(i);
+            if (chr != '\\') {
+                value.append(chr);
+            } else if (++i < end) {
+                value.append(unescape(raw.charAt(i)));
+            }
+        }
+        return value.toString();
+    }
+
+    /**
+     * Gets the character represented by the escape sequence '\' + chr.
+     *
+     * @param chr The character following the backslash
+     * @return The unescaped character
+     */
+    private static char unescape(final char chr) {
+        switch (chr) {
+            case ':':
+                return ';';
+            case 's':
+                return ' ';
+            case 'r':
+                return '\r';
+            case 'n':
+                return '\n';
+            default:
+                return chr;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return asMap().toString();
+    }
+
+}
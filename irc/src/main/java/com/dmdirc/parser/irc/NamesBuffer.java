@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Accumulates the names sent in a burst of NAMES replies (353) for a single
+ * channel, so that they can be committed to the channel in one go when the
+ * end of the list (366) is received.
+ */
+public class NamesBuffer {
+
+    /** The manager used to translate prefixes into modes. */
+    private final PrefixModeManager prefixModeManager;
+    /** Whether the names should replace the channel's existing members. */
+    private final boolean replacing;
+    /** The names (or hostmasks, for UHNAMES) seen so far. */
+    private final List<String> names = new ArrayList<>();
+    /** The length of the nickname part of each entry in {@link #names}. */
+    private final List<Integer> nickLengths = new ArrayList<>();
+    /** The prefix modes of each entry in {@link #names}. */
+    private final List<String> modes = new ArrayList<>();
+
+    /**
+     * Creates a new, empty buffer.
+     *
+     * @param prefixModeManager The manager to use to translate prefixes into modes
+     * @param replacing True if the names should replace any existing members
+     */
+    public NamesBuffer(final PrefixModeManager prefixModeManager, final boolean replacing) {
+        this.prefixModeManager = prefixModeManager;
+        this.replacing = replacing;
+    }
+
+    /**
+     * Adds all names in the trailing parameter of a NAMES reply. Each name may
+     * be preceded by any number of prefixes (e.g. "@+Foo"), and may be a full
+     * hostmask if UHNAMES is in use.
+     *
+     * @param line The space-separated list of names
+     */
+    public void addNames(final String line) {
+        final int length = line.length();
+        int start = 0;
+        while (start < length) {
+            int end = line.indexOf(' ', start);
+            if (end == -1) {
+                end = length;
+            }
+            if (end > start) {
+                addName(line, start, end);
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Adds a single name from the specified region of a NAMES reply.
+     *
+     * @param line The line containing the name
+     * @param start The start of the name, including any prefixes
+     * @param end The end of the name
+     */
+    private void addName(final String line, final int start, final int end) {
+        int nameStart = start;
+        while (nameStart < end && prefixModeManager.isPrefix(line.charAt(nameStart))) {
+            nameStart++;
+        }
+        if (nameStart == end) {
+            return;
+        }
+
+        final String prefixModes;
+        if (nameStart == start) {
+            prefixModes = "";
+        } else if (nameStart == start + 1) {
+            prefixModes = String.valueOf(prefixModeManager.getModeFor(line.charAt(start)));
+        } else {
+            final char[] chars = new char[nameStart - start];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = prefixModeManager.getModeFor(line.charAt(start + i));
+            }
+            prefixModes = new String(chars);
+        }
+
+        int nickEnd = nameStart;
+        while (nickEnd < end && line.charAt(nickEnd) != '!' && line.charAt(nickEnd) != '@') {
+            nickEnd++;
+        }
+
+        names.add(line.substring(nameStart, end));
+        nickLengths.add(nickEnd - nameStart);
+        modes.add(prefixModes);
+    }
+
+    /**
+     * Determines whether the names in this buffer should replace all existing
+     * members of the channel, rather than being added to them.
+     *
+     * @return True if the existing members should be replaced
+     */
+    public boolean isReplacing() {
+        return replacing;
+    }
+
+    /**
+     * Gets the number of names in this buffer.
+     *
+     * @return The number of names
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Gets the name, or hostmask if UHNAMES is in use, at the specified index.
+     *
+     * @param index The index of the name
+     * @return The name or hostmask
+     */
+    public String getHostmask(final int index) {
+        return names.get(index);
+    }
+
+    /**
+     * Gets the nickname at the specified index.
+     *
+     * @param index The index of the name
+     * @return The nickname, without any prefixes or host information
+     */
+    public String getNickname(final int index) {
+        final String name = names.get(index);
+        final int length = nickLengths.get(index);
+        return length == name.length() ? name : name.substring(0, length);
+    }
+
+    /**
+     * Gets the prefix modes of the name at the specified index.
+     *
+     * @param index The index of the name
+     * @return The prefix modes, most important first
+     */
+    public String getModes(final int index) {
+        return modes.get(index);
+    }
+
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.interfaces.ChannelClientInfo;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the clients that left in a netsplit for a while, so that they can be
+ * restored when the servers relink.
+ *
+ * <p>A client is parked here when it quits in a netsplit batch, or with a
+ * quit reason that names two servers. If a user with the same nickname, ident
+ * and host joins one of our channels before the entry expires, the parked
+ * {@link IRCClientInfo} is put back into the client list, keeping its host,
+ * account, real name, away state and any data attached to it. Each parked
+ * channel membership is restored in the same way when the client rejoins that
+ * channel, although prefix modes are dropped, as the server resends them.
+ *
+ * <p>The number of clients kept is bounded; the oldest are discarded first.
+ */
+public class NetsplitLimbo {
+
+    /** The number of clients kept by default. */
+    public static final int DEFAULT_CAPACITY = 10000;
+    /** The time, in minutes, clients are kept for by default. */
+    public static final long DEFAULT_RETENTION_MINUTES = 10;
+
+    /** Quit reasons given by netsplits: two server names, separated by a space. */
+    private static final Pattern SPLIT_REASON =
+            Pattern.compile("[^\\s.]+(\\.[^\\s.]+)+ [^\\s.]+(\\.[^\\s.]+)+");
+
+    /** The parser we are keeping clients for. */
+    private final IRCParser parser;
+    /** Parked clients, keyed by lower-cased nickname, oldest first. */
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    /** The maximum number of clients to keep. */
+    private int capacity = DEFAULT_CAPACITY;
+    /** The time, in nanoseconds, to keep clients for. */
+    private long retentionNanos = TimeUnit.MINUTES.toNanos(DEFAULT_RETENTION_MINUTES);
+
+    /**
+     * Creates a new, empty, limbo.
+     *
+     * @param parser The parser we are keeping clients for
+     */
+    public NetsplitLimbo(final IRCParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Checks whether a quit reason is the kind given to users who left in a
+     * netsplit, for example {@code "hub.example.com leaf.example.com"}.
+     *
+     * @param reason The quit reason to check
+     * @return True if the reason looks like a netsplit
+     */
+    public static boolean isNetsplitReason(final String reason) {
+        return SPLIT_REASON.matcher(reason).matches();
+    }
+
+    /**
+     * Gets the maximum number of clients that are kept.
+     *
+     * @return The maximum number of clients
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the maximum number of clients that are kept. A capacity of zero
+     * disables the limbo.
+     *
+     * @param capacity The maximum number of clients
+     */
+    public synchronized void setCapacity(final int capacity) {
+        this.capacity = Math.max(0, capacity);
+        trim();
+    }
+
+    /**
+     * Gets the time that clients are kept for.
+     *
+     * @param unit The unit to return the time in
+     * @return The time clients are kept for
+     */
+    public synchronized long getRetention(final TimeUnit unit) {
+        return unit.convert(retentionNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the time that clients are kept for. This only applies to clients
+     * parked after it is changed.
+     *
+     * @param retention The time to keep clients for
+     * @param unit The unit of the time
+     */
+    public synchronized void setRetention(final long retention, final TimeUnit unit) {
+        retentionNanos = unit.toNanos(retention);
+    }
+
+    /**
+     * Gets the number of clients currently kept.
+     *
+     * @return The number of parked clients
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Parks a client that has left in a netsplit. This must be called before
+     * the client is removed from its channels.
+     *
+     * @param client The client that left
+     */
+    public synchronized void park(final IRCClientInfo client) {
+        if (capacity == 0 || client == parser.getLocalClient()) {
+            return;
+        }
+
+        final Map<String, IRCChannelClientInfo> members = new HashMap<>();
+        for (ChannelClientInfo member : client.getChannelClients()) {
+            members.put(getKey(member.getChannel().getName()), (IRCChannelClientInfo) member);
+        }
+        final String key = getKey(client.getNickname());
+        entries.remove(key);
+        entries.put(key, new Entry(client, members, System.nanoTime() + retentionNanos));
+        trim();
+    }
+
+    /**
+     * Takes back a parked client, if it matches the specified hostmask. An
+     * entry for the same nickname that doesn't match is discarded.
+     *
+     * @param hostmask The hostmask of a user who has just joined a channel
+     * @return The parked client, or null if there isn't a matching one
+     */
+    @Nullable
+    public synchronized IRCClientInfo restore(final String hostmask) {
+        if (entries.isEmpty()) {
+            return null;
+        }
+
+        final String[] parts = IRCClientInfo.parseHostFull(hostmask);
+        final String key = getKey(parts[0]);
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime()) || !entry.matches(parts[1], parts[2])) {
+            entries.remove(key);
+            return null;
+        }
+        if (entry.members.isEmpty()) {
+            entries.remove(key);
+        }
+        return entry.client;
+    }
+
+    /**
+     * Takes back the parked membership of a client in a channel. The
+     * membership's prefix modes are cleared.
+     *
+     * @param client The client that is joining the channel
+     * @param channel The channel being joined
+     * @return The parked membership, or null if there isn't one
+     */
+    @Nullable
+    synchronized IRCChannelClientInfo restoreMember(final IRCClientInfo client,
+            final IRCChannelInfo channel) {
+        if (entries.isEmpty()) {
+            return null;
+        }
+
+        final String key = getKey(client.getNickname());
+        final Entry entry = entries.get(key);
+        if (entry == null || entry.client != client) {
+            return null;
+        }
+        final IRCChannelClientInfo member = entry.members.remove(getKey(channel.getName()));
+        if (entry.members.isEmpty()) {
+            entries.remove(key);
+        }
+        if (member == null || member.getChannel() != channel) {
+            return null;
+        }
+        member.setChanMode("");
+        return member;
+    }
+
+    /**
+     * Discards clients that have been kept for longer than the retention
+     * time.
+     */
+    public synchronized void expire() {
+        final long now = System.nanoTime();
+        entries.values().removeIf(entry -> entry.isExpired(now));
+    }
+
+    /**
+     * Discards all parked clients.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Discards the oldest clients until there are no more than the capacity.
+     */
+    private void trim() {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > capacity && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Gets the key to use for a nickname or channel name.
+     *
+     * @param name The name to convert
+     * @return The lower-cased name
+     */
+    private String getKey(final String name) {
+        return parser.getStringConverter().toLowerCase(name);
+    }
+
+    /** A parked client. */
+    private static class Entry {
+
+        /** The client that left. */
+        private final IRCClientInfo client;
+        /** The client's memberships that have not been restored, keyed by channel. */
+        private final Map<String, IRCChannelClientInfo> members;
+        /** The time this entry expires. */
+        private final long expires;
+
+        Entry(final IRCClientInfo client, final Map<String, IRCChannelClientInfo> members,
+                final long expires) {
+            this.client = client;
+            this.members = members;
+            this.expires = expires;
+        }
+
+        boolean isExpired(final long now) {
+            return now - expires >= 0;
+        }
+
+        boolean matches(final String ident, final String host) {
+            return (ident.isEmpty() || client.getUsername().isEmpty()
+                    || ident.equals(client.getUsername()))
+                    && (host.isEmpty() || client.getHostname().isEmpty()
+                    || host.equalsIgnoreCase(client.getHostname()));
+        }
+
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * What a parser learnt about a network the last time it connected: the
+ * capabilities the server advertised, its ISUPPORT values and its
+ * {@link ServerType}.
+ *
+ * <p>Profiles are stored in a {@link NetworkProfileCache}, and let a parser
+ * that is reconnecting send its capability request, registration and
+ * auto-joins together, without waiting for the server's replies first.
+ */
+public final class NetworkProfile {
+
+    /** Capabilities advertised in the server's CAP LS reply. */
+    private final Set<String> capabilities;
+    /** ISUPPORT values, as stored in {@link IRCParser#h005Info}. */
+    private final Map<String, String> isupport;
+    /** The type of server. */
+    private final ServerType serverType;
+
+    /**
+     * Creates a new profile.
+     *
+     * @param capabilities Capabilities advertised by the server
+     * @param isupport ISUPPORT values sent by the server
+     * @param serverType The type of server
+     */
+    public NetworkProfile(final Collection<String> capabilities,
+            final Map<String, String> isupport, final ServerType serverType) {
+        this.capabilities = Collections.unmodifiableSet(new HashSet<>(capabilities));
+        this.isupport = Collections.unmodifiableMap(new HashMap<>(isupport));
+        this.serverType = checkNotNull(serverType);
+    }
+
+    /**
+     * Creates a profile describing the network a parser is connected to.
+     *
+     * @param parser The parser to describe
+     * @return A new profile
+     */
+    public static NetworkProfile of(final IRCParser parser) {
+        return new NetworkProfile(parser.getCapabilities().keySet(), parser.get005(),
+                parser.getServerType());
+    }
+
+    /**
+     * Gets the capabilities the server advertised.
+     *
+     * @return The advertised capabilities, in lower case
+     */
+    public Set<String> getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Gets the ISUPPORT values the server sent.
+     *
+     * @return Map of ISUPPORT tokens to their values
+     */
+    public Map<String, String> getISupport() {
+        return isupport;
+    }
+
+    /**
+     * Gets the type of server the network runs.
+     *
+     * @return The server type
+     */
+    public ServerType getServerType() {
+        return serverType;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof NetworkProfile)) {
+            return false;
+        }
+        final NetworkProfile other = (NetworkProfile) obj;
+        return capabilities.equals(other.capabilities) && isupport.equals(other.isupport)
+                && serverType == other.serverType;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(capabilities, isupport, serverType);
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkProfile{" + serverType + ", " + capabilities.size() + " capabilities, "
+                + isupport.size() + " ISUPPORT values}";
+    }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Stores a {@link NetworkProfile} for each network a parser has connected to,
+ * in memory and in a local directory, so that profiles survive restarts.
+ *
+ * <p>Each profile is kept in its own small file, named after the network's
+ * key. Files are written to a temporary file and then moved into place, so a
+ * profile is never seen half-written. A profile that cannot be read is
+ * treated as missing; the parser then simply registers without pipelining
+ * and a fresh profile replaces it.
+ */
+public class NetworkProfileCache {
+
+    /** Magic number at the start of every profile ("DMNP"). */
+    private static final int MAGIC = 0x444D4E50;
+    /** Version of the profile format. */
+    private static final short FORMAT_VERSION = 1;
+    /** Suffix of profile files. */
+    private static final String SUFFIX = ".profile";
+
+    /** The directory profiles are stored in. */
+    private final Path directory;
+    /** Profiles that have been read or written, keyed on network key. */
+    private final Map<String, Optional<NetworkProfile>> profiles = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new cache that stores profiles in the given directory. The
+     * directory is created when the first profile is written.
+     *
+     * @param directory The directory to store profiles in
+     */
+    public NetworkProfileCache(final Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Gets the profile for a network.
+     *
+     * @param key The key of the network, as returned by {@link #getKey(String, int)}
+     * @return The stored profile, or null if there isn't a usable one
+     */
+    @Nullable
+    public NetworkProfile get(final String key) {
+        return profiles.computeIfAbsent(key, k -> Optional.ofNullable(read(k))).orElse(null);
+    }
+
+    /**
+     * Stores the profile for a network. Nothing is written if the profile is
+     * unchanged.
+     *
+     * @param key The key of the network, as returned by {@link #getKey(String, int)}
+     * @param profile The profile to store
+     * @throws IOException If the profile could not be written
+     */
+    public void put(final String key, final NetworkProfile profile) throws IOException {
+        final Optional<NetworkProfile> previous = profiles.put(key, Optional.of(profile));
+        if (previous != null && previous.isPresent() && previous.get().equals(profile)) {
+            return;
+        }
+        write(key, profile);
+    }
+
+    /**
+     * Forgets the profile for a network, so that the next connection to it
+     * registers without pipelining.
+     *
+     * @param key The key of the network, as returned by {@link #getKey(String, int)}
+     * @throws IOException If the stored profile could not be deleted
+     */
+    public void remove(final String key) throws IOException {
+        profiles.put(key, Optional.empty());
+        Files.deleteIfExists(getFile(key));
+    }
+
+    /**
+     * Gets the key used to identify a network.
+     *
+     * @param host The host being connected to
+     * @param port The port being connected to
+     * @return The network's key
+     */
+    public static String getKey(final String host, final int port) {
+        return host.toLowerCase(Locale.ENGLISH) + ':' + port;
+    }
+
+    /**
+     * Gets the file a network's profile is stored in.
+     *
+     * @param key The key of the network
+     * @return The path of the profile file
+     */
+    private Path getFile(final String key) {
+        final StringBuilder name = new StringBuilder(key.length());
+        for (char c : key.toCharArray()) {
+            name.append(Character.isLetterOrDigit(c) || c == '.' || c == '-' ? c : '_');
+        }
+        return directory.resolve(name.append(SUFFIX).toString());
+    }
+
+    /**
+     * Reads a network's profile from disk.
+     *
+     * @param key The key of the network
+     * @return The profile, or null if there is no readable profile
+     */
+    @Nullable
+    private NetworkProfile read(final String key) {
+        try {
+            return decode(Files.readAllBytes(getFile(key)));
+        } catch (IOException ex) {
+            // Missing or unreadable; the next connection will write a new one.
+            return null;
+        }
+    }
+
+    /**
+     * Writes a network's profile to disk.
+     *
+     * @param key The key of the network
+     * @param profile The profile to write
+     * @throws IOException If the profile could not be written
+     */
+    private void write(final String key, final NetworkProfile profile) throws IOException {
+        Files.createDirectories(directory);
+        final Path file = getFile(key);
+        final Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, encode(profile));
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Encodes a profile.
+     *
+     * @param profile The profile to encode
+     * @return The encoded profile
+     * @throws IOException If the profile could not be encoded
+     */
+    static byte[] encode(final NetworkProfile profile) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeUTF(profile.getServerType().name());
+        out.writeInt(profile.getCapabilities().size());
+        for (String capability : profile.getCapabilities()) {
+            out.writeUTF(capability);
+        }
+        out.writeInt(profile.getISupport().size());
+        for (Map.Entry<String, String> entry : profile.getISupport().entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a profile.
+     *
+     * @param data The encoded profile
+     * @return The decoded profile
+     * @throws IOException If the data is not a valid profile
+     */
+    static NetworkProfile decode(final byte[] data) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a network profile");
+        }
+        if (in.readShort() != FORMAT_VERSION) {
+            throw new IOException("Unsupported network profile version");
+        }
+
+        final ServerType serverType;
+        try {
+            serverType = ServerType.valueOf(in.readUTF());
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Unknown server type in network profile", ex);
+        }
+
+        final int capabilityCount = in.readInt();
+        if (capabilityCount < 0) {
+            throw new IOException("Network profile is corrupt");
+        }
+        final List<String> capabilities = new ArrayList<>(capabilityCount);
+        for (int i = 0; i < capabilityCount; i++) {
+            capabilities.add(in.readUTF());
+        }
+
+        final int isupportCount = in.readInt();
+        if (isupportCount < 0) {
+            throw new IOException("Network profile is corrupt");
+        }
+        final Map<String, String> isupport = new HashMap<>(isupportCount);
+        for (int i = 0; i < isupportCount; i++) {
+            isupport.put(in.readUTF(), in.readUTF());
+        }
+
+        return new NetworkProfile(capabilities, isupport, serverType);
+    }
+
+}
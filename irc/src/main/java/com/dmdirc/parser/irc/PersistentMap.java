@@ -0,0 +1,577 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An immutable hash map that shares structure between versions.
+ *
+ * <p>The map is a hash array mapped trie: adding or removing an entry copies
+ * only the path from the root to the affected node (at most seven small
+ * arrays), and every other node is shared with the previous version. Since
+ * instances never change, they can be read from any thread without locking
+ * once they have been safely published, and the views returned by
+ * {@link #values()} and {@link #asMap()} never need to be copied.
+ *
+ * <p>Null keys and values are not permitted.
+ *
+ * @param <K> The type of keys in the map
+ * @param <V> The type of values in the map
+ */
+public final class PersistentMap<K, V> {
+
+    /** The shared empty map. */
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(null, 0);
+
+    /** Number of hash bits consumed at each level of the trie. */
+    private static final int BITS = 5;
+    /** Mask used to extract the hash bits for a level. */
+    private static final int MASK = (1 << BITS) - 1;
+
+    /** The root node of the trie, or null if the map is empty. */
+    @Nullable
+    private final Node root;
+    /** The number of entries in the map. */
+    private final int size;
+    /** Lazily created collection view of the values. */
+    private Collection<V> values;
+    /** Lazily created map view. */
+    private Map<K, V> map;
+
+    /**
+     * Creates a new map with the given root.
+     *
+     * @param root The root node, or null if empty
+     * @param size The number of entries
+     */
+    private PersistentMap(@Nullable final Node root, final int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Gets an empty map.
+     *
+     * @param <K> The type of keys in the map
+     * @param <V> The type of values in the map
+     * @return An empty map
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Gets the number of entries in the map.
+     *
+     * @return The size of the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Determines whether the map is empty.
+     *
+     * @return True if there are no entries, false otherwise
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the value associated with the specified key.
+     *
+     * @param key The key to look up
+     * @return The value, or null if the key is not present
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(@Nullable final Object key) {
+        return root == null || key == null ? null : (V) root.find(0, hash(key), key);
+    }
+
+    /**
+     * Determines whether the specified key is present.
+     *
+     * @param key The key to look for
+     * @return True if the key is present, false otherwise
+     */
+    public boolean containsKey(@Nullable final Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Creates a version of this map with the specified entry added or
+     * replaced.
+     *
+     * @param key The key to add
+     * @param value The value to associate with the key
+     * @return The new map, or this map if it already contained the entry
+     */
+    public PersistentMap<K, V> plus(final K key, final V value) {
+        checkNotNull(key);
+        checkNotNull(value);
+        final boolean[] added = new boolean[1];
+        final Node newRoot = (root == null ? BitmapNode.EMPTY : root)
+                .put(0, hash(key), key, value, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Creates a version of this map without the specified key.
+     *
+     * @param key The key to remove
+     * @return The new map, or this map if the key was not present
+     */
+    public PersistentMap<K, V> minus(@Nullable final Object key) {
+        if (root == null || key == null) {
+            return this;
+        }
+        final Node newRoot = root.remove(0, hash(key), key);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? empty() : new PersistentMap<>(newRoot, size - 1);
+    }
+
+    /**
+     * Gets a read-only view of the values in this map. The view is never
+     * copied and, like the map itself, never changes.
+     *
+     * @return The values of the map
+     */
+    public Collection<V> values() {
+        if (values == null) {
+            values = new AbstractCollection<V>() {
+                @Override
+                public Iterator<V> iterator() {
+                    return new TrieIterator<>(root, false);
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return values;
+    }
+
+    /**
+     * Gets a read-only {@link Map} view of this map.
+     *
+     * @return A map view of this map
+     */
+    public Map<K, V> asMap() {
+        if (map == null) {
+            map = new AbstractMap<K, V>() {
+                @Override
+                public Set<Entry<K, V>> entrySet() {
+                    return new AbstractSet<Entry<K, V>>() {
+                        @Override
+                        public Iterator<Entry<K, V>> iterator() {
+                            return new TrieIterator<>(root, true);
+                        }
+
+                        @Override
+                        public int size() {
+                            return size;
+                        }
+                    };
+                }
+
+                @Override
+                public V get(final Object key) {
+                    return PersistentMap.this.get(key);
+                }
+
+                @Override
+                public boolean containsKey(final Object key) {
+                    return PersistentMap.this.containsKey(key);
+                }
+
+                @Override
+                public Collection<V> values() {
+                    return PersistentMap.this.values();
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return asMap().toString();
+    }
+
+    /**
+     * Calculates the hash used for a key, spreading the higher bits downwards
+     * as the low bits are used first.
+     *
+     * @param key The key to hash
+     * @return The hash of the key
+     */
+    private static int hash(final Object key) {
+        final int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * A node in the trie. Nodes store their contents in a flat array of
+     * key/value pairs; a pair with a null key holds a child node as its value.
+     */
+    private abstract static class Node {
+
+        /** The key/value pairs of this node. */
+        final Object[] array;
+
+        Node(final Object[] array) {
+            this.array = array;
+        }
+
+        /** Finds the value for a key, or returns null. */
+        abstract Object find(int shift, int hash, Object key);
+
+        /** Returns a node with the entry added, setting added[0] if it is new. */
+        abstract Node put(int shift, int hash, Object key, Object value, boolean[] added);
+
+        /** Returns a node with the key removed, or null if it becomes empty. */
+        @Nullable
+        abstract Node remove(int shift, int hash, Object key);
+
+    }
+
+    /**
+     * A node that uses a bitmap to record which of its 32 slots are used.
+     */
+    private static final class BitmapNode extends Node {
+
+        /** An empty node, used as the starting point for new tries. */
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        /** The slots in use. */
+        private final int bitmap;
+
+        BitmapNode(final int bitmap, final Object[] array) {
+            super(array);
+            this.bitmap = bitmap;
+        }
+
+        /**
+         * Gets the index of the pair for the specified bit.
+         *
+         * @param bit The bit for the slot
+         * @return The index of the key in the array
+         */
+        private int index(final int bit) {
+            return Integer.bitCount(bitmap & (bit - 1)) * 2;
+        }
+
+        @Override
+        Object find(final int shift, final int hash, final Object key) {
+            final int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            final int index = index(bit);
+            final Object current = array[index];
+            if (current == null) {
+                return ((Node) array[index + 1]).find(shift + BITS, hash, key);
+            }
+            return key.equals(current) ? array[index + 1] : null;
+        }
+
+        @Override
+        Node put(final int shift, final int hash, final Object key, final Object value,
+                final boolean[] added) {
+            final int bit = 1 << ((hash >>> shift) & MASK);
+            final int index = index(bit);
+
+            if ((bitmap & bit) == 0) {
+                final Object[] newArray = new Object[array.length + 2];
+                System.arraycopy(array, 0, newArray, 0, index);
+                newArray[index] = key;
+                newArray[index + 1] = value;
+                System.arraycopy(array, index, newArray, index + 2, array.length - index);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, newArray);
+            }
+
+            final Object current = array[index];
+            final Object currentValue = array[index + 1];
+            if (current == null) {
+                final Node child = ((Node) currentValue).put(shift + BITS, hash, key, value, added);
+                return child == currentValue ? this : with(index + 1, child);
+            }
+            if (key.equals(current)) {
+                return currentValue == value ? this : with(index + 1, value);
+            }
+
+            added[0] = true;
+            final Node child = createNode(shift + BITS, current, currentValue, hash, key, value);
+            final Object[] newArray = array.clone();
+            newArray[index] = null;
+            newArray[index + 1] = child;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        @Override
+        Node remove(final int shift, final int hash, final Object key) {
+            final int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+
+            final int index = index(bit);
+            final Object current = array[index];
+            if (current == null) {
+                final Node child = ((Node) array[index + 1]).remove(shift + BITS, hash, key);
+                if (child == array[index + 1]) {
+                    return this;
+                }
+                if (child != null) {
+                    return with(index + 1, child);
+                }
+            } else if (!key.equals(current)) {
+                return this;
+            }
+
+            if (bitmap == bit) {
+                return null;
+            }
+            final Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index + 2, newArray, index, array.length - index - 2);
+            return new BitmapNode(bitmap ^ bit, newArray);
+        }
+
+        /**
+         * Creates a copy of this node with one array element replaced.
+         *
+         * @param index The index to replace
+         * @param value The new value
+         * @return The new node
+         */
+        private BitmapNode with(final int index, final Object value) {
+            final Object[] newArray = array.clone();
+            newArray[index] = value;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        /**
+         * Creates a node containing two entries.
+         *
+         * @param shift The shift of the new node
+         * @param key1 The first key
+         * @param value1 The first value
+         * @param hash2 The hash of the second key
+         * @param key2 The second key
+         * @param value2 The second value
+         * @return A node containing both entries
+         */
+        private static Node createNode(final int shift, final Object key1, final Object value1,
+                final int hash2, final Object key2, final Object value2) {
+            final int hash1 = hash(key1);
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+            }
+            final boolean[] ignored = new boolean[1];
+            return EMPTY.put(shift, hash1, key1, value1, ignored)
+                    .put(shift, hash2, key2, value2, ignored);
+        }
+
+    }
+
+    /**
+     * A node holding entries whose keys have identical hashes.
+     */
+    private static final class CollisionNode extends Node {
+
+        /** The hash shared by all keys in this node. */
+        private final int hash;
+
+        CollisionNode(final int hash, final Object[] array) {
+            super(array);
+            this.hash = hash;
+        }
+
+        /**
+         * Finds the index of the specified key.
+         *
+         * @param key The key to look for
+         * @return The index of the key in the array, or -1
+         */
+        private int indexOf(final Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Object find(final int shift, final int hash, final Object key) {
+            final int index = hash == this.hash ? indexOf(key) : -1;
+            return index == -1 ? null : array[index + 1];
+        }
+
+        @Override
+        Node put(final int shift, final int hash, final Object key, final Object value,
+                final boolean[] added) {
+            if (hash != this.hash) {
+                // Push this node down a level behind a bitmap node, then add to that.
+                final int bit = 1 << ((this.hash >>> shift) & MASK);
+                return new BitmapNode(bit, new Object[]{null, this})
+                        .put(shift, hash, key, value, added);
+            }
+
+            final int index = indexOf(key);
+            if (index == -1) {
+                final Object[] newArray = Arrays.copyOf(array, array.length + 2);
+                newArray[array.length] = key;
+                newArray[array.length + 1] = value;
+                added[0] = true;
+                return new CollisionNode(hash, newArray);
+            }
+            if (array[index + 1] == value) {
+                return this;
+            }
+            final Object[] newArray = array.clone();
+            newArray[index + 1] = value;
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override
+        Node remove(final int shift, final int hash, final Object key) {
+            final int index = hash == this.hash ? indexOf(key) : -1;
+            if (index == -1) {
+                return this;
+            }
+            if (array.length == 2) {
+                return null;
+            }
+            final Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index + 2, newArray, index, array.length - index - 2);
+            return new CollisionNode(hash, newArray);
+        }
+
+    }
+
+    /**
+     * Iterates over the values or entries of a trie, depth first.
+     *
+     * @param <T> The type of element returned
+     */
+    private static final class TrieIterator<T> implements Iterator<T> {
+
+        /** The arrays being iterated, innermost last. */
+        private final Deque<Object[]> arrays = new ArrayDeque<>();
+        /** The current position in each array, innermost last. */
+        private final Deque<Integer> positions = new ArrayDeque<>();
+        /** Whether to return entries (true) or values (false). */
+        private final boolean entries;
+        /** The next key, or null if the iteration is finished. */
+        private Object nextKey;
+        /** The next value. */
+        private Object nextValue;
+
+        TrieIterator(@Nullable final Node root, final boolean entries) {
+            this.entries = entries;
+            if (root != null) {
+                arrays.push(root.array);
+                positions.push(0);
+            }
+            advance();
+        }
+
+        /**
+         * Moves to the next entry in the trie.
+         */
+        private void advance() {
+            nextKey = null;
+            while (!arrays.isEmpty()) {
+                final Object[] array = arrays.peek();
+                final int position = positions.pop();
+                if (position >= array.length) {
+                    arrays.pop();
+                    continue;
+                }
+                positions.push(position + 2);
+                if (array[position] == null) {
+                    arrays.push(((Node) array[position + 1]).array);
+                    positions.push(0);
+                } else {
+                    nextKey = array[position];
+                    nextValue = array[position + 1];
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextKey != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (nextKey == null) {
+                throw new NoSuchElementException();
+            }
+            final T result = entries
+                    ? (T) new AbstractMap.SimpleImmutableEntry<>(nextKey, nextValue)
+                    : (T) nextValue;
+            advance();
+            return result;
+        }
+
+    }
+
+}
@@ -41,8 +41,15 @@ public class ProcessingManager {
 
     /** Reference to the parser object that owns this ProcessingManager. */
     private final IRCParser parser;
-    /** Hashtable used to store the different types of IRCProcessor known. */
-    private final Map<String, IRCProcessor> processHash = new HashMap<>();
+    /** The processors described by {@link #table}, or null if not using a shared table. */
+    private final IRCProcessor[] processors;
+    /** Shared table of tokens to processors, or null if not using a shared table. */
+    private final ProcessorTable table;
+    /**
+     * Hashtable used to store the different types of IRCProcessor known. This is only
+     * populated once processors are added or removed, until which {@link #table} is used.
+     */
+    private Map<String, IRCProcessor> processHash;
 
     /**
      * Constructor to create a ProcessingManager.
@@ -53,9 +60,41 @@ public class ProcessingManager {
     @Inject
     public ProcessingManager(final IRCParser parser, final Set<IRCProcessor> processors) {
         this.parser = parser;
+        this.processors = null;
+        this.table = null;
+        this.processHash = new HashMap<>();
         processors.forEach(this::addProcessor);
     }
 
+    /**
+     * Creates a ProcessingManager that looks processors up in a table shared
+     * with other parsers using the same processors, until any processors are
+     * added or removed.
+     *
+     * @param parser IRCParser that owns this Processing Manager
+     * @param processors The processors to use, in order of increasing priority.
+     */
+    public ProcessingManager(final IRCParser parser, final IRCProcessor... processors) {
+        this.parser = parser;
+        this.processors = processors.clone();
+        this.table = ProcessorTable.get(this.processors);
+    }
+
+    /**
+     * Gets the map of handlers, copying the shared table into a new map if
+     * this manager is not yet using one.
+     *
+     * @return The modifiable map of handlers
+     */
+    private Map<String, IRCProcessor> getProcessHash() {
+        if (processHash == null) {
+            final Map<String, IRCProcessor> map = new HashMap<>();
+            table.getIndices().forEach((token, index) -> map.put(token, processors[index]));
+            processHash = map;
+        }
+        return processHash;
+    }
+
     /**
      * Debugging Data to the console.
      */
@@ -83,6 +122,7 @@ public class ProcessingManager {
     public void addProcessor(final String[] handles, final IRCProcessor processor) {
         doDebug("Adding processor: " + processor.getName());
 
+        final Map<String, IRCProcessor> processHash = getProcessHash();
         for (String handle : handles) {
             if (processHash.containsKey(handle.toLowerCase())) {
                 // New Processors take priority over old ones
@@ -100,14 +140,15 @@ public class ProcessingManager {
      */
     public void delProcessor(final IRCProcessor processor) {
         doDebug("Deleting processor: " + processor.getName());
-        for (String elementName : processHash.keySet()) {
-            doDebug("\t Checking handler for: " + elementName);
-            final IRCProcessor testProcessor = processHash.get(elementName);
-            if (testProcessor.getName().equalsIgnoreCase(processor.getName())) {
-                doDebug("\t Removed handler for: " + elementName);
-                processHash.remove(elementName);
+        final Map<String, IRCProcessor> processHash = getProcessHash();
+        processHash.entrySet().removeIf(entry -> {
+            doDebug("\t Checking handler for: " + entry.getKey());
+            if (entry.getValue().getName().equalsIgnoreCase(processor.getName())) {
+                doDebug("\t Removed handler for: " + entry.getKey());
+                return true;
             }
-        }
+            return false;
+        });
     }
 
     /**
@@ -118,11 +159,18 @@ public class ProcessingManager {
      * @throws ProcessorNotFoundException if no processer exists for the param
      */
     public IRCProcessor getProcessor(final String sParam) throws ProcessorNotFoundException {
-        if (processHash.containsKey(sParam.toLowerCase())) {
-            return processHash.get(sParam.toLowerCase());
+        final String token = sParam.toLowerCase();
+        final IRCProcessor processor;
+        if (processHash == null) {
+            final int index = table.indexOf(token);
+            processor = index == -1 ? null : processors[index];
         } else {
+            processor = processHash.get(token);
+        }
+        if (processor == null) {
             throw new ProcessorNotFoundException("No processors will handle " + sParam);
         }
+        return processor;
     }
 
     /**
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.irc.processors.IRCProcessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable mapping from the tokens handled by a set of processors to the
+ * index of the processor that handles each one.
+ *
+ * <p>Tables are shared between all parsers using the same processor classes
+ * in the same order, so each parser only needs to hold its own processor
+ * instances. This assumes that every instance of a processor class handles
+ * the same tokens.
+ */
+final class ProcessorTable {
+
+    /** Shared tables, keyed on the processor classes they were built from. */
+    private static final Map<List<Class<?>>, ProcessorTable> TABLES = new ConcurrentHashMap<>();
+
+    /** Map of lower-cased token to processor index. */
+    private final Map<String, Integer> indices;
+
+    private ProcessorTable(final IRCProcessor... processors) {
+        final Map<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < processors.length; i++) {
+            for (String handle : processors[i].handles()) {
+                // Later processors take priority, as in ProcessingManager.addProcessor
+                map.put(handle.toLowerCase(), i);
+            }
+        }
+        indices = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Gets the table for the given processors, building it if no parser has
+     * used the same processor classes before.
+     *
+     * @param processors The processors to get a table for
+     * @return The shared table
+     */
+    static ProcessorTable get(final IRCProcessor... processors) {
+        final List<Class<?>> key = new ArrayList<>(processors.length);
+        for (IRCProcessor processor : processors) {
+            key.add(processor.getClass());
+        }
+        final ProcessorTable table = TABLES.get(key);
+        return table == null ? TABLES.computeIfAbsent(key, k -> new ProcessorTable(processors))
+                : table;
+    }
+
+    /**
+     * Gets the index of the processor handling a token.
+     *
+     * @param token The lower-cased token
+     * @return The index of the processor, or -1 if no processor handles it
+     */
+    int indexOf(final String token) {
+        final Integer index = indices.get(token);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Gets all the tokens in this table and the processors that handle them.
+     *
+     * @return Unmodifiable map of lower-cased token to processor index
+     */
+    Map<String, Integer> getIndices() {
+        return indices;
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+/**
+ * Reports that the server answered a {@link ServerQuery} with an error.
+ */
+public class QueryFailedException extends Exception {
+
+    /** Version of this class. */
+    private static final long serialVersionUID = 1L;
+
+    /** The lines received before and including the error. */
+    private final transient QueryResponse response;
+    /** The numeric or command of the error. */
+    private final String error;
+
+    /**
+     * Create a new QueryFailedException.
+     *
+     * @param response The lines received before and including the error
+     * @param error The tokenised error line
+     */
+    public QueryFailedException(final QueryResponse response, final String... error) {
+        super(response.getQuery().getLine() + " failed: " + String.join(" ", error));
+        this.response = response;
+        this.error = error.length > 1 ? error[1] : "";
+    }
+
+    public QueryResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * Gets the numeric or command the server replied with.
+     *
+     * @return The error numeric, e.g. "401"
+     */
+    public String getError() {
+        return error;
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The lines the server sent in reply to a {@link ServerQuery}.
+ */
+public class QueryResponse {
+
+    /** The query that was answered. */
+    private final ServerQuery query;
+    /** The tokenised lines of the reply, in the order they were received. */
+    private final List<String[]> lines;
+    /** Whether the reply was matched using a label. */
+    private final boolean labeled;
+
+    /**
+     * Creates a new response.
+     *
+     * @param query The query that was answered
+     * @param lines The tokenised lines of the reply
+     * @param labeled Whether the reply was matched using a label
+     */
+    public QueryResponse(final ServerQuery query, final List<String[]> lines,
+            final boolean labeled) {
+        this.query = query;
+        this.lines = Collections.unmodifiableList(new ArrayList<>(lines));
+        this.labeled = labeled;
+    }
+
+    public ServerQuery getQuery() {
+        return query;
+    }
+
+    /**
+     * Gets every line of the reply, including the line that ended it.
+     *
+     * @return The tokenised lines
+     */
+    public List<String[]> getLines() {
+        return lines;
+    }
+
+    /**
+     * Gets the lines of the reply with the given numeric or command.
+     *
+     * @param command The numeric or command to look for
+     * @return The matching tokenised lines
+     */
+    public List<String[]> getLines(final String command) {
+        final List<String[]> result = new ArrayList<>();
+        for (String[] line : lines) {
+            if (line.length > 1 && command.equalsIgnoreCase(line[1])) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Determines whether the reply was matched to the query using an IRCv3
+     * label, rather than by its target and order.
+     *
+     * @return True if the reply was labeled
+     */
+    public boolean isLabeled() {
+        return labeled;
+    }
+
+}
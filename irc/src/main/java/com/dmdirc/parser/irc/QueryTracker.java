@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.CallbackExecutor;
+import com.dmdirc.parser.common.QueuePriority;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nullable;
+
+/**
+ * Sends {@link ServerQuery}s and matches the server's replies to them, so
+ * that many queries can be outstanding at once.
+ *
+ * <p>If the {@code labeled-response} and {@code batch} capabilities are
+ * enabled, each query is sent with a unique label and its reply is collected
+ * from the labeled line or batch. Otherwise replies are matched to the oldest
+ * outstanding query that accepts them and, where the reply names one, has the
+ * same target.
+ *
+ * <p>Replies are observed rather than consumed, so they are still processed
+ * (and raise events) as normal. Futures are completed on a callback thread
+ * once the parser has finished processing the line that completes them.
+ */
+public class QueryTracker {
+
+    /** Prefix of the labels attached to queries. */
+    private static final String LABEL_PREFIX = "dmdirc-";
+    /** Minimum time between checks for timed out queries. */
+    private static final long TIMEOUT_CHECK_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    /** The parser we are sending queries with. */
+    private final IRCParser parser;
+    /** Executor used to complete futures, in order. */
+    private final Executor completionExecutor;
+    /** Queries waiting for replies, in the order they were sent. */
+    private final List<Pending> pending = new LinkedList<>();
+    /** Labeled-response batches that are still open, by reference. */
+    private final Map<String, Pending> batches = new HashMap<>();
+    /** Counter used to generate labels. */
+    private long labelCount;
+    /** Time timeouts were last checked, from {@link System#nanoTime()}. */
+    private long lastTimeoutCheck = System.nanoTime();
+
+    /**
+     * Creates a new tracker.
+     *
+     * @param parser The parser to send queries with
+     */
+    public QueryTracker(final IRCParser parser) {
+        this.parser = parser;
+        this.completionExecutor = CallbackExecutor.getDefault().newSerialExecutor();
+    }
+
+    /**
+     * Sends a query to the server.
+     *
+     * @param query The query to send
+     * @return A future that completes with the server's reply, or
+     * exceptionally with a {@link QueryFailedException} if the server reports
+     * an error, a {@link TimeoutException} if it doesn't answer in time, or an
+     * {@link IOException} if the connection is closed first
+     */
+    public CompletableFuture<QueryResponse> send(final ServerQuery query) {
+        final Pending request;
+        synchronized (this) {
+            request = new Pending(query, isLabelSupported() ? LABEL_PREFIX + ++labelCount : null);
+            pending.add(request);
+        }
+
+        final String line = request.label == null ? query.getLine()
+                : '@' + MessageTags.LABEL + '=' + request.label + ' ' + query.getLine();
+        if (!parser.sendString(line, QueuePriority.NORMAL)) {
+            synchronized (this) {
+                pending.remove(request);
+            }
+            request.future.completeExceptionally(new IOException("Not connected"));
+        }
+        return request.future;
+    }
+
+    /**
+     * Determines whether queries can be labeled.
+     *
+     * @return True if the server supports labeled responses
+     */
+    public boolean isLabelSupported() {
+        return parser.getCapabilityState("labeled-response") == CapabilityState.ENABLED
+                && parser.getCapabilityState("batch") == CapabilityState.ENABLED;
+    }
+
+    /**
+     * Examines a line received from the server, completing any query that it
+     * answers. This is called after the line has been processed.
+     *
+     * @param tags The line's tags
+     * @param token The tokenised line
+     */
+    public void handleLine(final MessageTags tags, final String... token) {
+        final List<Runnable> completions = new ArrayList<>();
+        synchronized (this) {
+            if (pending.isEmpty() || token.length < 2) {
+                return;
+            }
+
+            final long now = System.nanoTime();
+            if (now - lastTimeoutCheck >= TIMEOUT_CHECK_INTERVAL) {
+                lastTimeoutCheck = now;
+                expire(now, completions);
+            }
+
+            final String label = tags.getLabel();
+            final String batch = tags.getBatch();
+            if (label != null) {
+                handleLabeled(label, token, completions);
+            } else if (batch != null) {
+                handleBatched(batch, token);
+            } else if ("BATCH".equalsIgnoreCase(token[1]) && token.length > 2
+                    && token[2].startsWith("-")) {
+                final Pending request = batches.remove(token[2].substring(1));
+                if (request != null) {
+                    complete(request, completions);
+                }
+            } else {
+                handleUnlabeled(token, completions);
+            }
+        }
+        completions.forEach(completionExecutor::execute);
+    }
+
+    /**
+     * Handles a line carrying a label.
+     *
+     * @param label The line's label
+     * @param token The tokenised line
+     * @param completions List to add completions to
+     */
+    private void handleLabeled(final String label, final String[] token,
+            final List<Runnable> completions) {
+        final Pending request = pending.stream().filter(p -> label.equals(p.label))
+                .findFirst().orElse(null);
+        if (request == null) {
+            return;
+        }
+
+        if ("BATCH".equalsIgnoreCase(token[1]) && token.length > 3 && token[2].startsWith("+")
+                && "labeled-response".equals(token[3])) {
+            request.batch = token[2].substring(1);
+            batches.put(request.batch, request);
+        } else if ("ACK".equalsIgnoreCase(token[1])) {
+            complete(request, completions);
+        } else {
+            request.lines.add(token);
+            if (request.query.isError(token[1])) {
+                request.error = token;
+            }
+            complete(request, completions);
+        }
+    }
+
+    /**
+     * Handles a line that is part of a batch.
+     *
+     * @param batch The reference of the line's batch
+     * @param token The tokenised line
+     */
+    private void handleBatched(final String batch, final String... token) {
+        final Pending request = batches.get(batch);
+        if (request != null) {
+            request.lines.add(token);
+            if (request.error == null && request.query.isError(token[1])) {
+                request.error = token;
+            }
+        }
+    }
+
+    /**
+     * Handles a line without a label, matching it by target and order.
+     *
+     * @param token The tokenised line
+     * @param completions List to add completions to
+     */
+    private void handleUnlabeled(final String[] token, final List<Runnable> completions) {
+        final String command = token[1];
+        final String target = token.length > 3 ? token[3] : null;
+        if ("354".equals(command) && target != null && parser.getWhoSync().isSyncToken(target)) {
+            // A WHOX reply to one of the parser's own syncs.
+            return;
+        }
+        final Iterator<Pending> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            final Pending request = iterator.next();
+            if (request.label != null
+                    || !request.query.matches(command, target, parser.getStringConverter())) {
+                continue;
+            }
+
+            if (request.error != null) {
+                // The query already failed; we were only waiting to swallow its end.
+                iterator.remove();
+                if (request.query.isEnd(command)) {
+                    return;
+                }
+                continue;
+            }
+
+            request.lines.add(token);
+            if (request.query.isError(command)) {
+                request.error = token;
+                fail(request, completions);
+                if (!request.query.endsAfterError()) {
+                    iterator.remove();
+                }
+            } else if (request.query.isEnd(command)) {
+                iterator.remove();
+                complete(request, completions);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Removes a query and arranges for its future to be completed, either
+     * normally or with the error it received.
+     *
+     * @param request The query to complete
+     * @param completions List to add the completion to
+     */
+    private void complete(final Pending request, final List<Runnable> completions) {
+        pending.remove(request);
+        if (request.batch != null) {
+            batches.remove(request.batch);
+        }
+        if (request.error == null) {
+            final QueryResponse response = request.createResponse();
+            completions.add(() -> request.future.complete(response));
+        } else {
+            fail(request, completions);
+        }
+    }
+
+    /**
+     * Arranges for a query's future to be completed with the error it
+     * received. The query is not removed.
+     *
+     * @param request The query that failed
+     * @param completions List to add the completion to
+     */
+    private void fail(final Pending request, final List<Runnable> completions) {
+        final QueryFailedException exception =
+                new QueryFailedException(request.createResponse(), request.error);
+        completions.add(() -> request.future.completeExceptionally(exception));
+    }
+
+    /**
+     * Gives up on queries that have not been answered in time. This is called
+     * as lines arrive, and periodically by the parser's ping timer.
+     */
+    public void checkTimeouts() {
+        final List<Runnable> completions = new ArrayList<>();
+        synchronized (this) {
+            lastTimeoutCheck = System.nanoTime();
+            expire(lastTimeoutCheck, completions);
+        }
+        completions.forEach(completionExecutor::execute);
+    }
+
+    /**
+     * Removes queries whose timeouts have elapsed.
+     *
+     * @param now The current time, from {@link System#nanoTime()}
+     * @param completions List to add completions to
+     */
+    private void expire(final long now, final List<Runnable> completions) {
+        final Iterator<Pending> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            final Pending request = iterator.next();
+            if (now - request.sent < request.query.getTimeout()) {
+                continue;
+            }
+            iterator.remove();
+            if (request.batch != null) {
+                batches.remove(request.batch);
+            }
+            if (request.error == null) {
+                final TimeoutException exception = new TimeoutException(
+                        "No reply to " + request.query.getLine());
+                completions.add(() -> request.future.completeExceptionally(exception));
+            }
+        }
+    }
+
+    /**
+     * Gets the number of queries waiting for replies.
+     *
+     * @return The number of pending queries
+     */
+    public synchronized int getPendingQueries() {
+        return pending.size();
+    }
+
+    /**
+     * Fails all pending queries. This is called when the parser disconnects.
+     */
+    public void reset() {
+        final List<Pending> failed;
+        synchronized (this) {
+            failed = new ArrayList<>(pending);
+            pending.clear();
+            batches.clear();
+        }
+        final IOException exception = new IOException("Disconnected");
+        for (Pending request : failed) {
+            completionExecutor.execute(() -> request.future.completeExceptionally(exception));
+        }
+    }
+
+    /**
+     * A query that is waiting for its reply.
+     */
+    private static class Pending {
+
+        /** The query that was sent. */
+        private final ServerQuery query;
+        /** The label sent with the query, or null. */
+        @Nullable
+        private final String label;
+        /** The future to complete with the reply. */
+        private final CompletableFuture<QueryResponse> future = new CompletableFuture<>();
+        /** The lines received so far. */
+        private final List<String[]> lines = new ArrayList<>();
+        /** Time the query was sent, from {@link System#nanoTime()}. */
+        private final long sent = System.nanoTime();
+        /** Reference of the labeled-response batch carrying the reply, or null. */
+        @Nullable
+        private String batch;
+        /** The error the server replied with, or null. */
+        @Nullable
+        private String[] error;
+
+        Pending(final ServerQuery query, @Nullable final String label) {
+            this.query = query;
+            this.label = label;
+        }
+
+        QueryResponse createResponse() {
+            return new QueryResponse(query, lines, label != null);
+        }
+
+    }
+
+}
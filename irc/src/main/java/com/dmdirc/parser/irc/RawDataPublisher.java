@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.CallbackManager;
+import com.dmdirc.parser.irc.IRCReader.ReadLine;
+import com.dmdirc.parser.irc.events.IRCDataChunkEvent;
+import com.dmdirc.parser.irc.events.IRCDataInEvent;
+import com.dmdirc.parser.irc.events.IRCDataOutEvent;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Publishes events for the raw lines sent to and received from the server.
+ *
+ * <p>Events are only built when something is subscribed to them. Per-line
+ * {@link IRCDataInEvent}s and {@link IRCDataOutEvent}s can be sampled, so that
+ * only one line in every so many is published. Traffic loggers can instead
+ * subscribe to {@link IRCDataChunkEvent}, which carries many lines at once.
+ */
+public class RawDataPublisher {
+
+    /** The number of lines in each chunk, by default. */
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    /** The parser whose lines we are publishing. */
+    private final IRCParser parser;
+    /** Publish one in this many per-line events, or none if zero. */
+    private volatile int sampleRate = 1;
+    /** The number of lines to collect before publishing a chunk. */
+    private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+    /** Received lines not published because of sampling. */
+    private int skippedIn;
+    /** Sent lines not published because of sampling. */
+    private int skippedOut;
+    /** Lines waiting to be published in a chunk. */
+    private List<IRCDataChunkEvent.Line> chunk = new ArrayList<>();
+
+    /**
+     * Creates a new publisher.
+     *
+     * @param parser The parser whose lines we are publishing
+     */
+    public RawDataPublisher(final IRCParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Gets the sample rate for per-line events.
+     *
+     * @return The number of lines per published event, or zero if none are published
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Sets the sample rate for per-line events. A rate of one, the default,
+     * publishes an event for every line; a rate of ten publishes an event
+     * for every tenth line in each direction. A rate of zero stops per-line
+     * events being published at all.
+     *
+     * @param sampleRate The number of lines per published event
+     */
+    public void setSampleRate(final int sampleRate) {
+        this.sampleRate = Math.max(0, sampleRate);
+    }
+
+    /**
+     * Gets the number of lines collected before a chunk is published.
+     *
+     * @return The chunk size
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the number of lines collected before a chunk is published.
+     *
+     * @param chunkSize The chunk size
+     */
+    public void setChunkSize(final int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Publishes events for a line received from the server.
+     *
+     * @param line The line that was received
+     */
+    public void lineIn(final ReadLine line) {
+        final CallbackManager manager = parser.getCallbackManager();
+        if (manager.hasHandlers(IRCDataInEvent.class) && sample(true)) {
+            manager.publish(new IRCDataInEvent(parser, LocalDateTime.now(), line));
+        }
+        if (manager.hasHandlers(IRCDataChunkEvent.class)) {
+            addToChunk(true, line.getLine());
+        }
+    }
+
+    /**
+     * Publishes events for a line about to be sent to the server.
+     *
+     * @param line The line being sent
+     */
+    public void lineOut(final String line) {
+        final CallbackManager manager = parser.getCallbackManager();
+        if (manager.hasHandlers(IRCDataOutEvent.class) && sample(false)) {
+            manager.publish(new IRCDataOutEvent(parser, LocalDateTime.now(), line));
+        }
+        if (manager.hasHandlers(IRCDataChunkEvent.class)) {
+            addToChunk(false, line);
+        }
+    }
+
+    /**
+     * Publishes any lines waiting to be sent in a chunk.
+     */
+    public void flush() {
+        final List<IRCDataChunkEvent.Line> lines;
+        synchronized (this) {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            lines = chunk;
+            chunk = new ArrayList<>();
+        }
+        parser.getCallbackManager().publish(
+                new IRCDataChunkEvent(parser, LocalDateTime.now(), lines));
+    }
+
+    /**
+     * Decides whether a per-line event should be published.
+     *
+     * @param incoming True if the line was received, false if it is being sent
+     * @return True to publish the event
+     */
+    private synchronized boolean sample(final boolean incoming) {
+        final int rate = sampleRate;
+        if (rate <= 1) {
+            return rate == 1;
+        }
+        if (incoming) {
+            skippedIn = (skippedIn + 1) % rate;
+            return skippedIn == 0;
+        } else {
+            skippedOut = (skippedOut + 1) % rate;
+            return skippedOut == 0;
+        }
+    }
+
+    /**
+     * Adds a line to the current chunk, publishing it if it is full.
+     *
+     * @param incoming True if the line was received, false if it is being sent
+     * @param data The line
+     */
+    private void addToChunk(final boolean incoming, final String data) {
+        final boolean full;
+        synchronized (this) {
+            chunk.add(new IRCDataChunkEvent.Line(incoming, System.currentTimeMillis(), data));
+            full = chunk.size() >= chunkSize;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+}
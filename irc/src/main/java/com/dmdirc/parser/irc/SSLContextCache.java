@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManager;
+
+/**
+ * Caches initialised {@link SSLContext}s, keyed on the trust and key managers
+ * they were created with.
+ *
+ * <p>Creating and seeding a context for every connection is expensive, and
+ * means every connection performs a full handshake. Contexts from this cache
+ * keep a client session cache, so reconnecting to the same server can resume
+ * the previous TLS session instead.
+ *
+ * <p>The cache also records how long handshakes take, and how many of them
+ * resumed an existing session. Managers are compared using
+ * {@link Object#equals(Object)}, and the cache holds strong references to
+ * them for as long as their context is cached.
+ */
+public class SSLContextCache {
+
+    /** The cache shared by parsers by default. */
+    private static final SSLContextCache DEFAULT = new SSLContextCache(16, 1024, 3600);
+
+    /** The protocol requested from {@link SSLContext#getInstance(String)}. */
+    private static final String PROTOCOL = "SSL";
+
+    /** Maximum number of contexts to keep. */
+    private final int maxContexts;
+    /** Number of client sessions each context should cache. */
+    private final int sessionCacheSize;
+    /** Time, in seconds, cached client sessions remain valid. */
+    private final int sessionTimeout;
+    /** Cached contexts, least recently used first. */
+    private final Map<Key, SSLContext> contexts;
+    /** Number of requests satisfied from the cache. */
+    private final LongAdder contextHits = new LongAdder();
+    /** Number of contexts created. */
+    private final LongAdder contextMisses = new LongAdder();
+    /** Number of handshakes recorded. */
+    private final LongAdder handshakes = new LongAdder();
+    /** Number of recorded handshakes that resumed a session. */
+    private final LongAdder resumedHandshakes = new LongAdder();
+    /** Total time spent in recorded handshakes, in nanoseconds. */
+    private final LongAdder handshakeNanos = new LongAdder();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxContexts The maximum number of contexts to keep
+     * @param sessionCacheSize The number of client sessions each context should cache
+     * @param sessionTimeout The time, in seconds, cached sessions remain valid
+     */
+    public SSLContextCache(final int maxContexts, final int sessionCacheSize,
+            final int sessionTimeout) {
+        this.maxContexts = maxContexts;
+        this.sessionCacheSize = sessionCacheSize;
+        this.sessionTimeout = sessionTimeout;
+        this.contexts = new LinkedHashMap<Key, SSLContext>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, SSLContext> eldest) {
+                return size() > SSLContextCache.this.maxContexts;
+            }
+        };
+    }
+
+    /**
+     * Gets the cache shared by parsers by default.
+     *
+     * @return The default cache
+     */
+    public static SSLContextCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Gets a context initialised with the given managers, creating one if
+     * there is no matching context in the cache.
+     *
+     * @param keyManagers The key managers to use, or null for the default
+     * @param trustManagers The trust managers to use, or null for the default
+     * @return An initialised context
+     * @throws NoSuchAlgorithmException if SSL is not available
+     * @throws KeyManagementException if the managers are invalid
+     */
+    public SSLContext getContext(final KeyManager[] keyManagers,
+            final TrustManager[] trustManagers)
+            throws NoSuchAlgorithmException, KeyManagementException {
+        final Key key = new Key(keyManagers, trustManagers);
+        synchronized (contexts) {
+            final SSLContext cached = contexts.get(key);
+            if (cached != null) {
+                contextHits.increment();
+                return cached;
+            }
+        }
+
+        final SSLContext context = SSLContext.getInstance(PROTOCOL);
+        context.init(keyManagers, trustManagers, new SecureRandom());
+        context.getClientSessionContext().setSessionCacheSize(sessionCacheSize);
+        context.getClientSessionContext().setSessionTimeout(sessionTimeout);
+        contextMisses.increment();
+
+        synchronized (contexts) {
+            final SSLContext existing = contexts.putIfAbsent(key, context);
+            return existing == null ? context : existing;
+        }
+    }
+
+    /**
+     * Records the outcome of a handshake.
+     *
+     * @param session The session negotiated by the handshake
+     * @param started The value of {@link System#nanoTime()} when the handshake started
+     * @return True if the handshake resumed an earlier session
+     */
+    public boolean recordHandshake(final SSLSession session, final long started) {
+        final long elapsed = System.nanoTime() - started;
+        // A resumed session keeps the creation time of the original handshake.
+        final boolean resumed = session.getCreationTime()
+                < System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(elapsed);
+        handshakes.increment();
+        handshakeNanos.add(elapsed);
+        if (resumed) {
+            resumedHandshakes.increment();
+        }
+        return resumed;
+    }
+
+    /**
+     * Gets the number of contexts currently cached.
+     *
+     * @return The number of cached contexts
+     */
+    public int getContextCount() {
+        synchronized (contexts) {
+            return contexts.size();
+        }
+    }
+
+    /**
+     * Gets the number of context requests satisfied from the cache.
+     *
+     * @return The number of cache hits
+     */
+    public long getContextHits() {
+        return contextHits.sum();
+    }
+
+    /**
+     * Gets the number of contexts that have been created.
+     *
+     * @return The number of cache misses
+     */
+    public long getContextMisses() {
+        return contextMisses.sum();
+    }
+
+    /**
+     * Gets the number of handshakes that have been recorded.
+     *
+     * @return The number of handshakes
+     */
+    public long getHandshakeCount() {
+        return handshakes.sum();
+    }
+
+    /**
+     * Gets the number of recorded handshakes that resumed a session.
+     *
+     * @return The number of resumed handshakes
+     */
+    public long getResumedHandshakeCount() {
+        return resumedHandshakes.sum();
+    }
+
+    /**
+     * Gets the proportion of recorded handshakes that resumed a session.
+     *
+     * @return The resumption hit rate, between 0 and 1
+     */
+    public double getResumptionRate() {
+        final long total = handshakes.sum();
+        return total == 0 ? 0 : (double) resumedHandshakes.sum() / total;
+    }
+
+    /**
+     * Gets the mean duration of recorded handshakes.
+     *
+     * @param unit The unit to return the duration in
+     * @return The mean handshake time, or 0 if none have been recorded
+     */
+    public long getMeanHandshakeTime(final TimeUnit unit) {
+        final long total = handshakes.sum();
+        return total == 0 ? 0 : unit.convert(handshakeNanos.sum() / total, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Key identifying the managers a context was initialised with.
+     */
+    private static final class Key {
+
+        /** The key managers, or null for the default. */
+        private final List<KeyManager> keyManagers;
+        /** The trust managers, or null for the default. */
+        private final List<TrustManager> trustManagers;
+
+        Key(final KeyManager[] keyManagers, final TrustManager[] trustManagers) {
+            this.keyManagers = keyManagers == null ? null : Arrays.asList(keyManagers.clone());
+            this.trustManagers = trustManagers == null ? null
+                    : Arrays.asList(trustManagers.clone());
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return Objects.equals(keyManagers, other.keyManagers)
+                    && Objects.equals(trustManagers, other.trustManagers);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(keyManagers, trustManagers);
+        }
+
+    }
+
+}
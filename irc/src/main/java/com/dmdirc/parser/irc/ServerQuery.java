@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Describes a query sent to the server, and how to recognise its replies.
+ *
+ * <p>When the server supports IRCv3 labeled responses, replies are matched by
+ * their label. Otherwise they are matched by their numeric, by the target of
+ * the query where the numeric includes it, and by the order queries were
+ * sent in. Instances are immutable.
+ *
+ * @see IRCParser#sendQuery(ServerQuery)
+ */
+public final class ServerQuery {
+
+    /** Default time to wait for a query to be answered. */
+    public static final long DEFAULT_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    /** Numerics sent in reply to a WHOIS. */
+    private static final Set<String> WHOIS_REPLIES = set("276", "301", "307", "310", "311",
+            "312", "313", "317", "319", "320", "330", "338", "378", "379", "671");
+    /** Numerics that report a WHOIS failed. */
+    private static final Set<String> WHOIS_ERRORS = set("401", "402", "431");
+    /** Numerics that report a channel query failed. */
+    private static final Set<String> CHANNEL_ERRORS = set("401", "403", "442", "477", "482");
+    /** Characters that begin a channel name on servers that don't say otherwise. */
+    private static final String CHANNEL_PREFIXES = "#&!+";
+
+    /** The line to send. */
+    private final String line;
+    /** The target of the query, or null if the replies don't name one. */
+    @Nullable
+    private final String target;
+    /** Numerics or commands that form part of the reply. */
+    private final Set<String> replies;
+    /** Numerics or commands that end the reply. */
+    private final Set<String> ends;
+    /** Numerics or commands that report the query failed. */
+    private final Set<String> errors;
+    /** Numerics whose first parameter must match the target. */
+    private final Set<String> targeted;
+    /** Whether the server still sends an end numeric after an error. */
+    private final boolean endsAfterError;
+    /** Time, in nanoseconds, to wait for the reply. */
+    private final long timeout;
+
+    private ServerQuery(final String line, @Nullable final String target,
+            final Set<String> replies, final Set<String> ends, final Set<String> errors,
+            final Set<String> targeted, final boolean endsAfterError, final long timeout) {
+        this.line = line;
+        this.target = target;
+        this.replies = replies;
+        this.ends = ends;
+        this.errors = errors;
+        this.targeted = targeted;
+        this.endsAfterError = endsAfterError;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Creates a custom query. The target (if any) is checked against the
+     * first parameter of every reply, end and error numeric.
+     *
+     * @param line The line to send
+     * @param target The target named in the replies, or null
+     * @param replies The numerics or commands that form part of the reply
+     * @param ends The numerics or commands that end the reply
+     * @param errors The numerics or commands that report the query failed
+     * @return A new query
+     */
+    public static ServerQuery of(final String line, @Nullable final String target,
+            final Set<String> replies, final Set<String> ends, final Set<String> errors) {
+        final Set<String> targeted = new HashSet<>(replies);
+        targeted.addAll(ends);
+        targeted.addAll(errors);
+        return new ServerQuery(line, target, copy(replies), copy(ends), copy(errors),
+                target == null ? Collections.emptySet() : copy(targeted), false, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates a WHOIS query.
+     *
+     * @param nickname The nickname to query
+     * @return A new query
+     */
+    public static ServerQuery whois(final String nickname) {
+        final Set<String> targeted = new HashSet<>(WHOIS_REPLIES);
+        targeted.add("318");
+        targeted.addAll(WHOIS_ERRORS);
+        return new ServerQuery("WHOIS " + nickname, nickname, WHOIS_REPLIES, set("318"),
+                WHOIS_ERRORS, copy(targeted), true, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates a WHO query. Replies to a channel name the channel, so they are
+     * matched by target; for other masks only the end of the reply names the
+     * mask, and unlabeled replies are matched by order. WHOX replies carrying
+     * the parser's own sync tokens are never matched.
+     *
+     * @param mask The channel, nickname or mask to query
+     * @return A new query
+     */
+    public static ServerQuery who(final String mask) {
+        final boolean channel = !mask.isEmpty() && CHANNEL_PREFIXES.indexOf(mask.charAt(0)) != -1;
+        return new ServerQuery("WHO " + mask, mask, set("352", "354"), set("315"),
+                set("402", "403"), channel ? set("315", "352") : set("315"), false,
+                DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates a query for the modes of a channel.
+     *
+     * @param channel The channel to query
+     * @return A new query
+     */
+    public static ServerQuery channelModes(final String channel) {
+        return new ServerQuery("MODE " + channel, channel, Collections.emptySet(), set("324"),
+                CHANNEL_ERRORS, set("324", "403", "442", "477", "482"), false, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates a query for the server's channel list.
+     *
+     * @param parameters Parameters for the LIST command, or "" for none
+     * @return A new query
+     */
+    public static ServerQuery list(final String parameters) {
+        return new ServerQuery(parameters.isEmpty() ? "LIST" : "LIST " + parameters, null,
+                set("321", "322"), set("323"), set("263", "481"), Collections.emptySet(), false,
+                DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates a copy of this query with a different timeout.
+     *
+     * @param newTimeout The time to wait for the reply
+     * @param unit The unit of the timeout
+     * @return A new query
+     */
+    public ServerQuery withTimeout(final long newTimeout, final TimeUnit unit) {
+        return new ServerQuery(line, target, replies, ends, errors, targeted, endsAfterError,
+                unit.toNanos(newTimeout));
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    @Nullable
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * Gets the time to wait for the reply.
+     *
+     * @return The timeout, in nanoseconds
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Determines whether the server still sends the end of the reply after
+     * reporting an error.
+     *
+     * @return True if an end follows errors
+     */
+    public boolean endsAfterError() {
+        return endsAfterError;
+    }
+
+    /**
+     * Determines whether a line is part of the reply to this query.
+     *
+     * @param command The line's numeric or command
+     * @return True if the line is a reply, end or error
+     */
+    public boolean accepts(final String command) {
+        return replies.contains(command) || ends.contains(command) || errors.contains(command);
+    }
+
+    /**
+     * Determines whether a line ends the reply to this query.
+     *
+     * @param command The line's numeric or command
+     * @return True if the line ends the reply
+     */
+    public boolean isEnd(final String command) {
+        return ends.contains(command);
+    }
+
+    /**
+     * Determines whether a line reports that this query failed.
+     *
+     * @param command The line's numeric or command
+     * @return True if the line is an error
+     */
+    public boolean isError(final String command) {
+        return errors.contains(command);
+    }
+
+    /**
+     * Determines whether an unlabeled line could be a reply to this query,
+     * checking its target where the line includes one.
+     *
+     * @param command The line's numeric or command
+     * @param lineTarget The first parameter of the line, or null if it has none
+     * @param converter The converter to compare targets with
+     * @return True if the line matches this query
+     */
+    public boolean matches(final String command, @Nullable final String lineTarget,
+            final IRCStringConverter converter) {
+        if (!accepts(command)) {
+            return false;
+        }
+        return target == null || !targeted.contains(command)
+                || lineTarget != null && converter.equalsIgnoreCase(target, lineTarget);
+    }
+
+    @Override
+    public String toString() {
+        return "ServerQuery{" + line + '}';
+    }
+
+    private static Set<String> set(final String... values) {
+        return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(values)));
+    }
+
+    private static Set<String> copy(final Set<String> values) {
+        return Collections.unmodifiableSet(new HashSet<>(values));
+    }
+
+}
@@ -29,6 +29,9 @@ import javax.net.ssl.X509TrustManager;
 
 /**
  * Implements a {@link TrustManager} that trusts all certificates.
+ *
+ * <p>All instances are equal, so parsers using their own instance can still
+ * share an SSL context via {@link SSLContextCache}.
  */
 public class TrustingTrustManager implements X509TrustManager {
 
@@ -44,4 +47,14 @@ public class TrustingTrustManager implements X509TrustManager {
     @Override
     public void checkServerTrusted(final X509Certificate[] certs, final String authType) {
     }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return obj instanceof TrustingTrustManager;
+    }
+
+    @Override
+    public int hashCode() {
+        return TrustingTrustManager.class.hashCode();
+    }
 }
@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Refreshes the ident, host, account, away state and real name of whole
+ * channels or lists of users with WHO.
+ *
+ * <p>Where the server supports WHOX, queries ask for only the fields we use,
+ * and carry a token so that their replies can be told apart from WHOs sent
+ * by the user. Lists of nicknames are combined into as few queries as the
+ * server's TARGMAX limit for WHO allows. Servers without WHOX are sent plain
+ * WHO queries instead, one nickname at a time.
+ *
+ * <p>Replies are collected until the server has finished answering every
+ * query for a sync, then applied to the known clients together and reported
+ * with a {@link com.dmdirc.parser.irc.events.UserSyncEvent}. Queries are
+ * paced by the parser's {@link JoinScheduler}.
+ *
+ * <p>Every WHO sent is tracked, as servers answer them in order, so that the
+ * end of a WHO sent by the user is never mistaken for the end of a sync
+ * query for the same mask.
+ */
+public class WhoSync {
+
+    /**
+     * WHOX fields requested: query token, ident, host, nickname, flags,
+     * account and real name. Replies always use this order.
+     */
+    public static final String WHOX_FIELDS = "tuhnfar";
+    /** The largest token WHOX allows. */
+    private static final int MAX_TOKEN = 999;
+
+    /** The parser we are syncing users for. */
+    private final IRCParser parser;
+    /** Syncs waiting for replies, in the order they were requested. */
+    private final List<Sync> syncs = new LinkedList<>();
+    /**
+     * WHO queries sent for each mask that have not been answered, oldest
+     * first. Each entry is the sync the query belongs to, or null if it was
+     * not sent for a sync.
+     */
+    private final Map<String, LinkedList<Sync>> outstanding = new HashMap<>();
+    /** The last token that was used. */
+    private int lastToken;
+
+    /**
+     * Creates a new sync helper.
+     *
+     * @param parser The parser to send queries with
+     */
+    public WhoSync(final IRCParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Refreshes every user in a channel.
+     *
+     * @param channel The name of the channel
+     */
+    public void syncChannel(final String channel) {
+        send(Collections.singletonList(channel));
+    }
+
+    /**
+     * Refreshes the given users.
+     *
+     * @param nicknames The nicknames of the users
+     */
+    public void syncNicknames(final Collection<String> nicknames) {
+        if (nicknames.isEmpty()) {
+            return;
+        }
+
+        final boolean whox = isWhoxSupported();
+        final int maxTargets = whox
+                ? JoinScheduler.getMaxTargets(parser.get005(), "WHO") : 1;
+        // Leave room for "WHO ", " %fields,token" and the CRLF.
+        final int maxLength = IRCParser.MAX_LINELENGTH - 4 - WHOX_FIELDS.length() - 8;
+        final List<String> masks = new ArrayList<>();
+        final StringBuilder mask = new StringBuilder();
+        int targets = 0;
+        for (String nickname : new HashSet<>(nicknames)) {
+            if (targets > 0 && (targets >= maxTargets
+                    || mask.length() + nickname.length() + 1 > maxLength)) {
+                masks.add(mask.toString());
+                mask.setLength(0);
+                targets = 0;
+            }
+            if (targets > 0) {
+                mask.append(',');
+            }
+            mask.append(nickname);
+            targets++;
+        }
+        masks.add(mask.toString());
+        send(masks);
+    }
+
+    /**
+     * Registers a sync for the given masks and queues its queries.
+     *
+     * @param masks The masks to send a WHO for
+     */
+    private void send(final List<String> masks) {
+        final boolean whox = isWhoxSupported();
+        final Sync sync;
+        synchronized (this) {
+            sync = new Sync(whox ? nextToken() : null, masks);
+            syncs.add(sync);
+        }
+
+        for (String mask : masks) {
+            if (whox) {
+                parser.getJoinScheduler().queueQuery("WHO " + mask + " %" + WHOX_FIELDS + ','
+                        + sync.token);
+            } else {
+                parser.getJoinScheduler().queueQuery("WHO " + mask);
+            }
+        }
+    }
+
+    /**
+     * Picks the token for a new sync, avoiding those still in use.
+     *
+     * @return A token of up to three digits
+     */
+    private String nextToken() {
+        for (int i = 0; i < MAX_TOKEN; i++) {
+            lastToken = lastToken % MAX_TOKEN + 1;
+            final String token = String.valueOf(lastToken);
+            if (syncs.stream().noneMatch(sync -> token.equals(sync.token))) {
+                return token;
+            }
+        }
+        // Every token is in use; share one rather than fail.
+        return String.valueOf(lastToken);
+    }
+
+    /**
+     * Determines whether the server supports WHOX.
+     *
+     * @return True if WHOX queries can be used
+     */
+    public boolean isWhoxSupported() {
+        return parser.h005Info.containsKey("WHOX");
+    }
+
+    /**
+     * Records a WHO query that is about to be sent. This is called by the
+     * parser with every WHO line it sends.
+     *
+     * @param line The tokenised WHO line
+     */
+    public synchronized void handleOutgoingWho(final String... line) {
+        if (line.length < 2) {
+            return;
+        }
+        final String key = toKey(line[1]);
+        final String token = line.length > 2 && line[2].startsWith("%")
+                && line[2].indexOf(',') != -1 ? line[2].substring(line[2].indexOf(',') + 1) : null;
+        Sync owner = null;
+        for (Sync sync : syncs) {
+            if (Objects.equals(token, sync.token) && sync.unsent.remove(key)) {
+                owner = sync;
+                break;
+            }
+        }
+        outstanding.computeIfAbsent(key, k -> new LinkedList<>()).add(owner);
+    }
+
+    /**
+     * Collects a WHOX reply for the sync with the given token.
+     *
+     * @param token The query token of the reply
+     * @param reply The parsed reply
+     * @return True if the reply belongs to a sync, false if it should be
+     * handled normally
+     */
+    public synchronized boolean addReply(final String token, final Reply reply) {
+        for (Sync sync : syncs) {
+            if (token.equals(sync.token)) {
+                sync.replies.add(reply);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects a classic WHO reply, if it answers a sync that could not use
+     * WHOX.
+     *
+     * @param channel The channel given in the reply
+     * @param reply The parsed reply
+     * @return True if the reply belongs to a sync, false if it should be
+     * handled normally
+     */
+    public synchronized boolean addReply(final Reply reply, final String channel) {
+        LinkedList<Sync> queries = outstanding.get(toKey(channel));
+        if (queries == null) {
+            queries = outstanding.get(toKey(reply.getNickname()));
+        }
+        // Replies are for the oldest query that hasn't finished.
+        final Sync sync = queries == null ? null : queries.peek();
+        if (sync != null && sync.token == null) {
+            sync.replies.add(reply);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a WHOX query token belongs to a pending sync.
+     *
+     * @param token The query token of a reply
+     * @return True if a pending sync uses the token
+     */
+    public synchronized boolean isSyncToken(final String token) {
+        return syncs.stream().anyMatch(sync -> token.equals(sync.token));
+    }
+
+    /**
+     * Handles the end of a WHO reply.
+     *
+     * @param mask The mask the server has finished replying to
+     * @return The completed sync's replies, or null if the sync is still
+     * waiting for other queries or the mask does not belong to one
+     */
+    public synchronized Sync handleEnd(final String mask) {
+        final String key = toKey(mask);
+        final LinkedList<Sync> queries = outstanding.get(key);
+        if (queries == null) {
+            return null;
+        }
+        final Sync sync = queries.poll();
+        if (queries.isEmpty()) {
+            outstanding.remove(key);
+        }
+        if (sync == null || !sync.pending.remove(key) || !sync.pending.isEmpty()) {
+            return null;
+        }
+        syncs.remove(sync);
+        return sync;
+    }
+
+    /**
+     * Gets the number of syncs still waiting for replies.
+     *
+     * @return The number of pending syncs
+     */
+    public synchronized int getPendingSyncs() {
+        return syncs.size();
+    }
+
+    /**
+     * Discards all pending syncs. This is called when the parser disconnects.
+     */
+    public synchronized void reset() {
+        syncs.clear();
+        outstanding.clear();
+    }
+
+    /**
+     * Converts a mask into the form used to match replies to syncs.
+     *
+     * @param mask The mask to convert
+     * @return The lower-cased mask
+     */
+    private String toKey(final String mask) {
+        return parser.getStringConverter().toLowerCase(mask);
+    }
+
+    /**
+     * A set of WHO queries whose replies are applied together.
+     */
+    public final class Sync {
+
+        /** The WHOX token used by the queries, or null if WHOX isn't used. */
+        private final String token;
+        /** The masks that were asked about. */
+        private final List<String> masks;
+        /** The masks the server has not finished replying to. */
+        private final Set<String> pending = new HashSet<>();
+        /** The masks whose queries have not been sent yet. */
+        private final Set<String> unsent = new HashSet<>();
+        /** The replies received so far. */
+        private final List<Reply> replies = new ArrayList<>();
+
+        private Sync(final String token, final List<String> masks) {
+            this.token = token;
+            this.masks = Collections.unmodifiableList(new ArrayList<>(masks));
+            for (String mask : masks) {
+                pending.add(toKey(mask));
+                unsent.add(toKey(mask));
+            }
+        }
+
+        /**
+         * Gets the masks that were asked about.
+         *
+         * @return The masks of each query
+         */
+        public List<String> getMasks() {
+            return masks;
+        }
+
+        /**
+         * Gets the replies received for this sync.
+         *
+         * @return The replies, in the order they were received
+         */
+        public List<Reply> getReplies() {
+            return Collections.unmodifiableList(replies);
+        }
+
+    }
+
+    /**
+     * The details of one user from a WHO or WHOX reply.
+     */
+    public static final class Reply {
+
+        /** The user's nickname. */
+        private final String nickname;
+        /** The user's ident. */
+        private final String ident;
+        /** The user's host. */
+        private final String host;
+        /** The user's WHO flags, e.g. {@code G@}. */
+        private final String flags;
+        /** The user's account, "" if not logged in, or null if not known. */
+        private final String account;
+        /** The user's real name. */
+        private final String realname;
+
+        /**
+         * Creates a new reply.
+         *
+         * @param nickname The user's nickname
+         * @param ident The user's ident
+         * @param host The user's host
+         * @param flags The user's WHO flags
+         * @param account The user's account, "" if they are not logged in,
+         * or null if the reply doesn't say
+         * @param realname The user's real name
+         */
+        public Reply(final String nickname, final String ident, final String host,
+                final String flags, final String account, final String realname) {
+            this.nickname = nickname;
+            this.ident = ident;
+            this.host = host;
+            this.flags = flags;
+            this.account = account;
+            this.realname = realname;
+        }
+
+        public String getNickname() {
+            return nickname;
+        }
+
+        public String getIdent() {
+            return ident;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public String getFlags() {
+            return flags;
+        }
+
+        public String getAccount() {
+            return account;
+        }
+
+        public String getRealname() {
+            return realname;
+        }
+
+        /**
+         * Determines whether the user is marked as away.
+         *
+         * @return True if the flags include {@code G}
+         */
+        public boolean isAway() {
+            return flags.indexOf('G') != -1;
+        }
+
+    }
+
+}
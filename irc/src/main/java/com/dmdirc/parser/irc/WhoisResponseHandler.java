@@ -31,22 +31,26 @@ import com.dmdirc.parser.interfaces.Parser;
 import java.time.LocalDateTime;
 import java.util.EnumMap;
 import java.util.Map;
-
-import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.engio.mbassy.listener.Handler;
 
 /**
  * Monitors for whois responses and raises a {@link UserInfoEvent} with the results.
+ *
+ * <p>Replies are collected separately for each nickname, so several WHOIS
+ * queries can be outstanding at once.
  */
 public class WhoisResponseHandler {
 
     private final Parser parser;
     private final CallbackManager manager;
 
-    private final Map<UserInfoType, String> info = new EnumMap<>(UserInfoType.class);
-
-    @Nullable private String client;
+    /**
+     * The replies received so far, keyed on lower-cased nickname. This is
+     * cleared from whichever thread starts or stops the handler.
+     */
+    private final Map<String, Map<UserInfoType, String>> replies = new ConcurrentHashMap<>();
 
     public WhoisResponseHandler(final Parser parser, final CallbackManager manager) {
         this.parser = parser;
@@ -54,17 +58,20 @@ public class WhoisResponseHandler {
     }
 
     public void start() {
+        replies.clear();
         manager.subscribe(this);
     }
 
     public void stop() {
         manager.unsubscribe(this);
+        // Discard any WHOIS that was never finished, e.g. if we disconnected part way through.
+        replies.clear();
     }
 
     @Handler(condition = "msg.numeric == 311")
     void handleStartOfWhois(final NumericEvent event) {
-        client = event.getToken()[3];
-        info.clear();
+        final Map<UserInfoType, String> info = new EnumMap<>(UserInfoType.class);
+        replies.put(getKey(event), info);
 
         // :server 311 DMDirc User ~Ident host.dmdirc.com * :Real name
         info.put(UserInfoType.ADDRESS,
@@ -74,67 +81,79 @@ public class WhoisResponseHandler {
 
     @Handler(condition = "msg.numeric == 318")
     void handleEndOfWhois(final NumericEvent event) {
-        if (client != null) {
-            sendEvent();
-            client = null;
+        final Map<UserInfoType, String> info = replies.remove(getKey(event));
+        if (info != null) {
+            manager.publish(new UserInfoEvent(parser, LocalDateTime.now(),
+                    parser.getClient(event.getToken()[3]), info));
         }
     }
 
     @Handler(condition = "msg.numeric == 301")
     void handleAwayMessage(final NumericEvent event) {
         // :server 301 DMDirc User :away message
-        info.put(UserInfoType.AWAY_MESSAGE, event.getToken()[4]);
+        put(event, UserInfoType.AWAY_MESSAGE, event.getToken()[4]);
     }
 
     @Handler(condition = "msg.numeric == 312")
     void handleServerInfo(final NumericEvent event) {
         // :server 312 DMDirc User *.quakenet.org :QuakeNet IRC Server
-        info.put(UserInfoType.SERVER_NAME, event.getToken()[4]);
-        info.put(UserInfoType.SERVER_INFO, event.getToken()[5]);
+        put(event, UserInfoType.SERVER_NAME, event.getToken()[4]);
+        put(event, UserInfoType.SERVER_INFO, event.getToken()[5]);
     }
 
     @Handler(condition = "msg.numeric == 313")
     void handleUserPrivileges(final NumericEvent event) {
         // :server 313 DMDirc User :is an IRC Operator
-        info.put(UserInfoType.SERVER_OPER, event.getToken()[4]);
+        put(event, UserInfoType.SERVER_OPER, event.getToken()[4]);
     }
 
     @Handler(condition = "msg.numeric == 378")
     void handleConnectingFrom(final NumericEvent event) {
         // :server 378 DMDirc User :is connecting from *@hostname.tld xx.xx.xx.xx
-        if (client.equalsIgnoreCase(event.getToken()[3])) {
-            info.put(UserInfoType.REAL_ADDRESS, event.getToken()[4]);
-        }
+        put(event, UserInfoType.REAL_ADDRESS, event.getToken()[4]);
     }
 
     @Handler(condition = "msg.numeric == 671")
     void handleSecureConnection(final NumericEvent event) {
         // :server 671 DMDirc User :is using a secure connection
-        info.put(UserInfoType.CONNECTION_SECURITY, event.getToken()[4]);
+        put(event, UserInfoType.CONNECTION_SECURITY, event.getToken()[4]);
     }
 
     @Handler(condition = "msg.numeric == 319")
     void handleChannelList(final NumericEvent event) {
         // :server 319 DMDirc User :@#channel1 +#channel2 ...
-        info.put(UserInfoType.GROUP_CHAT_LIST, event.getToken()[4]);
+        put(event, UserInfoType.GROUP_CHAT_LIST, event.getToken()[4]);
     }
 
     @Handler(condition = "msg.numeric == 317")
     void handleIdleTime(final NumericEvent event) {
         // :server 317 DMDirc User 305 1422561556 :seconds idle, signon time
-        info.put(UserInfoType.IDLE_TIME, event.getToken()[4]);
-        info.put(UserInfoType.CONNECTION_TIME, event.getToken()[5]);
+        put(event, UserInfoType.IDLE_TIME, event.getToken()[4]);
+        put(event, UserInfoType.CONNECTION_TIME, event.getToken()[5]);
     }
 
     @Handler(condition = "msg.numeric == 330")
     void handleAccount(final NumericEvent event) {
         // :server 330 DMDirc User Account :is authed as
-        info.put(UserInfoType.ACCOUNT_NAME, event.getToken()[4]);
+        put(event, UserInfoType.ACCOUNT_NAME, event.getToken()[4]);
+    }
+
+    /**
+     * Records a piece of information about the user a reply is for.
+     *
+     * @param event The reply
+     * @param type The type of information
+     * @param value The information
+     */
+    private void put(final NumericEvent event, final UserInfoType type, final String value) {
+        final Map<UserInfoType, String> info = replies.get(getKey(event));
+        if (info != null) {
+            info.put(type, value);
+        }
     }
 
-    private void sendEvent() {
-        manager.publish(new UserInfoEvent(parser, LocalDateTime.now(),
-                parser.getClient(client), info));
+    private String getKey(final NumericEvent event) {
+        return parser.getStringConverter().toLowerCase(event.getToken()[3]);
     }
 
 }
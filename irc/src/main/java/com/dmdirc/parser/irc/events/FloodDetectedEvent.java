@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.parser.irc.events;
+
+import com.dmdirc.parser.events.ParserEvent;
+import com.dmdirc.parser.interfaces.Parser;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Called with a summary of the messages dropped by the parser's
+ * {@link com.dmdirc.parser.irc.FloodShield}. One event is published after
+ * each flood has died down, and periodically while a long flood continues.
+ */
+public class FloodDetectedEvent extends ParserEvent {
+
+    private final LocalDateTime started;
+    private final int dropped;
+    private final Map<String, Integer> sources;
+    private final Map<String, Integer> targets;
+    private final boolean ongoing;
+
+    public FloodDetectedEvent(final Parser parser, final LocalDateTime date,
+            final LocalDateTime started, final int dropped, final Map<String, Integer> sources,
+            final Map<String, Integer> targets, final boolean ongoing) {
+        super(parser, date);
+        this.started = started;
+        this.dropped = dropped;
+        this.sources = Collections.unmodifiableMap(sources);
+        this.targets = Collections.unmodifiableMap(targets);
+        this.ongoing = ongoing;
+    }
+
+    /**
+     * Gets the time the first message covered by this summary was dropped.
+     *
+     * @return The time dropping started
+     */
+    public LocalDateTime getStarted() {
+        return started;
+    }
+
+    /**
+     * Gets the total number of messages that were dropped.
+     *
+     * @return The number of dropped messages
+     */
+    public int getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Gets the number of messages dropped from each source host. Only a
+     * limited number of sources are listed.
+     *
+     * @return Map of hosts to the number of messages dropped from them
+     */
+    public Map<String, Integer> getSources() {
+        return sources;
+    }
+
+    /**
+     * Gets the number of messages dropped for each target. Only a limited
+     * number of targets are listed.
+     *
+     * @return Map of lower-cased targets to the number of messages dropped for them
+     */
+    public Map<String, Integer> getTargets() {
+        return targets;
+    }
+
+    /**
+     * Checks whether messages were still being dropped when this summary was
+     * published. If so, another summary will follow.
+     *
+     * @return True if the flood is still ongoing
+     */
+    public boolean isOngoing() {
+        return ongoing;
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.parser.irc.events;
+
+import com.dmdirc.parser.events.ParserEvent;
+import com.dmdirc.parser.interfaces.Parser;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Called with a chunk of raw lines sent to and received from the server, in
+ * the order they were handled. This is intended for traffic loggers, which
+ * would otherwise need an {@link IRCDataInEvent} and {@link IRCDataOutEvent}
+ * for every line. Chunks are published once enough lines have built up, and
+ * periodically while the parser is connected.
+ */
+public class IRCDataChunkEvent extends ParserEvent {
+
+    private final List<Line> lines;
+
+    public IRCDataChunkEvent(final Parser parser, final LocalDateTime date,
+            final List<Line> lines) {
+        super(parser, date);
+        this.lines = Collections.unmodifiableList(lines);
+    }
+
+    /**
+     * Gets the lines in this chunk.
+     *
+     * @return The lines, oldest first
+     */
+    public List<Line> getLines() {
+        return lines;
+    }
+
+    /** A raw line sent or received. */
+    public static class Line {
+
+        private final boolean incoming;
+        private final long time;
+        private final String data;
+
+        public Line(final boolean incoming, final long time, final String data) {
+            this.incoming = incoming;
+            this.time = time;
+            this.data = data;
+        }
+
+        /**
+         * Checks whether this line was received from the server.
+         *
+         * @return True if the line was received, false if it was sent
+         */
+        public boolean isIncoming() {
+            return incoming;
+        }
+
+        /**
+         * Gets the time the line was handled.
+         *
+         * @return The time, in milliseconds since the epoch
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Gets the contents of the line.
+         *
+         * @return The raw line
+         */
+        public String getData() {
+            return data;
+        }
+
+    }
+
+}
@@ -32,6 +32,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Called on every incoming line BEFORE parsing.
+ * Only every so many lines are published if the parser's
+ * {@link com.dmdirc.parser.irc.RawDataPublisher} is sampling.
  *
  * This extends the standard DataInEvent to provide access to IRC-Specific bits.
  */
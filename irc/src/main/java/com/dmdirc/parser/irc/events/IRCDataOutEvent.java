@@ -32,6 +32,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Called on every outgoing line BEFORE being sent.
+ * Only every so many lines are published if the parser's
+ * {@link com.dmdirc.parser.irc.RawDataPublisher} is sampling.
  *
  * This extends the standard DataOutEvent to also pre-tokenise the data.
  */
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.events;
+
+import com.dmdirc.parser.events.ParserEvent;
+import com.dmdirc.parser.interfaces.Parser;
+
+import java.time.LocalDateTime;
+
+/**
+ * Called as channels requested through the parser's join scheduler are
+ * joined, and as the queries that follow the joins are processed.
+ */
+public class JoinProgressEvent extends ParserEvent {
+
+    private final int requested;
+    private final int joined;
+    private final int failed;
+    private final int pendingQueries;
+
+    public JoinProgressEvent(final Parser parser, final LocalDateTime date, final int requested,
+            final int joined, final int failed, final int pendingQueries) {
+        super(parser, date);
+        this.requested = requested;
+        this.joined = joined;
+        this.failed = failed;
+        this.pendingQueries = pendingQueries;
+    }
+
+    /**
+     * Gets the number of channels requested since the scheduler was last idle.
+     *
+     * @return The number of channels requested
+     */
+    public int getRequested() {
+        return requested;
+    }
+
+    /**
+     * Gets the number of requested channels that have been joined.
+     *
+     * @return The number of channels joined
+     */
+    public int getJoined() {
+        return joined;
+    }
+
+    /**
+     * Gets the number of requested channels that could not be joined,
+     * including those not sent because of the server's channel limit.
+     *
+     * @return The number of channels that failed
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    /**
+     * Gets the number of follow-up queries still waiting to be sent, or
+     * waiting for the server to process them.
+     *
+     * @return The number of pending queries
+     */
+    public int getPendingQueries() {
+        return pendingQueries;
+    }
+
+    /**
+     * Determines whether every requested channel has been joined or has failed.
+     *
+     * @return True if no joins are outstanding
+     */
+    public boolean isJoinComplete() {
+        return joined + failed >= requested;
+    }
+
+}
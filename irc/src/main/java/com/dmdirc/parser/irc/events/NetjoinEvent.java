@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.parser.irc.events;
+
+import com.dmdirc.parser.events.ParserEvent;
+import com.dmdirc.parser.interfaces.ChannelClientInfo;
+import com.dmdirc.parser.interfaces.ChannelInfo;
+import com.dmdirc.parser.interfaces.ClientInfo;
+import com.dmdirc.parser.interfaces.Parser;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Called when a netjoin batch has ended, after every user who joined in it has
+ * been added to the parser's channels and client list. This replaces the
+ * individual channel join events for those users.
+ */
+public class NetjoinEvent extends ParserEvent {
+
+    private final String server;
+    private final String otherServer;
+    private final Collection<ClientInfo> clients;
+    private final Map<ChannelInfo, Collection<ChannelClientInfo>> members;
+
+    public NetjoinEvent(final Parser parser, final LocalDateTime date,
+            @Nullable final String server, @Nullable final String otherServer,
+            final Collection<ClientInfo> clients,
+            final Map<ChannelInfo, Collection<ChannelClientInfo>> members) {
+        super(parser, date);
+        this.server = server;
+        this.otherServer = otherServer;
+        this.clients = Collections.unmodifiableCollection(clients);
+        this.members = Collections.unmodifiableMap(members);
+    }
+
+    /**
+     * Gets the first server named by the batch.
+     *
+     * @return The server name, or null if the server didn't give one
+     */
+    @Nullable
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * Gets the second server named by the batch.
+     *
+     * @return The server name, or null if the server didn't give one
+     */
+    @Nullable
+    public String getOtherServer() {
+        return otherServer;
+    }
+
+    /**
+     * Gets the clients that joined.
+     *
+     * @return The affected clients
+     */
+    public Collection<ClientInfo> getClients() {
+        return clients;
+    }
+
+    /**
+     * Gets the members that joined each of our channels.
+     *
+     * @return Map of channels to the affected members of that channel
+     */
+    public Map<ChannelInfo, Collection<ChannelClientInfo>> getMembers() {
+        return members;
+    }
+
+}
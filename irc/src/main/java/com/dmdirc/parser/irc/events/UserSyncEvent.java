@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.events;
+
+import com.dmdirc.parser.events.ParserEvent;
+import com.dmdirc.parser.interfaces.ClientInfo;
+import com.dmdirc.parser.interfaces.Parser;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Called when a sync requested through the parser's
+ * {@link com.dmdirc.parser.irc.WhoSync} has completed, after the details of
+ * every user in the replies have been applied.
+ */
+public class UserSyncEvent extends ParserEvent {
+
+    private final List<String> masks;
+    private final Collection<ClientInfo> clients;
+
+    public UserSyncEvent(final Parser parser, final LocalDateTime date, final List<String> masks,
+            final Collection<ClientInfo> clients) {
+        super(parser, date);
+        this.masks = Collections.unmodifiableList(masks);
+        this.clients = Collections.unmodifiableCollection(clients);
+    }
+
+    /**
+     * Gets the channels or nicknames that were asked about. Nicknames may be
+     * combined into comma-separated lists.
+     *
+     * @return The masks of each WHO query
+     */
+    public List<String> getMasks() {
+        return masks;
+    }
+
+    /**
+     * Gets the known clients whose details were refreshed.
+     *
+     * @return The refreshed clients
+     */
+    public Collection<ClientInfo> getClients() {
+        return clients;
+    }
+
+}
@@ -26,6 +26,7 @@ import com.dmdirc.parser.common.QueuePriority;
 
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
@@ -221,5 +222,26 @@ public abstract class OutputQueue {
         out.printf("%s\r\n", line);
     }
 
+    /**
+     * Sends several lines immediately to the server, in a single write. Like
+     * {@link QueuePriority#IMMEDIATE} lines, they bypass the queue.
+     *
+     * @param lines The lines to be sent.
+     */
+    public void sendLines(final Collection<String> lines) {
+        if (discarding || lines.isEmpty()) {
+            return;
+        }
+        if (out == null) {
+            throw new IllegalStateException("No output stream has been set.");
+        }
+
+        final StringBuilder data = new StringBuilder();
+        for (String line : lines) {
+            data.append(line).append("\r\n");
+        }
+        out.print(data);
+        out.flush();
+    }
 
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.processors;
+
+/**
+ * Classifies the trailing parameter of a PRIVMSG or NOTICE as a plain message,
+ * an action or a CTCP.
+ *
+ * <p>The message is scanned once, and the result is described by offsets into
+ * the original string. Instances are reused between calls to
+ * {@link #classify(String, boolean)}, so a classifier must only be used from a
+ * single thread and its results must be consumed before the next message is
+ * classified.
+ */
+public class MessageClassifier {
+
+    /** The kinds of message that can be recognised. */
+    public enum Kind {
+        /** A normal message. */
+        PLAIN,
+        /** A CTCP ACTION sent in a PRIVMSG. */
+        ACTION,
+        /** Any other CTCP (or CTCP reply). */
+        CTCP
+    }
+
+    /** The character used to delimit CTCPs. */
+    private static final char CTCP_CHAR = (char) 1;
+    /** The CTCP type used for actions. */
+    private static final String ACTION = "ACTION";
+
+    /** The message most recently classified. */
+    private String message = "";
+    /** The kind of the message most recently classified. */
+    private Kind kind = Kind.PLAIN;
+    /** Start offset of the CTCP type. */
+    private int typeStart;
+    /** End offset of the CTCP type. */
+    private int typeEnd;
+    /** Start offset of the message body. */
+    private int bodyStart;
+    /** End offset of the message body. */
+    private int bodyEnd;
+
+    /**
+     * Classifies the specified message.
+     *
+     * @param message The trailing parameter of a PRIVMSG or NOTICE
+     * @param privmsg True if the message was a PRIVMSG, false for a NOTICE
+     * @return This classifier, describing the message
+     */
+    public MessageClassifier classify(final String message, final boolean privmsg) {
+        final int length = message.length();
+        this.message = message;
+        kind = Kind.PLAIN;
+        typeStart = 0;
+        typeEnd = 0;
+        bodyStart = 0;
+        bodyEnd = length;
+
+        if (length < 2 || message.charAt(0) != CTCP_CHAR
+                || message.charAt(length - 1) != CTCP_CHAR) {
+            return this;
+        }
+
+        final int space = message.indexOf(' ');
+        typeStart = 1;
+        if (space == -1) {
+            typeEnd = message.indexOf(CTCP_CHAR, 1);
+            bodyStart = length;
+        } else {
+            typeEnd = space;
+            bodyStart = space + 1;
+        }
+
+        if (privmsg && space == ACTION.length() + 1
+                && message.regionMatches(true, 1, ACTION, 0, ACTION.length())) {
+            kind = Kind.ACTION;
+            bodyEnd = length - 1;
+        } else {
+            kind = Kind.CTCP;
+            bodyEnd = bodyStart < length ? message.indexOf(CTCP_CHAR, bodyStart) : length;
+        }
+
+        return this;
+    }
+
+    /**
+     * Gets the kind of the last classified message.
+     *
+     * @return The kind of message
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Gets the start offset of the CTCP type within the message.
+     *
+     * @return The start of the CTCP type, or 0 for plain messages
+     */
+    public int getTypeStart() {
+        return typeStart;
+    }
+
+    /**
+     * Gets the end offset of the CTCP type within the message.
+     *
+     * @return The end of the CTCP type, or 0 for plain messages
+     */
+    public int getTypeEnd() {
+        return typeEnd;
+    }
+
+    /**
+     * Gets the start offset of the body within the message.
+     *
+     * @return The start of the body
+     */
+    public int getBodyStart() {
+        return bodyStart;
+    }
+
+    /**
+     * Gets the end offset of the body within the message.
+     *
+     * @return The end of the body
+     */
+    public int getBodyEnd() {
+        return bodyEnd;
+    }
+
+    /**
+     * Gets the CTCP type of the last classified message.
+     *
+     * @return The CTCP type, or an empty string for plain messages
+     */
+    public String getType() {
+        return message.substring(typeStart, typeEnd);
+    }
+
+    /**
+     * Gets the body of the last classified message. For plain messages this
+     * is the message itself; for actions and CTCPs it excludes the type and
+     * the CTCP delimiters.
+     *
+     * @return The body of the message
+     */
+    public String getBody() {
+        return bodyStart == 0 && bodyEnd == message.length()
+                ? message : message.substring(bodyStart, bodyEnd);
+    }
+
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.processors;
+
+import com.dmdirc.parser.common.ModeChange;
+import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.ModeManager;
+import com.dmdirc.parser.irc.PrefixModeManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the mode string of a channel MODE line into a set of individual
+ * changes.
+ *
+ * <p>Each change is stored as a sign, a mode character, a type and the index
+ * of its parameter in the arguments given to {@link #parse(String...)}, using
+ * primitive arrays that are reused between lines. Like
+ * {@link MessageClassifier}, a change set must only be used from a single
+ * thread and its contents must be consumed before the next line is parsed.
+ */
+public class ModeChangeSet {
+
+    /** Type of a boolean mode. */
+    public static final byte TYPE_BOOLEAN = 0;
+    /** Type of a list mode. */
+    public static final byte TYPE_LIST = 1;
+    /** Type of a mode that takes a parameter when set. */
+    public static final byte TYPE_PARAM = 2;
+    /** Type of a prefix mode. */
+    public static final byte TYPE_PREFIX = 3;
+    /** Type of a mode that isn't known to the parser. */
+    public static final byte TYPE_UNKNOWN = 4;
+
+    /** Parameter index used for changes without a parameter. */
+    private static final int NO_PARAM = -1;
+    /** Parameter index used for changes whose parameter was not given. */
+    private static final int MISSING_PARAM = -2;
+
+    /** The manager to use to access prefix modes. */
+    private final PrefixModeManager prefixModeManager;
+    /** Mode manager to use for boolean channel modes. */
+    private final ModeManager chanModeManager;
+    /** Map of channel modes that take parameters to their type. */
+    private final Map<Character, Byte> chanModesOther;
+
+    /** The arguments most recently parsed. */
+    private String[] args = new String[0];
+    /** Number of changes in the set. */
+    private int size;
+    /** Whether each change adds or removes its mode. */
+    private boolean[] adding = new boolean[8];
+    /** The mode of each change. */
+    private char[] modes = new char[8];
+    /** The type of each change. */
+    private byte[] types = new byte[8];
+    /** The index in {@link #args} of each change's parameter. */
+    private int[] params = new int[8];
+
+    /**
+     * Creates a new change set.
+     *
+     * @param prefixModeManager The manager to use to access prefix modes
+     * @param chanModeManager Mode manager to use for boolean channel modes
+     * @param chanModesOther Map of channel modes that take parameters to their
+     * type (see {@link IRCParser#chanModesOther})
+     */
+    public ModeChangeSet(final PrefixModeManager prefixModeManager,
+            final ModeManager chanModeManager, final Map<Character, Byte> chanModesOther) {
+        this.prefixModeManager = prefixModeManager;
+        this.chanModeManager = chanModeManager;
+        this.chanModesOther = chanModesOther;
+    }
+
+    /**
+     * Parses the specified mode string and parameters, replacing the current
+     * contents of this set.
+     *
+     * @param args The mode string, followed by any parameters
+     * @return This change set
+     */
+    public ModeChangeSet parse(final String... args) {
+        this.args = args;
+        size = 0;
+
+        final String modeString = args.length == 0 ? "" : args[0];
+        boolean positive = true;
+        int nextParam = 1;
+        for (int i = 0; i < modeString.length(); i++) {
+            final char mode = modeString.charAt(i);
+            if (mode == '+') {
+                positive = true;
+                continue;
+            } else if (mode == '-') {
+                positive = false;
+                continue;
+            } else if (mode == ':') {
+                continue;
+            }
+
+            final byte type;
+            final boolean needsParam;
+            if (chanModeManager.isMode(mode)) {
+                type = TYPE_BOOLEAN;
+                needsParam = false;
+            } else if (chanModesOther.containsKey(mode)) {
+                final byte value = chanModesOther.get(mode);
+                if (value == IRCParser.MODE_LIST) {
+                    type = TYPE_LIST;
+                    needsParam = true;
+                } else {
+                    type = TYPE_PARAM;
+                    needsParam = positive
+                            || (value & IRCParser.MODE_UNSET) == IRCParser.MODE_UNSET;
+                }
+            } else if (prefixModeManager.isPrefixMode(mode)) {
+                type = TYPE_PREFIX;
+                needsParam = true;
+            } else {
+                type = TYPE_UNKNOWN;
+                needsParam = false;
+            }
+
+            final int param;
+            if (!needsParam) {
+                param = NO_PARAM;
+            } else if (nextParam < args.length) {
+                param = nextParam++;
+            } else {
+                param = MISSING_PARAM;
+            }
+
+            add(positive, mode, type, param);
+        }
+
+        return this;
+    }
+
+    /**
+     * Appends a change to the set, growing the backing arrays if needed.
+     *
+     * @param positive Whether the mode is being added
+     * @param mode The mode character
+     * @param type The type of the mode
+     * @param param The index of the parameter
+     */
+    private void add(final boolean positive, final char mode, final byte type, final int param) {
+        if (size == modes.length) {
+            final int capacity = size * 2;
+            adding = Arrays.copyOf(adding, capacity);
+            modes = Arrays.copyOf(modes, capacity);
+            types = Arrays.copyOf(types, capacity);
+            params = Arrays.copyOf(params, capacity);
+        }
+        adding[size] = positive;
+        modes[size] = mode;
+        types[size] = type;
+        params[size] = param;
+        size++;
+    }
+
+    /**
+     * Gets the number of changes in the set.
+     *
+     * @return The number of changes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Determines whether the specified change adds its mode.
+     *
+     * @param index The index of the change
+     * @return True if the mode is added, false if it is removed
+     */
+    public boolean isAdding(final int index) {
+        return adding[index];
+    }
+
+    /**
+     * Gets the mode of the specified change.
+     *
+     * @param index The index of the change
+     * @return The mode character
+     */
+    public char getMode(final int index) {
+        return modes[index];
+    }
+
+    /**
+     * Gets the type of the specified change.
+     *
+     * @param index The index of the change
+     * @return One of the TYPE_ constants
+     */
+    public byte getType(final int index) {
+        return types[index];
+    }
+
+    /**
+     * Determines whether the specified change required a parameter that was
+     * not given.
+     *
+     * @param index The index of the change
+     * @return True if the parameter is missing, false otherwise
+     */
+    public boolean isMissingParam(final int index) {
+        return params[index] == MISSING_PARAM;
+    }
+
+    /**
+     * Gets the index of the specified change's parameter within the arguments
+     * that were parsed.
+     *
+     * @param index The index of the change
+     * @return The index of the parameter, or a negative value if there is none
+     */
+    public int getParamIndex(final int index) {
+        return params[index];
+    }
+
+    /**
+     * Gets the parameter of the specified change.
+     *
+     * @param index The index of the change
+     * @return The parameter, or an empty string if there is none
+     */
+    public String getParam(final int index) {
+        return params[index] < 0 ? "" : args[params[index]];
+    }
+
+    /**
+     * Creates an immutable copy of the changes in this set, excluding any whose
+     * parameter was missing. Unknown modes are reported as boolean modes.
+     *
+     * @return A list of the changes in this set
+     */
+    public List<ModeChange> toList() {
+        final List<ModeChange> changes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (!isMissingParam(i)) {
+                changes.add(new ModeChange(adding[i], modes[i], getChangeType(types[i]),
+                        getParam(i)));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Converts one of the TYPE_ constants to a {@link ModeChange.Type}.
+     *
+     * @param type The type to convert
+     * @return The corresponding change type
+     */
+    private static ModeChange.Type getChangeType(final byte type) {
+        switch (type) {
+            case TYPE_LIST:
+                return ModeChange.Type.LIST;
+            case TYPE_PARAM:
+                return ModeChange.Type.PARAM;
+            case TYPE_PREFIX:
+                return ModeChange.Type.PREFIX;
+            default:
+                return ModeChange.Type.BOOLEAN;
+        }
+    }
+
+}
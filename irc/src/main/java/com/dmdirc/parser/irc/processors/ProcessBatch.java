@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.parser.irc.processors;
+
+import com.dmdirc.parser.interfaces.ChannelClientInfo;
+import com.dmdirc.parser.interfaces.ChannelInfo;
+import com.dmdirc.parser.interfaces.ClientInfo;
+import com.dmdirc.parser.irc.CapabilityState;
+import com.dmdirc.parser.irc.IRCChannelClientInfo;
+import com.dmdirc.parser.irc.IRCChannelInfo;
+import com.dmdirc.parser.irc.IRCClientInfo;
+import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.ModeManager;
+import com.dmdirc.parser.irc.ProcessorNotFoundException;
+import com.dmdirc.parser.irc.events.NetjoinEvent;
+import com.dmdirc.parser.irc.events.NetsplitEvent;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+/**
+ * Process IRCv3 BATCH lines.
+ *
+ * <p>Lines belonging to netsplit and netjoin batches are held back until the
+ * batch ends. The QUITs or JOINs they contain are then applied to the parser's
+ * channels and client list in bulk, and a single {@link NetsplitEvent} or
+ * {@link NetjoinEvent} is published in place of the per-user events. Any other
+ * lines in those batches are then processed as normal, in order. Lines in
+ * other types of batch are not held back.
+ *
+ * <p>Clients that leave in a netsplit are parked in the parser's
+ * {@link com.dmdirc.parser.irc.NetsplitLimbo}, and restored from it if they
+ * return in a netjoin.
+ */
+public class ProcessBatch extends IRCProcessor {
+
+    /** Batch type used for netsplits. */
+    private static final String NETSPLIT = "netsplit";
+    /** Batch type used for netjoins. */
+    private static final String NETJOIN = "netjoin";
+
+    /** Mode manager to use for user modes. */
+    private final ModeManager userModeManager;
+    /** Open netsplit and netjoin batches, keyed by reference. */
+    private final Map<String, Batch> batches = new HashMap<>();
+
+    /**
+     * Create a new instance of the IRCProcessor Object.
+     *
+     * @param parser IRCParser That owns this IRCProcessor
+     * @param userModeManager Mode manager to use for user modes.
+     */
+    @Inject
+    public ProcessBatch(final IRCParser parser,
+            @Named("user") final ModeManager userModeManager) {
+        super(parser, "BATCH");
+        this.userModeManager = userModeManager;
+    }
+
+    /**
+     * Process a BATCH line.
+     *
+     * @param date The LocalDateTime that this event occurred at.
+     * @param sParam Type of line to process ("BATCH")
+     * @param token IRCTokenised line to process
+     */
+    @Override
+    public void process(final LocalDateTime date, final String sParam, final String... token) {
+        // :server BATCH +reference type [params]
+        // :server BATCH -reference
+        if (token.length < 3 || token[2].length() < 2) {
+            return;
+        }
+
+        final String reference = token[2].substring(1);
+        final Batch batch;
+        synchronized (batches) {
+            if (token[2].charAt(0) == '+' && token.length > 3
+                    && (NETSPLIT.equalsIgnoreCase(token[3]) || NETJOIN.equalsIgnoreCase(token[3]))) {
+                batches.put(reference, new Batch(token[3],
+                        Arrays.copyOfRange(token, 4, token.length)));
+                return;
+            } else if (token[2].charAt(0) != '-') {
+                return;
+            }
+            batch = batches.remove(reference);
+        }
+
+        if (batch != null) {
+            callDebugInfo(IRCParser.DEBUG_INFO, "processBatch: ending %s batch of %d lines",
+                    batch.type, batch.lines.size());
+            final List<Line> remaining = NETSPLIT.equalsIgnoreCase(batch.type)
+                    ? applyNetsplit(date, batch) : applyNetjoin(date, batch);
+            for (Line line : remaining) {
+                try {
+                    parser.getProcessingManager().process(line.date, line.token[1], line.token);
+                } catch (ProcessorNotFoundException e) {
+                    // Not a line we handle.
+                }
+            }
+        }
+    }
+
+    /**
+     * Holds back a line if it belongs to an open netsplit or netjoin batch.
+     *
+     * @param reference The reference of the batch the line belongs to
+     * @param date The LocalDateTime that the line was received at
+     * @param token IRCTokenised line
+     * @return True if the line was held back, false if it should be processed now
+     */
+    public boolean addLine(final String reference, final LocalDateTime date,
+            final String... token) {
+        synchronized (batches) {
+            final Batch batch = batches.get(reference);
+            if (batch == null) {
+                return false;
+            }
+            batch.lines.add(new Line(date, token));
+            return true;
+        }
+    }
+
+    /**
+     * Discards all open batches. This should be called when the connection is
+     * lost.
+     */
+    public void reset() {
+        synchronized (batches) {
+            batches.clear();
+        }
+    }
+
+    /**
+     * Removes every user that quit in a netsplit batch from our channels and
+     * the client list.
+     *
+     * @param date The LocalDateTime that the batch ended at
+     * @param batch The batch to apply
+     * @return The lines that were not applied
+     */
+    private List<Line> applyNetsplit(final LocalDateTime date, final Batch batch) {
+        final List<Line> remaining = new ArrayList<>();
+        final Collection<IRCClientInfo> clients = new LinkedHashSet<>();
+        final Map<IRCChannelInfo, List<IRCClientInfo>> channels = new LinkedHashMap<>();
+        for (Line line : batch.lines) {
+            final IRCClientInfo client = "QUIT".equalsIgnoreCase(line.token[1])
+                    ? getClientInfo(line.token[0]) : null;
+            if (client == null || client == parser.getLocalClient()) {
+                remaining.add(line);
+                continue;
+            }
+            if (IRCParser.ALWAYS_UPDATECLIENT && client.getHostname().isEmpty()) {
+                client.setUserBits(line.token[0], false);
+            }
+            if (clients.add(client)) {
+                parser.getNetsplitLimbo().park(client);
+                for (ChannelClientInfo channelClient : client.getChannelClients()) {
+                    channels.computeIfAbsent((IRCChannelInfo) channelClient.getChannel(),
+                            k -> new ArrayList<>()).add(client);
+                }
+            }
+        }
+
+        final Map<ChannelInfo, Collection<ChannelClientInfo>> members = new LinkedHashMap<>();
+        if (parser.getRemoveAfterCallback()) {
+            channels.forEach((channel, channelClients) -> members.put(channel,
+                    getMembers(channel, channelClients)));
+            callNetsplit(date, batch, clients, members);
+        }
+        channels.forEach((channel, channelClients) -> {
+            final List<IRCChannelClientInfo> removed = channel.delClients(channelClients);
+            members.putIfAbsent(channel, new ArrayList<>(removed));
+        });
+        parser.removeClients(clients);
+        if (!parser.getRemoveAfterCallback()) {
+            callNetsplit(date, batch, clients, members);
+        }
+        return remaining;
+    }
+
+    /**
+     * Adds every user that joined one of our channels in a netjoin batch to
+     * the channel and the client list.
+     *
+     * @param date The LocalDateTime that the batch ended at
+     * @param batch The batch to apply
+     * @return The lines that were not applied
+     */
+    private List<Line> applyNetjoin(final LocalDateTime date, final Batch batch) {
+        final boolean extendedJoin =
+                parser.getCapabilityState("extended-join") == CapabilityState.ENABLED;
+        final List<Line> remaining = new ArrayList<>();
+        final Map<String, IRCClientInfo> clients = new LinkedHashMap<>();
+        final Collection<IRCClientInfo> newClients = new ArrayList<>();
+        final Map<IRCChannelInfo, List<IRCClientInfo>> channels = new LinkedHashMap<>();
+        for (Line line : batch.lines) {
+            final String[] token = line.token;
+            if (!"JOIN".equalsIgnoreCase(token[1]) || token.length < 3) {
+                remaining.add(line);
+                continue;
+            }
+
+            // :nick!ident@host JOIN (:)#Channel
+            // :nick!ident@host JOIN #Channel accountName :Real Name
+            final IRCChannelInfo channel =
+                    parser.getChannel(extendedJoin ? token[2] : token[token.length - 1]);
+            final String key = parser.getStringConverter()
+                    .toLowerCase(IRCClientInfo.parseHost(token[0]));
+            IRCClientInfo client = clients.get(key);
+            if (client == null) {
+                client = getClientInfo(token[0]);
+            }
+            if (channel == null || client == parser.getLocalClient()) {
+                remaining.add(line);
+                continue;
+            }
+            if (client == null) {
+                client = parser.getNetsplitLimbo().restore(token[0]);
+                if (client == null) {
+                    client = new IRCClientInfo(parser, userModeManager, token[0]);
+                }
+                newClients.add(client);
+            }
+            clients.put(key, client);
+
+            if (extendedJoin) {
+                final String accountName = token.length > 3 ? token[3] : "*";
+                client.setAccountName("*".equals(accountName) ? null : accountName);
+                client.setRealName(token.length > 4 ? token[token.length - 1] : "");
+            }
+            if (client.getHostname().isEmpty()) {
+                client.setUserBits(token[0], false);
+            }
+            channels.computeIfAbsent(channel, k -> new ArrayList<>()).add(client);
+        }
+
+        parser.addClients(newClients);
+        final Collection<IRCClientInfo> joined = new LinkedHashSet<>();
+        final Map<ChannelInfo, Collection<ChannelClientInfo>> members = new LinkedHashMap<>();
+        channels.forEach((channel, channelClients) -> {
+            final List<IRCChannelClientInfo> added = channel.addClients(channelClients);
+            if (!added.isEmpty()) {
+                added.forEach(channelClient -> joined.add(channelClient.getClient()));
+                members.put(channel, new ArrayList<>(added));
+            }
+        });
+        if (!joined.isEmpty()) {
+            getCallbackManager().publish(new NetjoinEvent(parser, date, batch.getServer(0),
+                    batch.getServer(1), new ArrayList<>(joined), members));
+        }
+        return remaining;
+    }
+
+    /**
+     * Gets the current members of a channel for the specified clients.
+     *
+     * @param channel The channel to look in
+     * @param clients The clients to look for
+     * @return The clients' ChannelClientInfo objects
+     */
+    private static Collection<ChannelClientInfo> getMembers(final IRCChannelInfo channel,
+            final Collection<IRCClientInfo> clients) {
+        final Collection<ChannelClientInfo> members = new ArrayList<>(clients.size());
+        for (IRCClientInfo client : clients) {
+            final ChannelClientInfo member = channel.getChannelClient(client.getNickname());
+            if (member != null) {
+                members.add(member);
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Callback to all objects implementing the Netsplit Callback.
+     *
+     * @param date The LocalDateTime that this event occurred at.
+     * @param batch The batch that ended
+     * @param clients The clients that quit
+     * @param members The channel members that quit
+     */
+    private void callNetsplit(final LocalDateTime date, final Batch batch,
+            final Collection<IRCClientInfo> clients,
+            final Map<ChannelInfo, Collection<ChannelClientInfo>> members) {
+        if (!clients.isEmpty()) {
+            getCallbackManager().publish(new NetsplitEvent(parser, date, batch.getServer(0),
+                    batch.getServer(1), new ArrayList<ClientInfo>(clients), members));
+        }
+    }
+
+    /** An open batch. */
+    private static class Batch {
+
+        /** The type of the batch. */
+        private final String type;
+        /** The parameters given when the batch was started. */
+        private final String[] params;
+        /** The lines held back so far. */
+        private final List<Line> lines = new ArrayList<>();
+
+        Batch(final String type, final String... params) {
+            this.type = type;
+            this.params = params;
+        }
+
+        String getServer(final int index) {
+            return index < params.length ? params[index] : null;
+        }
+
+    }
+
+    /** A line held back from processing. */
+    private static class Line {
+
+        /** The LocalDateTime that the line was received at. */
+        private final LocalDateTime date;
+        /** The tokenised line. */
+        private final String[] token;
+
+        Line(final LocalDateTime date, final String... token) {
+            this.date = date;
+            this.token = token;
+        }
+
+    }
+
+}
@@ -28,7 +28,11 @@ import com.dmdirc.parser.irc.IRCParser;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 /**
@@ -40,12 +44,21 @@ import javax.inject.Inject;
  * either with or without the capability enabled, so we don't actually need to
  * keep much/any state here, which makes this easy.
  *
+ * When the parser knows which capabilities a network advertised last time, it
+ * requests them all in one line before it has seen the server's CAP LS, and
+ * ends negotiation straight away (see {@link #startNegotiation}). The LS reply
+ * is then only used to request anything new, and a rejected request is retried
+ * one capability at a time.
+ *
  * See: http://www.leeh.co.uk/draft-mitchell-irc-capabilities-02.html
  * See: http://ircv3.atheme.org/specification/capability-negotiation-3.1
  */
 public class ProcessCap extends IRCProcessor {
     /** Have we handled the pre-connect cap request? */
     private boolean hasCapped;
+    /** Capabilities requested before the LS reply, or null if we are waiting for it. */
+    @Nullable
+    private Set<String> pipelinedCapabilities;
     /** List of supported capabilities. */
     private final Collection<String> supportedCapabilities = new ArrayList<>();
 
@@ -67,6 +80,10 @@ public class ProcessCap extends IRCProcessor {
         supportedCapabilities.add("self-message");
         supportedCapabilities.add("server-time");
 
+        // IRCv3.2
+        supportedCapabilities.add("batch");
+        supportedCapabilities.add("labeled-response");
+
         // Freenode
         // supportedCapabilities.add("identify-msg");
 
@@ -74,6 +91,26 @@ public class ProcessCap extends IRCProcessor {
         supportedCapabilities.add("dfbnc.com/tsirc");
     }
 
+    /**
+     * Starts capability negotiation for a new connection.
+     *
+     * @param cachedCapabilities The capabilities the server advertised the last time we
+     * connected, or null if they are not known
+     * @return The capabilities to request before the server's CAP LS reply is received. If this
+     * is empty, negotiation will be completed when the reply arrives.
+     */
+    public Set<String> startNegotiation(@Nullable final Collection<String> cachedCapabilities) {
+        hasCapped = false;
+        if (cachedCapabilities == null) {
+            pipelinedCapabilities = null;
+            return Collections.emptySet();
+        }
+
+        pipelinedCapabilities = new HashSet<>(cachedCapabilities);
+        pipelinedCapabilities.retainAll(supportedCapabilities);
+        return Collections.unmodifiableSet(pipelinedCapabilities);
+    }
+
     /**
      * Process CAP responses.
      *
@@ -94,7 +131,14 @@ public class ProcessCap extends IRCProcessor {
 
                 parser.addCapability(capability);
 
-                if (supportedCapabilities.contains(capability)) {
+                if (pipelinedCapabilities != null) {
+                    // We've already requested what the server had last time, so just ask for
+                    // anything new.
+                    if (supportedCapabilities.contains(capability)
+                            && !pipelinedCapabilities.contains(capability)) {
+                        parser.sendRawMessage("CAP REQ :" + capability);
+                    }
+                } else if (supportedCapabilities.contains(capability)) {
                     // Send cap requests as individual lines, as some servers
                     // only appear to accept them one at a time.
                     parser.sendRawMessage("CAP REQ :" + capability);
@@ -110,7 +154,28 @@ public class ProcessCap extends IRCProcessor {
             //     :DFBnc.Server CAP Dataforce LS *
             if (token.length == 4 || token.length == 5 && !"*".equals(token[4])) {
                 hasCapped = true;
-                parser.sendRawMessage("CAP END");
+                if (pipelinedCapabilities == null) {
+                    parser.sendRawMessage("CAP END");
+                }
+            }
+        } else if ("NAK".equalsIgnoreCase(token[3]) && pipelinedCapabilities != null
+                && !pipelinedCapabilities.isEmpty()) {
+            // Servers reject a request as a whole, so if our combined request failed (because
+            // the network no longer supports something in it), retry what is still advertised
+            // individually.
+            final Set<String> rejected = new HashSet<>();
+            for (final String cap : token[token.length - 1].split(" ")) {
+                if (!cap.isEmpty()) {
+                    rejected.add(cap.toLowerCase());
+                }
+            }
+            if (rejected.equals(pipelinedCapabilities)) {
+                pipelinedCapabilities = Collections.emptySet();
+                for (final String capability : rejected) {
+                    if (parser.getCapabilityState(capability) != CapabilityState.INVALID) {
+                        parser.sendRawMessage("CAP REQ :" + capability);
+                    }
+                }
             }
         } else if ("ACK".equalsIgnoreCase(token[3]) || "CLEAR".equalsIgnoreCase(token[3])) {
             // Process the list.
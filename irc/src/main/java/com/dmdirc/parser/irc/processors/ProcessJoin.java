@@ -23,7 +23,6 @@
 package com.dmdirc.parser.irc.processors;
 
 import com.dmdirc.parser.common.ParserError;
-import com.dmdirc.parser.common.QueuePriority;
 import com.dmdirc.parser.events.ChannelJoinEvent;
 import com.dmdirc.parser.events.ChannelSelfJoinEvent;
 import com.dmdirc.parser.interfaces.ChannelClientInfo;
@@ -36,8 +35,6 @@ import com.dmdirc.parser.irc.IRCParser;
 import com.dmdirc.parser.irc.ModeManager;
 import com.dmdirc.parser.irc.PrefixModeManager;
 import com.dmdirc.parser.irc.ProcessorNotFoundException;
-import com.dmdirc.parser.irc.events.IRCDataOutEvent;
-import net.engio.mbassy.listener.Handler;
 
 import java.time.LocalDateTime;
 import java.util.Arrays;
@@ -77,8 +74,6 @@ public class ProcessJoin extends IRCProcessor {
         this.prefixModeManager = prefixModeManager;
         this.userModeManager = userModeManager;
         this.chanModeManager = chanModeManager;
-
-        getCallbackManager().subscribe(this);
     }
 
     /**
@@ -131,9 +126,14 @@ public class ProcessJoin extends IRCProcessor {
             callDebugInfo(IRCParser.DEBUG_INFO, "processJoin: channel: %s", iChannel);
 
             if (iClient == null) {
-                iClient = new IRCClientInfo(parser, userModeManager, token[0]);
+                iClient = parser.getNetsplitLimbo().restore(token[0]);
+                if (iClient == null) {
+                    iClient = new IRCClientInfo(parser, userModeManager, token[0]);
+                    callDebugInfo(IRCParser.DEBUG_INFO, "processJoin: new client.", iClient);
+                } else {
+                    callDebugInfo(IRCParser.DEBUG_INFO, "processJoin: restored client.", iClient);
+                }
                 parser.addClient(iClient);
-                callDebugInfo(IRCParser.DEBUG_INFO, "processJoin: new client.", iClient);
             }
 
             if (extendedJoin) {
@@ -145,7 +145,15 @@ public class ProcessJoin extends IRCProcessor {
             if (iClient.getHostname().isEmpty()) {
                 iClient.setUserBits(token[0], false);
             }
-            if (iChannel != null) {
+            final boolean adopting = iChannel != null && iChannel.isSeeded()
+                    && iClient == parser.getLocalClient();
+            if (adopting) {
+                // We are rejoining a channel restored from a checkpoint. Keep it, and let the
+                // NAMES reply replace the members we restored.
+                callDebugInfo(IRCParser.DEBUG_INFO, "processJoin: Adopting seeded channel.");
+                iChannel.setSeeded(false);
+                iChannel.setAddingNames(false);
+            } else if (iChannel != null) {
                 if (iClient == parser.getLocalClient()) {
                     try {
                         if (iChannel.getChannelClient(iClient) == null) {
@@ -173,12 +181,14 @@ public class ProcessJoin extends IRCProcessor {
                 }
             }
 
-            iChannel = new IRCChannelInfo(parser, prefixModeManager, userModeManager,
-                    chanModeManager, channelName);
-            // Add ourself to the channel, this will be overridden by the NAMES reply
-            iChannel.addClient(iClient);
-            parser.addChannel(iChannel);
-            sendString("MODE " + iChannel.getName(), QueuePriority.LOW);
+            if (!adopting) {
+                iChannel = new IRCChannelInfo(parser, prefixModeManager, userModeManager,
+                        chanModeManager, channelName);
+                // Add ourself to the channel, this will be overridden by the NAMES reply
+                iChannel.addClient(iClient);
+                parser.addChannel(iChannel);
+            }
+            parser.getJoinScheduler().queueQuery("MODE " + iChannel.getName());
 
             final PendingJoin pendingJoin = pendingJoins.poll();
             if (pendingJoin != null && parser.getStringConverter().equalsIgnoreCase(pendingJoin.getChannel(), channelName)) {
@@ -190,8 +200,13 @@ public class ProcessJoin extends IRCProcessor {
                 pendingJoins.clear();
             }
 
+            parser.getJoinScheduler().channelJoined(channelName);
             callChannelSelfJoin(date, iChannel);
         } else {
+            if (token.length > 3) {
+                parser.getJoinScheduler().channelFailed(token[3]);
+                parser.pruneSeededState();
+            }
             // Some kind of failed to join, pop the pending join queues.
             final PendingJoin pendingJoin = pendingJoins.poll();
             if (pendingJoin != null && parser.getStringConverter().equalsIgnoreCase(pendingJoin.getChannel(), sParam)) {
@@ -204,13 +219,17 @@ public class ProcessJoin extends IRCProcessor {
         }
     }
 
-    @Handler(condition = "msg.action == 'JOIN'")
-    public void handleDataOut(final IRCDataOutEvent event) {
+    /**
+     * Records the keys of channels we are about to join. This is called by
+     * the parser with every JOIN line it sends.
+     *
+     * @param newLine The tokenised JOIN line
+     */
+    public void handleOutgoingJoin(final String... newLine) {
         // As long as this is called before the resulting DataIn
         // Processors fire then this will work, otherwise we'll end
         // up with an out-of-sync pendingJoins list.
 
-        final String[] newLine = event.getTokenisedData();
         if (newLine.length > 1) {
             final Queue<String> keys = new LinkedList<>();
 
@@ -225,9 +244,11 @@ public class ProcessJoin extends IRCProcessor {
             // don't have guesses for channels we are already in.
             for (final String chan : newLine[1].split(",")) {
                 final String key = keys.poll();
+                final IRCChannelInfo channel = getChannel(chan);
                 if (chan.equals("0")) {
                     callDebugInfo(IRCParser.DEBUG_INFO, "processJoin: Ignoring possible channel Key for part-all channel: %s -> %s", chan, key);
-                } else if (getChannel(chan) == null) {
+                } else if (channel == null || channel.isSeeded()) {
+                    // Seeded channels are only known from a checkpoint, so we really are joining.
                     callDebugInfo(IRCParser.DEBUG_INFO, "processJoin: Intercepted possible channel Key: %s -> %s", chan, key);
                     pendingJoins.add(new PendingJoin(chan, key));
                 } else {
@@ -32,7 +32,6 @@ import com.dmdirc.parser.irc.ServerTypeGroup;
 
 import java.time.LocalDateTime;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Queue;
 
 import javax.inject.Inject;
@@ -216,23 +215,16 @@ public class ProcessListModes extends IRCProcessor {
 
             if (!channel.getAddState(mode)) {
                 callDebugInfo(IRCParser.DEBUG_INFO, "New List Mode Batch (%s): Clearing!", mode);
-                final Collection<ChannelListModeItem> list = channel.getListMode(mode);
-                if (list == null) {
+                if (!channel.clearListMode(mode)) {
                     parser.callErrorInfo(new ParserError(ParserError.ERROR_WARNING, "Got list mode: '" + mode + "' - but channel object doesn't agree.", parser.getLastLine()));
-                } else {
-                    list.clear();
-                    if (ServerTypeGroup.FREENODE.isMember(serverType) && (mode == 'b' || mode == 'q')) {
-                        // Also clear the other list if b or q.
-                        final Character otherMode = mode == 'b' ? 'q' : 'b';
+                } else if (ServerTypeGroup.FREENODE.isMember(serverType) && (mode == 'b' || mode == 'q')) {
+                    // Also clear the other list if b or q.
+                    final Character otherMode = mode == 'b' ? 'q' : 'b';
 
-                        if (!channel.getAddState(otherMode)) {
-                            callDebugInfo(IRCParser.DEBUG_INFO, "New List Mode Batch (%s): Clearing!", mode);
-                            final Collection<ChannelListModeItem> otherList = channel.getListMode(otherMode);
-                            if (otherList == null) {
-                                parser.callErrorInfo(new ParserError(ParserError.ERROR_WARNING, "Got list mode: '" + otherMode + "' - but channel object doesn't agree.", parser.getLastLine()));
-                            } else {
-                                otherList.clear();
-                            }
+                    if (!channel.getAddState(otherMode)) {
+                        callDebugInfo(IRCParser.DEBUG_INFO, "New List Mode Batch (%s): Clearing!", mode);
+                        if (!channel.clearListMode(otherMode)) {
+                            parser.callErrorInfo(new ParserError(ParserError.ERROR_WARNING, "Got list mode: '" + otherMode + "' - but channel object doesn't agree.", parser.getLastLine()));
                         }
                     }
                 }
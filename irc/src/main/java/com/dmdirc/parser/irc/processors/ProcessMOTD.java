@@ -62,6 +62,7 @@ public class ProcessMOTD extends IRCProcessor {
                 callMOTDLine(time, token[token.length - 1]);
                 break;
             default:
+                parser.pruneSeededState();
                 callMOTDEnd(time, "422".equals(sParam), token[token.length - 1]);
                 break;
         }
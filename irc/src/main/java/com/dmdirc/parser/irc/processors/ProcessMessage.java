@@ -68,6 +68,12 @@ public class ProcessMessage extends IRCProcessor {
 
     /** The manager to use to access prefix modes. */
     private final PrefixModeManager prefixModeManager;
+    /**
+     * Classifier used to detect actions and CTCPs on the parser's thread.
+     * Dispatched channel lines use their own, as they may be processed in
+     * parallel.
+     */
+    private final MessageClassifier classifier = new MessageClassifier();
 
     /**
      * Create a new instance of the IRCProcessor Object.
@@ -95,16 +101,24 @@ public class ProcessMessage extends IRCProcessor {
      */
     @Override
     public void process(final LocalDateTime date, final String sParam, final String... token) {
-        // Ignore people!
-        String sMessage;
-        if (token[0].charAt(0) == ':') {
-            sMessage = token[0].substring(1);
+        // Drop messages from flooding users before doing anything else with them.
+        if (token.length > 2 && token[0].indexOf('!') != -1
+                && !parser.getFloodShield().allow(token[0], token[2])) {
+            return;
+        }
+
+        // Remove the leading : from the host.
+        final String firstToken;
+        if (token[0].charAt(0) == ':' && token[0].length() > 1) {
+            firstToken = token[0].substring(1);
         } else {
-            sMessage = token[0];
+            firstToken = token[0];
         }
-        // We use sMessage to be the users host (first token in the line)
+
+        // Ignore people!
+        // We use the users host (first token in the line)
         try {
-            if (parser.getIgnoreList().matches(sMessage) > -1) {
+            if (parser.getIgnoreList().matches(firstToken) > -1) {
                 return;
             }
         } catch (PatternSyntaxException pse) {
@@ -131,66 +145,23 @@ public class ProcessMessage extends IRCProcessor {
         }
 
         // "nick!user@host PRIVMSG #Channel" should be processed as "nick!user@host PRIVMSG #Channel :"
-        if (token.length < 4) {
-            sMessage = "";
-        } else {
-            sMessage = token[token.length - 1];
-        }
-        String[] bits = sMessage.split(" ", 2);
-        String sCTCP = "";
-        boolean isAction = false;
-        boolean isCTCP = false;
-
-        if (sMessage.length() > 1) {
-            // Actions are special CTCPs
-            // Bits is the message been split into 2 parts
-            //         the first word and the rest
-            final Character char1 = (char) 1;
-            if ("PRIVMSG".equalsIgnoreCase(sParam) && bits[0].equalsIgnoreCase(char1 + "ACTION") && Character.valueOf(sMessage.charAt(sMessage.length() - 1)).equals(char1)) {
-                isAction = true;
-                if (bits.length > 1) {
-                    sMessage = bits[1];
-                    sMessage = sMessage.substring(0, sMessage.length() - 1);
-                } else {
-                    sMessage = "";
-                }
-            }
-            // If the message is not an action, check if it is another type of CTCP
-            // CTCPs have Character(1) at the start/end of the line
-            if (!isAction && Character.valueOf(sMessage.charAt(0)).equals(char1) && Character.valueOf(sMessage.charAt(sMessage.length() - 1)).equals(char1)) {
-                isCTCP = true;
-                // Bits is the message been split into 2 parts, the first word and the rest
-                // Some CTCPs have messages and some do not
-                if (bits.length > 1) {
-                    sMessage = bits[1];
-                } else {
-                    sMessage = "";
-                }
-                // Remove the leading char1
-                bits = bits[0].split(char1.toString(), 2);
-                sCTCP = bits[1];
-                // remove the trailing char1
-                if (sMessage.isEmpty()) {
-                    sCTCP = sCTCP.split(char1.toString(), 2)[0];
-                } else {
-                    sMessage = sMessage.split(char1.toString(), 2)[0];
-                }
-                callDebugInfo(IRCParser.DEBUG_INFO, "CTCP: \"%s\" \"%s\"",
-                        sCTCP, sMessage);
-            }
-        }
-
-        // Remove the leading : from the host.
-        final String firstToken;
-        if (token[0].charAt(0) == ':' && token[0].length() > 1) {
-            firstToken = token[0].substring(1);
-        } else {
-            firstToken = token[0];
+        final boolean isPrivmsg = "PRIVMSG".equalsIgnoreCase(sParam);
+        final MessageClassifier classified = (parser.getChannelDispatcher().isProcessingLine()
+                ? new MessageClassifier() : classifier).classify(
+                token.length < 4 ? "" : token[token.length - 1], isPrivmsg);
+        final boolean isAction = classified.getKind() == MessageClassifier.Kind.ACTION;
+        final boolean isCTCP = classified.getKind() == MessageClassifier.Kind.CTCP;
+        final String sCTCP = isCTCP ? classified.getType() : "";
+        final String sMessage = classified.getBody();
+
+        if (isCTCP) {
+            callDebugInfo(IRCParser.DEBUG_INFO, "CTCP: \"%s\" \"%s\"", sCTCP, sMessage);
         }
 
         final IRCClientInfo iClient = getClientInfo(token[0]);
-        // Facilitate DMDIRC Formatter
-        if (IRCParser.ALWAYS_UPDATECLIENT && iClient != null && iClient.getHostname().isEmpty()) {
+        // Facilitate DMDIRC Formatter (dispatched lines have already done this)
+        if (IRCParser.ALWAYS_UPDATECLIENT && iClient != null && iClient.getHostname().isEmpty()
+                && !parser.getChannelDispatcher().isProcessingLine()) {
             iClient.setUserBits(firstToken, false);
         }
 
@@ -218,7 +189,7 @@ public class ProcessMessage extends IRCProcessor {
                 return;
             }
             final IRCChannelClientInfo iChannelClient = iChannel.getChannelClient(token[0], true);
-            if ("PRIVMSG".equalsIgnoreCase(sParam)) {
+            if (isPrivmsg) {
                 if (isAction) {
                     callChannelAction(date, iChannel, iChannelClient, sMessage, firstToken);
                 } else {
@@ -240,7 +211,7 @@ public class ProcessMessage extends IRCProcessor {
                 }
             }
         } else if (parser.getStringConverter().equalsIgnoreCase(token[2], parser.getMyNickname())) {
-            if ("PRIVMSG".equalsIgnoreCase(sParam)) {
+            if (isPrivmsg) {
                 if (isAction) {
                     callPrivateAction(date, sMessage, firstToken);
                 } else {
@@ -263,7 +234,7 @@ public class ProcessMessage extends IRCProcessor {
             }
         } else {
             callDebugInfo(IRCParser.DEBUG_INFO, "Message for Other (%s)", token[2]);
-            if ("PRIVMSG".equalsIgnoreCase(sParam)) {
+            if (isPrivmsg) {
                 if (isAction) {
                     callUnknownAction(date, sMessage, token[2], firstToken);
                 } else {
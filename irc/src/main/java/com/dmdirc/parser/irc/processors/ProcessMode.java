@@ -25,6 +25,7 @@ package com.dmdirc.parser.irc.processors;
 import com.dmdirc.parser.common.ChannelListModeItem;
 import com.dmdirc.parser.common.ParserError;
 import com.dmdirc.parser.events.ChannelModeChangeEvent;
+import com.dmdirc.parser.events.ChannelModeChangeSetEvent;
 import com.dmdirc.parser.events.ChannelNonUserModeChangeEvent;
 import com.dmdirc.parser.events.ChannelSingleModeChangeEvent;
 import com.dmdirc.parser.events.ChannelUserModeChangeEvent;
@@ -41,7 +42,6 @@ import com.dmdirc.parser.irc.ModeManager;
 import com.dmdirc.parser.irc.PrefixModeManager;
 
 import java.time.LocalDateTime;
-import java.util.Calendar;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -57,6 +57,12 @@ public class ProcessMode extends IRCProcessor {
     private final ModeManager userModeManager;
     /** Mode manager to use for channel modes. */
     private final ModeManager chanModeManager;
+    /**
+     * Reusable change set used to parse channel modes on the parser's thread.
+     * Dispatched channel lines use their own, as they may be processed in
+     * parallel.
+     */
+    private final ModeChangeSet changeSet;
 
     /**
      * Create a new instance of the IRCProcessor Object.
@@ -74,6 +80,8 @@ public class ProcessMode extends IRCProcessor {
         this.prefixModeManager = prefixModeManager;
         this.userModeManager = userModeManager;
         this.chanModeManager = chanModeManager;
+        this.changeSet = new ModeChangeSet(prefixModeManager, chanModeManager,
+                parser.chanModesOther);
     }
 
     /**
@@ -110,16 +118,6 @@ public class ProcessMode extends IRCProcessor {
         }
     }
 
-    /**
-     * Method to trim spaces from strings.
-     *
-     * @param str String to trim
-     * @return String without spaces on the ends
-     */
-    private String trim(final String str) {
-        return str.trim();
-    }
-
     /**
      * Process Chan modes.
      *
@@ -129,166 +127,111 @@ public class ProcessMode extends IRCProcessor {
      * @param sModestr The modes and params
      * @param sChannelName Channel these modes are for
      */
+    @SuppressWarnings("fallthrough")
     public void processChanMode(final LocalDateTime date, final String sParam, final String[] token, final String[] sModestr, final String sChannelName) {
-        final StringBuilder sFullModeStr = new StringBuilder();
-
         final IRCChannelInfo iChannel = getChannel(sChannelName);
         if (iChannel == null) {
             return;
         }
+        final boolean discovery = "324".equals(sParam);
         // Get the current channel modes
         String nCurrent = "";
-        if (!"324".equals(sParam)) {
+        if (!discovery) {
             nCurrent = iChannel.getMode();
         }
 
         final IRCChannelClientInfo setterCCI = iChannel.getChannelClient(token[0], true);
-        // Facilitate dmdirc formatter
-        if (IRCParser.ALWAYS_UPDATECLIENT && setterCCI != null && setterCCI.getClient().getHostname().isEmpty()) {
+        // Facilitate dmdirc formatter (dispatched lines have already done this)
+        if (IRCParser.ALWAYS_UPDATECLIENT && setterCCI != null && setterCCI.getClient().getHostname().isEmpty()
+                && !parser.getChannelDispatcher().isProcessingLine()) {
             setterCCI.getClient().setUserBits(token[0], false);
         }
 
-        // Loop through the mode string, and add/remove modes/params where they are needed
-        char cPositive = '+';
-        boolean bPositive = true;
-        long nValue = 0;
-        int nParam = 1;
+        final ModeChangeSet changes = (parser.getChannelDispatcher().isProcessingLine()
+                ? new ModeChangeSet(prefixModeManager, chanModeManager, parser.chanModesOther)
+                : changeSet).parse(sModestr);
+        final long now = System.currentTimeMillis() / 1000;
         final StringBuilder sNonUserModeStrParams = new StringBuilder();
-        final StringBuilder sNonUserModeStr = new StringBuilder();
-        for (int i = 0; i < sModestr[0].length(); ++i) {
-            final Character cMode = sModestr[0].charAt(i);
-            if (cMode.equals(":".charAt(0))) {
+        for (int i = 0; i < changes.size(); i++) {
+            final char cMode = changes.getMode(i);
+            final boolean bPositive = changes.isAdding(i);
+            final byte type = changes.getType(i);
+
+            if (changes.isMissingParam(i)) {
+                parser.callErrorInfo(new ParserError(ParserError.ERROR_FATAL + ParserError.ERROR_USER, "Broken Modes. Parameter required but not given.", parser.getLastLine()));
+                if (type == ModeChangeSet.TYPE_PREFIX) {
+                    return;
+                }
                 continue;
             }
 
-            sNonUserModeStr.append(cMode);
-            if (cMode.equals("+".charAt(0))) {
-                cPositive = '+';
-                bPositive = true;
-            } else if (cMode.equals("-".charAt(0))) {
-                cPositive = '-';
-                bPositive = false;
-            } else {
-                final boolean bBooleanMode;
-                final String sModeParam;
-                if (chanModeManager.isMode(cMode)) {
-                    bBooleanMode = true;
-                } else if (parser.chanModesOther.containsKey(cMode)) {
-                    nValue = parser.chanModesOther.get(cMode);
-                    bBooleanMode = false;
-                } else if (prefixModeManager.isPrefixMode(cMode)) {
+            final String sModeParam = changes.getParam(i);
+            callDebugInfo(IRCParser.DEBUG_INFO, "Mode: %c%c [%s] (type %d)", bPositive ? '+' : '-', cMode, sModeParam, type);
+            switch (type) {
+                case ModeChangeSet.TYPE_PREFIX:
                     // (de) OP/Voice someone
-                    if (sModestr.length <= nParam) {
-                        parser.callErrorInfo(new ParserError(ParserError.ERROR_FATAL + ParserError.ERROR_USER, "Broken Modes. Parameter required but not given.", parser.getLastLine()));
-                        return;
-                    }
-                    sModeParam = sModestr[nParam++];
-                    callDebugInfo(IRCParser.DEBUG_INFO, "User Mode: %c / %s {Positive: %b}", cMode, sModeParam, bPositive);
                     final IRCChannelClientInfo iChannelClientInfo = iChannel.getChannelClient(sModeParam);
                     if (iChannelClientInfo == null) {
                         // Client not known?
                         callDebugInfo(IRCParser.DEBUG_INFO, "User Mode for client not on channel. Ignoring (%s)", sModeParam);
                         continue;
                     }
-                    callDebugInfo(IRCParser.DEBUG_INFO, "\tOld Mode Value: %s", iChannelClientInfo.getAllModes());
                     if (bPositive) {
                         iChannelClientInfo.addMode(cMode);
                     } else {
                         iChannelClientInfo.removeMode(cMode);
                     }
                     callChannelUserModeChanged(date, iChannel, iChannelClientInfo, setterCCI, token[0], (bPositive ? "+" : "-") + cMode);
-                    continue;
-                } else {
-                    // unknown mode - add as boolean
-                    chanModeManager.add(cMode);
-                    bBooleanMode = true;
-                }
-
-                if (bBooleanMode) {
-                    callDebugInfo(IRCParser.DEBUG_INFO, "Boolean Mode: %c {Positive: %b}", cMode, bPositive);
-
+                    if (bPositive && iChannelClientInfo.getClient() == parser.getLocalClient()) {
+                        // We may now be allowed (or wanted) to see the list modes.
+                        iChannel.applyListModePolicy();
+                    }
+                    break;
+                case ModeChangeSet.TYPE_UNKNOWN:
+                    // unknown mode - add as boolean (dispatched lines have
+                    // already done this)
+                    if (!parser.getChannelDispatcher().isProcessingLine()) {
+                        chanModeManager.add(cMode);
+                    }
+                    // Fall through
+                case ModeChangeSet.TYPE_BOOLEAN:
                     if (bPositive) {
                         nCurrent = chanModeManager.insertMode(nCurrent, cMode);
                     } else {
                         nCurrent = chanModeManager.removeMode(nCurrent, cMode);
                     }
-                } else {
-
-                    if ((bPositive || nValue == IRCParser.MODE_LIST ||
-                            (nValue & IRCParser.MODE_UNSET) == IRCParser.MODE_UNSET) &&
-                            sModestr.length <= nParam) {
-                        parser.callErrorInfo(new ParserError(ParserError.ERROR_FATAL + ParserError.ERROR_USER, "Broken Modes. Parameter required but not given.", parser.getLastLine()));
-                        continue;
-                    }
-
-                    if (nValue == IRCParser.MODE_LIST) {
-                        // List Mode
-                        sModeParam = sModestr[nParam++];
+                    break;
+                case ModeChangeSet.TYPE_LIST:
+                    sNonUserModeStrParams.append(' ').append(sModeParam);
+                    iChannel.setListModeParam(cMode, new ChannelListModeItem(sModeParam, token[0], now), bPositive);
+                    callChannelSingleModeChanged(date, discovery, iChannel, setterCCI, token[0], bPositive, cMode, sModeParam);
+                    break;
+                default:
+                    // Mode with a parameter (which isn't always needed to unset)
+                    if (!sModeParam.isEmpty()) {
                         sNonUserModeStrParams.append(' ').append(sModeParam);
-                        final long nTemp = Calendar.getInstance().getTimeInMillis() / 1000;
-                        iChannel.setListModeParam(cMode, new ChannelListModeItem(sModeParam, token[0], nTemp), bPositive);
-                        callDebugInfo(IRCParser.DEBUG_INFO, "List Mode: %c [%s] {Positive: %b}", cMode, sModeParam, bPositive);
-                        if (!"324".equals(sParam)) {
-                            getCallbackManager().publish(
-                                    new ChannelSingleModeChangeEvent(
-                                            parser, date, iChannel,
-                                            setterCCI, token[0], cPositive + cMode + " " +
-                                            sModeParam));
-                        }
-                    } else {
-                        // Mode with a parameter
-                        if (bPositive) {
-                            // +Mode - always needs a parameter to set
-                            sModeParam = sModestr[nParam++];
-                            sNonUserModeStrParams.append(' ').append(sModeParam);
-                            callDebugInfo(IRCParser.DEBUG_INFO, "Set Mode: %c [%s] {Positive: %b}", cMode, sModeParam, bPositive);
-                            iChannel.setModeParam(cMode, sModeParam);
-                            if (!"324".equals(sParam)) {
-                                getCallbackManager().publish(
-                                        new ChannelSingleModeChangeEvent(
-                                                parser, date,
-                                                iChannel, setterCCI, token[0],
-                                                cPositive + cMode + " " +
-                                                        sModeParam));
-                            }
-                        } else {
-                            // -Mode - parameter isn't always needed, we need to check
-                            if ((nValue & IRCParser.MODE_UNSET) == IRCParser.MODE_UNSET) {
-                                sModeParam = sModestr[nParam++];
-                                sNonUserModeStrParams.append(' ').append(sModeParam);
-                            } else {
-                                sModeParam = "";
-                            }
-                            callDebugInfo(IRCParser.DEBUG_INFO, "Unset Mode: %c [%s] {Positive: %b}", cMode, sModeParam, bPositive);
-                            iChannel.setModeParam(cMode, "");
-                            if (!"324".equals(sParam)) {
-                                getCallbackManager().publish(
-                                        new ChannelSingleModeChangeEvent(
-                                                parser, date,
-                                                iChannel, setterCCI, token[0],
-                                                trim(cPositive + cMode + " " + sModeParam)));
-                            }
-                        }
                     }
-                }
+                    iChannel.setModeParam(cMode, bPositive ? sModeParam : "");
+                    callChannelSingleModeChanged(date, discovery, iChannel, setterCCI, token[0], bPositive, cMode, sModeParam);
+                    break;
             }
         }
 
-        // Call Callbacks
-        for (String aSModestr : sModestr) {
-            sFullModeStr.append(aSModestr).append(' ');
-        }
-
         iChannel.setMode(nCurrent);
-        if ("324".equals(sParam)) {
-            callChannelModeChanged(date, iChannel, setterCCI, "", sFullModeStr.toString().trim());
+        final String sFullModeStr = String.join(" ", sModestr).trim();
+        if (discovery) {
+            callChannelModeChanged(date, iChannel, setterCCI, "", sFullModeStr);
         } else {
-            callChannelModeChanged(date, iChannel, setterCCI, token[0], sFullModeStr.toString().trim());
+            callChannelModeChanged(date, iChannel, setterCCI, token[0], sFullModeStr);
+            final String sNonUserModeStr = sModestr[0].indexOf(':') == -1 ? sModestr[0] : sModestr[0].replace(":", "");
             getCallbackManager().publish(
                     new ChannelNonUserModeChangeEvent(parser, date, iChannel,
                             setterCCI, token[0],
-                            trim(sNonUserModeStr.toString() + sNonUserModeStrParams)));
+                            (sNonUserModeStr + sNonUserModeStrParams).trim()));
         }
+        getCallbackManager().publish(
+                new ChannelModeChangeSetEvent(parser, date, iChannel, setterCCI,
+                        discovery ? "" : token[0], changes.toList(), discovery));
     }
 
     /**
@@ -316,12 +259,12 @@ public class ProcessMode extends IRCProcessor {
 
         boolean bPositive = true;
         for (int i = 0; i < sModestr[0].length(); ++i) {
-            final Character cMode = sModestr[0].charAt(i);
-            if (cMode.equals("+".charAt(0))) {
+            final char cMode = sModestr[0].charAt(i);
+            if (cMode == '+') {
                 bPositive = true;
-            } else if (cMode.equals("-".charAt(0))) {
+            } else if (cMode == '-') {
                 bPositive = false;
-            } else if (!cMode.equals(":".charAt(0))) {
+            } else if (cMode != ':') {
                 if (!userModeManager.isMode(cMode)) {
                     // Unknown mode
                     callErrorInfo(new ParserError(ParserError.ERROR_WARNING, "Got unknown user mode " + cMode + " - Added", parser.getLastLine()));
@@ -361,6 +304,29 @@ public class ProcessMode extends IRCProcessor {
                         sHost, sModes));
     }
 
+    /**
+     * Callback to all objects implementing the ChannelSingleModeChanged Callback.
+     * Nothing is published when the modes were discovered rather than changed.
+     *
+     * @param date The LocalDateTime that this event occurred at.
+     * @param discovery Whether the modes were discovered (324)
+     * @param cChannel Channel where modes were changed
+     * @param cChannelClient Client chaning the modes (null if server)
+     * @param sHost Host doing the mode changing (User host or server name)
+     * @param positive Whether the mode was added
+     * @param mode The mode that was changed
+     * @param param The parameter of the mode, or an empty string
+     */
+    protected void callChannelSingleModeChanged(final LocalDateTime date, final boolean discovery,
+            final ChannelInfo cChannel, final ChannelClientInfo cChannelClient,
+            final String sHost, final boolean positive, final char mode, final String param) {
+        if (!discovery) {
+            getCallbackManager().publish(
+                    new ChannelSingleModeChangeEvent(parser, date, cChannel,
+                            cChannelClient, sHost, ((positive ? "+" : "-") + mode + ' ' + param).trim()));
+        }
+    }
+
     /**
      * Callback to all objects implementing the ChannelUserModeChanged Callback.
      *
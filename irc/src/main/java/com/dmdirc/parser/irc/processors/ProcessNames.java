@@ -24,46 +24,37 @@ package com.dmdirc.parser.irc.processors;
 
 import com.dmdirc.parser.events.ChannelNamesEvent;
 import com.dmdirc.parser.events.ChannelTopicEvent;
+import com.dmdirc.parser.interfaces.ChannelClientInfo;
 import com.dmdirc.parser.interfaces.ChannelInfo;
 import com.dmdirc.parser.irc.IRCChannelClientInfo;
 import com.dmdirc.parser.irc.IRCChannelInfo;
-import com.dmdirc.parser.irc.IRCClientInfo;
 import com.dmdirc.parser.irc.IRCParser;
-import com.dmdirc.parser.irc.ModeManager;
-import com.dmdirc.parser.irc.PrefixModeManager;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 
 /**
  * Process a Names reply.
  */
 public class ProcessNames extends IRCProcessor {
 
-    /** The manager to use to access prefix modes. */
-    private final PrefixModeManager prefixModeManager;
-    /** Mode manager to use for user modes. */
-    private final ModeManager userModeManager;
-
     /**
      * Create a new instance of the IRCProcessor Object.
      *
      * @param parser IRCParser That owns this IRCProcessor
-     * @param prefixModeManager The manager to use to access prefix modes.
-     * @param userModeManager Mode manager to use for user modes.
      */
     @Inject
-    public ProcessNames(final IRCParser parser, final PrefixModeManager prefixModeManager,
-            @Named("user") final ModeManager userModeManager) {
+    public ProcessNames(final IRCParser parser) {
         super(parser, "353", "366");
-        this.prefixModeManager = prefixModeManager;
-        this.userModeManager = userModeManager;
     }
 
     /**
      * Process a Names reply.
+     * Names are buffered until the end of the reply, and then committed to the
+     * channel in a single operation.
      *
      * @param sParam Type of line to process ("366", "353")
      * @param token IRCTokenised line to process
@@ -82,13 +73,10 @@ public class ProcessNames extends IRCProcessor {
                 callChannelTopic(time, iChannel, true);
             }
 
-            iChannel.setAddingNames(false);
-            callChannelGotNames(time, iChannel);
+            final List<IRCChannelClientInfo> names = iChannel.commitNames();
+            callChannelGotNames(time, iChannel, names);
 
-            if (!iChannel.hasAskedForListModes()
-                    && parser.getAutoListMode()) {
-                iChannel.requestListModes();
-            }
+            iChannel.applyListModePolicy();
         } else {
             // Names
 
@@ -98,45 +86,9 @@ public class ProcessNames extends IRCProcessor {
                 return;
             }
 
-            // If we are not expecting names, clear the current known names - this is fresh stuff!
-            if (!iChannel.isAddingNames()) {
-                iChannel.emptyChannel();
-            }
-            iChannel.setAddingNames(true);
-
-            final String[] sNames = token[token.length - 1].split(" ");
-            String sName = "";
-            StringBuilder sModes = new StringBuilder();
-            for (String sName1 : sNames) {
-                // If name is empty (ie there was an extra space) ignore it.
-                if (sName1.isEmpty()) {
-                    continue;
-                }
-                // This next bit of code allows for any ircd which decides to use @+Foo in names
-                for (int i = 0; i < sName1.length(); i++) {
-                    final char cMode = sName1.charAt(i);
-                    if (prefixModeManager.isPrefix(cMode)) {
-                        sModes.append(prefixModeManager.getModeFor(cMode));
-                    } else {
-                        sName = sName1.substring(i);
-                        break;
-                    }
-                }
-                callDebugInfo(IRCParser.DEBUG_INFO, "Name: %s Modes: \"%s\"", sName,
-                        sModes.toString());
-
-                IRCClientInfo iClient = getClientInfo(sName);
-                if (iClient == null) {
-                    iClient = new IRCClientInfo(parser, userModeManager, sName);
-                    parser.addClient(iClient);
-                }
-                iClient.setUserBits(sName, false); // Will do nothing if this isn't UHNAMES
-                final IRCChannelClientInfo iChannelClient = iChannel.addClient(iClient);
-                iChannelClient.setChanMode(sModes.toString());
-
-                sName = "";
-                sModes = new StringBuilder();
-            }
+            // If we are not expecting names, the buffer will replace the current known names
+            // when it is committed - this is fresh stuff!
+            iChannel.getPendingNames().addNames(token[token.length - 1]);
         }
     }
 
@@ -156,9 +108,11 @@ public class ProcessNames extends IRCProcessor {
      * Callback to all objects implementing the ChannelGotNames Callback.
      *
      * @param cChannel Channel which the names reply is for
+     * @param names The clients named in the reply
      */
-    protected void callChannelGotNames(final LocalDateTime time, final ChannelInfo cChannel) {
-        getCallbackManager().publish(new ChannelNamesEvent(parser, time, cChannel));
+    protected void callChannelGotNames(final LocalDateTime time, final ChannelInfo cChannel,
+            final Collection<? extends ChannelClientInfo> names) {
+        getCallbackManager().publish(new ChannelNamesEvent(parser, time, cChannel, names));
     }
 
 }
@@ -31,6 +31,7 @@ import com.dmdirc.parser.irc.IRCChannelClientInfo;
 import com.dmdirc.parser.irc.IRCChannelInfo;
 import com.dmdirc.parser.irc.IRCClientInfo;
 import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.NetsplitLimbo;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -81,6 +82,10 @@ public class ProcessQuit extends IRCProcessor {
             sReason = token[token.length - 1];
         }
 
+        if (iClient != parser.getLocalClient() && NetsplitLimbo.isNetsplitReason(sReason)) {
+            parser.getNetsplitLimbo().park(iClient);
+        }
+
         final Iterable<IRCChannelInfo> channelList = new ArrayList<>(parser.getChannels());
         for (IRCChannelInfo iChannel : channelList) {
             final IRCChannelClientInfo iChannelClient = iChannel.getChannelClient(iClient);
@@ -79,7 +79,9 @@ public class ProcessTopic extends IRCProcessor {
                     callChannelTopic(date, iChannel, true);
                 }   break;
             default:
-                if (IRCParser.ALWAYS_UPDATECLIENT) {
+                // Dispatched lines have already updated the client.
+                if (IRCParser.ALWAYS_UPDATECLIENT
+                        && !parser.getChannelDispatcher().isProcessingLine()) {
                     final IRCClientInfo iClient = getClientInfo(token[0]);
                     if (iClient != null && iClient.getHostname().isEmpty()) {
                         iClient.setUserBits(token[0], false);
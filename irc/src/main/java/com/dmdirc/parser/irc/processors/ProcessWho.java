@@ -31,13 +31,22 @@ import com.dmdirc.parser.interfaces.ChannelInfo;
 import com.dmdirc.parser.interfaces.ClientInfo;
 import com.dmdirc.parser.irc.IRCClientInfo;
 import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.WhoSync;
+import com.dmdirc.parser.irc.events.UserSyncEvent;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.inject.Inject;
 
 /**
  * Process a /who reply.
+ *
+ * <p>Both classic (352) and WHOX (354) replies are understood. WHOX replies
+ * are only handled if they were requested by the parser's {@link WhoSync},
+ * as otherwise the fields they contain aren't known. Replies that belong to a
+ * sync are applied together once the end of the WHO (315) is seen.
  */
 public class ProcessWho extends IRCProcessor {
 
@@ -48,17 +57,37 @@ public class ProcessWho extends IRCProcessor {
      */
     @Inject
     public ProcessWho(final IRCParser parser) {
-        super(parser, "352");
+        super(parser, "352", "354", "315");
     }
 
     /**
      * Process a /who reply.
      *
-     * @param sParam Type of line to process ("352")
+     * @param sParam Type of line to process ("352", "354" or "315")
      * @param token IRCTokenised line to process
      */
     @Override
     public void process(final LocalDateTime time, final String sParam, final String... token) {
+        switch (sParam) {
+            case "354":
+                processWhox(token);
+                break;
+            case "315":
+                processEnd(time, token);
+                break;
+            default:
+                processWho(time, token);
+                break;
+        }
+    }
+
+    /**
+     * Process a classic /who reply.
+     *
+     * @param time The time the reply was received
+     * @param token IRCTokenised line to process
+     */
+    private void processWho(final LocalDateTime time, final String... token) {
         // :blueyonder2.uk.quakenet.org 352 Dataforce #mdbot shane Tobavaj.users.quakenet.org *.quakenet.org Tobavaj G+x :3 Tobavaj - http://shane.dmdirc.com/scriptbot.php
         //              0               1      2        3     4              5                      6           7     8        9
         // :blueyonder2.uk.quakenet.org 352 Dataforce #mdbot ~Dataforce ResNetUser-BrynDinas-147.143.246.102.bangor.ac.uk *.quakenet.org Dataforce H@ :0 Dataforce
@@ -67,36 +96,112 @@ public class ProcessWho extends IRCProcessor {
         //              0               1      2        3     4              5                      6       7     8      9
         // :server 352 mynickname channel username address server nick flags :hops info
         //     0    1      2         3     4          5      6      7    8        9
+        if (token.length < 10) {
+            return;
+        }
+
+        final String[] info = token[9].split(" ", 2);
+        final WhoSync.Reply reply = new WhoSync.Reply(token[7], token[4], token[5], token[8],
+                null, info.length > 1 ? info[1] : "");
+        if (!parser.getWhoSync().addReply(reply, token[3])) {
+            applyReply(time, reply, false);
+        }
+    }
+
+    /**
+     * Process a WHOX reply, using the fields in {@link WhoSync#WHOX_FIELDS}.
+     *
+     * @param token IRCTokenised line to process
+     */
+    private void processWhox(final String... token) {
+        // :server 354 mynickname token username address nick flags account :realname
+        //     0    1      2        3      4        5      6     7      8        9
+        if (token.length < 10) {
+            return;
+        }
+
+        final String account = "0".equals(token[8]) ? "" : token[8];
+        final WhoSync.Reply reply = new WhoSync.Reply(token[6], token[4], token[5], token[7],
+                account, token[9]);
+        if (!parser.getWhoSync().addReply(token[3], reply)) {
+            callDebugInfo(IRCParser.DEBUG_INFO, "Ignoring WHOX reply with unknown token %s",
+                    token[3]);
+        }
+    }
+
+    /**
+     * Process the end of a /who reply, applying the replies of any sync that
+     * it completes.
+     *
+     * @param time The time the reply was received
+     * @param token IRCTokenised line to process
+     */
+    private void processEnd(final LocalDateTime time, final String... token) {
+        // :server 315 mynickname mask :End of /WHO list.
+        //     0    1      2        3       4
+        if (token.length < 4) {
+            return;
+        }
 
-        final IRCClientInfo client = getClientInfo(token[7]);
-        if (client != null) {
-            // Update ident/host
-            client.setUserBits(token[7] + '!' + token[4] + '@' + token[5], false);
-            // Update real name
-            if (client.getRealname().isEmpty()) {
-                final String name = token[9].split(" ", 2)[1];
-                client.setRealName(name);
+        final WhoSync.Sync sync = parser.getWhoSync().handleEnd(token[3]);
+        if (sync == null) {
+            return;
+        }
+
+        final List<ClientInfo> clients = new ArrayList<>(sync.getReplies().size());
+        for (WhoSync.Reply reply : sync.getReplies()) {
+            final IRCClientInfo client = applyReply(time, reply, true);
+            if (client != null) {
+                clients.add(client);
             }
-            // Update away state
-            final String mode = token[8];
-            final AwayState isAway = mode.indexOf('G') == -1 ? AwayState.HERE : AwayState.AWAY;
-            if (client.getAwayState() != isAway) {
-                final AwayState oldState = client.getAwayState();
-                client.setAwayState(isAway);
-                if (client == parser.getLocalClient()) {
-                    callAwayState(time, oldState, client.getAwayState(), client.getAwayReason());
-                } else {
-                    callAwayStateOther(time, client, oldState, isAway);
-
-                    for (ChannelInfo iChannel : parser.getChannels()) {
-                        final ChannelClientInfo iChannelClient = iChannel.getChannelClient(client);
-                        if (iChannelClient != null) {
-                            callChannelAwayStateOther(time, iChannel, iChannelClient, oldState, isAway);
-                        }
-                    }
+        }
+        getCallbackManager().publish(new UserSyncEvent(parser, time, sync.getMasks(), clients));
+    }
+
+    /**
+     * Applies the details from a WHO reply to the matching client.
+     *
+     * @param time The time the reply was received
+     * @param reply The reply to apply
+     * @param refresh True to replace the client's real name, false to only
+     * set it if it isn't known
+     * @return The updated client, or null if the client isn't known
+     */
+    private IRCClientInfo applyReply(final LocalDateTime time, final WhoSync.Reply reply,
+            final boolean refresh) {
+        final IRCClientInfo client = getClientInfo(reply.getNickname());
+        if (client == null) {
+            return null;
+        }
+
+        // Update ident/host
+        client.setUserBits(reply.getNickname() + '!' + reply.getIdent() + '@' + reply.getHost(),
+                false);
+        // Update real name
+        if (refresh || client.getRealname().isEmpty()) {
+            client.setRealName(reply.getRealname());
+        }
+        // Update account
+        if (reply.getAccount() != null) {
+            client.setAccountName(reply.getAccount().isEmpty() ? null : reply.getAccount());
+        }
+        // Update away state
+        final AwayState isAway = reply.isAway() ? AwayState.AWAY : AwayState.HERE;
+        if (client.getAwayState() != isAway) {
+            final AwayState oldState = client.getAwayState();
+            client.setAwayState(isAway);
+            if (client == parser.getLocalClient()) {
+                callAwayState(time, oldState, client.getAwayState(), client.getAwayReason());
+            } else {
+                callAwayStateOther(time, client, oldState, isAway);
+
+                for (ChannelClientInfo iChannelClient : client.getChannelClients()) {
+                    callChannelAwayStateOther(time, iChannelClient.getChannel(), iChannelClient,
+                            oldState, isAway);
                 }
             }
         }
+        return client;
     }
 
     /**
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.processors;
+
+import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.ModeManager;
+import com.dmdirc.parser.irc.PrefixModeManager;
+
+/**
+ * Creates the standard set of processors for a parser with plain constructor
+ * calls, avoiding the cost of building a Dagger object graph for every parser.
+ *
+ * <p>This must supply the same processors as {@link ProcessorsModule}.
+ */
+public final class ProcessorSet {
+
+    private ProcessorSet() {
+        // Shouldn't be instantiated
+    }
+
+    /**
+     * Creates the standard processors for a parser.
+     *
+     * @param parser The parser the processors will belong to
+     * @param prefixModeManager The parser's prefix mode manager
+     * @param userModeManager The parser's user mode manager
+     * @param chanModeManager The parser's channel mode manager
+     * @return A new array of processors
+     */
+    public static IRCProcessor[] create(final IRCParser parser,
+            final PrefixModeManager prefixModeManager, final ModeManager userModeManager,
+            final ModeManager chanModeManager) {
+        return new IRCProcessor[]{
+            new Process001(parser),
+            new Process464(parser),
+            new Process004005(parser),
+            new ProcessAccount(parser),
+            new ProcessAway(parser),
+            new ProcessBatch(parser, userModeManager),
+            new ProcessCap(parser),
+            new ProcessInvite(parser),
+            new ProcessJoin(parser, prefixModeManager, userModeManager, chanModeManager),
+            new ProcessKick(parser),
+            new ProcessList(parser),
+            new ProcessListModes(parser),
+            new ProcessMessage(parser, prefixModeManager),
+            new ProcessMode(parser, prefixModeManager, userModeManager, chanModeManager),
+            new ProcessMOTD(parser),
+            new ProcessNames(parser),
+            new ProcessNick(parser),
+            new ProcessNickInUse(parser),
+            new ProcessNoticeAuth(parser),
+            new ProcessPart(parser),
+            new ProcessQuit(parser),
+            new ProcessTopic(parser),
+            new ProcessWallops(parser),
+            new ProcessWho(parser),
+        };
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.replay;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Statistics gathered while replaying a recording.
+ */
+public class ReplayReport {
+
+    /** Number of records (lines) replayed. */
+    private long lines;
+    /** Number of bytes replayed. */
+    private long bytes;
+    /** Total time taken by the replay, in nanoseconds. */
+    private long elapsedNanos;
+    /** Time spent reading and processing lines, in nanoseconds. */
+    private long busyNanos;
+    /** Bytes allocated while reading and processing lines, or -1 if unknown. */
+    private long allocatedBytes;
+    /** Statistics for each command. */
+    private final Map<String, CommandStats> commands = new TreeMap<>();
+
+    /**
+     * Adds a processed line to the report.
+     *
+     * @param command The command of the line
+     * @param length The length of the line, in bytes
+     * @param nanos Time taken to read and process the line
+     * @param allocated Bytes allocated while processing the line, or -1 if unknown
+     */
+    void addLine(final String command, final int length, final long nanos, final long allocated) {
+        lines++;
+        bytes += length;
+        busyNanos += nanos;
+        if (allocated < 0 || allocatedBytes < 0) {
+            allocatedBytes = -1;
+        } else {
+            allocatedBytes += allocated;
+        }
+        commands.computeIfAbsent(command, k -> new CommandStats()).add(nanos);
+    }
+
+    /**
+     * Sets the total time taken by the replay.
+     *
+     * @param elapsedNanos The elapsed time, in nanoseconds
+     */
+    void setElapsedNanos(final long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Gets the number of lines replayed.
+     *
+     * @return The number of lines
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * Gets the number of bytes replayed.
+     *
+     * @return The number of bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets the total time taken by the replay, including any time spent
+     * waiting to keep to the requested speed.
+     *
+     * @return The elapsed time, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Gets the time spent by the parser reading and processing lines.
+     *
+     * @return The busy time, in nanoseconds
+     */
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    /**
+     * Gets the number of lines processed per second of parser time.
+     *
+     * @return The processing rate, in lines per second
+     */
+    public double getLinesPerSecond() {
+        return busyNanos == 0 ? 0 : lines * 1e9 / busyNanos;
+    }
+
+    /**
+     * Gets the number of bytes allocated by the parser while processing lines.
+     *
+     * @return The number of bytes allocated, or -1 if the JVM can't report it
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Gets the rate at which the parser allocated memory while processing lines.
+     *
+     * @return The allocation rate, in bytes per second of parser time, or -1 if unknown
+     */
+    public double getAllocationRate() {
+        if (allocatedBytes < 0) {
+            return -1;
+        }
+        return busyNanos == 0 ? 0 : allocatedBytes * 1e9 / busyNanos;
+    }
+
+    /**
+     * Gets statistics for each command seen in the recording.
+     *
+     * @return A read-only map of commands to their statistics
+     */
+    public Map<String, CommandStats> getCommands() {
+        return Collections.unmodifiableMap(commands);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%d lines, %d bytes in %.3fs (%.3fs busy): %.0f lines/s",
+                lines, bytes, elapsedNanos / 1e9, busyNanos / 1e9, getLinesPerSecond()));
+        if (allocatedBytes >= 0) {
+            builder.append(String.format(", %.1f MB/s allocated (%d bytes/line)",
+                    getAllocationRate() / (1024 * 1024), lines == 0 ? 0 : allocatedBytes / lines));
+        }
+        for (Map.Entry<String, CommandStats> entry : commands.entrySet()) {
+            builder.append(String.format("%n  %-10s %s", entry.getKey(), entry.getValue()));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Latency statistics for a single command.
+     */
+    public static class CommandStats {
+
+        /** Number of lines with this command. */
+        private long count;
+        /** Total time taken to process lines with this command. */
+        private long totalNanos;
+        /** Longest time taken to process a line with this command. */
+        private long maxNanos;
+
+        /**
+         * Records the time taken to process a line.
+         *
+         * @param nanos The time taken, in nanoseconds
+         */
+        void add(final long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        /**
+         * Gets the number of lines with this command.
+         *
+         * @return The number of lines
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Gets the mean time taken to process a line with this command.
+         *
+         * @return The mean latency, in nanoseconds
+         */
+        public long getMeanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+
+        /**
+         * Gets the longest time taken to process a line with this command.
+         *
+         * @return The maximum latency, in nanoseconds
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%8d lines, mean %8.1fus, max %8.1fus", count,
+                    getMeanNanos() / 1e3, maxNanos / 1e3);
+        }
+
+    }
+
+}
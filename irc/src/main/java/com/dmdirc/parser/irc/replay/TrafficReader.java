@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.replay;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reads the records written by a {@link TrafficRecorder}, in order, across
+ * all segments in a directory.
+ */
+public class TrafficReader implements Closeable {
+
+    /** The segments still to be read. */
+    private final Iterator<Path> segments;
+    /** The segment currently being read. */
+    private DataInputStream in;
+
+    /**
+     * Creates a new reader for all segments in the specified directory.
+     *
+     * @param directory The directory containing the recording
+     * @throws IOException If the directory could not be read
+     */
+    public TrafficReader(final Path directory) throws IOException {
+        segments = findSegments(directory).iterator();
+    }
+
+    /**
+     * Reads the next record from the recording.
+     *
+     * @param record The record to populate, which is reused between calls
+     * @return True if a record was read, false at the end of the recording
+     * @throws IOException If the recording could not be read, or is invalid
+     */
+    public boolean read(final TrafficRecord record) throws IOException {
+        while (true) {
+            if (in == null && !openNextSegment()) {
+                return false;
+            }
+
+            final long timestamp;
+            try {
+                timestamp = in.readLong();
+            } catch (EOFException ex) {
+                close();
+                continue;
+            }
+
+            final int length = in.readInt();
+            record.set(timestamp, length);
+            in.readFully(record.getData(), 0, length);
+            return true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+    }
+
+    /**
+     * Opens the next segment, and validates its header.
+     *
+     * @return True if a segment was opened, false if there are none left
+     * @throws IOException If the segment could not be opened, or is invalid
+     */
+    private boolean openNextSegment() throws IOException {
+        if (!segments.hasNext()) {
+            return false;
+        }
+        final Path segment = segments.next();
+        in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment), 65536));
+        if (in.readInt() != TrafficRecorder.MAGIC) {
+            throw new IOException("Not a traffic segment: " + segment);
+        }
+        if (in.readShort() != TrafficRecorder.FORMAT_VERSION) {
+            throw new IOException("Unsupported traffic segment version: " + segment);
+        }
+        in.readLong();
+        return true;
+    }
+
+    /**
+     * Finds all segments in the specified directory, in order.
+     *
+     * @param directory The directory to search
+     * @return The segments in the directory
+     * @throws IOException If the directory could not be read
+     */
+    static List<Path> findSegments(final Path directory) throws IOException {
+        final List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                TrafficRecorder.SEGMENT_PREFIX + "[0-9]*" + TrafficRecorder.SEGMENT_SUFFIX)) {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        }
+        segments.sort(Comparator.comparingInt(TrafficRecorder::getSegmentIndex));
+        return segments;
+    }
+
+    /**
+     * A single record read from a recording. Instances are reused.
+     */
+    public static class TrafficRecord {
+
+        /** Time the data was received, in nanoseconds since the recording started. */
+        private long timestamp;
+        /** Buffer holding the data. */
+        private byte[] data = new byte[1024];
+        /** Length of the data. */
+        private int length;
+
+        /**
+         * Resets this record for new data, growing the buffer if required.
+         *
+         * @param timestamp The timestamp of the record
+         * @param length The length of the data
+         */
+        void set(final long timestamp, final int length) {
+            this.timestamp = timestamp;
+            this.length = length;
+            if (data.length < length) {
+                data = new byte[Math.max(length, data.length * 2)];
+            }
+        }
+
+        /**
+         * Gets the time the data was received.
+         *
+         * @return The timestamp, in nanoseconds since the recording started
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Gets the buffer holding the data. Only the first {@link #getLength()}
+         * bytes are valid.
+         *
+         * @return The data buffer
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * Gets the length of the data.
+         *
+         * @return The number of valid bytes in the data buffer
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Gets the IRC command of the line in this record, skipping any tags
+         * and prefix.
+         *
+         * @return The command, or null if there isn't one
+         */
+        @Nullable
+        public String getCommand() {
+            int start = 0;
+            while (start < length && (data[start] == '@' || data[start] == ':')) {
+                while (start < length && data[start] != ' ') {
+                    start++;
+                }
+                while (start < length && data[start] == ' ') {
+                    start++;
+                }
+            }
+            int end = start;
+            while (end < length && data[end] != ' ' && data[end] != '\r' && data[end] != '\n') {
+                end++;
+            }
+            return end == start ? null : new String(data, start, end - start,
+                    StandardCharsets.US_ASCII);
+        }
+
+    }
+
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.replay;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Records raw inbound traffic, with timestamps, to a series of append-only
+ * segment files.
+ *
+ * <p>Each record holds the bytes of one line (including its line ending) and
+ * the time it was received, relative to the start of the recording. A new
+ * segment is started whenever the current one reaches the maximum size;
+ * existing segments are never modified. Recordings can be played back with
+ * {@link TrafficReplay}.
+ */
+public class TrafficRecorder implements Closeable {
+
+    /** Magic number at the start of every segment ("DMTR"). */
+    static final int MAGIC = 0x444D5452;
+    /** Version of the segment format. */
+    static final short FORMAT_VERSION = 1;
+    /** Prefix of segment file names. */
+    static final String SEGMENT_PREFIX = "segment-";
+    /** Suffix of segment file names. */
+    static final String SEGMENT_SUFFIX = ".irc";
+    /** Default maximum size of a segment, in bytes. */
+    private static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    /** Directory containing the segments. */
+    private final Path directory;
+    /** Maximum size of a segment, in bytes. */
+    private final long segmentSize;
+    /** Time the recording started, in nanoseconds (as per {@link System#nanoTime()}). */
+    private final long startNanos;
+    /** Time the recording started, in milliseconds since the epoch. */
+    private final long startMillis;
+    /** Index of the next segment to be created. */
+    private int nextSegment;
+    /** Output stream for the current segment. */
+    private DataOutputStream out;
+    /** Number of bytes written to the current segment. */
+    private long written;
+
+    /**
+     * Creates a new recorder using the default segment size.
+     *
+     * @param directory The directory to write segments to
+     * @throws IOException If the directory could not be created or read
+     */
+    public TrafficRecorder(final Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Creates a new recorder. Segments already in the directory are kept, and
+     * new segments are numbered after them.
+     *
+     * @param directory The directory to write segments to
+     * @param segmentSize The maximum size of a segment, in bytes
+     * @throws IOException If the directory could not be created or read
+     */
+    public TrafficRecorder(final Path directory, final long segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.startNanos = System.nanoTime();
+        this.startMillis = System.currentTimeMillis();
+
+        Files.createDirectories(directory);
+        final List<Path> existing = TrafficReader.findSegments(directory);
+        nextSegment = existing.isEmpty() ? 0 : getSegmentIndex(existing.get(existing.size() - 1)) + 1;
+    }
+
+    /**
+     * Records a chunk of received data.
+     *
+     * @param data The buffer containing the data
+     * @param offset The offset of the data in the buffer
+     * @param length The length of the data
+     * @throws IOException If the data could not be written
+     */
+    public synchronized void record(final byte[] data, final int offset, final int length)
+            throws IOException {
+        final long timestamp = System.nanoTime() - startNanos;
+        if (out == null || written >= segmentSize) {
+            startSegment();
+        }
+        out.writeLong(timestamp);
+        out.writeInt(length);
+        out.write(data, offset, length);
+        written += 12 + length;
+    }
+
+    /**
+     * Wraps an input stream so that everything read from it is recorded, one
+     * record per line. Recording stops if a line cannot be recorded, but
+     * reads continue to succeed.
+     *
+     * @param stream The stream to be wrapped
+     * @return A stream that records data as it is read
+     */
+    public InputStream wrap(final InputStream stream) {
+        return wrap(stream, ex -> {});
+    }
+
+    /**
+     * Wraps an input stream so that everything read from it is recorded, one
+     * record per line. If a line cannot be recorded, recording stops and the
+     * failure is passed to the given handler; reads continue to succeed.
+     *
+     * @param stream The stream to be wrapped
+     * @param failureHandler The handler to notify if recording fails
+     * @return A stream that records data as it is read
+     */
+    public InputStream wrap(final InputStream stream,
+            final Consumer<IOException> failureHandler) {
+        return new RecordingInputStream(stream, failureHandler);
+    }
+
+    /**
+     * Flushes any buffered records to disk.
+     *
+     * @throws IOException If the records could not be written
+     */
+    public synchronized void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Closes the current segment, if any, and starts a new one.
+     *
+     * @throws IOException If the segment could not be created
+     */
+    private void startSegment() throws IOException {
+        close();
+        final Path file = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX,
+                nextSegment++, SEGMENT_SUFFIX));
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)));
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeLong(startMillis);
+        written = 14;
+    }
+
+    /**
+     * Gets the index of a segment from its file name.
+     *
+     * @param segment The path of the segment
+     * @return The index of the segment
+     */
+    static int getSegmentIndex(final Path segment) {
+        final String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Input stream that records each line read through it.
+     */
+    private class RecordingInputStream extends FilterInputStream {
+
+        /** Bytes of the current line. */
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(512);
+        /** Handler to notify if recording fails. */
+        private final Consumer<IOException> failureHandler;
+        /** Whether recording has failed, and been stopped. */
+        private boolean failed;
+
+        RecordingInputStream(final InputStream in, final Consumer<IOException> failureHandler) {
+            super(in);
+            this.failureHandler = failureHandler;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int chr = super.read();
+            if (chr == -1) {
+                flushLine();
+            } else {
+                line.write(chr);
+                if (chr == '\n') {
+                    flushLine();
+                }
+            }
+            return chr;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length)
+                throws IOException {
+            final int count = super.read(buffer, offset, length);
+            if (count == -1) {
+                flushLine();
+                return count;
+            }
+            int start = offset;
+            for (int i = offset; i < offset + count; i++) {
+                if (buffer[i] == '\n') {
+                    line.write(buffer, start, i + 1 - start);
+                    flushLine();
+                    start = i + 1;
+                }
+            }
+            line.write(buffer, start, offset + count - start);
+            return count;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            // Skipped data can't be recorded, so read it instead.
+            final byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            final int count = read(buffer, 0, buffer.length);
+            return Math.max(count, 0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushLine();
+            if (!failed) {
+                try {
+                    flush();
+                } catch (IOException ex) {
+                    fail(ex);
+                }
+            }
+            super.close();
+        }
+
+        /**
+         * Records the current line, if it isn't empty. Failures never reach
+         * the reader, as they would otherwise drop the connection.
+         */
+        private void flushLine() {
+            if (line.size() > 0 && !failed) {
+                try {
+                    record(line.toByteArray(), 0, line.size());
+                } catch (IOException ex) {
+                    fail(ex);
+                }
+            }
+            line.reset();
+        }
+
+        /**
+         * Stops recording after a failure, and reports it.
+         *
+         * @param ex The exception that caused recording to fail
+         */
+        private void fail(final IOException ex) {
+            failed = true;
+            try {
+                TrafficRecorder.this.close();
+            } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+            }
+            failureHandler.accept(ex);
+        }
+
+    }
+
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.replay;
+
+import com.dmdirc.parser.common.MyInfo;
+import com.dmdirc.parser.irc.IRCParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.net.SocketFactory;
+
+/**
+ * Replays a recording made by {@link TrafficRecorder} into an
+ * {@link IRCParser}, and reports how quickly the parser processed it.
+ *
+ * <p>The parser is connected to an in-memory socket that serves the recorded
+ * data, and discards anything the parser sends. Lines can be delivered at
+ * their original pace, at a multiple of it, or as fast as the parser can read
+ * them. The parser runs on the thread that calls {@link #run()}, so its
+ * allocations can be measured where the JVM supports it.
+ *
+ * <p>The parser returned by {@link #getParser()} can be configured, and have
+ * handlers subscribed to it, before the replay is started. It never sends
+ * pings of its own, as there is no server to answer them.
+ */
+public class TrafficReplay {
+
+    /** Speed used to replay data as fast as possible. */
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+    /** Speed used to replay data at its original pace. */
+    public static final double ORIGINAL_SPEED = 1;
+    /** URI the parser "connects" to. */
+    private static final URI REPLAY_URI = URI.create("irc://replay.invalid:6667");
+
+    /** Directory containing the recording. */
+    private final Path directory;
+    /** Speed multiplier, or {@link #AS_FAST_AS_POSSIBLE}. */
+    private final double speed;
+    /** The parser that will receive the data. */
+    private final IRCParser parser;
+    /** Socket used by the current replay. */
+    private Socket socket;
+
+    /**
+     * Creates a new replay.
+     *
+     * @param directory The directory containing the recording
+     * @param speed The speed to replay at, as a multiple of the original speed,
+     * or {@link #AS_FAST_AS_POSSIBLE}
+     */
+    public TrafficReplay(final Path directory, final double speed) {
+        this(directory, speed, new MyInfo());
+    }
+
+    /**
+     * Creates a new replay.
+     *
+     * @param directory The directory containing the recording
+     * @param speed The speed to replay at, as a multiple of the original speed,
+     * or {@link #AS_FAST_AS_POSSIBLE}
+     * @param myInfo The client details for the parser to use
+     */
+    public TrafficReplay(final Path directory, final double speed, final MyInfo myInfo) {
+        this.directory = directory;
+        this.speed = speed;
+        this.parser = new IRCParser(myInfo, REPLAY_URI) {
+            @Override
+            protected SocketFactory getSocketFactory() {
+                return new ReplaySocketFactory();
+            }
+
+            @Override
+            public void startPingTimer() {
+                // Nothing will ever reply.
+            }
+        };
+    }
+
+    /**
+     * Gets the parser that the recording will be replayed into.
+     *
+     * @return The replay parser
+     */
+    public IRCParser getParser() {
+        return parser;
+    }
+
+    /**
+     * Replays the recording, returning once all of it has been processed.
+     *
+     * @return Statistics about the replay
+     * @throws IOException If the recording could not be read
+     */
+    public ReplayReport run() throws IOException {
+        final ReplayReport report = new ReplayReport();
+        try (TrafficReader reader = new TrafficReader(directory)) {
+            final ReplayInputStream stream = new ReplayInputStream(reader, speed, report);
+            socket = new ReplaySocket(stream);
+
+            final long start = System.nanoTime();
+            parser.run();
+            report.setElapsedNanos(System.nanoTime() - start);
+
+            if (stream.error != null) {
+                throw stream.error;
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Socket factory that hands out the replay socket.
+     */
+    private class ReplaySocketFactory extends SocketFactory {
+
+        @Override
+        public Socket createSocket() {
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket(final String host, final int port) {
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket(final String host, final int port,
+                final InetAddress localHost, final int localPort) {
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket(final InetAddress host, final int port) {
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket(final InetAddress address, final int port,
+                final InetAddress localAddress, final int localPort) {
+            return socket;
+        }
+
+    }
+
+    /**
+     * In-memory socket that reads from a recording and discards output.
+     */
+    private static class ReplaySocket extends Socket {
+
+        /** The stream serving the recording. */
+        private final InputStream input;
+        /** The stream discarding output. */
+        private final OutputStream output = new OutputStream() {
+            @Override
+            public void write(final int b) {
+                // Discarded
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+                // Discarded
+            }
+        };
+        /** Whether the socket has been closed. */
+        private volatile boolean closed;
+
+        ReplaySocket(final InputStream input) {
+            this.input = input;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return input;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+        }
+
+    }
+
+    /**
+     * Input stream that serves recorded lines, paced according to their
+     * timestamps, and measures how long the parser takes to process each one.
+     */
+    private static class ReplayInputStream extends InputStream {
+
+        /** The reader for the recording. */
+        private final TrafficReader reader;
+        /** The current record. */
+        private final TrafficReader.TrafficRecord record = new TrafficReader.TrafficRecord();
+        /** Speed multiplier, or {@link #AS_FAST_AS_POSSIBLE}. */
+        private final double speed;
+        /** Report to add statistics to. */
+        private final ReplayReport report;
+        /** Bean used to measure allocations, or null if not supported. */
+        private final com.sun.management.ThreadMXBean threadBean;
+        /** Whether a record is currently being served. */
+        private boolean loaded;
+        /** Position within the current record. */
+        private int position;
+        /** Time the first record was served, or -1. */
+        private long startNanos = -1;
+        /** Timestamp of the first record. */
+        private long firstTimestamp;
+        /** Time the current record started being served. */
+        private long lineStartNanos;
+        /** Bytes allocated by this thread when the current record started being served. */
+        private long lineStartAllocated;
+        /** Error encountered while reading the recording, if any. */
+        private IOException error;
+
+        ReplayInputStream(final TrafficReader reader, final double speed,
+                final ReplayReport report) {
+            this.reader = reader;
+            this.speed = speed;
+            this.report = report;
+
+            final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+                threadBean = (com.sun.management.ThreadMXBean) bean;
+                threadBean.setThreadAllocatedMemoryEnabled(true);
+            } else {
+                threadBean = null;
+            }
+        }
+
+        @Override
+        public int read() {
+            if (!ensureRecord()) {
+                return -1;
+            }
+            return record.getData()[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!ensureRecord()) {
+                return -1;
+            }
+            final int count = Math.min(length, record.getLength() - position);
+            System.arraycopy(record.getData(), position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        /**
+         * Ensures there is data available to serve, finishing the previous
+         * record and loading the next if required.
+         *
+         * @return True if data is available, false at the end of the recording
+         */
+        private boolean ensureRecord() {
+            if (loaded && position < record.getLength()) {
+                return true;
+            }
+            if (loaded) {
+                finishRecord();
+            }
+
+            try {
+                if (error != null || !reader.read(record)) {
+                    return false;
+                }
+            } catch (IOException ex) {
+                error = ex;
+                return false;
+            }
+
+            loaded = true;
+            position = 0;
+            pace();
+            lineStartAllocated = getAllocatedBytes();
+            lineStartNanos = System.nanoTime();
+            return true;
+        }
+
+        /**
+         * Records statistics for the record that has just been processed.
+         */
+        private void finishRecord() {
+            final long now = System.nanoTime();
+            final long allocated = getAllocatedBytes();
+            loaded = false;
+
+            final String command = record.getCommand();
+            report.addLine(command == null ? "(none)" : command, record.getLength(),
+                    now - lineStartNanos, allocated < 0 ? -1 : allocated - lineStartAllocated);
+        }
+
+        /**
+         * Waits until the current record is due, if replaying at a fixed speed.
+         */
+        private void pace() {
+            if (startNanos == -1) {
+                startNanos = System.nanoTime();
+                firstTimestamp = record.getTimestamp();
+            }
+            if (speed <= 0) {
+                return;
+            }
+
+            final long due = startNanos + (long) ((record.getTimestamp() - firstTimestamp) / speed);
+            long remaining;
+            while ((remaining = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+
+        /**
+         * Gets the number of bytes allocated by the current thread.
+         *
+         * @return The number of bytes allocated, or -1 if not supported
+         */
+        private long getAllocatedBytes() {
+            return threadBean == null ? -1
+                    : threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+    }
+
+}
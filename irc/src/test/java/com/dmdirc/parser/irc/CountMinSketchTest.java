@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CountMinSketchTest {
+
+    private final CountMinSketch sketch = new CountMinSketch(4096,
+            TimeUnit.SECONDS.toNanos(10), 0);
+
+    @Test
+    public void testCountsKeysSeparately() {
+        for (int i = 0; i < 5; i++) {
+            sketch.add("flood.host", 0);
+        }
+        sketch.add("quiet.host", 0);
+
+        assertEquals(5, sketch.estimate("flood.host", 0), 0);
+        assertEquals(1, sketch.estimate("quiet.host", 0), 0);
+        assertEquals(0, sketch.estimate("other.host", 0), 0);
+    }
+
+    @Test
+    public void testSeparatesKeysWithEqualHashCodes() {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertEquals("AaAa.host".hashCode(), "BBBB.host".hashCode());
+        for (int i = 0; i < 100; i++) {
+            sketch.add("Aa", 0);
+            sketch.add("AaAa.host", 0);
+        }
+
+        assertEquals(0, sketch.estimate("BB", 0), 0);
+        assertEquals(0, sketch.estimate("BBBB.host", 0), 0);
+        assertEquals(1, sketch.add("BBBB.host", 0), 0);
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.irc.events.FloodDetectedEvent;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.engio.mbassy.listener.Handler;
+import net.engio.mbassy.listener.Listener;
+import net.engio.mbassy.listener.References;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class FloodShieldTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final IRCParser parser = new IRCParser();
+    private final FloodShield shield = parser.getFloodShield();
+
+    @Before
+    public void setUp() {
+        shield.setEnabled(true);
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        final FloodShield disabled = new IRCParser().getFloodShield();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(disabled.allow("nick!user@flood.host", "#channel"));
+            assertTrue(disabled.allowCtcpReply());
+        }
+    }
+
+    @Test
+    public void testDropsSourcesOverThreshold() {
+        for (int i = 0; i < 10; i++) {
+            assertTrue(shield.allow("nick!user@flood.host", "#channel", 0));
+        }
+        assertFalse(shield.allow("other!user@flood.host", "#channel", 0));
+        assertTrue(shield.allow("nick!user@quiet.host", "#channel", 0));
+    }
+
+    @Test
+    public void testCountsDecay() {
+        for (int i = 0; i < 11; i++) {
+            shield.allow("nick!user@flood.host", "#channel", 0);
+        }
+        assertFalse(shield.allow("nick!user@flood.host", "#channel", SECOND));
+        assertTrue(shield.allow("nick!user@flood.host", "#channel", 60 * SECOND));
+    }
+
+    @Test
+    public void testLowersThresholdForFloodedTargets() {
+        for (int i = 0; i < 310; i++) {
+            shield.allow("bot" + i + "!user@bot" + i + ".host", "#flooded", 0);
+        }
+        for (int i = 0; i < 6; i++) {
+            assertTrue(shield.allow("nick!user@busy.host", "#flooded", 0));
+        }
+        assertFalse(shield.allow("nick!user@busy.host", "#flooded", 0));
+        assertTrue(shield.allow("nick!user@busy.host", "#other", 0));
+    }
+
+    @Test
+    public void testAllowsOrdinarySpeakersInBusyChannels() {
+        // Fifty users each speaking every five seconds, for five minutes.
+        for (long time = 0; time < 300 * SECOND; time += 100_000_000) {
+            final int speaker = (int) (time / 100_000_000 % 50);
+            assertTrue(shield.allow("nick" + speaker + "!user@host" + speaker, "#busy", time));
+        }
+    }
+
+    @Test
+    public void testIgnoresOwnMessages() {
+        parser.setNickname("Me");
+        for (int i = 0; i < 100; i++) {
+            assertTrue(shield.allow("me!user@my.host", "#channel", 0));
+        }
+        assertTrue(shield.allow("nick!user@my.host", "#channel", 0));
+    }
+
+    @Test
+    public void testSummarisesDropsOnceFloodEnds() throws InterruptedException {
+        final SummaryListener listener = new SummaryListener();
+        parser.getCallbackManager().subscribe(listener);
+
+        for (int i = 0; i < 15; i++) {
+            shield.allow("nick!user@flood.host", "#Channel", 0);
+        }
+        shield.allow("nick!user@quiet.host", "#channel", SECOND);
+        shield.allow("nick!user@quiet.host", "#channel", 10 * SECOND);
+
+        final FloodDetectedEvent event = listener.events.poll(5, TimeUnit.SECONDS);
+        assertNotNull(event);
+        assertEquals(5, event.getDropped());
+        assertEquals(Integer.valueOf(5), event.getSources().get("flood.host"));
+        assertEquals(Integer.valueOf(5), event.getTargets().get("#channel"));
+        assertFalse(event.isOngoing());
+        assertTrue(listener.events.isEmpty());
+    }
+
+    @Test
+    public void testOnlyThrottlesCtcpRepliesDuringFloods() {
+        for (int i = 0; i < 10; i++) {
+            assertTrue(shield.allowCtcpReply(0));
+        }
+    }
+
+    @Test
+    public void testThrottlesCtcpReplies() {
+        for (int i = 0; i < 11; i++) {
+            shield.allow("nick!user@flood.host", "#channel", 0);
+        }
+        assertTrue(shield.allowCtcpReply(0));
+        assertTrue(shield.allowCtcpReply(0));
+        assertTrue(shield.allowCtcpReply(0));
+        assertFalse(shield.allowCtcpReply(0));
+        assertFalse(shield.allowCtcpReply(SECOND));
+        assertTrue(shield.allowCtcpReply(2 * SECOND));
+        assertFalse(shield.allowCtcpReply(2 * SECOND));
+        assertTrue(shield.allowCtcpReply(5 * SECOND));
+        assertTrue(shield.allowCtcpReply(5 * SECOND));
+    }
+
+    @Listener(references = References.Strong)
+    private static final class SummaryListener {
+
+        final BlockingQueue<FloodDetectedEvent> events = new LinkedBlockingQueue<>();
+
+        @Handler
+        public void onFlood(final FloodDetectedEvent event) {
+            events.add(event);
+        }
+
+    }
+
+}
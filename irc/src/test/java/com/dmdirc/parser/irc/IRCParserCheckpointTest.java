@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.ChannelListModeItem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class IRCParserCheckpointTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private IRCParser parser;
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.newFile("checkpoint").toPath();
+        parser = new IRCParser();
+        parser.h005Info.put("PREFIX", "(ov)@+");
+        parser.h005Info.put("CHANMODES", "b,k,l,imnpst");
+        parser.h005Info.put("NETWORK", "TestNet");
+        parser.parsePrefixModes();
+        parser.parseChanModes();
+        parser.networkName = "TestNet";
+        parser.getMyInfo().setNickname("me");
+
+        final IRCChannelInfo channel = parser.createChannel("#Test");
+        parser.addChannel(channel);
+        channel.getPendingNames().addNames("@me!ident@host +foo!a@b bar");
+        channel.commitNames();
+        channel.setInternalTopic("Topic");
+        channel.setTopicUser("foo");
+        channel.setTopicTime(1234);
+        channel.setMode("nt");
+        channel.setModeParam('l', "10");
+        channel.setListModeParam('b', new ChannelListModeItem("*!*@evil", "foo", 99), true);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        try (IRCParserCheckpoint checkpoint = new IRCParserCheckpoint(parser, file)) {
+            checkpoint.write();
+        }
+
+        final IRCParser restored = new IRCParser();
+        IRCParserCheckpoint.restore(restored, file);
+
+        assertEquals("TestNet", restored.getNetworkName());
+        assertEquals("me", restored.getMyInfo().getNickname());
+        assertEquals("b", restored.getListChannelModes());
+
+        final IRCChannelInfo channel = restored.getChannel("#test");
+        assertNotNull(channel);
+        assertEquals("#Test", channel.getName());
+        assertEquals("Topic", channel.getTopic());
+        assertEquals("foo", channel.getTopicSetter());
+        assertEquals(1234, channel.getTopicTime());
+        assertEquals("nt", channel.getMode());
+        assertEquals("10", channel.getMode('l'));
+        assertEquals(1, channel.getListMode('b').size());
+        assertEquals("*!*@evil", channel.getListMode('b').iterator().next().getItem());
+
+        assertEquals(3, channel.getChannelClientCount());
+        assertEquals("o", channel.getChannelClient("me").getAllModes());
+        assertEquals("v", channel.getChannelClient("foo").getAllModes());
+        assertEquals("b", channel.getChannelClient("foo").getClient().getHostname());
+        assertEquals("", channel.getChannelClient("bar").getAllModes());
+    }
+
+    @Test
+    public void testRewriteReplacesContents() throws IOException {
+        try (IRCParserCheckpoint checkpoint = new IRCParserCheckpoint(parser, file)) {
+            checkpoint.write();
+            parser.removeChannel(parser.getChannel("#test"));
+            checkpoint.write();
+            assertEquals(parser.getState().getVersion(), checkpoint.getWrittenVersion());
+        }
+
+        final IRCParser restored = new IRCParser();
+        IRCParserCheckpoint.restore(restored, file);
+        assertTrue(restored.getChannels().isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptCheckpoint() throws IOException {
+        try (IRCParserCheckpoint checkpoint = new IRCParserCheckpoint(parser, file)) {
+            checkpoint.write();
+        }
+        final byte[] data = Files.readAllBytes(file);
+        data[40] ^= 0xFF;
+        Files.write(file, data);
+
+        IRCParserCheckpoint.restore(new IRCParser(), file);
+    }
+
+}
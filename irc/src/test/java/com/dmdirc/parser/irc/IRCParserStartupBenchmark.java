@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.irc.processors.ProcessorSet;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import dagger.ObjectGraph;
+
+/**
+ * Measures how long it takes to construct parsers, and how much memory is
+ * allocated doing so. This is not run as part of the test suite; run it with
+ * the test classpath, optionally passing the number of parsers to create.
+ */
+public final class IRCParserStartupBenchmark {
+
+    private IRCParserStartupBenchmark() {
+    }
+
+    public static void main(final String... args) {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final IRCParser parser = new IRCParser();
+
+        for (int round = 0; round < 3; round++) {
+            System.out.println("Round " + (round + 1));
+            measure("IRCParser construction", count, IRCParser::new);
+            measure("Dagger processor graph", count, () -> ObjectGraph.create(
+                    new IRCParserModule(parser, new PrefixModeManager(), new ModeManager(),
+                            new ModeManager())).get(ProcessingManager.class));
+            measure("Direct processor wiring", count, () -> new ProcessingManager(parser,
+                    ProcessorSet.create(parser,
+                            new PrefixModeManager(), new ModeManager(), new ModeManager())));
+        }
+    }
+
+    private static void measure(final String name, final int count, final Supplier<?> factory) {
+        final List<Object> created = new ArrayList<>(count);
+        final long startBytes = getAllocatedBytes();
+        final long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            created.add(factory.get());
+        }
+        final long elapsed = System.nanoTime() - start;
+        final long allocated = getAllocatedBytes() - startBytes;
+
+        System.out.printf("  %-24s %8.1f us/instance %10d bytes/instance%n", name,
+                elapsed / 1000.0 / count, startBytes < 0 ? -1 : allocated / count);
+        created.clear();
+    }
+
+    private static long getAllocatedBytes() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+}
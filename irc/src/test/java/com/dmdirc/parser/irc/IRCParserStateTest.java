@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import java.util.Collection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IRCParserStateTest {
+
+    private IRCParser parser;
+    private IRCChannelInfo channel;
+
+    @Before
+    public void setUp() {
+        parser = new IRCParser();
+        final PrefixModeManager prefixModeManager = new PrefixModeManager();
+        channel = new IRCChannelInfo(parser, prefixModeManager, null, null, "#Test");
+        parser.addChannel(channel);
+    }
+
+    @Test
+    public void testSnapshotIsUnchangedByLaterUpdates() {
+        final IRCParserState before = parser.getState();
+        channel.addClient(parser.getOrCreateClient("foo", "foo!ident@host"));
+        final IRCParserState after = parser.getState();
+
+        assertTrue(after.getVersion() > before.getVersion());
+        assertTrue(before.getChannelClients("#test").isEmpty());
+        assertNull(before.getClient("Foo"));
+        assertEquals(1, after.getChannelClients("#TEST").size());
+        assertNotNull(after.getChannelClient("#test", "FOO"));
+        assertSame(after.getClient("foo"), parser.getClient("foo"));
+    }
+
+    @Test
+    public void testViewsAreNotCopies() {
+        channel.addClient(parser.getOrCreateClient("foo", "foo"));
+        final Collection<IRCChannelInfo> channels = parser.getChannels();
+        parser.removeChannel(channel);
+
+        assertEquals(1, channels.size());
+        assertTrue(parser.getChannels().isEmpty());
+        assertTrue(parser.getState().getChannelClients("#test").isEmpty());
+    }
+
+    @Test
+    public void testOrphanChannelDoesNotPublish() {
+        final IRCChannelInfo other = new IRCChannelInfo(parser, new PrefixModeManager(), null,
+                null, "#test");
+        other.addClient(parser.getOrCreateClient("bar", "bar"));
+
+        assertNull(parser.getState().getChannelClient("#test", "bar"));
+        assertEquals(1, other.getChannelClientCount());
+    }
+
+}
@@ -36,6 +36,7 @@ import org.junit.Test;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyInt;
@@ -298,4 +299,48 @@ public class IRCReaderTest {
         assertEquals("ing", line.getTokens()[1]);
         assertTrue(line.getTags().containsKey("123"));
     }
+
+    /** Verify that untagged lines share the empty tag instance. */
+    @Test
+    public void testUntaggedLineHasNoTags() throws IOException {
+        final ReadLine line = new ReadLine("", IRCParser.tokeniseLine(":test ing"));
+
+        assertSame(MessageTags.EMPTY, line.getMessageTags());
+        assertTrue(line.getTags().isEmpty());
+    }
+
+    /** Verify the dedicated accessors for well-known IRCv3 tags. */
+    @Test
+    public void testReadLineWellKnownTags() throws IOException {
+        final ReadLine line = new ReadLine("", IRCParser.tokeniseLine(
+                "@account=foo;msgid=abc;batch=ref;label=l1;time=2017-01-01T00:00:00.000Z :test ing"));
+
+        assertEquals("foo", line.getMessageTags().getAccount());
+        assertEquals("abc", line.getMessageTags().getMessageId());
+        assertEquals("ref", line.getMessageTags().getBatch());
+        assertEquals("l1", line.getMessageTags().getLabel());
+        assertEquals("2017-01-01T00:00:00.000Z", line.getMessageTags().getTime());
+        assertEquals(5, line.getTags().size());
+    }
+
+    /** Verify that IRCv3 tag values are unescaped. */
+    @Test
+    public void testReadLineEscapedTagValues() throws IOException {
+        final ReadLine line = new ReadLine("", IRCParser.tokeniseLine(
+                "@a=one\\:two\\sthree\\\\four;b=x\\;c :test ing"));
+
+        assertEquals("one;two three\\four", line.getTags().get("a"));
+        assertEquals("x", line.getMessageTags().get("b"));
+        assertEquals("", line.getMessageTags().get("c"));
+        assertNull(line.getMessageTags().get("d"));
+    }
+
+    /** Verify that the last of several duplicate tags wins. */
+    @Test
+    public void testReadLineDuplicateTags() throws IOException {
+        final ReadLine line = new ReadLine("", IRCParser.tokeniseLine("@a=1;a=2 :test ing"));
+
+        assertEquals("2", line.getMessageTags().get("a"));
+        assertEquals("2", line.getTags().get("a"));
+    }
 }
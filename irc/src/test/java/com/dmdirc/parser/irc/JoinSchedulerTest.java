@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.ChannelJoinRequest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JoinSchedulerTest {
+
+    private final IRCParser parser = new IRCParser();
+    private final JoinScheduler scheduler = parser.getJoinScheduler();
+
+    private static List<ChannelJoinRequest> channels(final int count) {
+        final List<ChannelJoinRequest> channels = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            channels.add(new ChannelJoinRequest(String.format("#channel-number-%03d", i)));
+        }
+        return channels;
+    }
+
+    @Test
+    public void testPacksChannelsWithinLineLength() {
+        final List<String> lines = scheduler.prepareJoin(channels(500), Collections.emptyMap());
+
+        int joined = 0;
+        for (String line : lines) {
+            assertTrue(line.length() <= IRCParser.MAX_LINELENGTH);
+            joined += line.substring("JOIN ".length()).split(",").length;
+        }
+        assertEquals(500, joined);
+        assertEquals(20, lines.size());
+        assertEquals(500, scheduler.getPendingJoins());
+    }
+
+    @Test
+    public void testObeysTargmax() {
+        final Map<String, String> isupport = new HashMap<>();
+        isupport.put("TARGMAX", "PRIVMSG:4,JOIN:5,NOTICE:4");
+
+        final List<String> lines = scheduler.prepareJoin(channels(12), isupport);
+
+        assertEquals(3, lines.size());
+        assertEquals(5, lines.get(0).split(",").length);
+        assertEquals(2, lines.get(2).split(",").length);
+    }
+
+    @Test
+    public void testObeysChanlimit() {
+        final Map<String, String> isupport = new HashMap<>();
+        isupport.put("CHANLIMIT", "#&:3,+:");
+        final IRCChannelInfo existing = parser.createChannel("&existing");
+        parser.addChannel(existing);
+
+        final List<String> lines = scheduler.prepareJoin(Arrays.asList(
+                new ChannelJoinRequest("#a"), new ChannelJoinRequest("&b"),
+                new ChannelJoinRequest("#c"), new ChannelJoinRequest("+d"),
+                new ChannelJoinRequest("+e")), isupport);
+
+        assertEquals(Collections.singletonList("JOIN #a,&b,+d,+e"), lines);
+    }
+
+    @Test
+    public void testPutsKeyedChannelsFirst() {
+        final List<String> lines = scheduler.prepareJoin(Arrays.asList(
+                new ChannelJoinRequest("#open"), new ChannelJoinRequest("#secret", "key1"),
+                new ChannelJoinRequest("#other"), new ChannelJoinRequest("#private", "key2")),
+                Collections.emptyMap());
+
+        assertEquals(Collections.singletonList("JOIN #secret,#private,#open,#other key1,key2"),
+                lines);
+    }
+
+    @Test
+    public void testSplitsKeyedChannelsWithinLineLength() {
+        final List<ChannelJoinRequest> channels = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            channels.add(new ChannelJoinRequest("#keyed" + i, "password" + i));
+        }
+
+        for (String line : scheduler.prepareJoin(channels, Collections.emptyMap())) {
+            assertTrue(line.length() <= IRCParser.MAX_LINELENGTH);
+            final String[] parts = line.split(" ");
+            assertEquals(parts[1].split(",").length, parts[2].split(",").length);
+        }
+    }
+
+    @Test
+    public void testAddsPrefixAndRemovesDuplicates() {
+        final List<String> lines = scheduler.prepareJoin(Arrays.asList(
+                new ChannelJoinRequest("test"), new ChannelJoinRequest("#Test"),
+                new ChannelJoinRequest("#TEST")), Collections.emptyMap());
+
+        assertEquals(Collections.singletonList("JOIN #test"), lines);
+    }
+
+    @Test
+    public void testTracksJoinProgress() {
+        scheduler.prepareJoin(channels(3), Collections.emptyMap());
+
+        scheduler.channelJoined("#CHANNEL-NUMBER-000");
+        scheduler.channelFailed("#channel-number-001");
+        scheduler.channelJoined("#not-requested");
+
+        assertEquals(1, scheduler.getPendingJoins());
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.ChannelListModeItem;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ListModeStoreTest {
+
+    private final ListModeStore store = new ListModeStore(new IRCParser());
+
+    @Test
+    public void testAddKeepsInsertionOrder() {
+        final ChannelListModeItem first = new ChannelListModeItem("b!*@*", "op", 0);
+        final ChannelListModeItem second = new ChannelListModeItem("a!*@*", "op", 0);
+        store.add(first);
+        store.add(second);
+
+        final Iterator<ChannelListModeItem> it = store.getItems().iterator();
+        assertSame(first, it.next());
+        assertSame(second, it.next());
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void testDuplicatesUseIrcCaseMapping() {
+        assertTrue(store.add(new ChannelListModeItem("Foo[a]!*@*", "op", 0)));
+        assertFalse(store.add(new ChannelListModeItem("foo{A}!*@*", "op", 0)));
+        assertEquals(1, store.size());
+        assertTrue(store.contains("FOO{a}!*@*"));
+    }
+
+    @Test
+    public void testRemoveUsesIrcCaseMapping() {
+        store.add(new ChannelListModeItem("Foo[a]!*@*", "op", 0));
+        assertTrue(store.remove("foo{a}!*@*"));
+        assertFalse(store.remove("foo{a}!*@*"));
+        assertEquals(0, store.size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testViewIsReadOnly() {
+        store.getItems().clear();
+    }
+
+    @Test
+    public void testViewReflectsChanges() {
+        final Collection<ChannelListModeItem> view = store.getItems();
+        store.add(new ChannelListModeItem("a!*@*", "op", 0));
+        assertEquals(1, view.size());
+        store.clear();
+        assertTrue(view.isEmpty());
+    }
+
+}
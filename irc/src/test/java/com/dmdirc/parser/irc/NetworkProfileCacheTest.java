@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class NetworkProfileCacheTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private NetworkProfile profile;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder().toPath().resolve("profiles");
+        final Map<String, String> isupport = new HashMap<>();
+        isupport.put("NETWORK", "TestNet");
+        isupport.put("CHANTYPES", "#&");
+        profile = new NetworkProfile(Arrays.asList("multi-prefix", "away-notify"), isupport,
+                ServerType.HYPERION);
+    }
+
+    @Test
+    public void testProfilesArePersisted() throws IOException {
+        new NetworkProfileCache(directory).put(NetworkProfileCache.getKey("IRC.Example.net", 6697),
+                profile);
+
+        final NetworkProfile restored = new NetworkProfileCache(directory)
+                .get(NetworkProfileCache.getKey("irc.example.net", 6697));
+        assertEquals(profile, restored);
+        assertEquals(ServerType.HYPERION, restored.getServerType());
+        assertEquals("TestNet", restored.getISupport().get("NETWORK"));
+    }
+
+    @Test
+    public void testUnknownNetworkHasNoProfile() {
+        assertNull(new NetworkProfileCache(directory).get(
+                NetworkProfileCache.getKey("irc.example.net", 6667)));
+    }
+
+    @Test
+    public void testCorruptProfileIsIgnored() throws IOException {
+        final String key = NetworkProfileCache.getKey("irc.example.net", 6667);
+        new NetworkProfileCache(directory).put(key, profile);
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                try {
+                    Files.write(file, new byte[]{1, 2, 3});
+                } catch (IOException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+        }
+
+        assertNull(new NetworkProfileCache(directory).get(key));
+    }
+
+    @Test
+    public void testRemovedProfileIsForgotten() throws IOException {
+        final String key = NetworkProfileCache.getKey("irc.example.net", 6667);
+        final NetworkProfileCache cache = new NetworkProfileCache(directory);
+        cache.put(key, profile);
+        cache.remove(key);
+
+        assertNull(cache.get(key));
+        assertNull(new NetworkProfileCache(directory).get(key));
+    }
+
+}
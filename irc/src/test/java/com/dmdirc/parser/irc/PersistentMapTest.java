@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentMapTest {
+
+    /** Key whose hash code can be chosen, to force collisions. */
+    private static final class Key {
+        private final int hash;
+        private final String name;
+
+        Key(final int hash, final String name) {
+            this.hash = hash;
+            this.name = name;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof Key && ((Key) obj).name.equals(name);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        final PersistentMap<String, String> map = PersistentMap.empty();
+        assertTrue(map.isEmpty());
+        assertNull(map.get("foo"));
+        assertFalse(map.values().iterator().hasNext());
+        assertSame(map, map.minus("foo"));
+    }
+
+    @Test
+    public void testPlusDoesNotChangeOriginal() {
+        final PersistentMap<String, String> first = PersistentMap.<String, String>empty()
+                .plus("a", "1");
+        final PersistentMap<String, String> second = first.plus("b", "2");
+
+        assertEquals(1, first.size());
+        assertNull(first.get("b"));
+        assertEquals(2, second.size());
+        assertEquals("2", second.get("b"));
+    }
+
+    @Test
+    public void testPlusSameValueReturnsSameMap() {
+        final PersistentMap<String, String> map = PersistentMap.<String, String>empty()
+                .plus("a", "1");
+        assertSame(map, map.plus("a", map.get("a")));
+    }
+
+    @Test
+    public void testCollisions() {
+        PersistentMap<Key, String> map = PersistentMap.empty();
+        map = map.plus(new Key(1, "a"), "a").plus(new Key(1, "b"), "b").plus(new Key(33, "c"), "c");
+
+        assertEquals(3, map.size());
+        assertEquals("a", map.get(new Key(1, "a")));
+        assertEquals("b", map.get(new Key(1, "b")));
+        assertEquals("c", map.get(new Key(33, "c")));
+
+        map = map.minus(new Key(1, "a"));
+        assertEquals(2, map.size());
+        assertNull(map.get(new Key(1, "a")));
+        assertEquals("b", map.get(new Key(1, "b")));
+    }
+
+    @Test
+    public void testMatchesHashMap() {
+        final Random random = new Random(42);
+        final Map<String, Integer> expected = new HashMap<>();
+        PersistentMap<String, Integer> map = PersistentMap.empty();
+
+        for (int i = 0; i < 20000; i++) {
+            final String key = "nick" + random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, map.asMap());
+        final Collection<Integer> values = map.values();
+        assertEquals(new HashSet<>(expected.values()), new HashSet<>(values));
+        assertEquals(expected.size(), values.size());
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.irc.processors.IRCProcessor;
+import com.dmdirc.parser.irc.processors.ProcessorSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertSame;
+
+public class ProcessingManagerTest {
+
+    private IRCParser parser;
+    private IRCProcessor[] processors;
+    private ProcessingManager manager;
+
+    @Before
+    public void setup() {
+        parser = new IRCParser();
+        processors = ProcessorSet.create(parser, new PrefixModeManager(), new ModeManager(),
+                new ModeManager());
+        manager = new ProcessingManager(parser, processors);
+    }
+
+    @Test
+    public void testLooksUpProcessorsCaseInsensitively() throws ProcessorNotFoundException {
+        assertSame(manager.getProcessor("PRIVMSG"), manager.getProcessor("privmsg"));
+        assertSame(manager.getProcessor("JOIN"), manager.getProcessor("329"));
+    }
+
+    @Test(expected = ProcessorNotFoundException.class)
+    public void testThrowsForUnknownTokens() throws ProcessorNotFoundException {
+        manager.getProcessor("NOTACOMMAND");
+    }
+
+    @Test
+    public void testAddedProcessorsDoNotAffectOtherManagers() throws ProcessorNotFoundException {
+        final ProcessingManager other = new ProcessingManager(parser, processors);
+        final IRCProcessor listModes = manager.getProcessor("__LISTMODE__");
+        final IRCProcessor motd = manager.getProcessor("375");
+
+        manager.addProcessor(new String[]{"375"}, listModes);
+
+        assertSame(listModes, manager.getProcessor("375"));
+        assertSame(motd, other.getProcessor("375"));
+        assertSame(manager.getProcessor("PRIVMSG"), other.getProcessor("PRIVMSG"));
+    }
+
+    @Test(expected = ProcessorNotFoundException.class)
+    public void testDeletesProcessors() throws ProcessorNotFoundException {
+        manager.delProcessor(manager.getProcessor("WALLOPS"));
+        manager.getProcessor("WALLOPS");
+    }
+
+}
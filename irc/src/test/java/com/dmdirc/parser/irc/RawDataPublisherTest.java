@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.CallbackManager;
+import com.dmdirc.parser.irc.IRCReader.ReadLine;
+import com.dmdirc.parser.irc.events.IRCDataChunkEvent;
+import com.dmdirc.parser.irc.events.IRCDataInEvent;
+import com.dmdirc.parser.irc.events.IRCDataOutEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.engio.mbassy.listener.Handler;
+import net.engio.mbassy.listener.Listener;
+import net.engio.mbassy.listener.References;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RawDataPublisherTest {
+
+    private final IRCParser parser = new IRCParser();
+    private final RawDataPublisher publisher = parser.getRawDataPublisher();
+    private final DataListener listener = new DataListener();
+
+    @Test
+    public void testTracksWhetherEventsAreHandled() {
+        final CallbackManager manager = parser.getCallbackManager();
+        assertFalse(manager.hasHandlers(IRCDataInEvent.class));
+
+        manager.subscribe(listener);
+        assertTrue(manager.hasHandlers(IRCDataInEvent.class));
+        assertTrue(manager.hasHandlers(IRCDataChunkEvent.class));
+
+        manager.unsubscribe(listener);
+        assertFalse(manager.hasHandlers(IRCDataInEvent.class));
+    }
+
+    @Test
+    public void testPublishesEveryLineByDefault() {
+        parser.getCallbackManager().subscribe(listener);
+
+        publisher.lineIn(line(":server 001 nick :Welcome"));
+        publisher.lineOut("PRIVMSG #channel :hello");
+
+        assertEquals(1, listener.in.size());
+        assertEquals(Collections.singletonList("PRIVMSG #channel :hello"), listener.out);
+    }
+
+    @Test
+    public void testSamplesLines() {
+        parser.getCallbackManager().subscribe(listener);
+        publisher.setSampleRate(3);
+
+        for (int i = 0; i < 9; i++) {
+            publisher.lineIn(line(":server NOTICE nick :line " + i));
+            publisher.lineOut("PING " + i);
+        }
+
+        assertEquals(3, listener.in.size());
+        assertEquals("PING 2", listener.out.get(0));
+        assertEquals(3, listener.out.size());
+    }
+
+    @Test
+    public void testPublishesChunks() {
+        parser.getCallbackManager().subscribe(listener);
+        publisher.setSampleRate(0);
+        publisher.setChunkSize(4);
+
+        publisher.lineIn(line(":server NOTICE nick :one"));
+        publisher.lineOut("PRIVMSG #channel :two");
+        publisher.lineIn(line(":server NOTICE nick :three"));
+        assertTrue(listener.chunks.isEmpty());
+        publisher.lineOut("PRIVMSG #channel :four");
+        publisher.lineIn(line(":server NOTICE nick :five"));
+
+        assertEquals(1, listener.chunks.size());
+        final List<IRCDataChunkEvent.Line> lines = listener.chunks.get(0).getLines();
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0).isIncoming());
+        assertFalse(lines.get(1).isIncoming());
+        assertEquals("PRIVMSG #channel :four", lines.get(3).getData());
+
+        publisher.flush();
+        assertEquals(2, listener.chunks.size());
+        assertEquals(":server NOTICE nick :five",
+                listener.chunks.get(1).getLines().get(0).getData());
+        assertTrue(listener.in.isEmpty());
+        assertTrue(listener.out.isEmpty());
+    }
+
+    private static ReadLine line(final String line) {
+        return new ReadLine(line, IRCParser.tokeniseLine(line));
+    }
+
+    @Listener(references = References.Strong)
+    private static final class DataListener {
+
+        final List<IRCDataInEvent> in = new ArrayList<>();
+        final List<String> out = new ArrayList<>();
+        final List<IRCDataChunkEvent> chunks = new ArrayList<>();
+
+        @Handler
+        public void onDataIn(final IRCDataInEvent event) {
+            in.add(event);
+        }
+
+        @Handler
+        public void onDataOut(final IRCDataOutEvent event) {
+            out.add(event.getData());
+        }
+
+        @Handler
+        public void onChunk(final IRCDataChunkEvent event) {
+            chunks.add(event);
+        }
+
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SSLContextCacheTest {
+
+    private SSLContextCache cache;
+
+    @Before
+    public void setup() {
+        cache = new SSLContextCache(2, 10, 60);
+    }
+
+    @Test
+    public void testReusesContextForEqualManagers() throws GeneralSecurityException {
+        final SSLContext first = cache.getContext(null,
+                new TrustManager[]{new TrustingTrustManager()});
+        final SSLContext second = cache.getContext(null,
+                new TrustManager[]{new TrustingTrustManager()});
+        assertSame(first, second);
+        assertEquals(1, cache.getContextMisses());
+        assertEquals(1, cache.getContextHits());
+    }
+
+    @Test
+    public void testConfiguresSessionCache() throws GeneralSecurityException {
+        final SSLContext context = cache.getContext(null,
+                new TrustManager[]{new TrustingTrustManager()});
+        assertEquals(10, context.getClientSessionContext().getSessionCacheSize());
+        assertEquals(60, context.getClientSessionContext().getSessionTimeout());
+    }
+
+    @Test
+    public void testSeparatesDifferentManagers() throws GeneralSecurityException {
+        final SSLContext trusting = cache.getContext(null,
+                new TrustManager[]{new TrustingTrustManager()});
+        final SSLContext defaults = cache.getContext(null, null);
+        assertNotSame(trusting, defaults);
+        assertEquals(2, cache.getContextCount());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws GeneralSecurityException {
+        final TrustManager[] trusting = {new TrustingTrustManager()};
+        final SSLContext first = cache.getContext(null, trusting);
+        cache.getContext(null, null);
+        cache.getContext(null, trusting);
+        cache.getContext(null, new TrustManager[0]);
+
+        assertEquals(2, cache.getContextCount());
+        assertSame(first, cache.getContext(null, trusting));
+        assertEquals(3, cache.getContextMisses());
+    }
+
+    @Test
+    public void testRecordsHandshakes() {
+        final SSLSession fresh = mock(SSLSession.class);
+        when(fresh.getCreationTime()).thenReturn(System.currentTimeMillis() + 1000);
+        final SSLSession resumed = mock(SSLSession.class);
+        when(resumed.getCreationTime()).thenReturn(System.currentTimeMillis() - 60000);
+
+        assertFalse(cache.recordHandshake(fresh, System.nanoTime()));
+        assertTrue(cache.recordHandshake(resumed, System.nanoTime()
+                - TimeUnit.MILLISECONDS.toNanos(20)));
+
+        assertEquals(2, cache.getHandshakeCount());
+        assertEquals(1, cache.getResumedHandshakeCount());
+        assertEquals(0.5, cache.getResumptionRate(), 0.001);
+        assertTrue(cache.getMeanHandshakeTime(TimeUnit.MILLISECONDS) >= 10);
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc;
+
+import com.dmdirc.parser.common.CallbackManager;
+import com.dmdirc.parser.events.NumericEvent;
+import com.dmdirc.parser.events.UserInfoEvent;
+
+import java.time.LocalDateTime;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WhoisResponseHandlerTest {
+
+    @Mock private CallbackManager callbackManager;
+    private IRCParser parser;
+    private WhoisResponseHandler handler;
+
+    @Before
+    public void setup() {
+        parser = new IRCParser();
+        handler = new WhoisResponseHandler(parser, callbackManager);
+    }
+
+    @Test
+    public void testPublishesCompletedWhois() {
+        handler.start();
+        handler.handleStartOfWhois(numeric(311, "User", "~ident", "host", "*", "Real name"));
+        handler.handleEndOfWhois(numeric(318, "User", "End of /WHOIS list."));
+        verify(callbackManager).publish(any(UserInfoEvent.class));
+    }
+
+    @Test
+    public void testDiscardsPartialWhoisWhenStopped() {
+        handler.start();
+        handler.handleStartOfWhois(numeric(311, "User", "~ident", "host", "*", "Real name"));
+        handler.stop();
+        handler.start();
+        handler.handleEndOfWhois(numeric(318, "User", "End of /WHOIS list."));
+        verify(callbackManager, never()).publish(any(UserInfoEvent.class));
+    }
+
+    private NumericEvent numeric(final int numeric, final String... args) {
+        final String[] token = new String[args.length + 3];
+        token[0] = ":server";
+        token[1] = String.valueOf(numeric);
+        token[2] = "me";
+        System.arraycopy(args, 0, token, 3, args.length);
+        return new NumericEvent(parser, LocalDateTime.now(), numeric, token);
+    }
+
+}
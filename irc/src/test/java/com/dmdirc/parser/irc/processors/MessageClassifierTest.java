@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.processors;
+
+import com.dmdirc.parser.irc.processors.MessageClassifier.Kind;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MessageClassifierTest {
+
+    private final MessageClassifier classifier = new MessageClassifier();
+
+    @Test
+    public void testPlainMessage() {
+        final String message = "Hello world";
+        classifier.classify(message, true);
+        assertEquals(Kind.PLAIN, classifier.getKind());
+        assertEquals(message, classifier.getBody());
+        assertEquals("", classifier.getType());
+    }
+
+    @Test
+    public void testSingleCharacterIsPlain() {
+        classifier.classify("\u0001", true);
+        assertEquals(Kind.PLAIN, classifier.getKind());
+        assertEquals("\u0001", classifier.getBody());
+    }
+
+    @Test
+    public void testAction() {
+        classifier.classify("\u0001ACTION waves hello\u0001", true);
+        assertEquals(Kind.ACTION, classifier.getKind());
+        assertEquals("waves hello", classifier.getBody());
+    }
+
+    @Test
+    public void testActionIsCaseInsensitive() {
+        classifier.classify("\u0001action waves\u0001", true);
+        assertEquals(Kind.ACTION, classifier.getKind());
+        assertEquals("waves", classifier.getBody());
+    }
+
+    @Test
+    public void testActionInNoticeIsCTCP() {
+        classifier.classify("\u0001ACTION waves\u0001", false);
+        assertEquals(Kind.CTCP, classifier.getKind());
+        assertEquals("ACTION", classifier.getType());
+        assertEquals("waves", classifier.getBody());
+    }
+
+    @Test
+    public void testCTCPWithoutBody() {
+        classifier.classify("\u0001VERSION\u0001", true);
+        assertEquals(Kind.CTCP, classifier.getKind());
+        assertEquals("VERSION", classifier.getType());
+        assertEquals("", classifier.getBody());
+    }
+
+    @Test
+    public void testCTCPWithBody() {
+        classifier.classify("\u0001PING 12345\u0001", false);
+        assertEquals(Kind.CTCP, classifier.getKind());
+        assertEquals("PING", classifier.getType());
+        assertEquals("12345", classifier.getBody());
+        assertEquals(6, classifier.getBodyStart());
+        assertEquals(11, classifier.getBodyEnd());
+    }
+
+    @Test
+    public void testCTCPBodyEndsAtFirstDelimiter() {
+        classifier.classify("\u0001PING 1\u0001 2\u0001", true);
+        assertEquals("PING", classifier.getType());
+        assertEquals("1", classifier.getBody());
+    }
+
+    @Test
+    public void testUnterminatedCTCPIsPlain() {
+        classifier.classify("\u0001VERSION", true);
+        assertEquals(Kind.PLAIN, classifier.getKind());
+    }
+
+    @Test
+    public void testClassifierIsReusable() {
+        classifier.classify("\u0001VERSION\u0001", true);
+        classifier.classify("plain", true);
+        assertEquals(Kind.PLAIN, classifier.getKind());
+        assertEquals("plain", classifier.getBody());
+    }
+
+}
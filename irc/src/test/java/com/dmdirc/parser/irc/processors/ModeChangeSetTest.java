@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.processors;
+
+import com.dmdirc.parser.common.ModeChange;
+import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.ModeManager;
+import com.dmdirc.parser.irc.PrefixModeManager;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ModeChangeSetTest {
+
+    private ModeChangeSet changeSet;
+
+    @Before
+    public void setUp() {
+        final PrefixModeManager prefixModeManager = new PrefixModeManager();
+        prefixModeManager.add('v', '+');
+        prefixModeManager.add('o', '@');
+        final ModeManager chanModeManager = new ModeManager();
+        chanModeManager.set("imnpst");
+        final Map<Character, Byte> other = new HashMap<>();
+        other.put('b', IRCParser.MODE_LIST);
+        other.put('l', (byte) 2);
+        other.put('k', (byte) (2 + IRCParser.MODE_UNSET));
+        changeSet = new ModeChangeSet(prefixModeManager, chanModeManager, other);
+    }
+
+    @Test
+    public void testClassifiesModes() {
+        changeSet.parse("+nbo-vX", "foo!*@*", "nick1", "nick2");
+
+        assertEquals(5, changeSet.size());
+        assertEquals(ModeChangeSet.TYPE_BOOLEAN, changeSet.getType(0));
+        assertEquals(ModeChangeSet.TYPE_LIST, changeSet.getType(1));
+        assertEquals(ModeChangeSet.TYPE_PREFIX, changeSet.getType(2));
+        assertEquals(ModeChangeSet.TYPE_PREFIX, changeSet.getType(3));
+        assertEquals(ModeChangeSet.TYPE_UNKNOWN, changeSet.getType(4));
+        assertTrue(changeSet.isAdding(2));
+        assertFalse(changeSet.isAdding(3));
+        assertEquals("foo!*@*", changeSet.getParam(1));
+        assertEquals("nick1", changeSet.getParam(2));
+        assertEquals("nick2", changeSet.getParam(3));
+        assertEquals("", changeSet.getParam(4));
+    }
+
+    @Test
+    public void testUnsetParameters() {
+        changeSet.parse("-lk+l", "key", "10");
+
+        assertEquals(3, changeSet.size());
+        assertEquals(-1, changeSet.getParamIndex(0));
+        assertEquals("key", changeSet.getParam(1));
+        assertEquals("10", changeSet.getParam(2));
+    }
+
+    @Test
+    public void testMissingParameter() {
+        changeSet.parse("+bn");
+
+        assertEquals(2, changeSet.size());
+        assertTrue(changeSet.isMissingParam(0));
+        assertFalse(changeSet.isMissingParam(1));
+        assertEquals(1, changeSet.toList().size());
+    }
+
+    @Test
+    public void testReuseReplacesContents() {
+        changeSet.parse("+imnpst");
+        changeSet.parse(":-o", "nick");
+
+        assertEquals(1, changeSet.size());
+        assertEquals('o', changeSet.getMode(0));
+        assertEquals("nick", changeSet.getParam(0));
+    }
+
+    @Test
+    public void testToList() {
+        final List<ModeChange> changes = changeSet.parse("+o-b", "nick", "foo!*@*").toList();
+
+        assertEquals(2, changes.size());
+        assertEquals(ModeChange.Type.PREFIX, changes.get(0).getType());
+        assertEquals("+o nick", changes.get(0).toString());
+        assertEquals(ModeChange.Type.LIST, changes.get(1).getType());
+        assertEquals("-b foo!*@*", changes.get(1).toString());
+    }
+
+}
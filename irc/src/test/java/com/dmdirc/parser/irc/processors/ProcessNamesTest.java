@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.processors;
+
+import com.dmdirc.parser.irc.IRCChannelClientInfo;
+import com.dmdirc.parser.irc.IRCChannelInfo;
+import com.dmdirc.parser.irc.IRCClientInfo;
+import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.PrefixModeManager;
+
+import java.time.LocalDateTime;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ProcessNamesTest {
+
+    private IRCParser parser;
+    private IRCChannelInfo channel;
+    private ProcessNames processor;
+
+    @Before
+    public void setup() {
+        final PrefixModeManager prefixModeManager = new PrefixModeManager();
+        prefixModeManager.add('v', '+');
+        prefixModeManager.add('o', '@');
+        parser = new IRCParser();
+        channel = new IRCChannelInfo(parser, prefixModeManager, null, null, "#test");
+        parser.addChannel(channel);
+        processor = new ProcessNames(parser);
+    }
+
+    @Test
+    public void testNamesAreNotAddedUntilEndOfNames() {
+        processor.process(LocalDateTime.now(), "353", ":server", "353", "me", "=", "#test",
+                "@op +voice user");
+        assertEquals(0, channel.getChannelClientCount());
+
+        processor.process(LocalDateTime.now(), "366", ":server", "366", "me", "#test",
+                "End of /NAMES list");
+        assertEquals(3, channel.getChannelClientCount());
+    }
+
+    @Test
+    public void testPrefixesAreConvertedToModes() {
+        processNames("@+op +voice user");
+
+        assertEquals("ov", channel.getChannelClient("op").getAllModes());
+        assertEquals("v", channel.getChannelClient("voice").getAllModes());
+        assertEquals("", channel.getChannelClient("user").getAllModes());
+    }
+
+    @Test
+    public void testMultipleRepliesAreCombined() {
+        processor.process(LocalDateTime.now(), "353", ":server", "353", "me", "=", "#test",
+                "one two");
+        processor.process(LocalDateTime.now(), "353", ":server", "353", "me", "=", "#test",
+                "three  four");
+        processor.process(LocalDateTime.now(), "366", ":server", "366", "me", "#test",
+                "End of /NAMES list");
+
+        assertEquals(4, channel.getChannelClientCount());
+        assertEquals(4, parser.knownClients());
+    }
+
+    @Test
+    public void testUhnamesUpdatesHosts() {
+        processNames("@nick!ident@host");
+
+        final IRCClientInfo client = channel.getChannelClient("nick").getClient();
+        assertEquals("nick", client.getNickname());
+        assertEquals("ident", client.getUsername());
+        assertEquals("host", client.getHostname());
+    }
+
+    @Test
+    public void testSecondReplyReplacesMembersAndReusesObjects() {
+        processNames("@one two three");
+        final IRCChannelClientInfo one = channel.getChannelClient("one");
+        final IRCClientInfo three = channel.getChannelClient("three").getClient();
+
+        processNames("one four");
+
+        assertEquals(2, channel.getChannelClientCount());
+        assertSame(one, channel.getChannelClient("one"));
+        assertEquals("", one.getAllModes());
+        assertNotNull(channel.getChannelClient("four"));
+        assertNull(channel.getChannelClient("three"));
+        assertFalse(three.checkVisibility());
+        assertFalse(parser.isKnownClient("three"));
+    }
+
+    private void processNames(final String names) {
+        processor.process(LocalDateTime.now(), "353", ":server", "353", "me", "=", "#test", names);
+        processor.process(LocalDateTime.now(), "366", ":server", "366", "me", "#test",
+                "End of /NAMES list");
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.processors;
+
+import com.dmdirc.parser.irc.IRCParser;
+import com.dmdirc.parser.irc.ModeManager;
+import com.dmdirc.parser.irc.PrefixModeManager;
+
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import dagger.Provides;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProcessorSetTest {
+
+    @Test
+    public void testMatchesProcessorsModule() {
+        final Set<Class<?>> provided = new HashSet<>();
+        for (Method method : ProcessorsModule.class.getMethods()) {
+            if (method.isAnnotationPresent(Provides.class)) {
+                provided.add(method.getParameterTypes()[0]);
+            }
+        }
+
+        final Set<Class<?>> created = new HashSet<>();
+        for (IRCProcessor processor : ProcessorSet.create(new IRCParser(),
+                new PrefixModeManager(), new ModeManager(), new ModeManager())) {
+            created.add(processor.getClass());
+        }
+
+        assertEquals(provided, created);
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2006-2017 DMDirc Developers
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.dmdirc.parser.irc.replay;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TrafficReplayTest {
+
+    private static final String TRAFFIC = ":server 001 nick :Welcome\r\n"
+            + ":server 005 nick NETWORK=Test PREFIX=(ov)@+ CHANMODES=b,k,l,imnpst :are supported\r\n"
+            + ":nick!user@host JOIN #test\r\n"
+            + ":server 353 nick = #test :nick @op\r\n"
+            + ":server 366 nick #test :End of /NAMES list\r\n"
+            + "@time=2016-01-01T00:00:00.000Z :op!user@host PRIVMSG #test :hello\r\n"
+            + "PING :server\r\n";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("traffic").toPath();
+        try (TrafficRecorder recorder = new TrafficRecorder(directory);
+                InputStream stream = recorder.wrap(
+                        new ByteArrayInputStream(TRAFFIC.getBytes(StandardCharsets.UTF_8)))) {
+            while (stream.read() != -1) {
+                // Drain
+            }
+        }
+    }
+
+    @Test
+    public void testReaderReturnsRecordedLines() throws IOException {
+        final TrafficReader.TrafficRecord record = new TrafficReader.TrafficRecord();
+        try (TrafficReader reader = new TrafficReader(directory)) {
+            assertTrue(reader.read(record));
+            assertEquals("001", record.getCommand());
+            assertEquals(":server 001 nick :Welcome\r\n",
+                    new String(record.getData(), 0, record.getLength(), StandardCharsets.UTF_8));
+
+            long previous = record.getTimestamp();
+            int lines = 1;
+            while (reader.read(record)) {
+                assertTrue(record.getTimestamp() >= previous);
+                previous = record.getTimestamp();
+                lines++;
+            }
+            assertEquals(7, lines);
+            assertEquals("PING", record.getCommand());
+        }
+    }
+
+    @Test
+    public void testSegmentsAreAppended() throws IOException {
+        try (TrafficRecorder recorder = new TrafficRecorder(directory)) {
+            final byte[] line = "PING :again\r\n".getBytes(StandardCharsets.UTF_8);
+            recorder.record(line, 0, line.length);
+        }
+
+        assertEquals(2, TrafficReader.findSegments(directory).size());
+        final TrafficReader.TrafficRecord record = new TrafficReader.TrafficRecord();
+        int lines = 0;
+        try (TrafficReader reader = new TrafficReader(directory)) {
+            while (reader.read(record)) {
+                lines++;
+            }
+        }
+        assertEquals(8, lines);
+    }
+
+    @Test
+    public void testRecordingFailureDoesNotBreakReads() throws IOException {
+        final Path missing = folder.newFolder("missing").toPath();
+        final List<IOException> failures = new ArrayList<>();
+        final ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try (TrafficRecorder recorder = new TrafficRecorder(missing)) {
+            Files.delete(missing);
+            try (InputStream stream = recorder.wrap(
+                    new ByteArrayInputStream(TRAFFIC.getBytes(StandardCharsets.UTF_8)),
+                    failures::add)) {
+                final byte[] buffer = new byte[16];
+                int count;
+                while ((count = stream.read(buffer, 0, buffer.length)) != -1) {
+                    read.write(buffer, 0, count);
+                }
+            }
+        }
+
+        assertEquals(TRAFFIC, new String(read.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(1, failures.size());
+    }
+
+    @Test
+    public void testReplayFeedsParser() throws IOException {
+        final TrafficReplay replay = new TrafficReplay(directory, TrafficReplay.AS_FAST_AS_POSSIBLE);
+        final ReplayReport report = replay.run();
+
+        assertEquals(7, report.getLines());
+        assertEquals(TRAFFIC.length(), report.getBytes());
+        assertEquals(1, report.getCommands().get("PRIVMSG").getCount());
+        assertEquals(1, report.getCommands().get("353").getCount());
+        assertTrue(report.getLinesPerSecond() > 0);
+        assertNotNull(report.toString());
+    }
+
+}